@@ -21,6 +21,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.Dictionary;
 import java.util.Hashtable;
@@ -42,6 +43,9 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Throwables;
 
 import de.tum.in.events.Events;
+import de.tum.in.events.record.Record;
+import de.tum.in.events.record.RecordSchema;
+import de.tum.in.events.record.SchemaRegistry;
 
 /**
  * Used to establish connection between the paired bluetooth device and Gateway
@@ -163,12 +167,13 @@ public final class BluetoothConnector implements Runnable {
 	/**
 	 * Publishes asynchronous events for caching
 	 */
-	private void doBroadcastEventForCaching(final String data) {
+	private void doBroadcastEventForCaching(final Object data) {
 		LOGGER.debug("Publishing Event for caching bluetooth data...");
 
 		final Dictionary<String, Object> properties = new Hashtable<>();
 		properties.put("data", data);
 		properties.put("timestamp", LocalDateTime.now());
+		properties.put("source", "bluetooth");
 		final Event event = new Event(Events.DATA_CACHE, properties);
 
 		s_eventAdmin.postEvent(event);
@@ -178,15 +183,30 @@ public final class BluetoothConnector implements Runnable {
 	}
 
 	/**
-	 * Publish the data to message broker
+	 * Parses the data and publishes the record to message broker. Data which
+	 * is not a valid record is published and cached as raw result.
 	 */
 	private void doPublish(final String data) throws KuraException {
-		this.doBroadcastEventForCaching(this.m_response);
+		Record record = null;
+		try {
+			record = SchemaRegistry.MILLING_MACHINE.parse(data);
+		} catch (final IllegalArgumentException e) {
+			LOGGER.warn("Publishing malformed record " + data + " as raw result: " + e.getMessage());
+		}
+		this.doBroadcastEventForCaching(record != null ? record : data);
 
 		LOGGER.debug("Publishing Bluetooth Data.....");
 
 		final KuraPayload payload = new KuraPayload();
-		payload.addMetric("result", data);
+		if (record != null) {
+			final RecordSchema schema = record.getSchema();
+			payload.addMetric("schema", schema.getName());
+			for (int i = 0; i < schema.getFieldCount(); i++) {
+				payload.addMetric(schema.getFieldName(i), record.getValue(i));
+			}
+		} else {
+			payload.addMetric("result", data);
+		}
 
 		// publishing for mobile client
 		LOGGER.debug("Publishing Bluetooth Data.....to Mobile Clients");
@@ -194,7 +214,8 @@ public final class BluetoothConnector implements Runnable {
 
 		// publishing for Splunk
 		LOGGER.debug("Publishing Bluetooth Data.....to Splunk");
-		s_cloudClient.controlPublish("splunk", s_topic, data.getBytes(), 0, false, 5);
+		s_cloudClient.controlPublish("splunk", s_topic,
+				(record != null ? record.toString() : data).getBytes(StandardCharsets.UTF_8), 0, false, 5);
 
 		LOGGER.debug("Publishing Bluetooth Data.....Done");
 	}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Summary of the numeric samples of a source within a time bucket
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class Bucket {
+
+	private final double m_average;
+	private final int m_count;
+	private final double m_max;
+	private final double m_min;
+
+	/**
+	 * Start of the bucket in epoch milliseconds
+	 */
+	private final long m_start;
+
+	public Bucket(final long start, final int count, final double min, final double max, final double average) {
+		this.m_start = start;
+		this.m_count = count;
+		this.m_min = min;
+		this.m_max = max;
+		this.m_average = average;
+	}
+
+	public double getAverage() {
+		return this.m_average;
+	}
+
+	public int getCount() {
+		return this.m_count;
+	}
+
+	public double getMax() {
+		return this.m_max;
+	}
+
+	public double getMin() {
+		return this.m_min;
+	}
+
+	public long getStart() {
+		return this.m_start;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this).add("start", this.m_start).add("count", this.m_count)
+				.add("min", this.m_min).add("max", this.m_max).add("average", this.m_average).toString();
+	}
+}
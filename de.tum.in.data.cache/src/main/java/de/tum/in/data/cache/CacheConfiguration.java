@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+
+/**
+ * Sizing and eviction configuration of the {@link DataCache}, read from the
+ * configuration properties of the component
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class CacheConfiguration {
+
+	/**
+	 * Decides when samples leave the memory
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * Samples are kept until they are displaced by newer samples of their
+		 * source once its buffer is full, the retention time is ignored
+		 */
+		CAPACITY_ONLY,
+		/**
+		 * Samples are evicted once they exceed the retention time or are
+		 * displaced by newer samples of their source
+		 */
+		TIME_WINDOW,
+		/**
+		 * Like {@link #TIME_WINDOW}, but the evicted numeric samples are stored
+		 * as averages per downsampling interval
+		 */
+		DOWNSAMPLE
+	}
+
+	/**
+	 * Configurable property to set the interval in seconds the evicted samples
+	 * are averaged over by the {@link EvictionPolicy#DOWNSAMPLE} policy
+	 */
+	public static final String DOWNSAMPLE_INTERVAL = "de.tum.in.realtime.data.cache.downsample.interval";
+
+	/**
+	 * Configurable property to set the {@link EvictionPolicy}
+	 */
+	public static final String EVICTION = "de.tum.in.realtime.data.cache.eviction";
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheConfiguration.class);
+
+	/**
+	 * Upper bound of the number of samples kept in memory per source
+	 */
+	public static final int MAX_SAMPLES = 10_000_000;
+
+	/**
+	 * Upper bound of the memory in KiB for the string samples of a source
+	 */
+	public static final int MAX_STRING_SIZE = 1024 * 1024;
+
+	/**
+	 * Configurable property to set the memory in KiB all sources may use
+	 * together, the least recently used source is moved to disk if a new
+	 * source exceeds it
+	 */
+	public static final String MEMORY_SIZE = "de.tum.in.realtime.data.cache.memory.size";
+
+	/**
+	 * Configurable property to set the number of samples of particular
+	 * sources as comma separated {@code source=samples} pairs
+	 */
+	public static final String QUOTAS = "de.tum.in.realtime.data.cache.quotas";
+
+	/**
+	 * Configurable property to set the time in minutes samples are kept in
+	 * memory
+	 */
+	public static final String RETENTION = "de.tum.in.realtime.data.cache.retention";
+
+	/**
+	 * Configurable property to set the number of samples kept in memory per
+	 * source
+	 */
+	public static final String SAMPLES = "de.tum.in.realtime.data.cache.samples";
+
+	/**
+	 * Configurable property to set the memory in KiB for the string samples
+	 * of a source
+	 */
+	public static final String STRING_SIZE = "de.tum.in.realtime.data.cache.string.size";
+
+	/**
+	 * Returns the eviction policy of the name, {@link EvictionPolicy#TIME_WINDOW}
+	 * if it is missing or unknown. The former name {@code LRU} of
+	 * {@link EvictionPolicy#CAPACITY_ONLY} is still accepted.
+	 */
+	private static EvictionPolicy evictionPolicy(final Object value) {
+		final EvictionPolicy defaultValue = EvictionPolicy.TIME_WINDOW;
+		if (value == null) {
+			return defaultValue;
+		}
+		final String name = value.toString().trim();
+		if ("LRU".equals(name)) {
+			LOGGER.warn("Eviction policy LRU has been renamed to " + EvictionPolicy.CAPACITY_ONLY);
+			return EvictionPolicy.CAPACITY_ONLY;
+		}
+		try {
+			return EvictionPolicy.valueOf(name);
+		} catch (final IllegalArgumentException e) {
+			LOGGER.warn("Ignoring unknown " + EVICTION + " " + name + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the integer property or the default value if it is missing or
+	 * malformed, limited to the given range
+	 */
+	private static int intProperty(final Map<String, Object> properties, final String name, final int defaultValue,
+			final int min, final int max) {
+		final Object value = properties.get(name);
+		int parsed = defaultValue;
+		if (value instanceof Number) {
+			parsed = ((Number) value).intValue();
+		} else if (value != null) {
+			try {
+				parsed = Integer.parseInt(value.toString().trim());
+			} catch (final NumberFormatException e) {
+				LOGGER.warn("Ignoring malformed " + name + " " + value + ", using " + defaultValue);
+			}
+		}
+		if ((parsed < min) || (parsed > max)) {
+			LOGGER.warn("Limiting " + name + " of " + parsed + " to the range " + min + " to " + max);
+			return Math.min(max, Math.max(min, parsed));
+		}
+		return parsed;
+	}
+
+	/**
+	 * Parses the {@code source=samples} pairs, the quotas are ignored if they
+	 * are malformed
+	 */
+	private static Map<String, Integer> parseQuotas(final Object quotas) {
+		final Map<String, Integer> parsed = new HashMap<>();
+		if ((quotas == null) || quotas.toString().trim().isEmpty()) {
+			return parsed;
+		}
+		try {
+			for (final Map.Entry<String, String> quota : Splitter.on(',').trimResults().omitEmptyStrings()
+					.withKeyValueSeparator(Splitter.on('=').trimResults()).split(quotas.toString()).entrySet()) {
+				final int samples = Integer.parseInt(quota.getValue());
+				if (samples > MAX_SAMPLES) {
+					LOGGER.warn("Limiting the quota of " + quota.getKey() + " to " + MAX_SAMPLES + " samples");
+					parsed.put(quota.getKey(), MAX_SAMPLES);
+				} else if (samples > 0) {
+					parsed.put(quota.getKey(), samples);
+				}
+			}
+		} catch (final IllegalArgumentException e) {
+			LOGGER.warn("Ignoring malformed quotas " + quotas);
+			parsed.clear();
+		}
+		return parsed;
+	}
+
+	private final long m_downsampleInterval;
+	private final EvictionPolicy m_eviction;
+	private final long m_memorySize;
+	private final Map<String, Integer> m_quotas;
+	private final long m_retention;
+	private final int m_samples;
+	private final int m_stringSize;
+
+	/**
+	 * Reads the configuration from the component properties, missing and
+	 * malformed properties are set to their defaults
+	 */
+	public CacheConfiguration(final Map<String, Object> properties) {
+		final Map<String, Object> values = properties != null ? properties : Collections.<String, Object> emptyMap();
+		this.m_samples = intProperty(values, SAMPLES, 50000, 1, MAX_SAMPLES);
+		this.m_stringSize = intProperty(values, STRING_SIZE, 2048, 1, MAX_STRING_SIZE) * 1024;
+		this.m_memorySize = intProperty(values, MEMORY_SIZE, 16384, 1, Integer.MAX_VALUE) * 1024L;
+		this.m_retention = TimeUnit.MINUTES.toMillis(intProperty(values, RETENTION, 180, 0, Integer.MAX_VALUE));
+		this.m_downsampleInterval = TimeUnit.SECONDS.toMillis(intProperty(values, DOWNSAMPLE_INTERVAL, 60, 1,
+				Integer.MAX_VALUE));
+		this.m_eviction = evictionPolicy(values.get(EVICTION));
+		this.m_quotas = parseQuotas(values.get(QUOTAS));
+	}
+
+	/**
+	 * Returns the number of bytes the buffer of the source occupies
+	 */
+	public long getBufferSize(final String source) {
+		return (this.getSamples(source) * 24L) + this.m_stringSize;
+	}
+
+	/**
+	 * Returns the interval in milliseconds the evicted samples are averaged
+	 * over by the {@link EvictionPolicy#DOWNSAMPLE} policy
+	 */
+	public long getDownsampleInterval() {
+		return this.m_downsampleInterval;
+	}
+
+	public EvictionPolicy getEviction() {
+		return this.m_eviction;
+	}
+
+	/**
+	 * Returns the number of bytes all sources may use together
+	 */
+	public long getMemorySize() {
+		return this.m_memorySize;
+	}
+
+	/**
+	 * Returns the time in milliseconds samples are kept in memory, 0 to keep
+	 * them until they are displaced
+	 */
+	public long getRetention() {
+		return this.m_eviction == EvictionPolicy.CAPACITY_ONLY ? 0 : this.m_retention;
+	}
+
+	/**
+	 * Returns the number of samples kept in memory for the source
+	 */
+	public int getSamples(final String source) {
+		final Integer quota = this.m_quotas.get(source);
+		return quota != null ? quota : this.m_samples;
+	}
+
+	/**
+	 * Returns the number of bytes for the string samples of a source
+	 */
+	public int getStringSize() {
+		return this.m_stringSize;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this).add("samples", this.m_samples).add("stringSize", this.m_stringSize)
+				.add("memorySize", this.m_memorySize).add("quotas", this.m_quotas)
+				.add("retention", this.m_retention).add("eviction", this.m_eviction)
+				.add("downsampleInterval", this.m_downsampleInterval).toString();
+	}
+}
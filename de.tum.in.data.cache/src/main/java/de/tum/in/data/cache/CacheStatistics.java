@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Snapshot of the usage of the {@link DataCache}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class CacheStatistics {
+
+	/**
+	 * Number of samples dropped because the cache fell behind
+	 */
+	private final long m_dropped;
+
+	/**
+	 * Number of samples moved from memory to disk
+	 */
+	private final long m_evicted;
+
+	/**
+	 * Number of queries answered from memory
+	 */
+	private final long m_hits;
+
+	/**
+	 * Number of bytes of memory used by the sources
+	 */
+	private final long m_memory;
+
+	/**
+	 * Number of queries which had to read from disk
+	 */
+	private final long m_misses;
+
+	/**
+	 * Number of samples in memory
+	 */
+	private final long m_samples;
+
+	/**
+	 * Number of sources in memory
+	 */
+	private final int m_sources;
+
+	public CacheStatistics(final long hits, final long misses, final long evicted, final long dropped,
+			final int sources, final long samples, final long memory) {
+		this.m_hits = hits;
+		this.m_misses = misses;
+		this.m_evicted = evicted;
+		this.m_dropped = dropped;
+		this.m_sources = sources;
+		this.m_samples = samples;
+		this.m_memory = memory;
+	}
+
+	public long getDropped() {
+		return this.m_dropped;
+	}
+
+	public long getEvicted() {
+		return this.m_evicted;
+	}
+
+	public long getHits() {
+		return this.m_hits;
+	}
+
+	public long getMemory() {
+		return this.m_memory;
+	}
+
+	public long getMisses() {
+		return this.m_misses;
+	}
+
+	public long getSamples() {
+		return this.m_samples;
+	}
+
+	public int getSources() {
+		return this.m_sources;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this).add("hits", this.m_hits).add("misses", this.m_misses)
+				.add("evicted", this.m_evicted).add("dropped", this.m_dropped).add("sources", this.m_sources)
+				.add("samples", this.m_samples).add("memory", this.m_memory).toString();
+	}
+}
@@ -15,33 +15,295 @@
  *******************************************************************************/
 package de.tum.in.data.cache;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloud.CloudService;
+import org.eclipse.kura.cloud.Cloudlet;
+import org.eclipse.kura.cloud.CloudletTopic;
+import org.eclipse.kura.configuration.ConfigurableComponent;
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraRequestPayload;
+import org.eclipse.kura.message.KuraResponsePayload;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
 import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+import com.google.common.math.LongMath;
+import com.google.common.primitives.Doubles;
 
 import de.tum.in.events.Events;
+import de.tum.in.events.record.Record;
+import de.tum.in.events.record.RecordSchema;
 
 /**
- * OSGi Event Listener to cache the data in a Concurrent Map
+ * OSGi Event Listener to cache the data in a {@link TimeSeriesBuffer} per
+ * source. The source is taken from the {@code source} event property, numeric
+ * data is stored as number and any other data as string. The cached data is
+ * served through {@link RealtimeDataQueryService} and the following
+ * {@code GET} resources:
+ * <ul>
+ * <li>{@code sources}: the sources data has been cached for
+ * <li>{@code latest/<source>}: the latest sample of the source
+ * <li>{@code range/<source>}: the newest samples of the source between the
+ * {@code from} and {@code to} request metrics, at most {@code limit}
+ * <li>{@code downsampled/<source>}: the numeric samples of the source between
+ * {@code from} and {@code to} summarized per {@code bucket} milliseconds
+ * <li>{@code statistics}: the usage of the cache
+ * </ul>
+ * The time range defaults to the last ten minutes. Samples and buckets are
+ * returned as metrics suffixed with their index, e.g. {@code timestamp.0} and
+ * {@code value.0}.
+ * <p>
+ * Events are not cached on the delivering thread. They are handed over to a
+ * lock-free queue which is drained by a single writer thread, so that the
+ * producers never contend with each other or with the queries. If the writer
+ * falls behind by more than {@value #MAX_PENDING} events, further events are
+ * dropped until it caught up.
+ * <p>
+ * Samples evicted from memory are written to a {@link SegmentStore} below
+ * {@value #LOCATION} and kept for {@code HISTORY} milliseconds. The queries
+ * read the stored samples whenever the time range reaches back beyond the
+ * samples in memory. The samples in memory are stored as well when the
+ * component gets deactivated.
+ * <p>
+ * The memory per source, the memory of all sources and the eviction policy
+ * are configured through {@link CacheConfiguration}. A new configuration is
+ * applied by the writer thread, which copies the samples into buffers of the
+ * new size so that nothing gets lost. If a new source exceeds the memory of
+ * all sources, the samples of the least recently used source are moved to
+ * disk. Sources written within the last {@value #ACTIVE_SECONDS} seconds are
+ * never moved, so that sources being written cannot displace each other over
+ * and over. If only such sources are left, the samples of the new source are
+ * written to disk directly until memory gets available.
+ * <p>
+ * The numeric samples of a source are also summarized into rollups of
+ * {@value #ROLLUP_SECONDS} one second and {@value #ROLLUP_MINUTES} one minute
+ * buckets. The rollups of a source are created on its first downsampled query
+ * with a bucket size of whole seconds, filled with the samples in memory and
+ * from then on maintained on ingestion. A downsampled query whose start and
+ * bucket size are multiples of a rollup resolution reads the coarsest such
+ * rollup instead of the samples, only the parts of the time range the rollup
+ * does not cover are read from the samples. All rollups together use at most
+ * a quarter of the memory of all sources and are dropped together with the
+ * samples of a source moved to disk.
+ * <p>
+ * If the data of an event is a {@link Record}, the records of the source are
+ * cached in one {@link RecordBuffer}, which takes 8 bytes per field and
+ * record plus 8 bytes for the shared timestamp. Every field is queried as the
+ * numeric samples of the source {@code <source>/<field>}, e.g.
+ * {@code wifi/force_x}. If the record buffer of a new source does not fit
+ * into the memory, the record buffers of the sources being written are
+ * shrunk to an even share of the memory, but not below {@value #MIN_RECORDS}
+ * records. This way the records of dozens of machines are cached together.
  *
  * @author AMIT KUMAR MONDAL
  *
  */
 @Component(immediate = true, name = "de.tum.in.realtime.data.cache")
-@Service
-public class DataCache implements EventHandler {
+@Service(value = { EventHandler.class, RealtimeDataQueryService.class })
+@Property(name = EventConstants.EVENT_TOPIC, value = Events.DATA_CACHE)
+public class DataCache extends Cloudlet implements ConfigurableComponent, EventHandler, RealtimeDataQueryService {
+
+	/**
+	 * Summarizes the visited numeric samples and rollup buckets per bucket
+	 */
+	private static final class Downsampler implements RollupSeries.Visitor, TimeSeriesBuffer.Visitor {
+
+		private final List<Bucket> m_buckets = new ArrayList<>();
+		private final long m_bucketSize;
+		private int m_count;
+		private long m_current = -1;
+		private final long m_from;
+		private double m_max;
+		private double m_min;
+		private double m_sum;
+
+		private Downsampler(final long from, final long bucketSize) {
+			this.m_from = from;
+			this.m_bucketSize = bucketSize;
+		}
+
+		private void add(final long timestamp, final double value) {
+			this.visit(timestamp, 1, value, value, value);
+		}
+
+		private void flush() {
+			if (this.m_count > 0) {
+				this.m_buckets.add(new Bucket(this.m_from + (this.m_current * this.m_bucketSize), this.m_count,
+						this.m_min, this.m_max, this.m_sum / this.m_count));
+			}
+			this.m_count = 0;
+			this.m_sum = 0;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final double value) {
+			this.add(timestamp, value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long start, final int count, final double min, final double max,
+				final double sum) {
+			final long bucket = (start - this.m_from) / this.m_bucketSize;
+			if (bucket != this.m_current) {
+				this.flush();
+				this.m_current = bucket;
+				this.m_min = Double.POSITIVE_INFINITY;
+				this.m_max = Double.NEGATIVE_INFINITY;
+			}
+			this.m_count += count;
+			this.m_sum += sum;
+			this.m_min = Math.min(this.m_min, min);
+			this.m_max = Math.max(this.m_max, max);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final long value) {
+			this.add(timestamp, value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final String value) {
+			final Double number = Doubles.tryParse(value.trim());
+			if (number != null) {
+				this.add(timestamp, number);
+			}
+		}
+	}
+
+	/**
+	 * Event waiting to be cached by the writer thread
+	 */
+	private static final class PendingSample {
+
+		private final Object m_data;
+		private final String m_source;
+		private final long m_timestamp;
+
+		private PendingSample(final String source, final long timestamp, final Object data) {
+			this.m_source = source;
+			this.m_timestamp = timestamp;
+			this.m_data = data;
+		}
+	}
+
+	/**
+	 * Collects the visited samples
+	 */
+	private static final class SampleCollector implements TimeSeriesBuffer.Visitor {
+
+		private final List<Sample> m_samples = new ArrayList<>();
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final double value) {
+			this.m_samples.add(new Sample(timestamp, value));
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final long value) {
+			this.m_samples.add(new Sample(timestamp, value));
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final String value) {
+			this.m_samples.add(new Sample(timestamp, value));
+		}
+	}
+
+	/**
+	 * Time in seconds a source is kept in memory after it has been written
+	 */
+	private static final int ACTIVE_SECONDS = 5;
+
+	/**
+	 * Application Identifier
+	 */
+	private static final String APP_ID = "CACHE-V1";
+
+	/**
+	 * Default length of a bucket of a downsampled query in milliseconds
+	 */
+	private static final long DEFAULT_BUCKET = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Default maximum number of samples of a range query
+	 */
+	private static final int DEFAULT_LIMIT = 1000;
+
+	/**
+	 * Default length of the time range of a query in milliseconds
+	 */
+	private static final long DEFAULT_RANGE = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Interval the stored samples are compacted in milliseconds
+	 */
+	private static final long COMPACTION_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Interval the evicted samples are written to disk in milliseconds
+	 */
+	private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * Time the evicted samples are kept on disk
+	 */
+	private static final long HISTORY = TimeUnit.DAYS.toMillis(7);
+
+	/**
+	 * Directory the evicted samples are stored in
+	 */
+	public static final String LOCATION = "/home/pi/TUM/cache";
+
+	/**
+	 * Source of the events without source property
+	 */
+	public static final String DEFAULT_SOURCE = "default";
 
 	/**
 	 * Logger
@@ -49,45 +311,745 @@ public class DataCache implements EventHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DataCache.class);
 
 	/**
-	 * The cache to store data
+	 * Maximum number of events waiting for the writer thread
+	 */
+	public static final int MAX_PENDING = 10000;
+
+	/**
+	 * Time covered by a segment file of the evicted samples
+	 */
+	private static final long PARTITION = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * Minimum number of records of a record buffer shrunk to share the memory
+	 */
+	public static final int MIN_RECORDS = 1000;
+
+	/**
+	 * Number of one minute buckets summarizing the samples per source
+	 */
+	public static final int ROLLUP_MINUTES = 7 * 24 * 60;
+
+	/**
+	 * Number of one second buckets summarizing the samples per source
+	 */
+	public static final int ROLLUP_SECONDS = 60 * 60;
+
+	/**
+	 * Number of bytes the rollups of a source allocate off-heap
+	 */
+	private static final long ROLLUP_SIZE = RollupSeries.sizeOf(ROLLUP_MINUTES) + RollupSeries.sizeOf(ROLLUP_SECONDS);
+
+	/**
+	 * The rollups of all sources use at most this part of the memory of all
+	 * sources
+	 */
+	private static final int ROLLUP_SHARE = 4;
+
+	/**
+	 * Time the idle writer thread parks before checking for events again
 	 */
-	private Cache<String, Object> m_cache;
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
 	/**
-	 * Placeholder to store the data from the event properties
+	 * Copies the samples into the buffer, string samples exceeding its
+	 * capacity are written to the store
 	 */
-	private String m_realtimeData;
+	private static void copy(final TimeSeriesBuffer buffer, final TimeSeriesBuffer target, final SegmentStore store) {
+		buffer.forEach(Long.MIN_VALUE, Long.MAX_VALUE, new TimeSeriesBuffer.Visitor() {
+
+			/** {@inheritDoc} */
+			@Override
+			public void visit(final long timestamp, final double value) {
+				target.appendDouble(timestamp, value);
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			public void visit(final long timestamp, final long value) {
+				target.appendLong(timestamp, value);
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			public void visit(final long timestamp, final String value) {
+				if (!target.appendString(timestamp, value)) {
+					try {
+						store.append(target.getSource(), timestamp, value);
+					} catch (final IOException e) {
+						LOGGER.error("Failed to store the data of source " + target.getSource(), e);
+					}
+				}
+			}
+		});
+	}
 
 	/**
-	 * Placeholder to store the data timestamp name from the event properties
+	 * Adds the samples to the rollups, string samples are added if they hold
+	 * a number
 	 */
-	private String m_timestamp;
+	private static void fill(final SampleSeries series, final RollupSeries[] rollups) {
+		series.forEach(Long.MIN_VALUE, Long.MAX_VALUE, new TimeSeriesBuffer.Visitor() {
+
+			/** {@inheritDoc} */
+			@Override
+			public void visit(final long timestamp, final double value) {
+				for (final RollupSeries rollup : rollups) {
+					rollup.add(timestamp, value);
+				}
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			public void visit(final long timestamp, final long value) {
+				this.visit(timestamp, (double) value);
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			public void visit(final long timestamp, final String value) {
+				final Double number = Doubles.tryParse(value.trim());
+				if (number != null) {
+					this.visit(timestamp, number.doubleValue());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the interval the evicted samples are averaged over, 0 to store
+	 * every sample
+	 */
+	private static long downsampleInterval(final CacheConfiguration configuration) {
+		return configuration.getEviction() == CacheConfiguration.EvictionPolicy.DOWNSAMPLE
+				? configuration.getDownsampleInterval() : 0;
+	}
+
+	/**
+	 * Returns the numeric request metric or the default value if it is missing
+	 */
+	private static long longMetric(final KuraPayload payload, final String name, final long defaultValue) {
+		final Object value = payload.getMetric(name);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return value != null ? Long.parseLong(value.toString().trim()) : defaultValue;
+	}
+
+	/**
+	 * Converts the timestamp event property to epoch milliseconds, the current
+	 * time is used if the property is missing
+	 */
+	private static long toMillis(final Object timestamp) {
+		if (timestamp instanceof LocalDateTime) {
+			return ((LocalDateTime) timestamp).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+		if (timestamp instanceof Date) {
+			return ((Date) timestamp).getTime();
+		}
+		if (timestamp instanceof Number) {
+			return ((Number) timestamp).longValue();
+		}
+		if (timestamp instanceof String) {
+			return LocalDateTime.parse((String) timestamp).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Time the sources have been used last
+	 */
+	private final ConcurrentMap<String, AtomicLong> m_accessed = new ConcurrentHashMap<>();
+
+	/**
+	 * The configuration the buffers have been created with, only accessed by
+	 * the writer thread
+	 */
+	private CacheConfiguration m_applied;
+
+	/**
+	 * The time series buffers per source
+	 */
+	private ConcurrentMap<String, TimeSeriesBuffer> m_buffers;
+
+	/**
+	 * Eclipse Kura Cloud Service Dependency
+	 */
+	@Reference(bind = "bindCloudService", unbind = "unbindCloudService")
+	private volatile CloudService m_cloudService;
+
+	/**
+	 * The configuration to apply
+	 */
+	private volatile CacheConfiguration m_configuration;
+
+	/**
+	 * Number of events dropped because the writer thread fell behind
+	 */
+	private final AtomicLong m_dropped = new AtomicLong();
+
+	/**
+	 * Listener notified about the evicted samples
+	 */
+	private RemoveRealtimeDataListener m_evictionListener;
+
+	/**
+	 * Number of queries answered from memory
+	 */
+	private final AtomicLong m_hits = new AtomicLong();
+
+	/**
+	 * Executor flushing and compacting the evicted samples
+	 */
+	private ScheduledExecutorService m_maintenance;
+
+	/**
+	 * Number of queries which had to read from disk
+	 */
+	private final AtomicLong m_misses = new AtomicLong();
+
+	/**
+	 * Events waiting for the writer thread
+	 */
+	private final Queue<PendingSample> m_pending = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of events waiting for the writer thread
+	 */
+	private final AtomicInteger m_pendingCount = new AtomicInteger();
+
+	/**
+	 * The record buffers per source
+	 */
+	private ConcurrentMap<String, RecordBuffer> m_records;
+
+	/**
+	 * Number of samples moved to disk together with their least recently used
+	 * source
+	 */
+	private final AtomicLong m_released = new AtomicLong();
+
+	/**
+	 * The sources whose rollups have been asked for by a downsampled query
+	 */
+	private final Set<String> m_rollupRequests = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The rollups per source from the coarsest to the finest resolution
+	 */
+	private final ConcurrentMap<String, RollupSeries[]> m_rollups = new ConcurrentHashMap<>();
+
+	/**
+	 * Flag to stop the writer thread
+	 */
+	private volatile boolean m_running;
+
+	/**
+	 * The sources whose samples are written to disk directly as they do not
+	 * fit into the memory, only accessed by the writer thread
+	 */
+	private final Set<String> m_spilled = new HashSet<>();
+
+	/**
+	 * The evicted samples
+	 */
+	private SegmentStore m_store;
+
+	/**
+	 * The thread caching the events
+	 */
+	private volatile Thread m_writer;
+
+	/**
+	 * Executor running the writer thread
+	 */
+	private ExecutorService m_worker;
+
+	/**
+	 * Time in nanoseconds the sources in memory have been written last, only
+	 * accessed by the writer thread
+	 */
+	private final Map<String, Long> m_written = new HashMap<>();
+
+	/**
+	 * Constructor
+	 */
+	public DataCache() {
+		super(APP_ID);
+	}
 
 	/**
 	 * The callback while the component gets registered in the service registry
 	 */
 	@Activate
-	protected synchronized void activate(final ComponentContext componentContext) {
+	protected synchronized void activate(final ComponentContext componentContext,
+			final Map<String, Object> properties) {
 		LOGGER.info("Activating Caching Component...");
 
-		this.m_cache = CacheBuilder.newBuilder().concurrencyLevel(5).weakValues().maximumSize(50000)
-				.expireAfterWrite(3, TimeUnit.HOURS).removalListener(new RemoveRealtimeDataListener()).build();
+		this.m_configuration = this.m_applied = new CacheConfiguration(properties);
+		LOGGER.info("Caching with " + this.m_applied);
+		this.m_store = new SegmentStore(new File(LOCATION), PARTITION, HISTORY);
+		this.m_evictionListener = new RemoveRealtimeDataListener(this.m_store,
+				downsampleInterval(this.m_applied));
+		this.m_buffers = new ConcurrentHashMap<>();
+		this.m_records = new ConcurrentHashMap<>();
+		this.m_maintenance = Executors.newSingleThreadScheduledExecutor();
+		this.m_maintenance.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL,
+				TimeUnit.MILLISECONDS);
+		this.m_maintenance.scheduleWithFixedDelay(this::compact, COMPACTION_INTERVAL, COMPACTION_INTERVAL,
+				TimeUnit.MILLISECONDS);
+		this.m_running = true;
+		this.m_worker = Executors.newSingleThreadExecutor();
+		this.m_worker.execute(this::write);
+		super.setCloudService(this.m_cloudService);
+		super.activate(componentContext);
 
 		LOGGER.info("Activating Caching Component...Done");
 	}
 
+	/**
+	 * Records the use of the source at the given time in nanoseconds
+	 */
+	private void accessed(final String source, final long time) {
+		AtomicLong accessed = this.m_accessed.get(source);
+		if (accessed == null) {
+			final AtomicLong created = new AtomicLong();
+			accessed = this.m_accessed.putIfAbsent(source, created);
+			if (accessed == null) {
+				accessed = created;
+			}
+		}
+		accessed.lazySet(time);
+	}
+
+	/**
+	 * Kura Cloud Service Binding Callback
+	 */
+	public synchronized void bindCloudService(final CloudService cloudService) {
+		if (this.m_cloudService == null) {
+			super.setCloudService(this.m_cloudService = cloudService);
+		}
+	}
+
+	/**
+	 * Returns the buffer of the source, creating it if necessary, or
+	 * {@code null} if it does not fit into the memory
+	 */
+	private TimeSeriesBuffer buffer(final String source) {
+		TimeSeriesBuffer buffer = this.m_buffers.get(source);
+		if (buffer == null) {
+			final long size = this.m_applied.getBufferSize(source);
+			if (!this.release(size, TimeUnit.SECONDS.toNanos(ACTIVE_SECONDS))) {
+				this.shrink(size, this.m_records.size());
+			}
+			if (this.reserve(source, size)) {
+				buffer = this.newBuffer(source, this.m_applied);
+				this.m_buffers.put(source, buffer);
+				LOGGER.info("Created cache of source " + source + " holding " + buffer.getMemoryFootprint()
+						+ " bytes off-heap");
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Appends the sample to the buffer and the rollups of its source, the
+	 * sample is written to disk if the buffer does not fit into the memory
+	 */
+	private void cache(final String source, final long timestamp, final Object data) {
+		final TimeSeriesBuffer buffer = this.buffer(source);
+		if (buffer == null) {
+			this.m_evictionListener.onEviction(source, timestamp, data instanceof Number ? data : data.toString());
+			return;
+		}
+		this.written(source);
+		try {
+			if ((data instanceof Double) || (data instanceof Float)) {
+				buffer.appendDouble(timestamp, ((Number) data).doubleValue());
+			} else if (data instanceof Number) {
+				buffer.appendLong(timestamp, ((Number) data).longValue());
+			} else if (!buffer.appendString(timestamp, data.toString())) {
+				LOGGER.warn("Dropped data of source " + source + " exceeding the cache capacity");
+			}
+			this.rollup(source, timestamp, data);
+		} catch (final RuntimeException e) {
+			LOGGER.error("Failed to cache data of source " + source, e);
+		}
+	}
+
+	/**
+	 * Appends the record to the record buffer of its source and its fields to
+	 * their rollups, the fields are written to disk if the buffer does not fit
+	 * into the memory
+	 */
+	private void cacheRecord(final String source, final long timestamp, final Record record) {
+		final RecordSchema schema = record.getSchema();
+		final RecordBuffer buffer = this.records(source, schema);
+		if (buffer == null) {
+			for (int i = 0; i < schema.getFieldCount(); i++) {
+				this.m_evictionListener.onEviction(source + "/" + schema.getFieldName(i), timestamp,
+						schema.getFieldType(i).isDecimal() ? (Object) record.getDouble(i) : record.getLong(i));
+			}
+			return;
+		}
+		this.written(source);
+		buffer.append(timestamp, record);
+		for (int i = 0; i < schema.getFieldCount(); i++) {
+			final RollupSeries[] rollups = this.m_rollups.get(buffer.getField(i).getSource());
+			if (rollups != null) {
+				for (final RollupSeries rollup : rollups) {
+					rollup.add(timestamp, record.getDouble(i));
+				}
+			}
+		}
+	}
+
 	/**
 	 * The callback while the component gets deregistered in the service
 	 * registry
 	 */
+	@Override
 	@Deactivate
 	protected synchronized void deactivate(final ComponentContext componentContext) {
 		LOGGER.info("Deactivating Caching Component...");
-		this.m_cache.cleanUp();
-		this.m_cache = null;
+		super.deactivate(componentContext);
+		this.m_running = false;
+		LockSupport.unpark(this.m_writer);
+		this.m_worker.shutdown();
+		this.m_maintenance.shutdown();
+		try {
+			this.m_worker.awaitTermination(5, TimeUnit.SECONDS);
+			this.m_maintenance.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.m_evictionListener.flush();
+			for (final TimeSeriesBuffer buffer : this.m_buffers.values()) {
+				this.m_store.append(buffer);
+			}
+			for (final RecordBuffer records : this.m_records.values()) {
+				for (int i = 0; i < records.getSchema().getFieldCount(); i++) {
+					this.m_store.append(records.getField(i));
+				}
+			}
+			this.m_store.close();
+		} catch (final IOException e) {
+			LOGGER.error("Failed to store the cached data", e);
+		}
+		this.m_buffers.clear();
+		this.m_records.clear();
+		this.m_rollups.clear();
 		LOGGER.info("Deactivating Caching Component...Done");
 	}
 
+	/**
+	 * Compacts the evicted samples
+	 */
+	private void compact() {
+		try {
+			this.m_store.compact();
+		} catch (final IOException e) {
+			LOGGER.error("Failed to compact the evicted data", e);
+		}
+	}
+
+	/**
+	 * Creates the requested rollups which fit into their share of the memory
+	 * and fills them with the samples in memory. Runs on the writer thread.
+	 */
+	private void createRollups() {
+		for (final String source : this.m_rollupRequests) {
+			this.m_rollupRequests.remove(source);
+			if ((this.series(source) == null) || this.m_rollups.containsKey(source)) {
+				continue;
+			}
+			if ((this.getRollupMemory() + ROLLUP_SIZE) > (this.m_applied.getMemorySize() / ROLLUP_SHARE)) {
+				LOGGER.debug("No memory left for the rollups of source " + source);
+				continue;
+			}
+			if (!this.release(ROLLUP_SIZE, TimeUnit.SECONDS.toNanos(ACTIVE_SECONDS))) {
+				this.shrink(ROLLUP_SIZE, this.m_records.size());
+				if (!this.release(ROLLUP_SIZE, TimeUnit.SECONDS.toNanos(ACTIVE_SECONDS))) {
+					LOGGER.debug("No memory left for the rollups of source " + source);
+					continue;
+				}
+			}
+			// the source may have been moved to disk to make room
+			final SampleSeries series = this.series(source);
+			if (series == null) {
+				continue;
+			}
+			try {
+				final RollupSeries[] rollups = new RollupSeries[] {
+						new RollupSeries(TimeUnit.MINUTES.toMillis(1), ROLLUP_MINUTES),
+						new RollupSeries(TimeUnit.SECONDS.toMillis(1), ROLLUP_SECONDS) };
+				fill(series, rollups);
+				this.m_rollups.put(source, rollups);
+				LOGGER.info("Created rollups of source " + source);
+			} catch (final RuntimeException | OutOfMemoryError e) {
+				LOGGER.error("Failed to create the rollups of source " + source, e);
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void doGet(final CloudletTopic reqTopic, final KuraRequestPayload reqPayload,
+			final KuraResponsePayload respPayload) throws KuraException {
+		final String[] resources = reqTopic.getResources();
+		if ("sources".equals(resources[0])) {
+			respPayload.addMetric("sources", Joiner.on(',').join(this.getSources()));
+			respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_OK);
+			return;
+		}
+		if ("statistics".equals(resources[0])) {
+			final CacheStatistics statistics = this.getStatistics();
+			respPayload.addMetric("hits", statistics.getHits());
+			respPayload.addMetric("misses", statistics.getMisses());
+			respPayload.addMetric("evicted", statistics.getEvicted());
+			respPayload.addMetric("dropped", statistics.getDropped());
+			respPayload.addMetric("sources", statistics.getSources());
+			respPayload.addMetric("samples", statistics.getSamples());
+			respPayload.addMetric("memory", statistics.getMemory());
+			respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_OK);
+			return;
+		}
+		if (resources.length < 2) {
+			respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_BAD_REQUEST);
+			return;
+		}
+
+		// The fields of records are cached as sources containing slashes
+		final String source = Joiner.on('/').join(Arrays.asList(resources).subList(1, resources.length));
+		try {
+			final long to = longMetric(reqPayload, "to", System.currentTimeMillis());
+			long from = longMetric(reqPayload, "from", to - DEFAULT_RANGE);
+
+			if ("latest".equals(resources[0])) {
+				final Sample sample = this.getLatest(source);
+				if (sample == null) {
+					respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_NOTFOUND);
+					return;
+				}
+				respPayload.addMetric("timestamp", sample.getTimestamp());
+				respPayload.addMetric("value", sample.getValue());
+			} else if ("range".equals(resources[0])) {
+				final int limit = (int) longMetric(reqPayload, "limit", DEFAULT_LIMIT);
+				final List<Sample> samples = this.getRange(source, from, to, limit);
+				respPayload.addMetric("count", samples.size());
+				for (int i = 0; i < samples.size(); i++) {
+					respPayload.addMetric("timestamp." + i, samples.get(i).getTimestamp());
+					respPayload.addMetric("value." + i, samples.get(i).getValue());
+				}
+			} else if ("downsampled".equals(resources[0])) {
+				final long bucketSize = longMetric(reqPayload, "bucket", DEFAULT_BUCKET);
+				if ((reqPayload.getMetric("from") == null) && (bucketSize > 0)) {
+					// Align the default start to the buckets so that the rollups are used
+					from = Math.floorDiv(from, bucketSize) * bucketSize;
+				}
+				final List<Bucket> buckets = this.getDownsampled(source, from, to, bucketSize);
+				respPayload.addMetric("count", buckets.size());
+				for (int i = 0; i < buckets.size(); i++) {
+					final Bucket bucket = buckets.get(i);
+					respPayload.addMetric("start." + i, bucket.getStart());
+					respPayload.addMetric("samples." + i, bucket.getCount());
+					respPayload.addMetric("min." + i, bucket.getMin());
+					respPayload.addMetric("max." + i, bucket.getMax());
+					respPayload.addMetric("average." + i, bucket.getAverage());
+				}
+			} else {
+				respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_NOTFOUND);
+				return;
+			}
+		} catch (final IllegalArgumentException e) {
+			respPayload.setExceptionMessage(e.getMessage());
+			respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_BAD_REQUEST);
+			return;
+		}
+		respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_OK);
+	}
+
+	/**
+	 * Summarizes the samples of the time range
+	 *
+	 * @return whether stored samples have been read
+	 */
+	private boolean downsample(final String source, final SampleSeries buffer, final long from, final long to,
+			final Downsampler downsampler) {
+		final boolean stored = this.isStored(buffer, from);
+		if (stored) {
+			try {
+				this.m_store.forEach(source, from, to, Integer.MAX_VALUE, downsampler);
+			} catch (final IOException e) {
+				LOGGER.error("Failed to read the stored data of source " + source, e);
+			}
+		}
+		if (buffer != null) {
+			buffer.forEach(from, to, downsampler);
+		}
+		return stored;
+	}
+
+	/**
+	 * Writes the evicted samples to disk
+	 */
+	private void flush() {
+		try {
+			this.m_store.flush();
+		} catch (final IOException e) {
+			LOGGER.error("Failed to write the evicted data", e);
+		}
+	}
+
+	/**
+	 * Returns the number of events dropped because the writer thread fell
+	 * behind
+	 */
+	public long getDropped() {
+		return this.m_dropped.get();
+	}
+
+	/**
+	 * Returns the cached samples of the source or {@code null} if nothing has
+	 * been received from it
+	 */
+	public TimeSeriesBuffer getBuffer(final String source) {
+		return this.m_buffers.get(source);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Bucket> getDownsampled(final String source, final long from, final long to, final long bucketSize) {
+		Preconditions.checkArgument(bucketSize > 0, "Bucket size must be positive");
+		final SampleSeries buffer = this.use(source);
+		final Downsampler downsampler = new Downsampler(from, bucketSize);
+		final RollupSeries rollup = this.rollup(source, from, to, bucketSize);
+		boolean stored;
+		if (rollup == null) {
+			if ((buffer != null) && ((bucketSize % TimeUnit.SECONDS.toMillis(1)) == 0)
+					&& !this.m_rollups.containsKey(source)) {
+				// the writer thread creates the rollups for the next queries
+				this.m_rollupRequests.add(source);
+			}
+			stored = this.downsample(source, buffer, from, to, downsampler);
+		} else {
+			// The samples before the first bucket covered by the rollup and
+			// after its last complete bucket are read from the samples
+			final long start = Math.max(from, from
+					+ (LongMath.divide(rollup.getCoverage() - from, bucketSize, RoundingMode.CEILING) * bucketSize));
+			final long end = Math.max(start,
+					Math.floorDiv(to + 1, rollup.getResolution()) * rollup.getResolution());
+			stored = (from < start) && this.downsample(source, buffer, from, Math.min(start - 1, to), downsampler);
+			if (start < end) {
+				rollup.forEach(start, end - 1, downsampler);
+			}
+			if (end <= to) {
+				stored |= this.downsample(source, buffer, end, to, downsampler);
+			}
+		}
+		(stored ? this.m_misses : this.m_hits).incrementAndGet();
+		downsampler.flush();
+		return downsampler.m_buckets;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Sample getLatest(final String source) {
+		final SampleSeries buffer = this.use(source);
+		final SampleCollector collector = new SampleCollector();
+		if ((buffer == null) || !buffer.visitNewest(collector)) {
+			this.m_misses.incrementAndGet();
+			try {
+				this.m_store.forEach(source, Long.MIN_VALUE, Long.MAX_VALUE, 1, collector);
+			} catch (final IOException e) {
+				LOGGER.error("Failed to read the stored data of source " + source, e);
+			}
+		} else {
+			this.m_hits.incrementAndGet();
+		}
+		return collector.m_samples.isEmpty() ? null : collector.m_samples.get(0);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Sample> getRange(final String source, final long from, final long to, final int limit) {
+		final SampleSeries buffer = this.use(source);
+		final SampleCollector collector = new SampleCollector();
+		final int cached = buffer != null ? buffer.count(from, to) : 0;
+		if ((cached < limit) && this.isStored(buffer, from)) {
+			this.m_misses.incrementAndGet();
+			try {
+				this.m_store.forEach(source, from, to, limit - cached, collector);
+			} catch (final IOException e) {
+				LOGGER.error("Failed to read the stored data of source " + source, e);
+			}
+		} else {
+			this.m_hits.incrementAndGet();
+		}
+		if (buffer != null) {
+			buffer.forEach(from, to, limit, collector);
+		}
+		return collector.m_samples;
+	}
+
+	/**
+	 * Returns the number of off-heap bytes allocated by the buffers
+	 */
+	private long getBufferMemory() {
+		long memory = 0;
+		for (final TimeSeriesBuffer buffer : this.m_buffers.values()) {
+			memory += buffer.getMemoryFootprint();
+		}
+		for (final RecordBuffer records : this.m_records.values()) {
+			memory += records.getMemoryFootprint();
+		}
+		return memory;
+	}
+
+	/**
+	 * Returns the number of off-heap bytes allocated by the rollups
+	 */
+	private long getRollupMemory() {
+		long memory = 0;
+		for (final RollupSeries[] rollups : this.m_rollups.values()) {
+			for (final RollupSeries rollup : rollups) {
+				memory += rollup.getMemoryFootprint();
+			}
+		}
+		return memory;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<String> getSources() {
+		final Set<String> sources = new HashSet<>(this.m_buffers.keySet());
+		for (final RecordBuffer records : this.m_records.values()) {
+			for (int i = 0; i < records.getSchema().getFieldCount(); i++) {
+				sources.add(records.getField(i).getSource());
+			}
+		}
+		sources.addAll(this.m_store.getSources());
+		return sources;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public CacheStatistics getStatistics() {
+		int sources = this.m_buffers.size();
+		long samples = 0;
+		for (final TimeSeriesBuffer buffer : this.m_buffers.values()) {
+			samples += buffer.size();
+		}
+		for (final RecordBuffer records : this.m_records.values()) {
+			sources += records.getSchema().getFieldCount();
+			samples += records.size() * (long) records.getSchema().getFieldCount();
+		}
+		return new CacheStatistics(this.m_hits.get(), this.m_misses.get(),
+				this.m_evictionListener.getEvicted() + this.m_released.get(), this.m_dropped.get(), sources,
+				samples, this.getBufferMemory() + this.getRollupMemory());
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void handleEvent(final Event event) {
@@ -98,13 +1060,396 @@ public class DataCache implements EventHandler {
 			LOGGER.debug("Cache Event Handler caching....");
 
 			// Extract all the event properties
-			this.m_timestamp = (String) event.getProperty("timestamp");
-			this.m_realtimeData = (String) event.getProperty("data");
+			final Object source = event.getProperty("source");
+			final long timestamp = toMillis(event.getProperty("timestamp"));
+			final Object data = event.getProperty("data");
+			if (data == null) {
+				return;
+			}
 
-			// Now put the data in the cache
-			this.m_cache.put(this.m_timestamp, this.m_realtimeData);
+			// Now hand the data over to the writer thread
+			if (this.m_pendingCount.incrementAndGet() > MAX_PENDING) {
+				this.m_pendingCount.decrementAndGet();
+				if ((this.m_dropped.incrementAndGet() % MAX_PENDING) == 1) {
+					LOGGER.warn("Dropping data, the cache writer fell behind");
+				}
+				return;
+			}
+			this.m_pending.offer(
+					new PendingSample(source != null ? source.toString() : DEFAULT_SOURCE, timestamp, data));
+			LockSupport.unpark(this.m_writer);
 
 			LOGGER.debug("Cache Event Handler Caching...done");
 		}
 	}
+
+	/**
+	 * Checks whether the time range reaches back beyond the samples in memory
+	 */
+	private boolean isStored(final SampleSeries buffer, final long from) {
+		return (buffer == null) || (buffer.size() == 0) || (from <= buffer.getOldestTimestamp());
+	}
+
+	private TimeSeriesBuffer newBuffer(final String source, final CacheConfiguration configuration) {
+		return new TimeSeriesBuffer(source, configuration.getSamples(source), configuration.getStringSize(),
+				configuration.getRetention(), this.m_evictionListener);
+	}
+
+	private RecordBuffer newRecordBuffer(final String source, final RecordSchema schema, final int capacity,
+			final CacheConfiguration configuration) {
+		return new RecordBuffer(source, schema, capacity, configuration.getRetention(), this.m_evictionListener);
+	}
+
+	/**
+	 * Replaces the buffers by buffers of the new configuration, runs on the
+	 * writer thread
+	 */
+	private void reconfigure(final CacheConfiguration configuration) {
+		LOGGER.info("Caching with " + configuration);
+		for (final Map.Entry<String, TimeSeriesBuffer> entry : this.m_buffers.entrySet()) {
+			try {
+				final TimeSeriesBuffer buffer = this.newBuffer(entry.getKey(), configuration);
+				copy(entry.getValue(), buffer, this.m_store);
+				entry.setValue(buffer);
+			} catch (final RuntimeException | OutOfMemoryError e) {
+				LOGGER.error("Failed to resize the cache of source " + entry.getKey(), e);
+			}
+		}
+		for (final Map.Entry<String, RecordBuffer> entry : this.m_records.entrySet()) {
+			try {
+				final RecordBuffer buffer = this.newRecordBuffer(entry.getKey(), entry.getValue().getSchema(),
+						configuration.getSamples(entry.getKey()), configuration);
+				entry.getValue().copyTo(buffer);
+				entry.setValue(buffer);
+			} catch (final RuntimeException | OutOfMemoryError e) {
+				LOGGER.error("Failed to resize the cache of source " + entry.getKey(), e);
+			}
+		}
+		this.m_evictionListener.setInterval(downsampleInterval(configuration));
+		this.m_applied = configuration;
+		this.release(0, 0);
+	}
+
+	/**
+	 * Returns the record buffer of the source, creating it if necessary, or
+	 * {@code null} if it does not fit into the memory. The buffer of records
+	 * of another schema is moved to disk.
+	 */
+	private RecordBuffer records(final String source, final RecordSchema schema) {
+		RecordBuffer buffer = this.m_records.get(source);
+		if ((buffer != null) && !buffer.getSchema().equals(schema)) {
+			LOGGER.info("Moved the records of source " + source + " to disk, its schema changed to "
+					+ schema.getName());
+			this.remove(source);
+			buffer = null;
+		}
+		if (buffer == null) {
+			final int samples = this.m_applied.getSamples(source);
+			int capacity = samples;
+			if (!this.release(RecordBuffer.sizeOf(schema.getFieldCount(), samples),
+					TimeUnit.SECONDS.toNanos(ACTIVE_SECONDS))) {
+				capacity = (int) Math.min(samples, Math.max(MIN_RECORDS, this.shrink(0, this.m_records.size() + 1)
+						/ RecordBuffer.sizeOf(schema.getFieldCount(), 1)));
+			}
+			if (this.reserve(source, RecordBuffer.sizeOf(schema.getFieldCount(), capacity))) {
+				buffer = this.newRecordBuffer(source, schema, capacity, this.m_applied);
+				this.m_records.put(source, buffer);
+				LOGGER.info("Created cache of records of source " + source + " holding "
+						+ buffer.getMemoryFootprint() + " bytes off-heap");
+			}
+		}
+		return buffer;
+	}
+
+
+	/**
+	 * Returns the coarsest rollup of the source the downsampled query can be
+	 * answered from, or {@code null} if there is none
+	 */
+	private RollupSeries rollup(final String source, final long from, final long to, final long bucketSize) {
+		final RollupSeries[] rollups = this.m_rollups.get(source);
+		if (rollups != null) {
+			for (final RollupSeries rollup : rollups) {
+				final long resolution = rollup.getResolution();
+				if (((bucketSize % resolution) == 0) && (Math.floorMod(from, resolution) == 0)
+						&& (rollup.getCoverage() <= to)) {
+					return rollup;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the numeric sample to the rollups of its source if it has rollups.
+	 * String samples are added if they hold a number.
+	 */
+	private void rollup(final String source, final long timestamp, final Object data) {
+		final RollupSeries[] rollups = this.m_rollups.get(source);
+		if (rollups == null) {
+			return;
+		}
+		final double value;
+		if (data instanceof Number) {
+			value = ((Number) data).doubleValue();
+		} else {
+			final Double number = Doubles.tryParse(data.toString().trim());
+			if (number == null) {
+				return;
+			}
+			value = number;
+		}
+		for (final RollupSeries rollup : rollups) {
+			rollup.add(timestamp, value);
+		}
+	}
+
+	/**
+	 * Moves the samples of the least recently used sources to disk and drops
+	 * their rollups until the given number of bytes fits into the memory of
+	 * all sources
+	 *
+	 * @param size
+	 *            the number of bytes to make room for
+	 * @param active
+	 *            the time in nanoseconds a source is not moved after it has
+	 *            been written
+	 * @return whether the bytes fit into the memory
+	 */
+	private boolean release(final long size, final long active) {
+		final long now = System.nanoTime();
+		long used = size + this.getBufferMemory() + this.getRollupMemory();
+		while (used > this.m_applied.getMemorySize()) {
+			String leastRecentlyUsed = null;
+			long accessed = Long.MAX_VALUE;
+			for (final String source : Sets.union(this.m_buffers.keySet(), this.m_records.keySet())) {
+				final Long written = this.m_written.get(source);
+				if ((written != null) && ((now - written) < active)) {
+					continue;
+				}
+				final AtomicLong time = this.m_accessed.get(source);
+				final long sourceAccessed = time != null ? time.get() : Long.MIN_VALUE;
+				if ((leastRecentlyUsed == null) || ((sourceAccessed - accessed) < 0)) {
+					leastRecentlyUsed = source;
+					accessed = sourceAccessed;
+				}
+			}
+			if (leastRecentlyUsed == null) {
+				return false;
+			}
+			used -= this.remove(leastRecentlyUsed);
+			LOGGER.info("Moved the data of the least recently used source " + leastRecentlyUsed + " to disk");
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the samples of the source to disk and drops its rollups
+	 *
+	 * @return the number of bytes released
+	 */
+	private long remove(final String source) {
+		final List<SampleSeries> series = new ArrayList<>();
+		final TimeSeriesBuffer buffer = this.m_buffers.get(source);
+		if (buffer != null) {
+			series.add(buffer);
+		}
+		final RecordBuffer records = this.m_records.get(source);
+		if (records != null) {
+			for (int i = 0; i < records.getSchema().getFieldCount(); i++) {
+				series.add(records.getField(i));
+			}
+		}
+		long released = 0;
+		for (final SampleSeries samples : series) {
+			try {
+				this.m_store.append(samples);
+			} catch (final IOException e) {
+				LOGGER.error("Failed to store the data of source " + samples.getSource(), e);
+			}
+			this.m_released.addAndGet(samples.size());
+			final RollupSeries[] rollups = this.m_rollups.remove(samples.getSource());
+			if (rollups != null) {
+				for (final RollupSeries rollup : rollups) {
+					released += rollup.getMemoryFootprint();
+				}
+			}
+		}
+		if (this.m_buffers.remove(source) != null) {
+			released += buffer.getMemoryFootprint();
+		}
+		if (this.m_records.remove(source) != null) {
+			released += records.getMemoryFootprint();
+		}
+		this.m_written.remove(source);
+		return released;
+	}
+
+	/**
+	 * Makes room for a new buffer of the source
+	 *
+	 * @return whether the buffer fits into the memory
+	 */
+	private boolean reserve(final String source, final long size) {
+		if (this.release(size, TimeUnit.SECONDS.toNanos(ACTIVE_SECONDS))) {
+			this.m_spilled.remove(source);
+			return true;
+		}
+		if (this.m_spilled.add(source)) {
+			LOGGER.warn("Writing the data of source " + source
+					+ " to disk, the memory is taken by the sources being written");
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the samples of the source in memory or {@code null} if there are
+	 * none, the fields of records are looked up as {@code <source>/<field>}
+	 */
+	private SampleSeries series(final String source) {
+		final TimeSeriesBuffer buffer = this.m_buffers.get(source);
+		if (buffer != null) {
+			return buffer;
+		}
+		final int slash = source.lastIndexOf('/');
+		if (slash > 0) {
+			final RecordBuffer records = this.m_records.get(source.substring(0, slash));
+			if (records != null) {
+				return records.getField(source.substring(slash + 1));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Used to be called when configurations will get updated
+	 */
+	@Modified
+	public void updated(final Map<String, Object> properties) {
+		LOGGER.info("Updating Caching Component...");
+
+		try {
+			this.m_configuration = new CacheConfiguration(properties);
+			LockSupport.unpark(this.m_writer);
+		} catch (final IllegalArgumentException e) {
+			LOGGER.error(Throwables.getStackTraceAsString(e));
+		}
+		LOGGER.info("Updating Caching Component...Done");
+	}
+
+	/**
+	 * Returns the samples of the source or {@code null} if the source is not
+	 * in memory, recording the use of the source
+	 */
+	private SampleSeries use(final String source) {
+		final SampleSeries series = this.series(source);
+		if (series != null) {
+			// the fields of records are used together with their records
+			this.accessed(this.m_buffers.containsKey(source) ? source : source.substring(0, source.lastIndexOf('/')),
+					System.nanoTime());
+		}
+		return series;
+	}
+
+	/**
+	 * Appends the pending events to the buffers of their sources until the
+	 * component gets deactivated. This is the only thread writing to the
+	 * buffers and applying new configurations.
+	 */
+	private void write() {
+		this.m_writer = Thread.currentThread();
+		while (this.m_running || !this.m_pending.isEmpty()) {
+			final CacheConfiguration configuration = this.m_configuration;
+			if (configuration != this.m_applied) {
+				try {
+					this.reconfigure(configuration);
+				} catch (final RuntimeException | OutOfMemoryError e) {
+					LOGGER.error("Failed to apply " + configuration, e);
+					this.m_applied = configuration;
+				}
+			}
+			if (!this.m_rollupRequests.isEmpty()) {
+				this.createRollups();
+			}
+			final PendingSample sample = this.m_pending.poll();
+			if (sample == null) {
+				LockSupport.parkNanos(this, PARK_NANOS);
+				continue;
+			}
+			this.m_pendingCount.decrementAndGet();
+
+			// a failing sample, e.g. if the off-heap memory of a new buffer
+			// cannot be allocated, must not stop the writer thread
+			try {
+				if (sample.m_data instanceof Record) {
+					this.cacheRecord(sample.m_source, sample.m_timestamp, (Record) sample.m_data);
+				} else {
+					this.cache(sample.m_source, sample.m_timestamp, sample.m_data);
+				}
+			} catch (final RuntimeException | OutOfMemoryError e) {
+				LOGGER.error("Failed to cache data of source " + sample.m_source, e);
+			}
+		}
+	}
+
+	/**
+	 * Records the write of the source, which keeps the source in memory for
+	 * {@value #ACTIVE_SECONDS} seconds
+	 */
+	private void written(final String source) {
+		final long now = System.nanoTime();
+		this.m_written.put(source, now);
+		this.accessed(source, now);
+	}
+
+	/**
+	 * Shrinks the record buffers to an even share of the memory left by the
+	 * other buffers and the rollups, but not below {@value #MIN_RECORDS}
+	 * records
+	 *
+	 * @param size
+	 *            the number of bytes to leave for a new buffer besides the
+	 *            record buffers
+	 * @param count
+	 *            the number of record buffers sharing the memory, including a
+	 *            new one
+	 * @return the share of a record buffer in bytes
+	 */
+	private long shrink(final long size, final int count) {
+		if (count == 0) {
+			return 0;
+		}
+		long available = this.m_applied.getMemorySize() - this.getRollupMemory() - size;
+		for (final TimeSeriesBuffer buffer : this.m_buffers.values()) {
+			available -= buffer.getMemoryFootprint();
+		}
+		final long share = Math.max(0, available / count);
+		for (final Map.Entry<String, RecordBuffer> entry : this.m_records.entrySet()) {
+			final RecordBuffer records = entry.getValue();
+			final int capacity = (int) Math.max(MIN_RECORDS,
+					share / RecordBuffer.sizeOf(records.getSchema().getFieldCount(), 1));
+			if (capacity < records.getCapacity()) {
+				try {
+					final RecordBuffer buffer = this.newRecordBuffer(entry.getKey(), records.getSchema(), capacity,
+							this.m_applied);
+					records.copyTo(buffer);
+					entry.setValue(buffer);
+					LOGGER.info("Shrunk the cache of records of source " + entry.getKey() + " to " + capacity
+							+ " records");
+				} catch (final RuntimeException | OutOfMemoryError e) {
+					LOGGER.error("Failed to shrink the cache of source " + entry.getKey(), e);
+				}
+			}
+		}
+		return share;
+	}
+
+	/**
+	 * Kura Cloud Service Callback while deregistering
+	 */
+	public synchronized void unbindCloudService(final CloudService cloudService) {
+		if (this.m_cloudService == cloudService) {
+			super.setCloudService(this.m_cloudService = null);
+		}
+	}
 }
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Used to query the realtime data cached per source
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public interface RealtimeDataQueryService {
+
+	/**
+	 * Used to retrieve the numeric samples of a source summarized per time
+	 * bucket. String samples holding a number are included.
+	 *
+	 * @param source
+	 *            the source of the samples
+	 * @param from
+	 *            the start of the time range in epoch milliseconds, inclusive
+	 * @param to
+	 *            the end of the time range in epoch milliseconds, inclusive
+	 * @param bucketSize
+	 *            the length of a bucket in milliseconds, buckets start at
+	 *            {@code from}
+	 * @return the buckets holding samples in time order
+	 */
+	public List<Bucket> getDownsampled(String source, long from, long to, long bucketSize);
+
+	/**
+	 * Used to retrieve the latest sample of a source
+	 *
+	 * @param source
+	 *            the source of the sample
+	 * @return the sample or {@code null} if none is cached
+	 */
+	public Sample getLatest(String source);
+
+	/**
+	 * Used to retrieve the newest samples of a source within a time range
+	 *
+	 * @param source
+	 *            the source of the samples
+	 * @param from
+	 *            the start of the time range in epoch milliseconds, inclusive
+	 * @param to
+	 *            the end of the time range in epoch milliseconds, inclusive
+	 * @param limit
+	 *            the maximum number of samples
+	 * @return the samples in time order
+	 */
+	public List<Sample> getRange(String source, long from, long to, int limit);
+
+	/**
+	 * Used to retrieve the sources data has been cached for
+	 *
+	 * @return the sources
+	 */
+	public Set<String> getSources();
+
+	/**
+	 * Used to retrieve the usage of the cache
+	 *
+	 * @return the statistics since the cache has been activated
+	 */
+	public CacheStatistics getStatistics();
+
+}
@@ -0,0 +1,446 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+
+import de.tum.in.data.cache.TimeSeriesBuffer.EvictionListener;
+import de.tum.in.data.cache.TimeSeriesBuffer.Visitor;
+import de.tum.in.events.record.Record;
+import de.tum.in.events.record.RecordSchema;
+
+/**
+ * Time indexed ring buffer holding the records of a single source off-heap.
+ * The records are stored in columns of one direct buffer, the first column
+ * holds the timestamps and every further column the values of a field, so
+ * that a record takes 8 bytes per field plus 8 bytes for the shared
+ * timestamp. Decimal fields are stored as doubles and all other fields as
+ * longs. Every field is read as {@link SampleSeries} of the source
+ * {@code <source>/<field>}, e.g. {@code wifi/force_x}. Like in a
+ * {@link TimeSeriesBuffer} the records are kept in timestamp order and the
+ * oldest records are evicted once the buffer is full or the records exceed
+ * the retention time.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class RecordBuffer {
+
+	/**
+	 * The samples of a field of the records
+	 */
+	private final class Field implements SampleSeries {
+
+		private final int m_index;
+		private final String m_source;
+
+		private Field(final int index) {
+			this.m_index = index;
+			this.m_source = RecordBuffer.this.m_source + "/" + RecordBuffer.this.m_schema.getFieldName(index);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int count(final long from, final long to) {
+			return RecordBuffer.this.count(from, to);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int forEach(final long from, final long to, final int limit, final Visitor visitor) {
+			return RecordBuffer.this.forEach(this.m_index, from, to, limit, visitor);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int forEach(final long from, final long to, final Visitor visitor) {
+			return this.forEach(from, to, Integer.MAX_VALUE, visitor);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public long getOldestTimestamp() {
+			return RecordBuffer.this.getOldestTimestamp();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String getSource() {
+			return this.m_source;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int size() {
+			return RecordBuffer.this.size();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean visitNewest(final Visitor visitor) {
+			return RecordBuffer.this.visitNewest(this.m_index, visitor);
+		}
+	}
+
+	/**
+	 * Size of a timestamp or value
+	 */
+	private static final int VALUE_SIZE = 8;
+
+	/**
+	 * Returns the number of bytes a buffer of the capacity allocates off-heap
+	 * for records of the given number of fields
+	 */
+	public static long sizeOf(final int fieldCount, final int capacity) {
+		return capacity * (long) VALUE_SIZE * (fieldCount + 1);
+	}
+
+	/**
+	 * Maximum number of records
+	 */
+	private final int m_capacity;
+
+	/**
+	 * The timestamp column followed by a column per field
+	 */
+	private final ByteBuffer m_columns;
+
+	/**
+	 * Whether the fields are stored as doubles
+	 */
+	private final boolean[] m_decimal;
+
+	private final Field[] m_fields;
+
+	/**
+	 * Slot of the oldest record
+	 */
+	private int m_head;
+
+	private final EvictionListener m_listener;
+
+	private final ReadWriteLock m_lock;
+
+	/**
+	 * Retention time in milliseconds, 0 to keep records until they are
+	 * displaced
+	 */
+	private final long m_retention;
+
+	private final RecordSchema m_schema;
+
+	/**
+	 * Number of records
+	 */
+	private int m_size;
+
+	private final String m_source;
+
+	/**
+	 * Creates a buffer
+	 *
+	 * @param source
+	 *            the source the records are received from
+	 * @param schema
+	 *            the schema of the records
+	 * @param capacity
+	 *            the maximum number of records
+	 * @param retention
+	 *            the time in milliseconds records are kept, 0 to keep them
+	 *            until they are displaced
+	 * @param listener
+	 *            the listener notified about the evicted samples of every
+	 *            field, may be {@code null}
+	 */
+	public RecordBuffer(final String source, final RecordSchema schema, final int capacity, final long retention,
+			final EvictionListener listener) {
+		Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+		Preconditions.checkArgument(sizeOf(schema.getFieldCount(), capacity) <= Integer.MAX_VALUE,
+				"Capacity is too large");
+		Preconditions.checkArgument(retention >= 0, "Retention must not be negative");
+		this.m_source = Preconditions.checkNotNull(source);
+		this.m_schema = schema;
+		this.m_capacity = capacity;
+		this.m_retention = retention;
+		this.m_listener = listener;
+		this.m_decimal = new boolean[schema.getFieldCount()];
+		this.m_fields = new Field[schema.getFieldCount()];
+		for (int i = 0; i < this.m_fields.length; i++) {
+			this.m_decimal[i] = schema.getFieldType(i).isDecimal();
+			this.m_fields[i] = new Field(i);
+		}
+		this.m_columns = ByteBuffer.allocateDirect((int) sizeOf(schema.getFieldCount(), capacity));
+		this.m_lock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Appends the record, which must be of the schema of the buffer
+	 */
+	public void append(final long timestamp, final Record record) {
+		Preconditions.checkArgument(this.m_schema.equals(record.getSchema()), "Record is not of schema %s",
+				this.m_schema.getName());
+		this.m_lock.writeLock().lock();
+		try {
+			final int slot = this.reserve(timestamp);
+			for (int i = 0; i < this.m_fields.length; i++) {
+				this.m_columns.putLong(this.offset(i + 1, slot),
+						this.m_decimal[i] ? Double.doubleToRawLongBits(record.getDouble(i)) : record.getLong(i));
+			}
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends all records to the target buffer, which must be of the same
+	 * schema
+	 */
+	public void copyTo(final RecordBuffer target) {
+		Preconditions.checkArgument(this.m_schema.equals(target.m_schema), "Buffer is not of schema %s",
+				this.m_schema.getName());
+		this.m_lock.readLock().lock();
+		target.m_lock.writeLock().lock();
+		try {
+			for (int i = 0; i < this.m_size; i++) {
+				final int slot = this.slot(i);
+				final int targetSlot = target.reserve(this.m_columns.getLong(this.offset(0, slot)));
+				for (int column = 1; column <= this.m_fields.length; column++) {
+					target.m_columns.putLong(target.offset(column, targetSlot),
+							this.m_columns.getLong(this.offset(column, slot)));
+				}
+			}
+		} finally {
+			target.m_lock.writeLock().unlock();
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of records within the time range
+	 *
+	 * @param from
+	 *            the start of the range in milliseconds, inclusive
+	 * @param to
+	 *            the end of the range in milliseconds, inclusive
+	 */
+	public int count(final long from, final long to) {
+		this.m_lock.readLock().lock();
+		try {
+			return Math.max(0, this.upperBound(to) - this.lowerBound(from));
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the oldest record. Runs with the write lock.
+	 */
+	private void evict() {
+		final int slot = this.slot(0);
+		if (this.m_listener != null) {
+			final long timestamp = this.m_columns.getLong(this.offset(0, slot));
+			for (int i = 0; i < this.m_fields.length; i++) {
+				this.m_listener.onEviction(this.m_fields[i].m_source, timestamp, this.value(i, slot));
+			}
+		}
+		this.m_head = (this.m_head + 1) % this.m_capacity;
+		this.m_size--;
+	}
+
+	private int forEach(final int field, final long from, final long to, final int limit, final Visitor visitor) {
+		Preconditions.checkArgument(limit >= 0, "Limit must not be negative");
+		this.m_lock.readLock().lock();
+		try {
+			final int end = this.upperBound(to);
+			final int start = Math.max(this.lowerBound(from), end - limit);
+			for (int i = start; i < end; i++) {
+				this.visit(field, this.slot(i), visitor);
+			}
+			return Math.max(0, end - start);
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return this.m_capacity;
+	}
+
+	/**
+	 * Returns the samples of the field at the given index
+	 */
+	public SampleSeries getField(final int index) {
+		return this.m_fields[index];
+	}
+
+	/**
+	 * Returns the samples of the field with the given name or {@code null} if
+	 * the schema has no such field
+	 */
+	public SampleSeries getField(final String name) {
+		final int index = this.m_schema.indexOf(name);
+		return index >= 0 ? this.m_fields[index] : null;
+	}
+
+	/**
+	 * Returns the number of off-heap bytes allocated by the buffer
+	 */
+	public long getMemoryFootprint() {
+		return this.m_columns.capacity();
+	}
+
+	/**
+	 * Returns the timestamp of the oldest record or {@link Long#MIN_VALUE} if
+	 * the buffer is empty
+	 */
+	public long getOldestTimestamp() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_size > 0 ? this.timestamp(0) : Long.MIN_VALUE;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	public RecordSchema getSchema() {
+		return this.m_schema;
+	}
+
+	public String getSource() {
+		return this.m_source;
+	}
+
+	/**
+	 * Returns the logical index of the first record not older than the
+	 * timestamp
+	 */
+	private int lowerBound(final long timestamp) {
+		int low = 0;
+		int high = this.m_size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (this.timestamp(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the offset of the value of the column in the slot, column 0
+	 * being the timestamps
+	 */
+	private int offset(final int column, final int slot) {
+		return ((column * this.m_capacity) + slot) * VALUE_SIZE;
+	}
+
+	/**
+	 * Evicts the records exceeding the retention time or the capacity and
+	 * writes the timestamp of a new record, a timestamp older than the newest
+	 * one is replaced by the newest one. Runs with the write lock.
+	 *
+	 * @return the slot of the new record
+	 */
+	private int reserve(final long timestamp) {
+		long time = timestamp;
+		if ((this.m_size > 0) && (time < this.timestamp(this.m_size - 1))) {
+			time = this.timestamp(this.m_size - 1);
+		}
+		if (this.m_retention > 0) {
+			while ((this.m_size > 0) && (this.timestamp(0) < (time - this.m_retention))) {
+				this.evict();
+			}
+		}
+		if (this.m_size == this.m_capacity) {
+			this.evict();
+		}
+		final int slot = this.slot(this.m_size++);
+		this.m_columns.putLong(this.offset(0, slot), time);
+		return slot;
+	}
+
+	public int size() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_size;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the slot of the record with the logical index, 0 being the
+	 * oldest record
+	 */
+	private int slot(final int index) {
+		return (this.m_head + index) % this.m_capacity;
+	}
+
+	private long timestamp(final int index) {
+		return this.m_columns.getLong(this.offset(0, this.slot(index)));
+	}
+
+	/**
+	 * Returns the logical index of the first record newer than the timestamp
+	 */
+	private int upperBound(final long timestamp) {
+		int low = 0;
+		int high = this.m_size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (this.timestamp(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private Object value(final int field, final int slot) {
+		final long bits = this.m_columns.getLong(this.offset(field + 1, slot));
+		return this.m_decimal[field] ? (Object) Double.longBitsToDouble(bits) : (Object) bits;
+	}
+
+	private void visit(final int field, final int slot, final Visitor visitor) {
+		final long timestamp = this.m_columns.getLong(this.offset(0, slot));
+		final long bits = this.m_columns.getLong(this.offset(field + 1, slot));
+		if (this.m_decimal[field]) {
+			visitor.visit(timestamp, Double.longBitsToDouble(bits));
+		} else {
+			visitor.visit(timestamp, bits);
+		}
+	}
+
+	private boolean visitNewest(final int field, final Visitor visitor) {
+		this.m_lock.readLock().lock();
+		try {
+			if (this.m_size == 0) {
+				return false;
+			}
+			this.visit(field, this.slot(this.m_size - 1), visitor);
+			return true;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+}
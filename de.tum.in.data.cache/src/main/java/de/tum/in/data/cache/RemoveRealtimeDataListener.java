@@ -15,22 +15,154 @@
  *******************************************************************************/
 package de.tum.in.data.cache;
 
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
 
 /**
- * Listener used to dump data locally in Controller (IoT Gateway)
+ * Listener used to dump data locally in Controller (IoT Gateway). The evicted
+ * samples are appended to a {@link SegmentStore} so that they remain
+ * queryable. With a downsampling interval, the numeric samples are stored as
+ * average per interval instead. Except for {@link #getEvicted()}, the
+ * listener must only be used by the thread evicting the samples.
  *
  * @author AMIT KUMAR MONDAL
  *
  */
-public final class RemoveRealtimeDataListener implements RemovalListener<String, Object> {
+public final class RemoveRealtimeDataListener implements TimeSeriesBuffer.EvictionListener {
+
+	/**
+	 * Numeric samples of a source within the current interval
+	 */
+	private static final class Average {
+
+		private int m_count;
+		private long m_start;
+		private double m_sum;
+	}
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(RemoveRealtimeDataListener.class);
+
+	/**
+	 * Averages per source, only accessed by the thread evicting the samples
+	 */
+	private final Map<String, Average> m_averages = new HashMap<>();
+
+	/**
+	 * Number of evicted samples
+	 */
+	private final AtomicLong m_evicted = new AtomicLong();
+
+	/**
+	 * Interval in milliseconds numeric samples are averaged over, 0 to store
+	 * every sample
+	 */
+	private long m_interval;
+
+	/**
+	 * The store the evicted samples are written to
+	 */
+	private final SegmentStore m_store;
+
+	/**
+	 * Constructor
+	 */
+	public RemoveRealtimeDataListener(final SegmentStore store) {
+		this(store, 0);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param interval
+	 *            the interval in milliseconds numeric samples are averaged
+	 *            over, 0 to store every sample
+	 */
+	public RemoveRealtimeDataListener(final SegmentStore store, final long interval) {
+		Preconditions.checkArgument(interval >= 0, "Interval must not be negative");
+		this.m_store = Preconditions.checkNotNull(store);
+		this.m_interval = interval;
+	}
+
+	/**
+	 * Stores the averages of the current intervals
+	 */
+	public void flush() {
+		for (final Map.Entry<String, Average> entry : this.m_averages.entrySet()) {
+			this.flush(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void flush(final String source, final Average average) {
+		if (average.m_count > 0) {
+			this.store(source, average.m_start, average.m_sum / average.m_count);
+			average.m_count = 0;
+			average.m_sum = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of evicted samples
+	 */
+	public long getEvicted() {
+		return this.m_evicted.get();
+	}
 
 	/** {@inheritDoc} */
 	@Override
-	public void onRemoval(final RemovalNotification<String, Object> notification) {
+	public void onEviction(final String source, final long timestamp, final Object value) {
+		this.m_evicted.incrementAndGet();
+		if (this.m_interval == 0) {
+			this.store(source, timestamp, value);
+			return;
+		}
+
+		Average average = this.m_averages.get(source);
+		if (average == null) {
+			this.m_averages.put(source, average = new Average());
+		}
+		if (!(value instanceof Number)) {
+			this.flush(source, average);
+			this.store(source, timestamp, value);
+			return;
+		}
+		final long start = Math.floorDiv(timestamp, this.m_interval) * this.m_interval;
+		if (start != average.m_start) {
+			this.flush(source, average);
+			average.m_start = start;
+		}
+		average.m_count++;
+		average.m_sum += ((Number) value).doubleValue();
+	}
+
+	/**
+	 * Changes the interval numeric samples are averaged over, storing the
+	 * averages of the current intervals
+	 *
+	 * @param interval
+	 *            the interval in milliseconds, 0 to store every sample
+	 */
+	public void setInterval(final long interval) {
+		Preconditions.checkArgument(interval >= 0, "Interval must not be negative");
+		this.flush();
+		this.m_interval = interval;
+	}
 
-		// TODO Log the data to local log file
+	private void store(final String source, final long timestamp, final Object value) {
+		try {
+			this.m_store.append(source, timestamp, value);
+		} catch (final IOException e) {
+			LOGGER.error("Failed to store the evicted data of source " + source, e);
+		}
 	}
 
 }
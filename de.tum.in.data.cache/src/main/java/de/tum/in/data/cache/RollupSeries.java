@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Ring buffer of fixed length time buckets summarizing the numeric samples of
+ * a single source off-heap. Every bucket holds the number, minimum, maximum
+ * and sum of the samples within its interval, so that adding a sample only
+ * updates the newest bucket or starts a new one. A sample older than the
+ * newest bucket is added to the newest bucket. The oldest bucket is evicted
+ * once the buffer is full.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class RollupSeries {
+
+	/**
+	 * Callback receiving the buckets of a time range in timestamp order
+	 */
+	public interface Visitor {
+
+		public void visit(long start, int count, double min, double max, double sum);
+	}
+
+	/**
+	 * Size of an entry: start, number, minimum, maximum and sum of the
+	 * samples
+	 */
+	private static final int ENTRY_SIZE = 36;
+
+	private static final int COUNT = 8;
+	private static final int MAX = 20;
+	private static final int MIN = 12;
+	private static final int START = 0;
+	private static final int SUM = 28;
+
+	/**
+	 * Returns the number of bytes a series of the capacity allocates off-heap
+	 */
+	public static long sizeOf(final int capacity) {
+		return capacity * (long) ENTRY_SIZE;
+	}
+
+	/**
+	 * Fixed size entries of the buckets
+	 */
+	private final ByteBuffer m_buckets;
+
+	/**
+	 * Maximum number of buckets
+	 */
+	private final int m_capacity;
+
+	/**
+	 * Slot of the oldest bucket
+	 */
+	private int m_head;
+
+	private final ReadWriteLock m_lock;
+
+	/**
+	 * Length of a bucket in milliseconds
+	 */
+	private final long m_resolution;
+
+	/**
+	 * Number of buckets
+	 */
+	private int m_size;
+
+	/**
+	 * Creates a series
+	 *
+	 * @param resolution
+	 *            the length of a bucket in milliseconds
+	 * @param capacity
+	 *            the maximum number of buckets
+	 */
+	public RollupSeries(final long resolution, final int capacity) {
+		Preconditions.checkArgument(resolution > 0, "Resolution must be positive");
+		Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+		Preconditions.checkArgument(capacity <= (Integer.MAX_VALUE / ENTRY_SIZE), "Capacity is too large");
+		this.m_resolution = resolution;
+		this.m_capacity = capacity;
+		this.m_buckets = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+		this.m_lock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Adds the sample to the bucket of its interval
+	 */
+	public void add(final long timestamp, final double value) {
+		this.m_lock.writeLock().lock();
+		try {
+			final long start = Math.floorDiv(timestamp, this.m_resolution) * this.m_resolution;
+			if ((this.m_size > 0) && (start <= this.start(this.m_size - 1))) {
+				final int entry = this.entry(this.m_size - 1);
+				this.m_buckets.putInt(entry + COUNT, this.m_buckets.getInt(entry + COUNT) + 1);
+				this.m_buckets.putDouble(entry + MIN, Math.min(this.m_buckets.getDouble(entry + MIN), value));
+				this.m_buckets.putDouble(entry + MAX, Math.max(this.m_buckets.getDouble(entry + MAX), value));
+				this.m_buckets.putDouble(entry + SUM, this.m_buckets.getDouble(entry + SUM) + value);
+				return;
+			}
+			if (this.m_size == this.m_capacity) {
+				this.m_head = (this.m_head + 1) % this.m_capacity;
+				this.m_size--;
+			}
+			final int entry = this.entry(this.m_size++);
+			this.m_buckets.putLong(entry + START, start);
+			this.m_buckets.putInt(entry + COUNT, 1);
+			this.m_buckets.putDouble(entry + MIN, value);
+			this.m_buckets.putDouble(entry + MAX, value);
+			this.m_buckets.putDouble(entry + SUM, value);
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	private int entry(final int index) {
+		return ((this.m_head + index) % this.m_capacity) * ENTRY_SIZE;
+	}
+
+	/**
+	 * Visits the buckets starting within the time range in timestamp order
+	 *
+	 * @param from
+	 *            the start of the range in milliseconds, inclusive
+	 * @param to
+	 *            the end of the range in milliseconds, inclusive
+	 * @return the number of visited buckets
+	 */
+	public int forEach(final long from, final long to, final Visitor visitor) {
+		this.m_lock.readLock().lock();
+		try {
+			int visited = 0;
+			for (int i = this.lowerBound(from); (i < this.m_size) && (this.start(i) <= to); i++) {
+				final int entry = this.entry(i);
+				visitor.visit(this.m_buckets.getLong(entry + START), this.m_buckets.getInt(entry + COUNT),
+						this.m_buckets.getDouble(entry + MIN), this.m_buckets.getDouble(entry + MAX),
+						this.m_buckets.getDouble(entry + SUM));
+				visited++;
+			}
+			return visited;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the time from which on the series summarizes every sample, which
+	 * excludes the oldest bucket as it may be incomplete, or
+	 * {@link Long#MAX_VALUE} if the series has no complete bucket yet
+	 */
+	public long getCoverage() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_size > 0 ? this.start(0) + this.m_resolution : Long.MAX_VALUE;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated off-heap
+	 */
+	public long getMemoryFootprint() {
+		return this.m_buckets.capacity();
+	}
+
+	public long getResolution() {
+		return this.m_resolution;
+	}
+
+	/**
+	 * Returns the index of the first bucket starting at or after the time
+	 */
+	private int lowerBound(final long time) {
+		int low = 0;
+		int high = this.m_size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (this.start(middle) < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of buckets
+	 */
+	public int size() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_size;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	private long start(final int index) {
+		return this.m_buckets.getLong(this.entry(index) + START);
+	}
+}
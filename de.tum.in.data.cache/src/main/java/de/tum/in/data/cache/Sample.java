@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A cached sample of a source
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class Sample {
+
+	/**
+	 * Time the sample has been received at in epoch milliseconds
+	 */
+	private final long m_timestamp;
+
+	/**
+	 * The value, a {@link Double}, {@link Long} or {@link String}
+	 */
+	private final Object m_value;
+
+	public Sample(final long timestamp, final Object value) {
+		this.m_timestamp = timestamp;
+		this.m_value = value;
+	}
+
+	public long getTimestamp() {
+		return this.m_timestamp;
+	}
+
+	public Object getValue() {
+		return this.m_value;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this).add("timestamp", this.m_timestamp).add("value", this.m_value)
+				.toString();
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import de.tum.in.data.cache.TimeSeriesBuffer.Visitor;
+
+/**
+ * Read access to the samples of a single source held in memory, either by a
+ * {@link TimeSeriesBuffer} or by a field of a {@link RecordBuffer}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public interface SampleSeries {
+
+	/**
+	 * Returns the number of samples within the time range
+	 *
+	 * @param from
+	 *            the start of the range in milliseconds, inclusive
+	 * @param to
+	 *            the end of the range in milliseconds, inclusive
+	 */
+	public int count(long from, long to);
+
+	/**
+	 * Passes the samples within the time range to the visitor in timestamp
+	 * order
+	 *
+	 * @return the number of samples visited
+	 */
+	public int forEach(long from, long to, Visitor visitor);
+
+	/**
+	 * Passes the newest samples within the time range to the visitor in
+	 * timestamp order
+	 *
+	 * @param limit
+	 *            the maximum number of samples to visit
+	 * @return the number of samples visited
+	 */
+	public int forEach(long from, long to, int limit, Visitor visitor);
+
+	/**
+	 * Returns the timestamp of the oldest sample or {@link Long#MIN_VALUE} if
+	 * there is none
+	 */
+	public long getOldestTimestamp();
+
+	/**
+	 * Returns the source the samples are received from
+	 */
+	public String getSource();
+
+	/**
+	 * Returns the number of samples
+	 */
+	public int size();
+
+	/**
+	 * Passes the newest sample to the visitor
+	 *
+	 * @return whether there has been a sample
+	 */
+	public boolean visitNewest(Visitor visitor);
+
+}
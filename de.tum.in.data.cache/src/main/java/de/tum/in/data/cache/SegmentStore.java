@@ -0,0 +1,832 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+
+import de.tum.in.data.cache.TimeSeriesBuffer.Visitor;
+
+/**
+ * Append-only store of the samples evicted from the {@link TimeSeriesBuffer}s.
+ * The samples of every source are written in batches to a segment file per
+ * time partition, in a directory per source. A segment is a sequence of
+ * blocks, each starting with the timestamp of its first sample, the number of
+ * samples and the length of its body, followed by the samples: the varint
+ * encoded timestamp delta to the previous sample, the type and the value.
+ * Next to every segment, a sparse index holds the first and last timestamp,
+ * the position and the number of samples of every block so that time ranges
+ * are read without scanning the segment. Blocks missing from the index, e.g.
+ * after a crash, are recovered from the segment and a partially written block
+ * at the end of a segment is dropped.
+ *
+ * <p>
+ * {@link #compact()} merges the small blocks of closed partitions into large
+ * ones and deletes the partitions exceeding the retention time.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class SegmentStore implements Closeable {
+
+	/**
+	 * Samples of a source waiting to be written as block and the files they
+	 * are written to
+	 */
+	private static final class Batch implements Visitor {
+
+		private ByteBuffer m_body = ByteBuffer.allocate(BLOCK_HEADER_SIZE + (BATCH_SIZE * 16));
+		private int m_count;
+		private long m_first;
+		private FileChannel m_index;
+		private long m_last = Long.MIN_VALUE;
+		private long m_partition = Long.MIN_VALUE;
+		private FileChannel m_segment;
+
+		private Batch() {
+			this.m_body.position(BLOCK_HEADER_SIZE);
+		}
+
+		private void close() throws IOException {
+			if (this.m_segment != null) {
+				this.m_segment.close();
+				this.m_index.close();
+				this.m_segment = null;
+				this.m_index = null;
+			}
+		}
+
+		private void ensure(final int bytes) {
+			if (this.m_body.remaining() < bytes) {
+				final ByteBuffer body = ByteBuffer.allocate(Math.max(this.m_body.capacity() * 2,
+						this.m_body.position() + bytes));
+				this.m_body.flip();
+				body.put(this.m_body);
+				this.m_body = body;
+			}
+		}
+
+		private void putTimestamp(final long timestamp, final int valueBytes) {
+			final long clamped = Math.max(timestamp, this.m_last);
+			if (this.m_count == 0) {
+				this.m_first = clamped;
+			}
+			this.ensure(MAX_VARINT_SIZE + 1 + valueBytes);
+			putVarint(this.m_body, clamped - (this.m_count == 0 ? clamped : this.m_last));
+			this.m_last = clamped;
+			this.m_count++;
+		}
+
+		/**
+		 * Drops the pending samples and closes the files
+		 */
+		private void reset() throws IOException {
+			this.close();
+			this.m_partition = Long.MIN_VALUE;
+			this.m_body.clear();
+			this.m_body.position(BLOCK_HEADER_SIZE);
+			this.m_count = 0;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final double value) {
+			this.putTimestamp(timestamp, 8);
+			this.m_body.put(TimeSeriesBuffer.TYPE_DOUBLE);
+			this.m_body.putDouble(value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final long value) {
+			this.putTimestamp(timestamp, MAX_VARINT_SIZE);
+			this.m_body.put(TimeSeriesBuffer.TYPE_LONG);
+			putVarint(this.m_body, (value << 1) ^ (value >> 63));
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final String value) {
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			this.putTimestamp(timestamp, MAX_VARINT_SIZE + bytes.length);
+			this.m_body.put(TimeSeriesBuffer.TYPE_STRING);
+			putVarint(this.m_body, bytes.length);
+			this.m_body.put(bytes);
+		}
+
+		/**
+		 * Appends the samples as block to the segment and the block to the
+		 * index
+		 */
+		private void write() throws IOException {
+			if (this.m_count == 0) {
+				return;
+			}
+			final long position = this.m_segment.size();
+			this.m_body.putLong(0, this.m_first);
+			this.m_body.putInt(8, this.m_count);
+			this.m_body.putInt(12, this.m_body.position() - BLOCK_HEADER_SIZE);
+			this.m_body.flip();
+			writeFully(this.m_segment, this.m_body, position);
+
+			final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+			entry.putLong(this.m_first).putLong(this.m_last).putLong(position).putInt(this.m_count).flip();
+			writeFully(this.m_index, entry, this.m_index.size());
+
+			this.m_body.clear();
+			this.m_body.position(BLOCK_HEADER_SIZE);
+			this.m_count = 0;
+		}
+	}
+
+	/**
+	 * Index entry of a block
+	 */
+	private static final class Block {
+
+		private final int m_count;
+		private final long m_first;
+		private final long m_last;
+		private final long m_position;
+
+		private Block(final long first, final long last, final long position, final int count) {
+			this.m_first = first;
+			this.m_last = last;
+			this.m_position = position;
+			this.m_count = count;
+		}
+	}
+
+	/**
+	 * State of a time range query running over several blocks
+	 */
+	private static final class Scan {
+
+		private int m_count;
+		private final long m_from;
+		private long m_last = Long.MIN_VALUE;
+		private long m_skip;
+		private final long m_to;
+		private final Visitor m_visitor;
+
+		private Scan(final long from, final long to, final long skip, final Visitor visitor) {
+			this.m_from = from;
+			this.m_to = to;
+			this.m_skip = skip;
+			this.m_visitor = visitor;
+		}
+
+		/**
+		 * Scans the block, counting the samples in range and visiting them
+		 * once the samples to skip have been skipped
+		 */
+		private void scan(final ByteBuffer body, final long first, final int count) {
+			long timestamp = first;
+			for (int i = 0; i < count; i++) {
+				timestamp += getVarint(body);
+				final byte type = body.get();
+				if (timestamp > this.m_to) {
+					return;
+				}
+				final boolean visit = (timestamp >= this.m_from) && (this.m_visitor != null) && (this.m_skip-- <= 0);
+				if (timestamp >= this.m_from) {
+					this.m_count++;
+					this.m_last = timestamp;
+				}
+				switch (type) {
+				case TimeSeriesBuffer.TYPE_DOUBLE:
+					final double doubleValue = body.getDouble();
+					if (visit) {
+						this.m_visitor.visit(timestamp, doubleValue);
+					}
+					break;
+				case TimeSeriesBuffer.TYPE_LONG:
+					final long bits = getVarint(body);
+					if (visit) {
+						this.m_visitor.visit(timestamp, (bits >>> 1) ^ -(bits & 1));
+					}
+					break;
+				default:
+					final int length = (int) getVarint(body);
+					if (visit) {
+						this.m_visitor.visit(timestamp, new String(body.array(), body.arrayOffset() + body.position(),
+								length, StandardCharsets.UTF_8));
+					}
+					body.position(body.position() + length);
+				}
+			}
+		}
+
+		/**
+		 * Scans the block read from the segment, skipping it without reading
+		 * if it lies in the time range and is skipped completely
+		 */
+		private void scan(final FileChannel segment, final Block block) throws IOException {
+			if ((block.m_last < this.m_from) || (block.m_first > this.m_to)) {
+				return;
+			}
+			if ((block.m_first >= this.m_from) && (block.m_last <= this.m_to)
+					&& ((this.m_visitor == null) || (this.m_skip >= block.m_count))) {
+				this.m_count += block.m_count;
+				this.m_skip -= this.m_visitor != null ? block.m_count : 0;
+				return;
+			}
+			this.scan(readBlock(segment, block.m_position), block.m_first, block.m_count);
+		}
+	}
+
+	/**
+	 * Number of samples of a source collected before they are written as block
+	 */
+	public static final int BATCH_SIZE = 512;
+
+	/**
+	 * Size of the block header: first timestamp, number of samples and body
+	 * length
+	 */
+	private static final int BLOCK_HEADER_SIZE = 16;
+
+	/**
+	 * Number of samples per block of a compacted partition
+	 */
+	public static final int COMPACTED_BLOCK_SIZE = 8192;
+
+	private static final String INDEX_SUFFIX = ".idx";
+
+	/**
+	 * Size of an index entry: first and last timestamp, position and number of
+	 * samples of the block
+	 */
+	private static final int INDEX_ENTRY_SIZE = 28;
+
+	private static final int MAX_VARINT_SIZE = 10;
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private static String decode(final String directory) {
+		try {
+			return URLDecoder.decode(directory, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static String encode(final String source) {
+		try {
+			return URLEncoder.encode(source, "UTF-8").replace(".", "%2E");
+		} catch (final UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Returns the position after the block at the position
+	 */
+	private static long end(final FileChannel segment, final long position) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		readFully(segment, header, position);
+		return position + BLOCK_HEADER_SIZE + header.getInt(12);
+	}
+
+	private static long getVarint(final ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static void putVarint(final ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads the blocks of the segment from the position on, stopping at the
+	 * first block which is not completely written
+	 */
+	private static void readBlocks(final FileChannel segment, long position, final List<Block> blocks)
+			throws IOException {
+		final long length = segment.size();
+		final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		while ((position + BLOCK_HEADER_SIZE) <= length) {
+			header.clear();
+			readFully(segment, header, position);
+			final long first = header.getLong(0);
+			final int count = header.getInt(8);
+			final int bodyLength = header.getInt(12);
+			if ((count <= 0) || (bodyLength <= 0) || (bodyLength > (length - position - BLOCK_HEADER_SIZE))) {
+				return;
+			}
+			final ByteBuffer body = readBlock(segment, position);
+			final Scan scan = new Scan(Long.MIN_VALUE, Long.MAX_VALUE, 0, null);
+			try {
+				scan.scan(body, first, count);
+			} catch (final BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+				return;
+			}
+			if (body.hasRemaining()) {
+				return;
+			}
+			blocks.add(new Block(first, scan.m_last, position, count));
+			position += BLOCK_HEADER_SIZE + bodyLength;
+		}
+	}
+
+	/**
+	 * Reads the block at the position, positioned at its first sample
+	 */
+	private static ByteBuffer readBlock(final FileChannel segment, final long position) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		readFully(segment, header, position);
+		final ByteBuffer body = ByteBuffer.allocate(header.getInt(12));
+		readFully(segment, body, position + BLOCK_HEADER_SIZE);
+		body.flip();
+		return body;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of segment");
+			}
+			position += read;
+		}
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Pending samples per source
+	 */
+	private final Map<String, Batch> m_batches = new HashMap<>();
+
+	private final File m_directory;
+
+	private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Length of a time partition in milliseconds
+	 */
+	private final long m_partition;
+
+	/**
+	 * Time partitions are kept in milliseconds, 0 to keep them forever
+	 */
+	private final long m_retention;
+
+	/**
+	 * Creates a store
+	 *
+	 * @param directory
+	 *            the directory the segments are written to, created if
+	 *            necessary
+	 * @param partition
+	 *            the time in milliseconds covered by a segment
+	 * @param retention
+	 *            the time in milliseconds segments are kept, 0 to keep them
+	 *            forever
+	 */
+	public SegmentStore(final File directory, final long partition, final long retention) {
+		Preconditions.checkNotNull(directory);
+		Preconditions.checkArgument(partition > 0, "Partition must be positive");
+		Preconditions.checkArgument(retention >= 0, "Retention must not be negative");
+		this.m_directory = directory;
+		this.m_partition = partition;
+		this.m_retention = retention;
+	}
+
+	/**
+	 * Appends the sample of the source, samples are expected in timestamp
+	 * order. The sample is written once the batch of the source is full.
+	 *
+	 * @param value
+	 *            the value, a {@link Double}, {@link Float}, any other
+	 *            {@link Number} is stored as long and anything else as string
+	 */
+	public void append(final String source, final long timestamp, final Object value) throws IOException {
+		Preconditions.checkNotNull(source);
+		Preconditions.checkNotNull(value);
+		this.m_lock.writeLock().lock();
+		try {
+			Batch batch = this.m_batches.get(source);
+			if (batch == null) {
+				this.m_batches.put(source, batch = new Batch());
+			}
+			final long partition = this.partition(Math.max(timestamp, batch.m_last));
+			if (partition != batch.m_partition) {
+				this.write(source, batch);
+				this.open(source, batch, partition);
+			}
+			if ((value instanceof Double) || (value instanceof Float)) {
+				batch.visit(timestamp, ((Number) value).doubleValue());
+			} else if (value instanceof Number) {
+				batch.visit(timestamp, ((Number) value).longValue());
+			} else {
+				batch.visit(timestamp, value.toString());
+			}
+			if (batch.m_count >= BATCH_SIZE) {
+				this.write(source, batch);
+			}
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends all samples of the series, e.g. before its buffer is discarded
+	 */
+	public void append(final SampleSeries series) throws IOException {
+		this.m_lock.writeLock().lock();
+		try {
+			series.forEach(Long.MIN_VALUE, Long.MAX_VALUE, new Visitor() {
+
+				/** {@inheritDoc} */
+				@Override
+				public void visit(final long timestamp, final double value) {
+					this.visit(timestamp, (Object) value);
+				}
+
+				/** {@inheritDoc} */
+				@Override
+				public void visit(final long timestamp, final long value) {
+					this.visit(timestamp, (Object) value);
+				}
+
+				private void visit(final long timestamp, final Object value) {
+					try {
+						SegmentStore.this.append(series.getSource(), timestamp, value);
+					} catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+
+				/** {@inheritDoc} */
+				@Override
+				public void visit(final long timestamp, final String value) {
+					this.visit(timestamp, (Object) value);
+				}
+			});
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the pending samples and closes the segments
+	 */
+	@Override
+	public void close() throws IOException {
+		this.m_lock.writeLock().lock();
+		try {
+			this.flush();
+			for (final Batch batch : this.m_batches.values()) {
+				batch.close();
+			}
+			this.m_batches.clear();
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Deletes the partitions exceeding the retention time and merges the
+	 * blocks of the closed partitions into blocks of
+	 * {@value #COMPACTED_BLOCK_SIZE} samples
+	 */
+	public void compact() throws IOException {
+		this.m_lock.writeLock().lock();
+		try {
+			final long expired = this.m_retention > 0 ? System.currentTimeMillis() - this.m_retention
+					: Long.MIN_VALUE;
+			for (final String source : this.getSources()) {
+				final Batch batch = this.m_batches.get(source);
+				for (final long partition : this.partitions(source)) {
+					if ((partition + this.m_partition) <= expired) {
+						if ((batch != null) && (batch.m_partition == partition)) {
+							batch.reset();
+						}
+						Files.deleteIfExists(this.file(source, partition, INDEX_SUFFIX).toPath());
+						Files.deleteIfExists(this.file(source, partition, SEGMENT_SUFFIX).toPath());
+					} else if ((batch == null) || (partition < batch.m_partition)) {
+						this.compact(source, partition);
+					}
+				}
+			}
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	private void compact(final String source, final long partition) throws IOException {
+		final File segment = this.file(source, partition, SEGMENT_SUFFIX);
+		final File index = this.file(source, partition, INDEX_SUFFIX);
+		final List<Block> blocks;
+		try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+			blocks = this.readIndex(source, partition, channel);
+		}
+		long samples = 0;
+		for (final Block block : blocks) {
+			samples += block.m_count;
+		}
+		if (blocks.size() <= (((samples + COMPACTED_BLOCK_SIZE) - 1) / COMPACTED_BLOCK_SIZE)) {
+			return;
+		}
+
+		final File compactedSegment = new File(segment.getPath() + TEMPORARY_SUFFIX);
+		final File compactedIndex = new File(index.getPath() + TEMPORARY_SUFFIX);
+		final Batch compacted = new Batch();
+		try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+			compacted.m_segment = FileChannel.open(compactedSegment.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			compacted.m_index = FileChannel.open(compactedIndex.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			for (final Block block : blocks) {
+				new Scan(Long.MIN_VALUE, Long.MAX_VALUE, 0, compacted).scan(readBlock(channel, block.m_position),
+						block.m_first, block.m_count);
+				if (compacted.m_count >= COMPACTED_BLOCK_SIZE) {
+					compacted.write();
+				}
+			}
+			compacted.write();
+			compacted.m_segment.force(true);
+			compacted.m_index.force(true);
+		} finally {
+			compacted.close();
+		}
+
+		// A missing index is rebuilt from whichever segment survives a crash
+		Files.deleteIfExists(index.toPath());
+		Files.move(compactedSegment.toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		Files.move(compactedIndex.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Returns the number of stored samples of the source within the time range
+	 */
+	public int count(final String source, final long from, final long to) throws IOException {
+		return this.scan(source, new Scan(from, to, 0, null));
+	}
+
+	private File file(final String source, final long partition, final String suffix) {
+		return new File(new File(this.m_directory, encode(source)), partition + suffix);
+	}
+
+	/**
+	 * Writes the pending samples of all sources and forces the segments to
+	 * disk
+	 */
+	public void flush() throws IOException {
+		this.m_lock.writeLock().lock();
+		try {
+			for (final Map.Entry<String, Batch> entry : this.m_batches.entrySet()) {
+				final Batch batch = entry.getValue();
+				this.write(entry.getKey(), batch);
+				if (batch.m_segment != null) {
+					batch.m_segment.force(false);
+					batch.m_index.force(false);
+				}
+			}
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Visits the stored samples of the source within the time range in
+	 * timestamp order
+	 *
+	 * @return the number of visited samples
+	 */
+	public int forEach(final String source, final long from, final long to, final int limit, final Visitor visitor)
+			throws IOException {
+		Preconditions.checkNotNull(visitor);
+		Preconditions.checkArgument(limit >= 0, "Limit must not be negative");
+		this.m_lock.readLock().lock();
+		try {
+			final long skip = limit == Integer.MAX_VALUE ? 0 : Math.max(0, this.count(source, from, to) - limit);
+			return (int) Math.max(0, this.scan(source, new Scan(from, to, skip, visitor)) - skip);
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the sources samples have been stored for
+	 */
+	public Set<String> getSources() {
+		this.m_lock.readLock().lock();
+		try {
+			final Set<String> sources = new TreeSet<>(this.m_batches.keySet());
+			final File[] directories = this.m_directory.listFiles();
+			if (directories != null) {
+				for (final File directory : directories) {
+					if (directory.isDirectory()) {
+						sources.add(decode(directory.getName()));
+					}
+				}
+			}
+			return sources;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Opens the segment of the partition for appending, dropping a partially
+	 * written block at its end and rewriting the index of the remaining blocks
+	 */
+	private void open(final String source, final Batch batch, final long partition) throws IOException {
+		batch.close();
+		batch.m_partition = partition;
+		final File segment = this.file(source, partition, SEGMENT_SUFFIX);
+		final File index = this.file(source, partition, INDEX_SUFFIX);
+		Files.createDirectories(segment.getParentFile().toPath());
+		batch.m_segment = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		final List<Block> blocks = this.readIndex(source, partition, batch.m_segment);
+		final long end = blocks.isEmpty() ? 0 : end(batch.m_segment, blocks.get(blocks.size() - 1).m_position);
+		if (end < batch.m_segment.size()) {
+			batch.m_segment.truncate(end);
+		}
+		if (!blocks.isEmpty()) {
+			batch.m_last = Math.max(batch.m_last, blocks.get(blocks.size() - 1).m_last);
+		}
+
+		// the index is replaced atomically so that a crash never leaves an
+		// index shorter than the one it replaces
+		final File rewritten = new File(index.getPath() + TEMPORARY_SUFFIX);
+		try (FileChannel channel = FileChannel.open(rewritten.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final ByteBuffer entries = ByteBuffer.allocate(blocks.size() * INDEX_ENTRY_SIZE);
+			for (final Block block : blocks) {
+				entries.putLong(block.m_first).putLong(block.m_last).putLong(block.m_position).putInt(block.m_count);
+			}
+			entries.flip();
+			writeFully(channel, entries, 0);
+			channel.force(true);
+		}
+		Files.move(rewritten.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		batch.m_index = FileChannel.open(index.toPath(), StandardOpenOption.WRITE);
+	}
+
+	private long partition(final long timestamp) {
+		return Math.floorDiv(timestamp, this.m_partition) * this.m_partition;
+	}
+
+	/**
+	 * Returns the partitions of the source in timestamp order
+	 */
+	private long[] partitions(final String source) {
+		final String[] names = new File(this.m_directory, encode(source)).list();
+		if (names == null) {
+			return new long[0];
+		}
+		final long[] partitions = new long[names.length];
+		int count = 0;
+		for (final String name : names) {
+			if (name.endsWith(SEGMENT_SUFFIX)) {
+				try {
+					final long partition = Long.parseLong(name.substring(0,
+							name.length() - SEGMENT_SUFFIX.length()));
+					partitions[count++] = partition;
+				} catch (final NumberFormatException e) {
+					continue;
+				}
+			}
+		}
+		final long[] sorted = Arrays.copyOf(partitions, count);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Reads the index of the partition and recovers the blocks written to the
+	 * segment after the last indexed block, e.g. if the index is missing or
+	 * has not been written completely. Blocks which are not completely
+	 * contained in the segment are dropped.
+	 */
+	private List<Block> readIndex(final String source, final long partition, final FileChannel segment)
+			throws IOException {
+		final List<Block> blocks = new ArrayList<>();
+		final File index = this.file(source, partition, INDEX_SUFFIX);
+		final long length = segment.size();
+		if (index.exists()) {
+			try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+				final ByteBuffer entries = ByteBuffer
+						.allocate((int) (channel.size() - (channel.size() % INDEX_ENTRY_SIZE)));
+				readFully(channel, entries, 0);
+				entries.flip();
+				while (entries.hasRemaining()) {
+					final Block block = new Block(entries.getLong(), entries.getLong(), entries.getLong(),
+							entries.getInt());
+					if ((block.m_position + BLOCK_HEADER_SIZE) > length) {
+						break;
+					}
+					blocks.add(block);
+				}
+			}
+			if (!blocks.isEmpty()
+					&& (end(segment, blocks.get(blocks.size() - 1).m_position) > length)) {
+				blocks.remove(blocks.size() - 1);
+			}
+		}
+		readBlocks(segment, blocks.isEmpty() ? 0 : end(segment, blocks.get(blocks.size() - 1).m_position), blocks);
+		return blocks;
+	}
+
+	/**
+	 * Runs the query over the segments of the source and the pending samples
+	 *
+	 * @return the number of samples in range
+	 */
+	private int scan(final String source, final Scan scan) throws IOException {
+		this.m_lock.readLock().lock();
+		try {
+			for (final long partition : this.partitions(source)) {
+				if (((partition + this.m_partition) <= scan.m_from) || (partition > scan.m_to)) {
+					continue;
+				}
+				try (FileChannel segment = FileChannel.open(this.file(source, partition, SEGMENT_SUFFIX).toPath(),
+						StandardOpenOption.READ)) {
+					for (final Block block : this.readIndex(source, partition, segment)) {
+						scan.scan(segment, block);
+					}
+				}
+			}
+			final Batch batch = this.m_batches.get(source);
+			if ((batch != null) && (batch.m_count > 0)) {
+				final ByteBuffer body = ByteBuffer.wrap(batch.m_body.array(), BLOCK_HEADER_SIZE,
+						batch.m_body.position() - BLOCK_HEADER_SIZE).slice();
+				scan.scan(body, batch.m_first, batch.m_count);
+			}
+			return scan.m_count;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	private void write(final String source, final Batch batch) throws IOException {
+		if ((batch.m_count > 0) && (batch.m_segment == null)) {
+			this.open(source, batch, batch.m_partition);
+		}
+		batch.write();
+	}
+}
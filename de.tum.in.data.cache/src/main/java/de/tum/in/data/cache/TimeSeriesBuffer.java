@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Time indexed ring buffer holding the samples of a single source off-heap.
+ * Every sample is stored as a fixed size entry of primitive timestamp, type
+ * and value in a direct buffer, string values are stored UTF-8 encoded in a
+ * second direct ring buffer. Samples are kept in timestamp order, a sample
+ * older than the newest one is stored with the timestamp of the newest one,
+ * so that time ranges are looked up by binary search. The oldest samples are
+ * evicted once the buffer is full, the string data does not fit anymore or
+ * the samples exceed the retention time.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class TimeSeriesBuffer implements SampleSeries {
+
+	/**
+	 * Listener notified about every sample before it gets evicted
+	 */
+	public interface EvictionListener {
+
+		/**
+		 * Callback with the evicted sample, the value is a {@link Double},
+		 * {@link Long} or {@link String}. Runs while the buffer is locked for
+		 * writing.
+		 */
+		public void onEviction(String source, long timestamp, Object value);
+	}
+
+	/**
+	 * Callback receiving the samples of a time range in timestamp order
+	 */
+	public interface Visitor {
+
+		public void visit(long timestamp, double value);
+
+		public void visit(long timestamp, long value);
+
+		public void visit(long timestamp, String value);
+	}
+
+	/**
+	 * Types of the sample values
+	 */
+	public static final byte TYPE_DOUBLE = 1;
+	public static final byte TYPE_LONG = 2;
+	public static final byte TYPE_STRING = 3;
+
+	/**
+	 * Size of an entry: timestamp, value or data position, data length and
+	 * type
+	 */
+	private static final int ENTRY_SIZE = 24;
+
+	private static final int LENGTH = 16;
+	private static final int TIMESTAMP = 0;
+	private static final int TYPE = 20;
+	private static final int VALUE = 8;
+
+	/**
+	 * Maximum number of samples
+	 */
+	private final int m_capacity;
+
+	/**
+	 * String data of the samples
+	 */
+	private final ByteBuffer m_data;
+
+	/**
+	 * Position of the oldest string data still referenced, positions grow
+	 * monotonically and are wrapped on access
+	 */
+	private long m_dataHead;
+
+	/**
+	 * Position the next string data is written at
+	 */
+	private long m_dataTail;
+
+	/**
+	 * Fixed size entries of the samples
+	 */
+	private final ByteBuffer m_entries;
+
+	/**
+	 * Slot of the oldest sample
+	 */
+	private int m_head;
+
+	private final EvictionListener m_listener;
+
+	private final ReadWriteLock m_lock;
+
+	/**
+	 * Retention time in milliseconds, 0 to keep samples until they are
+	 * displaced
+	 */
+	private final long m_retention;
+
+	/**
+	 * Number of samples
+	 */
+	private int m_size;
+
+	private final String m_source;
+
+	/**
+	 * Creates a buffer
+	 *
+	 * @param source
+	 *            the source the samples are received from
+	 * @param capacity
+	 *            the maximum number of samples
+	 * @param dataCapacity
+	 *            the number of bytes available for string values
+	 * @param retention
+	 *            the time in milliseconds samples are kept, 0 to keep them
+	 *            until they are displaced
+	 * @param listener
+	 *            the listener notified about evicted samples, may be
+	 *            {@code null}
+	 */
+	public TimeSeriesBuffer(final String source, final int capacity, final int dataCapacity, final long retention,
+			final EvictionListener listener) {
+		Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+		Preconditions.checkArgument(capacity <= (Integer.MAX_VALUE / ENTRY_SIZE), "Capacity is too large");
+		Preconditions.checkArgument(dataCapacity >= 0, "Data capacity must not be negative");
+		Preconditions.checkArgument(retention >= 0, "Retention must not be negative");
+		this.m_source = Preconditions.checkNotNull(source);
+		this.m_capacity = capacity;
+		this.m_retention = retention;
+		this.m_listener = listener;
+		this.m_entries = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+		this.m_data = ByteBuffer.allocateDirect(dataCapacity);
+		this.m_lock = new ReentrantReadWriteLock();
+	}
+
+	private void append(final long timestamp, final byte type, final long value, final byte[] data) {
+		this.m_lock.writeLock().lock();
+		try {
+			long time = timestamp;
+			if ((this.m_size > 0) && (time < this.timestamp(this.m_size - 1))) {
+				time = this.timestamp(this.m_size - 1);
+			}
+			if (this.m_retention > 0) {
+				while ((this.m_size > 0) && (this.timestamp(0) < (time - this.m_retention))) {
+					this.evict();
+				}
+			}
+			if (this.m_size == this.m_capacity) {
+				this.evict();
+			}
+
+			long bits = value;
+			if (data != null) {
+				while (((this.m_dataTail + data.length) - this.m_dataHead) > this.m_data.capacity()) {
+					this.evict();
+				}
+				bits = this.m_dataTail;
+				this.write(this.m_dataTail, data);
+				this.m_dataTail += data.length;
+			}
+
+			final int entry = this.entry(this.m_size++);
+			this.m_entries.putLong(entry + TIMESTAMP, time);
+			this.m_entries.putLong(entry + VALUE, bits);
+			this.m_entries.putInt(entry + LENGTH, data != null ? data.length : 0);
+			this.m_entries.put(entry + TYPE, type);
+		} finally {
+			this.m_lock.writeLock().unlock();
+		}
+	}
+
+	public void appendDouble(final long timestamp, final double value) {
+		this.append(timestamp, TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+	}
+
+	public void appendLong(final long timestamp, final long value) {
+		this.append(timestamp, TYPE_LONG, value, null);
+	}
+
+	/**
+	 * Appends a string sample, the sample is dropped if its UTF-8 encoding
+	 * exceeds the data capacity
+	 *
+	 * @return whether the sample has been stored
+	 */
+	public boolean appendString(final long timestamp, final String value) {
+		final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+		if (data.length > this.m_data.capacity()) {
+			return false;
+		}
+		this.append(timestamp, TYPE_STRING, 0L, data);
+		return true;
+	}
+
+	/**
+	 * Returns the number of samples within the time range
+	 *
+	 * @param from
+	 *            the start of the range in milliseconds, inclusive
+	 * @param to
+	 *            the end of the range in milliseconds, inclusive
+	 */
+	@Override
+	public int count(final long from, final long to) {
+		this.m_lock.readLock().lock();
+		try {
+			return Math.max(0, this.upperBound(to) - this.lowerBound(from));
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the offset of the entry of the sample with the logical index,
+	 * 0 being the oldest sample
+	 */
+	private int entry(final int index) {
+		return ((this.m_head + index) % this.m_capacity) * ENTRY_SIZE;
+	}
+
+	/**
+	 * Removes the oldest sample. Runs with the write lock.
+	 */
+	private void evict() {
+		final int entry = this.entry(0);
+		if (this.m_listener != null) {
+			this.m_listener.onEviction(this.m_source, this.m_entries.getLong(entry + TIMESTAMP), this.value(entry));
+		}
+		if (this.m_entries.get(entry + TYPE) == TYPE_STRING) {
+			this.m_dataHead = this.m_entries.getLong(entry + VALUE) + this.m_entries.getInt(entry + LENGTH);
+		}
+		this.m_head = (this.m_head + 1) % this.m_capacity;
+		this.m_size--;
+		if (this.m_size == 0) {
+			this.m_dataHead = this.m_dataTail;
+		}
+	}
+
+	/**
+	 * Passes the samples within the time range to the visitor in timestamp
+	 * order. The buffer cannot be written while the visitor runs.
+	 *
+	 * @param from
+	 *            the start of the range in milliseconds, inclusive
+	 * @param to
+	 *            the end of the range in milliseconds, inclusive
+	 * @return the number of samples visited
+	 */
+	@Override
+	public int forEach(final long from, final long to, final Visitor visitor) {
+		return this.forEach(from, to, Integer.MAX_VALUE, visitor);
+	}
+
+	/**
+	 * Passes the newest samples within the time range to the visitor in
+	 * timestamp order. The buffer cannot be written while the visitor runs.
+	 *
+	 * @param from
+	 *            the start of the range in milliseconds, inclusive
+	 * @param to
+	 *            the end of the range in milliseconds, inclusive
+	 * @param limit
+	 *            the maximum number of samples to visit
+	 * @return the number of samples visited
+	 */
+	@Override
+	public int forEach(final long from, final long to, final int limit, final Visitor visitor) {
+		Preconditions.checkArgument(limit >= 0, "Limit must not be negative");
+		this.m_lock.readLock().lock();
+		try {
+			final int end = this.upperBound(to);
+			final int start = Math.max(this.lowerBound(from), end - limit);
+			for (int i = start; i < end; i++) {
+				this.visit(this.entry(i), visitor);
+			}
+			return Math.max(0, end - start);
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return this.m_capacity;
+	}
+
+	/**
+	 * Returns the number of off-heap bytes allocated by the buffer
+	 */
+	public long getMemoryFootprint() {
+		return this.m_entries.capacity() + (long) this.m_data.capacity();
+	}
+
+	/**
+	 * Returns the timestamp of the newest sample or {@link Long#MIN_VALUE} if
+	 * the buffer is empty
+	 */
+	public long getNewestTimestamp() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_size > 0 ? this.timestamp(this.m_size - 1) : Long.MIN_VALUE;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the timestamp of the oldest sample or {@link Long#MIN_VALUE} if
+	 * the buffer is empty
+	 */
+	@Override
+	public long getOldestTimestamp() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_size > 0 ? this.timestamp(0) : Long.MIN_VALUE;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getSource() {
+		return this.m_source;
+	}
+
+	/**
+	 * Returns the number of bytes of string data currently held
+	 */
+	public long getUsedDataBytes() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_dataTail - this.m_dataHead;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the logical index of the first sample not older than the
+	 * timestamp
+	 */
+	private int lowerBound(final long timestamp) {
+		int low = 0;
+		int high = this.m_size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (this.timestamp(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int size() {
+		this.m_lock.readLock().lock();
+		try {
+			return this.m_size;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	private String string(final int entry) {
+		final long position = this.m_entries.getLong(entry + VALUE);
+		final byte[] data = new byte[this.m_entries.getInt(entry + LENGTH)];
+		if (data.length > 0) {
+			// readers share the buffer, so they copy through a view of it
+			final ByteBuffer view = this.m_data.duplicate();
+			final int offset = (int) (position % view.capacity());
+			final int first = Math.min(data.length, view.capacity() - offset);
+			view.position(offset);
+			view.get(data, 0, first);
+			view.position(0);
+			view.get(data, first, data.length - first);
+		}
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	private long timestamp(final int index) {
+		return this.m_entries.getLong(this.entry(index) + TIMESTAMP);
+	}
+
+	/**
+	 * Returns the logical index of the first sample newer than the timestamp
+	 */
+	private int upperBound(final long timestamp) {
+		int low = 0;
+		int high = this.m_size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (this.timestamp(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void visit(final int entry, final Visitor visitor) {
+		final long timestamp = this.m_entries.getLong(entry + TIMESTAMP);
+		switch (this.m_entries.get(entry + TYPE)) {
+		case TYPE_DOUBLE:
+			visitor.visit(timestamp, Double.longBitsToDouble(this.m_entries.getLong(entry + VALUE)));
+			break;
+		case TYPE_LONG:
+			visitor.visit(timestamp, this.m_entries.getLong(entry + VALUE));
+			break;
+		default:
+			visitor.visit(timestamp, this.string(entry));
+		}
+	}
+
+	/**
+	 * Passes the newest sample to the visitor
+	 *
+	 * @return whether there has been a sample
+	 */
+	@Override
+	public boolean visitNewest(final Visitor visitor) {
+		this.m_lock.readLock().lock();
+		try {
+			if (this.m_size == 0) {
+				return false;
+			}
+			this.visit(this.entry(this.m_size - 1), visitor);
+			return true;
+		} finally {
+			this.m_lock.readLock().unlock();
+		}
+	}
+
+	private Object value(final int entry) {
+		switch (this.m_entries.get(entry + TYPE)) {
+		case TYPE_DOUBLE:
+			return Double.longBitsToDouble(this.m_entries.getLong(entry + VALUE));
+		case TYPE_LONG:
+			return this.m_entries.getLong(entry + VALUE);
+		default:
+			return this.string(entry);
+		}
+	}
+
+	private void write(final long position, final byte[] data) {
+		if (data.length == 0) {
+			return;
+		}
+		final int offset = (int) (position % this.m_data.capacity());
+		final int first = Math.min(data.length, this.m_data.capacity() - offset);
+		this.m_data.position(offset);
+		this.m_data.put(data, 0, first);
+		this.m_data.position(0);
+		this.m_data.put(data, first, data.length - first);
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.tum.in.data.cache.CacheConfiguration.EvictionPolicy;
+
+/**
+ * Tests for {@link CacheConfiguration}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class CacheConfigurationTest {
+
+	@Test
+	public void testCapacityOnly() {
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put(CacheConfiguration.EVICTION, "CAPACITY_ONLY");
+		properties.put(CacheConfiguration.RETENTION, 10);
+		assertEquals(EvictionPolicy.CAPACITY_ONLY, new CacheConfiguration(properties).getEviction());
+		assertEquals(0, new CacheConfiguration(properties).getRetention());
+
+		// the former name of the policy
+		properties.put(CacheConfiguration.EVICTION, "LRU");
+		assertEquals(EvictionPolicy.CAPACITY_ONLY, new CacheConfiguration(properties).getEviction());
+	}
+
+	@Test
+	public void testDefaults() {
+		final CacheConfiguration configuration = new CacheConfiguration(null);
+
+		assertEquals(50000, configuration.getSamples("wifi"));
+		assertEquals(2048 * 1024, configuration.getStringSize());
+		assertEquals(16384 * 1024L, configuration.getMemorySize());
+		assertEquals(TimeUnit.MINUTES.toMillis(180), configuration.getRetention());
+		assertEquals(TimeUnit.SECONDS.toMillis(60), configuration.getDownsampleInterval());
+		assertEquals(EvictionPolicy.TIME_WINDOW, configuration.getEviction());
+	}
+
+	@Test
+	public void testMalformedProperties() {
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put(CacheConfiguration.SAMPLES, "many");
+		properties.put(CacheConfiguration.MEMORY_SIZE, " 4096 ");
+		properties.put(CacheConfiguration.RETENTION, "");
+		properties.put(CacheConfiguration.EVICTION, "NEWEST_FIRST");
+		properties.put(CacheConfiguration.QUOTAS, "wifi=lots");
+		final CacheConfiguration configuration = new CacheConfiguration(properties);
+
+		assertEquals(50000, configuration.getSamples("wifi"));
+		assertEquals(4096 * 1024L, configuration.getMemorySize());
+		assertEquals(TimeUnit.MINUTES.toMillis(180), configuration.getRetention());
+		assertEquals(EvictionPolicy.TIME_WINDOW, configuration.getEviction());
+	}
+
+	@Test
+	public void testRanges() {
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put(CacheConfiguration.SAMPLES, 0);
+		properties.put(CacheConfiguration.QUOTAS, "bluetooth=100000000, wifi=20000");
+		final CacheConfiguration configuration = new CacheConfiguration(properties);
+
+		assertEquals(1, configuration.getSamples("machine"));
+		assertEquals(CacheConfiguration.MAX_SAMPLES, configuration.getSamples("bluetooth"));
+		assertEquals(20000, configuration.getSamples("wifi"));
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.tum.in.data.cache.TimeSeriesBuffer.EvictionListener;
+import de.tum.in.data.cache.TimeSeriesBuffer.Visitor;
+import de.tum.in.events.record.FieldType;
+import de.tum.in.events.record.Record;
+import de.tum.in.events.record.RecordSchema;
+
+/**
+ * Tests for {@link RecordBuffer}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class RecordBufferTest {
+
+	/**
+	 * Collects the visited samples as {@code timestamp=value}
+	 */
+	private static final class Collector implements Visitor, EvictionListener {
+
+		private final List<String> m_samples = new ArrayList<>();
+
+		/** {@inheritDoc} */
+		@Override
+		public void onEviction(final String source, final long timestamp, final Object value) {
+			this.m_samples.add(source + "@" + timestamp + "=" + value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final double value) {
+			this.m_samples.add(timestamp + "=" + value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final long value) {
+			this.m_samples.add(timestamp + "=" + value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final String value) {
+			this.m_samples.add(timestamp + "=" + value);
+		}
+	}
+
+	private static final RecordSchema SCHEMA = new RecordSchema.Builder(0xFFFF, "test").add("force", FieldType.DOUBLE)
+			.add("count", FieldType.LONG).build();
+
+	private static Record record(final double force, final long count) {
+		return new Record.Builder(SCHEMA).set("force", force).set("count", count).build();
+	}
+
+	private static List<String> samples(final SampleSeries series) {
+		final Collector collector = new Collector();
+		series.forEach(Long.MIN_VALUE, Long.MAX_VALUE, collector);
+		return collector.m_samples;
+	}
+
+	@Test
+	public void testCopyToSmallerBuffer() {
+		final Collector evicted = new Collector();
+		final RecordBuffer buffer = new RecordBuffer("machine", SCHEMA, 4, 0, null);
+		for (int i = 0; i < 4; i++) {
+			buffer.append(i, record(i, i));
+		}
+		final RecordBuffer target = new RecordBuffer("machine", SCHEMA, 2, 0, evicted);
+		buffer.copyTo(target);
+
+		assertEquals(Arrays.asList("2=2.0", "3=3.0"), samples(target.getField("force")));
+		assertEquals(Arrays.asList("machine/force@0=0.0", "machine/count@0=0", "machine/force@1=1.0",
+				"machine/count@1=1"), evicted.m_samples);
+	}
+
+	@Test
+	public void testEvictionOfEveryField() {
+		final Collector evicted = new Collector();
+		final RecordBuffer buffer = new RecordBuffer("machine", SCHEMA, 2, 0, evicted);
+		for (int i = 0; i < 3; i++) {
+			buffer.append(i * 10, record(i + 0.5, i));
+		}
+
+		assertEquals(Arrays.asList("machine/force@0=0.5", "machine/count@0=0"), evicted.m_samples);
+		assertEquals(2, buffer.size());
+		assertEquals(10, buffer.getOldestTimestamp());
+	}
+
+	@Test
+	public void testFieldsShareTheTimestamps() {
+		final RecordBuffer buffer = new RecordBuffer("machine", SCHEMA, 8, 0, null);
+		buffer.append(100, record(1.5, 7));
+		buffer.append(200, record(2.5, 8));
+		// an older timestamp is clamped to the newest one
+		buffer.append(150, record(3.5, 9));
+
+		final SampleSeries force = buffer.getField("force");
+		assertEquals("machine/force", force.getSource());
+		assertEquals(Arrays.asList("100=1.5", "200=2.5", "200=3.5"), samples(force));
+		assertEquals(Arrays.asList("100=7", "200=8", "200=9"), samples(buffer.getField(1)));
+		assertEquals(2, force.count(200, 200));
+		assertNull(buffer.getField("torque"));
+	}
+
+	@Test
+	public void testMemoryFootprint() {
+		final RecordBuffer buffer = new RecordBuffer("machine", SCHEMA, 1000, 0, null);
+
+		assertEquals(3 * 8 * 1000, buffer.getMemoryFootprint());
+		assertEquals(buffer.getMemoryFootprint(), RecordBuffer.sizeOf(SCHEMA.getFieldCount(), 1000));
+	}
+
+	@Test
+	public void testRetention() {
+		final RecordBuffer buffer = new RecordBuffer("machine", SCHEMA, 8, 100, null);
+		for (int i = 0; i < 5; i++) {
+			buffer.append(i * 50, record(i, i));
+		}
+
+		assertEquals(Arrays.asList("100=2", "150=3", "200=4"), samples(buffer.getField("count")));
+	}
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tum.in.data.cache.RollupSeries.Visitor;
+
+/**
+ * Tests for {@link RollupSeries}, comparing it with a plain reference model of
+ * its buckets
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class RollupSeriesTest {
+
+	/**
+	 * A bucket of the reference model
+	 */
+	private static final class Bucket {
+
+		private int m_count;
+		private double m_max;
+		private double m_min;
+		private final long m_start;
+		private double m_sum;
+
+		private Bucket(final long start, final double value) {
+			this.m_start = start;
+			this.m_count = 1;
+			this.m_min = value;
+			this.m_max = value;
+			this.m_sum = value;
+		}
+
+		private void add(final double value) {
+			this.m_count++;
+			this.m_min = Math.min(this.m_min, value);
+			this.m_max = Math.max(this.m_max, value);
+			this.m_sum += value;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return format(this.m_start, this.m_count, this.m_min, this.m_max, this.m_sum);
+		}
+	}
+
+	/**
+	 * Collects the visited buckets as {@code start:count/min/max/sum}
+	 */
+	private static final class Collector implements Visitor {
+
+		private final List<String> m_buckets = new ArrayList<>();
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long start, final int count, final double min, final double max, final double sum) {
+			this.m_buckets.add(format(start, count, min, max, sum));
+		}
+	}
+
+	private static List<String> buckets(final RollupSeries series, final long from, final long to) {
+		final Collector collector = new Collector();
+		final int visited = series.forEach(from, to, collector);
+		assertEquals(collector.m_buckets.size(), visited);
+		return collector.m_buckets;
+	}
+
+	private static List<String> buckets(final ArrayDeque<Bucket> model, final long from, final long to) {
+		final List<String> buckets = new ArrayList<>();
+		for (final Bucket bucket : model) {
+			if ((bucket.m_start >= from) && (bucket.m_start <= to)) {
+				buckets.add(bucket.toString());
+			}
+		}
+		return buckets;
+	}
+
+	private static String format(final long start, final int count, final double min, final double max,
+			final double sum) {
+		return start + ":" + count + "/" + min + "/" + max + "/" + sum;
+	}
+
+	@Test
+	public void testBucketBoundaries() {
+		final RollupSeries series = new RollupSeries(1000, 8);
+		series.add(-1, 1);
+		series.add(0, 2);
+		series.add(999, 3);
+		series.add(1000, 4);
+		series.add(1999, 5);
+		series.add(2000, 6);
+
+		assertEquals(Arrays.asList("-1000:1/1.0/1.0/1.0", "0:2/2.0/3.0/5.0", "1000:2/4.0/5.0/9.0",
+				"2000:1/6.0/6.0/6.0"), buckets(series, Long.MIN_VALUE, Long.MAX_VALUE));
+		// buckets are selected by their start
+		assertEquals(Arrays.asList("1000:2/4.0/5.0/9.0"), buckets(series, 1, 1999));
+		assertEquals(Arrays.asList("0:2/2.0/3.0/5.0", "1000:2/4.0/5.0/9.0"), buckets(series, 0, 1000));
+		assertEquals(Arrays.<String> asList(), buckets(series, 2001, 3000));
+		assertEquals(0, series.getCoverage());
+	}
+
+	@Test
+	public void testEvictionOfOldestBucket() {
+		final RollupSeries series = new RollupSeries(10, 3);
+		assertEquals(Long.MAX_VALUE, series.getCoverage());
+		for (int i = 0; i < 5; i++) {
+			series.add(i * 10, i);
+		}
+
+		assertEquals(3, series.size());
+		assertEquals(Arrays.asList("20:1/2.0/2.0/2.0", "30:1/3.0/3.0/3.0", "40:1/4.0/4.0/4.0"),
+				buckets(series, Long.MIN_VALUE, Long.MAX_VALUE));
+		assertEquals(30, series.getCoverage());
+		assertEquals(RollupSeries.sizeOf(3), series.getMemoryFootprint());
+	}
+
+	@Test
+	public void testOlderSamplesAddedToNewestBucket() {
+		final RollupSeries series = new RollupSeries(100, 4);
+		series.add(250, 1);
+		series.add(120, -4);
+		series.add(10, 8);
+
+		assertEquals(Arrays.asList("200:3/-4.0/8.0/5.0"), buckets(series, Long.MIN_VALUE, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testReferenceModel() {
+		final Random random = new Random(42);
+		for (final int capacity : new int[] { 1, 5, 64 }) {
+			final long resolution = 1 + random.nextInt(50);
+			final RollupSeries series = new RollupSeries(resolution, capacity);
+			final ArrayDeque<Bucket> model = new ArrayDeque<>();
+			long time = -500;
+			for (int step = 0; step < 20_000; step++) {
+				time += random.nextInt(30) - 8;
+				final double value = random.nextGaussian();
+				series.add(time, value);
+
+				final long start = Math.floorDiv(time, resolution) * resolution;
+				if (!model.isEmpty() && (start <= model.getLast().m_start)) {
+					model.getLast().add(value);
+				} else {
+					if (model.size() == capacity) {
+						model.removeFirst();
+					}
+					model.addLast(new Bucket(start, value));
+				}
+
+				assertEquals(model.size(), series.size());
+				assertEquals(model.getFirst().m_start + resolution, series.getCoverage());
+				final long from = time - random.nextInt(300);
+				final long to = from + random.nextInt(300) - 20;
+				assertEquals(buckets(model, from, to), buckets(series, from, to));
+				if ((step % 1000) == 0) {
+					assertEquals(buckets(model, Long.MIN_VALUE, Long.MAX_VALUE),
+							buckets(series, Long.MIN_VALUE, Long.MAX_VALUE));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tum.in.data.cache.TimeSeriesBuffer.Visitor;
+
+/**
+ * Tests for {@link SegmentStore}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class SegmentStoreTest {
+
+	/**
+	 * Sums up the visited values
+	 */
+	private static final class Sum implements Visitor {
+
+		private double m_sum;
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final double value) {
+			this.m_sum += value;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final long value) {
+			this.m_sum += value;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final String value) {
+			this.m_sum += Double.parseDouble(value);
+		}
+	}
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private static final String SOURCE = "machine";
+
+	@Rule
+	public final TemporaryFolder m_folder = new TemporaryFolder();
+
+	private void append(final SegmentStore store, final int from, final int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			store.append(SOURCE, this.timestamp(i), (double) i);
+		}
+	}
+
+	private int count(final SegmentStore store) throws IOException {
+		return store.count(SOURCE, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	private File file(final String suffix) {
+		return new File(new File(this.m_folder.getRoot(), SOURCE), this.timestamp(0) + suffix);
+	}
+
+	private SegmentStore store() {
+		return new SegmentStore(this.m_folder.getRoot(), DAY, 0);
+	}
+
+	private long timestamp(final int sample) {
+		return (DAY * 10) + sample;
+	}
+
+	private void truncate(final File file, final long length) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		}
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		SegmentStore store = this.store();
+		this.append(store, 0, 3000);
+		store.close();
+
+		store = this.store();
+		store.compact();
+		assertEquals(3000, this.count(store));
+		assertEquals(28, this.file(".idx").length());
+		final Sum sum = new Sum();
+		assertEquals(100, store.forEach(SOURCE, this.timestamp(2900), Long.MAX_VALUE, Integer.MAX_VALUE, sum));
+		assertEquals(294_950, sum.m_sum, 0);
+
+		this.append(store, 3000, 3010);
+		store.close();
+		assertEquals(3010, this.count(this.store()));
+	}
+
+	@Test
+	public void testCompactionDeletesExpiredPartitions() throws IOException {
+		SegmentStore store = this.store();
+		this.append(store, 0, 1000);
+		store.close();
+
+		store = new SegmentStore(this.m_folder.getRoot(), DAY, DAY);
+		store.compact();
+		assertEquals(0, this.count(store));
+	}
+
+	@Test
+	public void testRecoveryFromEmptyIndex() throws IOException {
+		SegmentStore store = this.store();
+		this.append(store, 0, 1100);
+		store.close();
+		this.truncate(this.file(".idx"), 0);
+
+		store = this.store();
+		this.append(store, 1100, 1101);
+		store.close();
+		assertEquals(1101, this.count(this.store()));
+	}
+
+	@Test
+	public void testRecoveryFromIncompleteIndex() throws IOException {
+		SegmentStore store = this.store();
+		this.append(store, 0, 1100);
+		store.close();
+		final File index = this.file(".idx");
+		this.truncate(index, index.length() - 28);
+
+		store = this.store();
+		assertEquals(1100, this.count(store));
+		this.append(store, 1100, 1200);
+		store.close();
+		store = this.store();
+		assertEquals(1200, this.count(store));
+		final Sum sum = new Sum();
+		store.forEach(SOURCE, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, sum);
+		assertEquals(719_400, sum.m_sum, 0);
+	}
+
+	@Test
+	public void testRecoveryFromTornBlock() throws IOException {
+		SegmentStore store = this.store();
+		this.append(store, 0, 1100);
+		store.close();
+		final File segment = this.file(".seg");
+		final long length = segment.length();
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.seek(length);
+			raf.writeLong(this.timestamp(1100));
+			raf.writeInt(512);
+			raf.writeInt(4096);
+			raf.write(new byte[100]);
+		}
+
+		store = this.store();
+		assertEquals(1100, this.count(store));
+		this.append(store, 1100, 1101);
+		store.close();
+		assertEquals(1101, this.count(this.store()));
+	}
+}
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.data.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tum.in.data.cache.TimeSeriesBuffer.EvictionListener;
+import de.tum.in.data.cache.TimeSeriesBuffer.Visitor;
+
+/**
+ * Tests for {@link TimeSeriesBuffer}, comparing it with a plain reference
+ * model of its eviction rules
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class TimeSeriesBufferTest {
+
+	/**
+	 * Collects the visited and evicted samples as {@code timestamp=value}
+	 */
+	private static final class Collector implements Visitor, EvictionListener {
+
+		private final List<String> m_samples = new ArrayList<>();
+
+		/** {@inheritDoc} */
+		@Override
+		public void onEviction(final String source, final long timestamp, final Object value) {
+			this.m_samples.add(timestamp + "=" + value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final double value) {
+			this.m_samples.add(timestamp + "=" + value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final long value) {
+			this.m_samples.add(timestamp + "=" + value);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(final long timestamp, final String value) {
+			this.m_samples.add(timestamp + "=" + value);
+		}
+	}
+
+	/**
+	 * The eviction rules of the buffer on a plain deque
+	 */
+	private static final class ReferenceModel {
+
+		private final int m_capacity;
+		private final int m_dataCapacity;
+		private final List<String> m_evicted = new ArrayList<>();
+		private final long m_retention;
+		private final ArrayDeque<Sample> m_samples = new ArrayDeque<>();
+		private long m_usedDataBytes;
+
+		private ReferenceModel(final int capacity, final int dataCapacity, final long retention) {
+			this.m_capacity = capacity;
+			this.m_dataCapacity = dataCapacity;
+			this.m_retention = retention;
+		}
+
+		private boolean append(final long timestamp, final Object value) {
+			final int bytes = value instanceof String ? ((String) value).getBytes(StandardCharsets.UTF_8).length
+					: 0;
+			if (bytes > this.m_dataCapacity) {
+				return false;
+			}
+			final long time = this.m_samples.isEmpty() ? timestamp : Math.max(timestamp,
+					this.m_samples.getLast().m_timestamp);
+			while ((this.m_retention > 0) && !this.m_samples.isEmpty()
+					&& (this.m_samples.getFirst().m_timestamp < (time - this.m_retention))) {
+				this.evict();
+			}
+			if (this.m_samples.size() == this.m_capacity) {
+				this.evict();
+			}
+			while ((this.m_usedDataBytes + bytes) > this.m_dataCapacity) {
+				this.evict();
+			}
+			this.m_samples.addLast(new Sample(time, value, bytes));
+			this.m_usedDataBytes += bytes;
+			return true;
+		}
+
+		private void evict() {
+			final Sample sample = this.m_samples.removeFirst();
+			this.m_usedDataBytes -= sample.m_bytes;
+			this.m_evicted.add(sample.toString());
+		}
+
+		/**
+		 * Returns the newest samples within the time range
+		 */
+		private List<String> samples(final long from, final long to, final int limit) {
+			final List<String> samples = new ArrayList<>();
+			for (final Sample sample : this.m_samples) {
+				if ((sample.m_timestamp >= from) && (sample.m_timestamp <= to)) {
+					samples.add(sample.toString());
+				}
+			}
+			return samples.subList(Math.max(0, samples.size() - limit), samples.size());
+		}
+	}
+
+	private static final class Sample {
+
+		private final int m_bytes;
+		private final long m_timestamp;
+		private final Object m_value;
+
+		private Sample(final long timestamp, final Object value, final int bytes) {
+			this.m_timestamp = timestamp;
+			this.m_value = value;
+			this.m_bytes = bytes;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return this.m_timestamp + "=" + this.m_value;
+		}
+	}
+
+	/**
+	 * Characters of one to three bytes in UTF-8
+	 */
+	private static final char[] CHARACTERS = { 'a', 'b', 'ä', 'ß', '€' };
+
+	private static void append(final TimeSeriesBuffer buffer, final ReferenceModel model, final long timestamp,
+			final Object value) {
+		final boolean stored;
+		if (value instanceof Double) {
+			buffer.appendDouble(timestamp, (Double) value);
+			stored = true;
+		} else if (value instanceof Long) {
+			buffer.appendLong(timestamp, (Long) value);
+			stored = true;
+		} else {
+			stored = buffer.appendString(timestamp, (String) value);
+		}
+		assertEquals(model.append(timestamp, value), stored);
+	}
+
+	private static void assertEqualTo(final ReferenceModel model, final TimeSeriesBuffer buffer) {
+		assertEquals(model.m_samples.size(), buffer.size());
+		assertEquals(model.m_usedDataBytes, buffer.getUsedDataBytes());
+		assertEquals(model.m_samples.isEmpty() ? Long.MIN_VALUE : model.m_samples.getFirst().m_timestamp,
+				buffer.getOldestTimestamp());
+		assertEquals(model.m_samples.isEmpty() ? Long.MIN_VALUE : model.m_samples.getLast().m_timestamp,
+				buffer.getNewestTimestamp());
+		assertEquals(model.samples(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE),
+				samples(buffer, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE));
+		final Collector newest = new Collector();
+		assertEquals(!model.m_samples.isEmpty(), buffer.visitNewest(newest));
+		assertEquals(model.samples(Long.MIN_VALUE, Long.MAX_VALUE, 1), newest.m_samples);
+	}
+
+	private static List<String> samples(final TimeSeriesBuffer buffer, final long from, final long to,
+			final int limit) {
+		final Collector collector = new Collector();
+		final int visited = buffer.forEach(from, to, limit, collector);
+		assertEquals(collector.m_samples.size(), visited);
+		return collector.m_samples;
+	}
+
+	/**
+	 * Applies random appends to the buffer and the model and compares them
+	 * after every step, timestamps occasionally go backwards
+	 */
+	private void compareWithModel(final int capacity, final int dataCapacity, final long retention) {
+		final Random random = new Random(capacity * 31L + dataCapacity + retention);
+		final ReferenceModel model = new ReferenceModel(capacity, dataCapacity, retention);
+		final Collector evicted = new Collector();
+		final TimeSeriesBuffer buffer = new TimeSeriesBuffer("machine", capacity, dataCapacity, retention,
+				evicted);
+		long time = 1000;
+		for (int step = 0; step < 20_000; step++) {
+			time += random.nextInt(25) - 5;
+			final Object value;
+			switch (random.nextInt(3)) {
+			case 0:
+				value = random.nextDouble();
+				break;
+			case 1:
+				value = random.nextLong();
+				break;
+			default:
+				final char[] chars = new char[random.nextInt(dataCapacity / 2)];
+				for (int i = 0; i < chars.length; i++) {
+					chars[i] = CHARACTERS[random.nextInt(CHARACTERS.length)];
+				}
+				value = new String(chars);
+			}
+			append(buffer, model, time, value);
+			assertEqualTo(model, buffer);
+			assertEquals(model.m_evicted, evicted.m_samples);
+			model.m_evicted.clear();
+			evicted.m_samples.clear();
+
+			final long from = time - random.nextInt(200);
+			final long to = from + random.nextInt(200) - 20;
+			final int limit = random.nextInt(capacity + 2);
+			assertEquals(model.samples(from, to, Integer.MAX_VALUE).size(), buffer.count(from, to));
+			assertEquals(model.samples(from, to, limit), samples(buffer, from, to, limit));
+		}
+	}
+
+	@Test
+	public void testClampingOfOlderTimestamps() {
+		final TimeSeriesBuffer buffer = new TimeSeriesBuffer("machine", 8, 0, 0, null);
+		buffer.appendLong(100, 1);
+		buffer.appendLong(200, 2);
+		buffer.appendLong(150, 3);
+		buffer.appendLong(50, 4);
+		buffer.appendLong(210, 5);
+
+		assertEquals(Arrays.asList("100=1", "200=2", "200=3", "200=4", "210=5"),
+				samples(buffer, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE));
+		assertEquals(3, buffer.count(200, 200));
+		assertEquals(0, buffer.count(150, 199));
+		assertEquals(210, buffer.getNewestTimestamp());
+	}
+
+	@Test
+	public void testCountAndForEachBounds() {
+		final TimeSeriesBuffer buffer = new TimeSeriesBuffer("machine", 8, 0, 0, null);
+		for (int i = 1; i <= 5; i++) {
+			buffer.appendLong(i * 10, i);
+		}
+
+		assertEquals(5, buffer.count(10, 50));
+		assertEquals(3, buffer.count(20, 40));
+		assertEquals(0, buffer.count(41, 49));
+		assertEquals(0, buffer.count(50, 10));
+		assertEquals(Arrays.asList("40=4", "50=5"), samples(buffer, 0, 100, 2));
+		assertEquals(Arrays.asList("20=2", "30=3"), samples(buffer, 11, 30, 5));
+		assertEquals(Arrays.asList("30=3"), samples(buffer, 11, 30, 1));
+		assertEquals(Arrays.<String> asList(), samples(buffer, 0, 100, 0));
+		assertEquals(Arrays.<String> asList(), samples(buffer, 60, 100, 5));
+	}
+
+	@Test
+	public void testModelWithRetention() {
+		this.compareWithModel(16, 48, 60);
+	}
+
+	@Test
+	public void testModelWithSingleSample() {
+		this.compareWithModel(1, 8, 0);
+	}
+
+	@Test
+	public void testModelWithWraparound() {
+		this.compareWithModel(7, 48, 0);
+	}
+
+	@Test
+	public void testRetentionEviction() {
+		final Collector evicted = new Collector();
+		final TimeSeriesBuffer buffer = new TimeSeriesBuffer("machine", 8, 0, 100, evicted);
+		buffer.appendLong(0, 0);
+		buffer.appendLong(50, 1);
+		buffer.appendLong(100, 2);
+		assertEquals(3, buffer.size());
+
+		buffer.appendLong(151, 3);
+		assertEquals(Arrays.asList("0=0", "50=1"), evicted.m_samples);
+		assertEquals(100, buffer.getOldestTimestamp());
+	}
+
+	@Test
+	public void testRingWraparound() {
+		final Collector evicted = new Collector();
+		final TimeSeriesBuffer buffer = new TimeSeriesBuffer("machine", 3, 0, 0, evicted);
+		for (int i = 0; i < 10; i++) {
+			buffer.appendDouble(i, i + 0.5);
+		}
+
+		assertEquals(3, buffer.size());
+		assertEquals(Arrays.asList("7=7.5", "8=8.5", "9=9.5"),
+				samples(buffer, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE));
+		assertEquals(7, evicted.m_samples.size());
+		assertEquals("6=6.5", evicted.m_samples.get(6));
+	}
+
+	@Test
+	public void testStringDataEviction() {
+		final Collector evicted = new Collector();
+		final TimeSeriesBuffer buffer = new TimeSeriesBuffer("machine", 8, 10, 0, evicted);
+		assertTrue(buffer.appendString(1, "abcd"));
+		buffer.appendLong(2, 7);
+		assertTrue(buffer.appendString(3, "efgh"));
+		assertEquals(8, buffer.getUsedDataBytes());
+
+		// wraps around the end of the string data
+		assertTrue(buffer.appendString(4, "€ij"));
+		assertEquals(Arrays.asList("1=abcd"), evicted.m_samples);
+		assertEquals(9, buffer.getUsedDataBytes());
+		assertEquals(Arrays.asList("2=7", "3=efgh", "4=€ij"),
+				samples(buffer, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE));
+
+		// too large for the string data
+		assertFalse(buffer.appendString(5, "abcdefghijk"));
+		assertEquals(3, buffer.size());
+		assertTrue(buffer.appendString(6, ""));
+		assertEquals(4, buffer.size());
+	}
+}
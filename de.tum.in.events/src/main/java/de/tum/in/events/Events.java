@@ -26,7 +26,9 @@ package de.tum.in.events;
 public interface Events {
 
 	/**
-	 * Used to cache data retrieved from realtime device
+	 * Used to cache data retrieved from realtime device. The {@code data}
+	 * property holds a number, a string or a
+	 * {@link de.tum.in.events.record.Record} parsed from the device data.
 	 */
 	public static final String DATA_CACHE = "de/tum/in/device/data/cache";
 
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.events.record;
+
+/**
+ * The primitive types a field of a {@link Record} can have. Every type is
+ * encoded with a fixed number of bytes.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public enum FieldType {
+
+	BOOLEAN(1), DOUBLE(8), FLOAT(4), INT(4), LONG(8);
+
+	/**
+	 * Number of bytes of an encoded value
+	 */
+	private final int m_size;
+
+	private FieldType(final int size) {
+		this.m_size = size;
+	}
+
+	/**
+	 * Returns the number of bytes of an encoded value
+	 */
+	public int getSize() {
+		return this.m_size;
+	}
+
+	/**
+	 * Checks whether the values of the type are floating point numbers
+	 */
+	public boolean isDecimal() {
+		return (this == DOUBLE) || (this == FLOAT);
+	}
+
+}
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.events.record;
+
+import java.util.Arrays;
+
+/**
+ * A record of primitive values described by a {@link RecordSchema}. The
+ * record is backed by its binary encoding, the big-endian schema id followed
+ * by the big-endian values of the fields in the order of the schema. The
+ * values are therefore parsed only once, when the record is built.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class Record {
+
+	/**
+	 * Builder class to set the values of the fields
+	 */
+	public static final class Builder {
+
+		private byte[] m_bytes;
+		private final RecordSchema m_schema;
+		private final boolean[] m_set;
+
+		/**
+		 * Constructor
+		 */
+		public Builder(final RecordSchema schema) {
+			this.m_schema = schema;
+			this.m_bytes = new byte[schema.getSize()];
+			this.m_set = new boolean[schema.getFieldCount()];
+			writeBits(this.m_bytes, 0, RecordSchema.HEADER_SIZE, schema.getId());
+		}
+
+		/**
+		 * builder to build the record
+		 *
+		 * @throws IllegalArgumentException
+		 *             if the value of a field has not been set
+		 */
+		public Record build() {
+			for (int i = 0; i < this.m_set.length; i++) {
+				if (!this.m_set[i]) {
+					throw new IllegalArgumentException("Missing value of field " + this.m_schema.getFieldName(i));
+				}
+			}
+			final Record record = new Record(this.m_schema, this.m_bytes);
+			this.m_bytes = this.m_bytes.clone();
+			return record;
+		}
+
+		private int index(final String field) {
+			final int index = this.m_schema.indexOf(field);
+			if (index < 0) {
+				throw new IllegalArgumentException("Unknown field " + field + " of schema " + this.m_schema.getName());
+			}
+			return index;
+		}
+
+		/**
+		 * Setter to set the value of a field, which is converted to the type of
+		 * the field
+		 */
+		public Builder set(final String field, final boolean value) {
+			return this.set(this.index(field), value ? 1L : 0L);
+		}
+
+		/**
+		 * Setter to set the value of a field, which is converted to the type of
+		 * the field
+		 */
+		public Builder set(final String field, final double value) {
+			final int index = this.index(field);
+			switch (this.m_schema.getFieldType(index)) {
+			case DOUBLE:
+				this.write(index, Double.doubleToLongBits(value));
+				break;
+			case FLOAT:
+				this.write(index, Float.floatToIntBits((float) value));
+				break;
+			default:
+				this.set(index, (long) value);
+			}
+			return this;
+		}
+
+		/**
+		 * Setter to set the value of a field, which is converted to the type of
+		 * the field
+		 */
+		public Builder set(final String field, final long value) {
+			return this.set(this.index(field), value);
+		}
+
+		/**
+		 * Setter to parse the value of a field from its text
+		 *
+		 * @throws IllegalArgumentException
+		 *             if the text is no value of the type of the field
+		 */
+		public Builder set(final String field, final String text) {
+			return this.set(this.index(field), text);
+		}
+
+		private Builder set(final int index, final long value) {
+			switch (this.m_schema.getFieldType(index)) {
+			case BOOLEAN:
+				this.write(index, value != 0L ? 1L : 0L);
+				break;
+			case DOUBLE:
+				this.write(index, Double.doubleToLongBits(value));
+				break;
+			case FLOAT:
+				this.write(index, Float.floatToIntBits(value));
+				break;
+			default:
+				this.write(index, value);
+			}
+			return this;
+		}
+
+		Builder set(final int index, final String text) {
+			switch (this.m_schema.getFieldType(index)) {
+			case BOOLEAN:
+				if ("true".equalsIgnoreCase(text) || "1".equals(text)) {
+					return this.set(index, 1L);
+				}
+				if ("false".equalsIgnoreCase(text) || "0".equals(text)) {
+					return this.set(index, 0L);
+				}
+				throw new IllegalArgumentException("Malformed value of field " + this.m_schema.getFieldName(index));
+			case DOUBLE:
+				this.write(index, Double.doubleToLongBits(Double.parseDouble(text)));
+				break;
+			case FLOAT:
+				this.write(index, Float.floatToIntBits(Float.parseFloat(text)));
+				break;
+			case INT:
+				this.write(index, Integer.parseInt(text));
+				break;
+			default:
+				this.write(index, Long.parseLong(text));
+			}
+			return this;
+		}
+
+		private void write(final int index, final long bits) {
+			writeBits(this.m_bytes, this.m_schema.offset(index), this.m_schema.getFieldType(index).getSize(), bits);
+			this.m_set[index] = true;
+		}
+
+	}
+
+	/**
+	 * Decodes a record of a schema registered with the {@link SchemaRegistry}
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the schema is unknown or the length of the bytes does not
+	 *             match the schema
+	 */
+	public static Record fromBytes(final byte[] bytes) {
+		if (bytes.length < RecordSchema.HEADER_SIZE) {
+			throw new IllegalArgumentException("Record without schema id");
+		}
+		final int id = (int) readBits(bytes, 0, RecordSchema.HEADER_SIZE);
+		final RecordSchema schema = SchemaRegistry.get(id);
+		if (schema == null) {
+			throw new IllegalArgumentException("Unknown schema id " + id);
+		}
+		if (bytes.length != schema.getSize()) {
+			throw new IllegalArgumentException(
+					"Record of schema " + schema.getName() + " must have " + schema.getSize() + " bytes");
+		}
+		return new Record(schema, bytes.clone());
+	}
+
+	private static long readBits(final byte[] bytes, final int offset, final int size) {
+		long bits = 0L;
+		for (int i = 0; i < size; i++) {
+			bits = (bits << 8) | (bytes[offset + i] & 0xFF);
+		}
+		return bits;
+	}
+
+	private static void writeBits(final byte[] bytes, final int offset, final int size, long bits) {
+		for (int i = size - 1; i >= 0; i--) {
+			bytes[offset + i] = (byte) bits;
+			bits >>>= 8;
+		}
+	}
+
+	/**
+	 * The encoded record
+	 */
+	private final byte[] m_bytes;
+
+	/**
+	 * The schema of the record
+	 */
+	private final RecordSchema m_schema;
+
+	private Record(final RecordSchema schema, final byte[] bytes) {
+		this.m_schema = schema;
+		this.m_bytes = bytes;
+	}
+
+	private long bits(final int index) {
+		return readBits(this.m_bytes, this.m_schema.offset(index), this.m_schema.getFieldType(index).getSize());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		return (obj instanceof Record) && Arrays.equals(this.m_bytes, ((Record) obj).m_bytes);
+	}
+
+	/**
+	 * Returns the value of the field at the given index as boolean, numbers
+	 * other than zero are {@code true}
+	 */
+	public boolean getBoolean(final int index) {
+		return this.getDouble(index) != 0D;
+	}
+
+	/**
+	 * Returns the value of the field at the given index as double, booleans
+	 * are {@code 1} or {@code 0}
+	 */
+	public double getDouble(final int index) {
+		switch (this.m_schema.getFieldType(index)) {
+		case DOUBLE:
+			return Double.longBitsToDouble(this.bits(index));
+		case FLOAT:
+			return Float.intBitsToFloat((int) this.bits(index));
+		default:
+			return this.getLong(index);
+		}
+	}
+
+	/**
+	 * Returns the value of the field at the given index as long, decimals are
+	 * truncated and booleans are {@code 1} or {@code 0}
+	 */
+	public long getLong(final int index) {
+		switch (this.m_schema.getFieldType(index)) {
+		case DOUBLE:
+		case FLOAT:
+			return (long) this.getDouble(index);
+		case INT:
+			return (int) this.bits(index);
+		default:
+			return this.bits(index);
+		}
+	}
+
+	/**
+	 * Returns the schema of the record
+	 */
+	public RecordSchema getSchema() {
+		return this.m_schema;
+	}
+
+	/**
+	 * Returns the boxed value of the field at the given index
+	 */
+	public Object getValue(final int index) {
+		switch (this.m_schema.getFieldType(index)) {
+		case BOOLEAN:
+			return this.bits(index) != 0L;
+		case DOUBLE:
+			return this.getDouble(index);
+		case FLOAT:
+			return (float) this.getDouble(index);
+		case INT:
+			return (int) this.getLong(index);
+		default:
+			return this.getLong(index);
+		}
+	}
+
+	/**
+	 * Returns the boxed value of the field with the given name or
+	 * {@code null} if the schema has no such field
+	 */
+	public Object getValue(final String field) {
+		final int index = this.m_schema.indexOf(field);
+		return index >= 0 ? this.getValue(index) : null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.m_bytes);
+	}
+
+	/**
+	 * Returns the binary encoding of the record
+	 */
+	public byte[] toBytes() {
+		return this.m_bytes.clone();
+	}
+
+	/**
+	 * Returns the record as comma separated {@code name=value} pairs, which
+	 * can be parsed by {@link RecordSchema#parse(CharSequence)}
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < this.m_schema.getFieldCount(); i++) {
+			builder.append(i > 0 ? ", " : "").append(this.m_schema.getFieldName(i)).append('=')
+					.append(this.getValue(i));
+		}
+		return builder.toString();
+	}
+
+}
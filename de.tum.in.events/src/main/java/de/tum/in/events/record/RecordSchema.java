@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.events.record;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the names and primitive types of the fields of a {@link Record}.
+ * The schemas are identified by their id in the binary encoding of the
+ * records, see {@link SchemaRegistry}.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class RecordSchema {
+
+	/**
+	 * Builder class to add the fields of the schema
+	 */
+	public static final class Builder {
+
+		private final List<String> m_fields = new ArrayList<>();
+		private final int m_id;
+		private final String m_name;
+		private final List<FieldType> m_types = new ArrayList<>();
+
+		/**
+		 * Constructor
+		 *
+		 * @param id
+		 *            the id of the schema between 1 and {@value #MAX_ID}
+		 * @param name
+		 *            the name of the schema
+		 */
+		public Builder(final int id, final String name) {
+			if ((id < 1) || (id > MAX_ID)) {
+				throw new IllegalArgumentException("Schema id must be between 1 and " + MAX_ID);
+			}
+			this.m_id = id;
+			this.m_name = checkNotNull(name);
+		}
+
+		/**
+		 * Adds a field to the schema
+		 */
+		public Builder add(final String field, final FieldType type) {
+			if (this.m_fields.contains(checkNotNull(field))) {
+				throw new IllegalArgumentException("Duplicate field " + field);
+			}
+			this.m_fields.add(field);
+			this.m_types.add(checkNotNull(type));
+			return this;
+		}
+
+		/**
+		 * builder to build the schema
+		 */
+		public RecordSchema build() {
+			return new RecordSchema(this.m_id, this.m_name, this.m_fields.toArray(new String[this.m_fields.size()]),
+					this.m_types.toArray(new FieldType[this.m_types.size()]));
+		}
+
+	}
+
+	/**
+	 * Number of bytes of the schema id preceding the fields of an encoded
+	 * record
+	 */
+	public static final int HEADER_SIZE = 2;
+
+	/**
+	 * Highest schema id
+	 */
+	public static final int MAX_ID = 0xFFFF;
+
+	private static <T> T checkNotNull(final T reference) {
+		if (reference == null) {
+			throw new NullPointerException();
+		}
+		return reference;
+	}
+
+	private final String[] m_fields;
+	private final int m_id;
+	private final Map<String, Integer> m_indices = new HashMap<>();
+	private final String m_name;
+	private final int[] m_offsets;
+	private final int m_size;
+	private final FieldType[] m_types;
+
+	private RecordSchema(final int id, final String name, final String[] fields, final FieldType[] types) {
+		this.m_id = id;
+		this.m_name = name;
+		this.m_fields = fields;
+		this.m_types = types;
+		this.m_offsets = new int[fields.length];
+		int offset = HEADER_SIZE;
+		for (int i = 0; i < fields.length; i++) {
+			this.m_indices.put(fields[i], i);
+			this.m_offsets[i] = offset;
+			offset += types[i].getSize();
+		}
+		this.m_size = offset;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof RecordSchema)) {
+			return false;
+		}
+		final RecordSchema other = (RecordSchema) obj;
+		return (this.m_id == other.m_id) && this.m_name.equals(other.m_name)
+				&& Arrays.equals(this.m_fields, other.m_fields)
+				&& Arrays.equals(this.m_types, other.m_types);
+	}
+
+	/**
+	 * Returns the number of fields
+	 */
+	public int getFieldCount() {
+		return this.m_fields.length;
+	}
+
+	/**
+	 * Returns the name of the field at the given index
+	 */
+	public String getFieldName(final int index) {
+		return this.m_fields[index];
+	}
+
+	/**
+	 * Returns the names of the fields in the order of their encoding
+	 */
+	public List<String> getFieldNames() {
+		return Collections.unmodifiableList(Arrays.asList(this.m_fields));
+	}
+
+	/**
+	 * Returns the type of the field at the given index
+	 */
+	public FieldType getFieldType(final int index) {
+		return this.m_types[index];
+	}
+
+	/**
+	 * Returns the id of the schema
+	 */
+	public int getId() {
+		return this.m_id;
+	}
+
+	/**
+	 * Returns the name of the schema
+	 */
+	public String getName() {
+		return this.m_name;
+	}
+
+	/**
+	 * Returns the number of bytes of an encoded record
+	 */
+	public int getSize() {
+		return this.m_size;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return (31 * this.m_id) + this.m_name.hashCode();
+	}
+
+	/**
+	 * Returns the index of the field with the given name or {@code -1} if the
+	 * schema has no such field
+	 */
+	public int indexOf(final String field) {
+		final Integer index = this.m_indices.get(field);
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * Returns the offset of the field at the given index in an encoded record
+	 */
+	int offset(final int index) {
+		return this.m_offsets[index];
+	}
+
+	/**
+	 * Parses a textual record of comma separated {@code name=value} pairs as
+	 * sent by the machines. Pairs of unknown fields are ignored.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a field is missing or its value is malformed
+	 */
+	public Record parse(final CharSequence text) {
+		final Record.Builder builder = new Record.Builder(this);
+		final int length = text.length();
+		int start = 0;
+		while (start < length) {
+			int end = start;
+			while ((end < length) && (text.charAt(end) != ',')) {
+				end++;
+			}
+			final String pair = text.subSequence(start, end).toString();
+			final int separator = pair.indexOf('=');
+			if (separator > 0) {
+				final int index = this.indexOf(pair.substring(0, separator).trim());
+				if (index >= 0) {
+					builder.set(index, pair.substring(separator + 1).trim());
+				}
+			}
+			start = end + 1;
+		}
+		return builder.build();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder(this.m_name).append('#').append(this.m_id).append('[');
+		for (int i = 0; i < this.m_fields.length; i++) {
+			builder.append(i > 0 ? ", " : "").append(this.m_fields[i]).append(':').append(this.m_types[i]);
+		}
+		return builder.append(']').toString();
+	}
+
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.events.record;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * All the record schemas should be registered here, so that the encoded
+ * records can be decoded by their schema id
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class SchemaRegistry {
+
+	/**
+	 * The registered schemas by id
+	 */
+	private static final ConcurrentMap<Integer, RecordSchema> SCHEMAS = new ConcurrentHashMap<>();
+
+	/**
+	 * Realtime data of the milling machines
+	 */
+	public static final RecordSchema MILLING_MACHINE = register(new RecordSchema.Builder(1, "milling.machine")
+			.add("force_x", FieldType.DOUBLE).add("force_y", FieldType.DOUBLE).add("force_z", FieldType.DOUBLE)
+			.add("time", FieldType.DOUBLE).add("torque_x", FieldType.DOUBLE).add("torque_y", FieldType.DOUBLE)
+			.add("torque_z", FieldType.DOUBLE).build());
+
+	/**
+	 * Returns the schema with the given id or {@code null} if there is none
+	 */
+	public static RecordSchema get(final int id) {
+		return SCHEMAS.get(id);
+	}
+
+	/**
+	 * Returns the schema with the given name or {@code null} if there is none
+	 */
+	public static RecordSchema get(final String name) {
+		for (final RecordSchema schema : SCHEMAS.values()) {
+			if (schema.getName().equals(name)) {
+				return schema;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a schema
+	 *
+	 * @return the schema
+	 * @throws IllegalArgumentException
+	 *             if another schema has been registered with the same id
+	 */
+	public static RecordSchema register(final RecordSchema schema) {
+		final RecordSchema registered = SCHEMAS.putIfAbsent(schema.getId(), schema);
+		if ((registered != null) && !registered.equals(schema)) {
+			throw new IllegalArgumentException("Schema id " + schema.getId() + " is used by " + registered.getName());
+		}
+		return schema;
+	}
+
+	/* Constructor */
+	private SchemaRegistry() {
+	}
+
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tum.in.client.util.PayloadCodec;
+import de.tum.in.client.util.PayloadCodecs;
+
+/**
+ * Runs the benchmarks from the command line, e.g.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar Decoder -p shape=MANY_METRICS
+ * </pre>
+ *
+ * Accepts the usual JMH options. Unless specified otherwise, the allocation
+ * rate is measured with the GC profiler and the results are written as JSON
+ * to {@value #DEFAULT_RESULT}, so that runs before and after a codec change
+ * can be compared by tools.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * File the results are written to by default
+	 */
+	public static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+	/**
+	 * Returns the codec with the given name or {@code null} for "none"
+	 */
+	static PayloadCodec codec(final String name) {
+		if ("none".equals(name)) {
+			return null;
+		}
+		final PayloadCodec codec = PayloadCodecs.get(name);
+		if (codec == null) {
+			throw new IllegalArgumentException("Unknown codec " + name);
+		}
+		return codec;
+	}
+
+	public static void main(final String... args)
+			throws CommandLineOptionException, IOException, RunnerException {
+		final CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+		final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			options.result(DEFAULT_RESULT);
+		}
+		if (commandLine.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+
+		final Runner runner = new Runner(options.build());
+		if (commandLine.shouldList()) {
+			runner.list();
+		} else {
+			runner.run();
+		}
+	}
+
+	/** Constructor */
+	private BenchmarkRunner() {
+	}
+
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.in.client.operator.KuraPayloadEncoder;
+import de.tum.in.client.util.GZipUtil;
+import de.tum.in.client.util.PayloadCodec;
+
+/**
+ * Measures the payload codecs on their own. The gzip codec is the one behind
+ * {@link GZipUtil}.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+	@Param({ "gzip", "lz4" })
+	private String codec;
+
+	private byte[] compressed;
+
+	private byte[] encoded;
+
+	private PayloadCodec payloadCodec;
+
+	@Param
+	private PayloadShape shape;
+
+	@Benchmark
+	public byte[] compress() throws IOException {
+		return this.payloadCodec.compress(this.encoded, 0, this.encoded.length);
+	}
+
+	@Benchmark
+	public ByteBuffer decompress() throws IOException {
+		return this.payloadCodec.decompress(this.compressed, 0, this.compressed.length);
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		this.payloadCodec = BenchmarkRunner.codec(this.codec);
+		this.encoded = new KuraPayloadEncoder(this.shape.create()).getBytes();
+		this.compressed = this.payloadCodec.compress(this.encoded, 0, this.encoded.length);
+	}
+
+}
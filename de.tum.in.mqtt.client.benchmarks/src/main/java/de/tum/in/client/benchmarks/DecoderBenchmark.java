@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.CodedInputStream;
+
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.message.KuraPayloadPool;
+import de.tum.in.client.message.protobuf.KuraPayloadProto;
+import de.tum.in.client.operator.KuraPayloadDecoder;
+import de.tum.in.client.operator.KuraPayloadEncoder;
+import de.tum.in.client.operator.KuraSchemaDecoder;
+import de.tum.in.client.util.PayloadCodec;
+
+/**
+ * Measures decoding a received message into a {@link KuraPayload}, including
+ * the decompression of compressed messages
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+
+	private byte[] bytes;
+
+	@Param({ "none", "gzip", "lz4" })
+	private String codec;
+
+	private PayloadCodec payloadCodec;
+
+	private final KuraPayloadPool pool = new KuraPayloadPool();
+
+	/**
+	 * Name of the metric a routing listener looks at, the last one of the
+	 * payload
+	 */
+	private String routingMetric;
+
+	@Param
+	private PayloadShape shape;
+
+	@Benchmark
+	public KuraPayload decode() throws IOException {
+		return new KuraPayloadDecoder(this.bytes).buildFromByteArray();
+	}
+
+	/**
+	 * Decodes into a recycled payload, as the client does if a payload pool
+	 * is configured
+	 */
+	@Benchmark
+	public int decodePooled() throws IOException {
+		final KuraPayload payload = new KuraPayloadDecoder(this.bytes).buildFromByteArray(
+				(KuraSchemaDecoder) null, this.pool.acquire());
+		final int count = payload.getMetricCount();
+		this.pool.release(payload);
+		return count;
+	}
+
+	/**
+	 * Baseline parsing the message into the generated protobuf classes
+	 */
+	@Benchmark
+	public KuraPayloadProto.KuraPayload decodeGenerated() throws IOException {
+		if (this.payloadCodec == null) {
+			return KuraPayloadProto.KuraPayload.parseFrom(this.bytes);
+		}
+		final ByteBuffer inflated = this.payloadCodec.decompress(this.bytes, 0, this.bytes.length);
+		final int offset = inflated.arrayOffset() + inflated.position();
+		return KuraPayloadProto.KuraPayload
+				.parseFrom(CodedInputStream.newInstance(inflated.array(), offset, inflated.remaining()));
+	}
+
+	/**
+	 * Decodes the message eagerly to read a single metric
+	 */
+	@Benchmark
+	public Object route() throws IOException {
+		return new KuraPayloadDecoder(this.bytes).buildFromByteArray().getMetric(this.routingMetric);
+	}
+
+	/**
+	 * Indexes the message to read a single metric
+	 */
+	@Benchmark
+	public Object routeLazy() throws IOException {
+		return new KuraPayloadDecoder(this.bytes).buildLazy((KuraSchemaDecoder) null).getMetric(this.routingMetric);
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		this.payloadCodec = BenchmarkRunner.codec(this.codec);
+		final KuraPayload payload = this.shape.create();
+		this.routingMetric = payload.getMetricName(payload.getMetricCount() - 1);
+		final byte[] encoded = new KuraPayloadEncoder(payload).getBytes();
+		this.bytes = this.payloadCodec == null ? encoded : this.payloadCodec.compress(encoded, 0, encoded.length);
+	}
+
+}
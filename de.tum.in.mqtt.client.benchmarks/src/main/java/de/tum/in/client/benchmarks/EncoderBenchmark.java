@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.operator.KuraPayloadEncoder;
+import de.tum.in.client.operator.KuraSchemaEncoder;
+import de.tum.in.client.util.PayloadCodec;
+
+/**
+ * Measures encoding a {@link KuraPayload} the way the client does before
+ * publishing, optionally followed by compression
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+
+	@Param({ "none", "gzip", "lz4" })
+	private String codec;
+
+	private PayloadCodec payloadCodec;
+
+	private KuraPayload payload;
+
+	private KuraSchemaEncoder schemaEncoder;
+
+	@Param
+	private PayloadShape shape;
+
+	/**
+	 * Encodes into a new array, as {@link KuraPayloadEncoder#getBytes()} does
+	 */
+	@Benchmark
+	public byte[] encode() throws IOException {
+		final byte[] bytes = new KuraPayloadEncoder(this.payload).getBytes();
+		return this.payloadCodec == null ? bytes : this.payloadCodec.compress(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Encodes into the buffer of the calling thread, as the client does when
+	 * publishing
+	 */
+	@Benchmark
+	public Object encodePooled() throws IOException {
+		final ByteBuffer buffer = new KuraPayloadEncoder(this.payload).toPooledBuffer();
+		if (this.payloadCodec == null) {
+			return buffer;
+		}
+		return this.payloadCodec.compress(buffer.array(), buffer.arrayOffset() + buffer.position(),
+				buffer.remaining());
+	}
+
+	/**
+	 * Encodes a delta frame of the session schema mode
+	 */
+	@Benchmark
+	public byte[] encodeSchema() throws IOException {
+		final byte[] bytes = this.schemaEncoder.encode(this.payload);
+		return this.payloadCodec == null ? bytes : this.payloadCodec.compress(bytes, 0, bytes.length);
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		this.payload = this.shape.create();
+		this.payloadCodec = BenchmarkRunner.codec(this.codec);
+		// no key frames while measuring
+		this.schemaEncoder = new KuraSchemaEncoder(Integer.MAX_VALUE);
+		this.schemaEncoder.encode(this.payload);
+	}
+
+}
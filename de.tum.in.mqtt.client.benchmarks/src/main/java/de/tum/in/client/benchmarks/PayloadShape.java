@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.message.KuraPosition;
+
+/**
+ * Shapes of the payloads the benchmarks run with. The payloads are generated
+ * from a fixed seed, so that every run works on the same data.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public enum PayloadShape {
+
+	/**
+	 * A handful of metrics, like a heartbeat or a single machine state
+	 */
+	FEW_METRICS {
+		@Override
+		public KuraPayload create() {
+			final Random random = new Random(SEED);
+			final KuraPayload payload = header(random);
+			payload.addDouble("spindle.temperature", 40 + random.nextDouble());
+			payload.addInt("spindle.speed", 12000 + random.nextInt(100));
+			payload.addLong("counter", 1L << 40);
+			payload.addBool("running", true);
+			payload.addMetric("state", "MILLING");
+			return payload;
+		}
+	},
+
+	/**
+	 * Hundreds of metrics, like a gateway aggregating several machines
+	 */
+	MANY_METRICS {
+		@Override
+		public KuraPayload create() {
+			final Random random = new Random(SEED);
+			final KuraPayload payload = header(random);
+			for (int i = 0; i < 300; i++) {
+				final String name = "machine." + (i / 30) + ".sensor." + (i % 30);
+				switch (i % 4) {
+				case 0:
+					payload.addDouble(name, random.nextGaussian() * 100);
+					break;
+				case 1:
+					payload.addInt(name, random.nextInt(65536));
+					break;
+				case 2:
+					payload.addFloat(name, random.nextFloat());
+					break;
+				default:
+					payload.addBool(name, random.nextBoolean());
+				}
+			}
+			return payload;
+		}
+	},
+
+	/**
+	 * A few metrics and a large body, like a batch of raw samples
+	 */
+	LARGE_BODY {
+		@Override
+		public KuraPayload create() {
+			final Random random = new Random(SEED);
+			final KuraPayload payload = header(random);
+			payload.addMetric("format", "csv");
+			payload.addInt("samples", BODY_SAMPLES);
+			final StringBuilder body = new StringBuilder();
+			for (int i = 0; i < BODY_SAMPLES; i++) {
+				body.append(i).append(',').append(String.format(Locale.ROOT, "%.3f", random.nextGaussian())).append('\n');
+			}
+			payload.setBody(body.toString().getBytes(StandardCharsets.UTF_8));
+			return payload;
+		}
+	};
+
+	/**
+	 * Number of samples of the {@link #LARGE_BODY} body, about 64 KiB
+	 */
+	private static final int BODY_SAMPLES = 6000;
+
+	private static final long SEED = 42;
+
+	private static KuraPayload header(final Random random) {
+		final KuraPayload payload = new KuraPayload();
+		payload.setTimestamp(new Date(1445000000000L + random.nextInt(1000)));
+		final KuraPosition position = new KuraPosition();
+		position.setLatitude(48.2626);
+		position.setLongitude(11.6679);
+		position.setAltitude(480);
+		payload.setPosition(position);
+		return payload;
+	}
+
+	/**
+	 * Creates a new payload of this shape
+	 */
+	public abstract KuraPayload create();
+
+}
@@ -15,12 +15,20 @@
  *******************************************************************************/
 package de.tum.in.client;
 
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.fusesource.mqtt.client.QoS;
+
 import com.google.common.annotations.Beta;
+import com.google.common.util.concurrent.ListenableFuture;
 
+import de.tum.in.client.adapter.ConnectionListener;
 import de.tum.in.client.adapter.MessageListener;
 import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.metrics.ClientMetrics;
 
 /**
  * The client interface used to operate on MQTT Calls
@@ -28,7 +36,7 @@ import de.tum.in.client.message.KuraPayload;
  * @author AMIT KUMAR MONDAL
  */
 @Beta
-public interface IKuraMQTTClient {
+public interface IKuraMQTTClient extends Closeable {
 
 	/**
 	 * Connection related exception
@@ -48,7 +56,24 @@ public interface IKuraMQTTClient {
 	public static final String PROTOCOL = "tcp";
 
 	/**
-	 * Connect to Message Broker
+	 * Registers a listener which gets notified whenever the connection state
+	 * changes
+	 *
+	 * @param listener
+	 *            the listener to register
+	 */
+	public void addConnectionListener(ConnectionListener listener);
+
+	/**
+	 * Disconnects the client and stops the threads it owns. The client cannot
+	 * be connected again afterwards.
+	 */
+	@Override
+	public void close();
+
+	/**
+	 * Connect to Message Broker. If the broker cannot be reached, the client
+	 * keeps trying in the background unless automatic reconnects are disabled.
 	 */
 	public boolean connect();
 
@@ -67,6 +92,11 @@ public interface IKuraMQTTClient {
 	 */
 	public String getHost();
 
+	/**
+	 * Returns the metrics the client records while it is running
+	 */
+	public ClientMetrics getMetrics();
+
 	/**
 	 * Returns the channels the client is currently subscribed to.
 	 *
@@ -89,9 +119,52 @@ public interface IKuraMQTTClient {
 	 */
 	public void publish(final String channel, KuraPayload payload);
 
+	/**
+	 * Publishes a message to a channel without waiting for the broker. The
+	 * call only blocks while the in-flight window of the client is full.
+	 *
+	 * @param channel
+	 *            the channel we are publishing to
+	 * @param payload
+	 *            the message we are publishing
+	 * @param qos
+	 *            the quality of service to publish with
+	 * @return future which completes once the message is written (QoS 0) or
+	 *         acknowledged by the broker (QoS 1 and 2). Fails with a
+	 *         {@link ConnectionException} if the client is not connected and
+	 *         has no journal to store the message in.
+	 */
+	public ListenableFuture<Void> publishAsync(final String channel, KuraPayload payload, QoS qos);
+
+	/**
+	 * Publishes a batch of messages to a channel in the given order. The
+	 * messages are pipelined to the broker and the call only blocks while the
+	 * in-flight window of the client is full.
+	 *
+	 * @param channel
+	 *            the channel we are publishing to
+	 * @param payloads
+	 *            the messages we are publishing
+	 * @param qos
+	 *            the quality of service to publish with
+	 * @return future which completes once every message of the batch has
+	 *         completed, or fails with the first failure
+	 */
+	public ListenableFuture<List<Void>> publishBatch(final String channel, List<KuraPayload> payloads, QoS qos);
+
+	/**
+	 * Deregisters a connection state listener
+	 *
+	 * @param listener
+	 *            the listener to deregister
+	 */
+	public void removeConnectionListener(ConnectionListener listener);
+
 	/**
 	 * Subscribes to a channel and registers a callback that is fired every time
-	 * a new message is published on the channel.
+	 * a new message is published on the channel. The channel may contain the
+	 * MQTT wildcards {@code +} and {@code #} and several callbacks may be
+	 * registered for the same channel.
 	 *
 	 * @param channel
 	 *            the channel we are subscribing to
@@ -101,6 +174,33 @@ public interface IKuraMQTTClient {
 	 */
 	public void subscribe(final String channel, final MessageListener callback);
 
+	/**
+	 * Subscribes to all of the channels with a single SUBSCRIBE packet. The
+	 * call waits for the broker for a bounded time only. If the client is not
+	 * connected, the channels are subscribed as soon as the connection is
+	 * established.
+	 *
+	 * @param channels
+	 *            the callbacks per channel we are subscribing to
+	 * @return the QoS granted per channel, rejected channels and channels
+	 *         the broker did not answer for in time are missing
+	 */
+	public Map<String, QoS> subscribeAll(Map<String, MessageListener> channels);
+
+	/**
+	 * Subscribes to all of the channels with a single SUBSCRIBE packet without
+	 * waiting for the broker
+	 *
+	 * @param channels
+	 *            the callbacks per channel we are subscribing to
+	 * @param qos
+	 *            the quality of service to subscribe with
+	 * @return future which completes with the QoS granted per channel once
+	 *         the broker answered, possibly after a reconnect. Rejected
+	 *         channels are missing and their callbacks are deregistered.
+	 */
+	public ListenableFuture<Map<String, QoS>> subscribeAllAsync(Map<String, MessageListener> channels, QoS qos);
+
 	/**
 	 * Unsubscribes from a channel.
 	 *
@@ -109,4 +209,24 @@ public interface IKuraMQTTClient {
 	 */
 	public void unsubscribe(String channel);
 
+	/**
+	 * Deregisters a single callback from a channel. The client unsubscribes
+	 * from the channel once its last callback has been deregistered.
+	 *
+	 * @param channel
+	 *            the channel the callback has been registered for
+	 * @param callback
+	 *            the callback to deregister
+	 */
+	public void unsubscribe(String channel, MessageListener callback);
+
+	/**
+	 * Unsubscribes from a channel without waiting for the broker
+	 *
+	 * @param channel
+	 *            the channel we are unsubscribing to
+	 * @return future which completes once the broker confirmed
+	 */
+	public ListenableFuture<Void> unsubscribeAsync(String channel);
+
 }
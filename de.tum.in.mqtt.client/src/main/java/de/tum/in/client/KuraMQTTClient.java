@@ -17,11 +17,31 @@ package de.tum.in.client;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -37,12 +57,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import de.tum.in.client.adapter.ConnectionListener;
 import de.tum.in.client.adapter.MessageListener;
+import de.tum.in.client.journal.MessageJournal;
 import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.message.KuraPayloadPool;
+import de.tum.in.client.metrics.ClientMetrics;
+import de.tum.in.client.metrics.ClientMetricsRecorder;
 import de.tum.in.client.operator.KuraPayloadDecoder;
 import de.tum.in.client.operator.KuraPayloadEncoder;
+import de.tum.in.client.operator.KuraSchemaDecoder;
+import de.tum.in.client.operator.KuraSchemaEncoder;
+import de.tum.in.client.operator.LazyKuraPayload;
+import de.tum.in.client.util.PayloadCodec;
+import de.tum.in.client.util.PayloadCodecs;
+import de.tum.in.client.util.TopicTrie;
 
 /**
  * Implementation of {@link IKuraMQTTClient}
@@ -55,14 +91,39 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 
 	public static class Builder {
 
+		private boolean autoReconnect = true;
 		private String clientId;
+		private PayloadCodec compression;
+		private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+		private Executor dispatchExecutor;
 		private String host;
+		private MessageJournal journal;
+		private boolean lazyDecoding;
+		private int maxInflight = DEFAULT_MAX_INFLIGHT;
 		private String password;
+		private KuraPayloadPool payloadPool;
 		private String port;
+		private long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+		private long reconnectDelayMax = DEFAULT_RECONNECT_DELAY_MAX;
+		private int schemaKeyFrameInterval;
 		private String username;
 
 		public KuraMQTTClient build() {
-			return new KuraMQTTClient(this.host, this.port, this.clientId, this.username, this.password);
+			return new KuraMQTTClient(this);
+		}
+
+		boolean hasJournal() {
+			return this.journal != null;
+		}
+
+		/**
+		 * Enables or disables the reconnect supervisor. If enabled, the client
+		 * keeps reconnecting with exponential backoff whenever the connection
+		 * gets lost and replays its subscriptions afterwards.
+		 */
+		public Builder setAutoReconnect(final boolean autoReconnect) {
+			this.autoReconnect = autoReconnect;
+			return this;
 		}
 
 		public Builder setClientId(final String clientId) {
@@ -70,66 +131,707 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 			return this;
 		}
 
+		/**
+		 * Compresses every published payload whose encoded size reaches the
+		 * threshold with the given codec, e.g. {@link PayloadCodecs#GZIP} to
+		 * save bandwidth or {@link PayloadCodecs#LZ4} to save CPU. Payloads
+		 * which do not shrink are sent uncompressed. Pass {@code null} to
+		 * disable compression.
+		 */
+		public Builder setCompression(final PayloadCodec compression, final int compressionThreshold) {
+			Preconditions.checkArgument(compressionThreshold >= 0, "Compression threshold must not be negative");
+			this.compression = compression;
+			this.compressionThreshold = compressionThreshold;
+			return this;
+		}
+
+		/**
+		 * Sets the executor received messages are handed to the listeners on,
+		 * so that slow listeners do not hold up the connection. By default a
+		 * single thread of the client delivers the messages in order.
+		 */
+		public Builder setDispatchExecutor(final Executor dispatchExecutor) {
+			this.dispatchExecutor = dispatchExecutor;
+			return this;
+		}
+
 		public Builder setHost(final String host) {
 			this.host = host;
 			return this;
 		}
 
+		/**
+		 * Sets the journal used to store messages while the broker is not
+		 * reachable. Stored messages are drained in order once the client is
+		 * connected again.
+		 */
+		public Builder setJournal(final MessageJournal journal) {
+			this.journal = journal;
+			return this;
+		}
+
+		/**
+		 * Enables lazy decoding of the received payloads. Listeners receive a
+		 * {@link LazyKuraPayload} which decodes a metric only when it is
+		 * accessed by name, so listeners which look at a few metrics only do
+		 * not pay for decoding the whole payload. Cannot be combined with a
+		 * payload pool.
+		 */
+		public Builder setLazyDecoding(final boolean lazyDecoding) {
+			this.lazyDecoding = lazyDecoding;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of messages which are allowed to be in
+		 * flight at the same time. Publishers are held back while the window
+		 * is full.
+		 */
+		public Builder setMaxInflight(final int maxInflight) {
+			Preconditions.checkArgument(maxInflight > 0, "In-flight window must be positive");
+			this.maxInflight = maxInflight;
+			return this;
+		}
+
 		public Builder setPassword(final String password) {
 			this.password = password;
 			return this;
 		}
 
+		/**
+		 * Enables recycling of the received payloads. The payloads are
+		 * decoded into instances of the pool and go back to the pool as soon
+		 * as the last listener returned from
+		 * {@link MessageListener#processMessage(KuraPayload)}. Listeners must
+		 * therefore process the payload synchronously and must not keep a
+		 * reference to it or to its position.
+		 */
+		public Builder setPayloadPool(final KuraPayloadPool payloadPool) {
+			this.payloadPool = payloadPool;
+			return this;
+		}
+
 		public Builder setPort(final String port) {
 			this.port = port;
 			return this;
 		}
 
+		/**
+		 * Sets the initial and the maximum delay in milliseconds between two
+		 * reconnect attempts
+		 */
+		public Builder setReconnectDelay(final long reconnectDelay, final long reconnectDelayMax) {
+			Preconditions.checkArgument((reconnectDelay > 0) && (reconnectDelay <= reconnectDelayMax),
+					"Invalid reconnect delays");
+			this.reconnectDelay = reconnectDelay;
+			this.reconnectDelayMax = reconnectDelayMax;
+			return this;
+		}
+
+		/**
+		 * Enables the session schema mode for published payloads. Every topic
+		 * sends its metric names once with a key frame, the following frames
+		 * only carry the metric values as deltas. A key frame is repeated
+		 * after the given number of frames and after reconnects, so that
+		 * receivers which missed frames resynchronize. Payloads of one topic
+		 * must therefore be published in order. Pass 0 to disable the mode.
+		 */
+		public Builder setSessionSchema(final int keyFrameInterval) {
+			Preconditions.checkArgument(keyFrameInterval >= 0, "Key frame interval must not be negative");
+			this.schemaKeyFrameInterval = keyFrameInterval;
+			return this;
+		}
+
 		public Builder setUsername(final String username) {
 			this.username = username;
 			return this;
 		}
 	}
 
+	/**
+	 * Connection listener bound to a single {@link CallbackConnection}.
+	 * Callbacks of connections which have been replaced in the meantime are
+	 * ignored.
+	 */
+	private final class ConnectionHandler implements Listener {
+
+		private final CallbackConnection boundConnection;
+
+		private ConnectionHandler(final CallbackConnection boundConnection) {
+			this.boundConnection = boundConnection;
+		}
+
+		private boolean isCurrent() {
+			return this.boundConnection == KuraMQTTClient.this.connection;
+		}
+
+		@Override
+		public void onConnected() {
+			LOGGER.debug("Host connected");
+			if (this.isCurrent()) {
+				KuraMQTTClient.this.connectionEstablished();
+			}
+		}
+
+		@Override
+		public void onDisconnected() {
+			LOGGER.debug("Host disconnected");
+			if (this.isCurrent()) {
+				KuraMQTTClient.this.connectionLost();
+			}
+		}
+
+		@Override
+		public void onFailure(final Throwable throwable) {
+			LOGGER.debug("Exception Occurred: " + throwable.getMessage());
+			if (this.isCurrent()) {
+				KuraMQTTClient.this.connectionLost();
+			}
+		}
+
+		@Override
+		public void onPublish(final UTF8Buffer mqttChannel, final Buffer mqttMessage, final Runnable ack) {
+			final String channel = mqttChannel.toString();
+			KuraMQTTClient.this.metrics.received(channel, mqttMessage.length);
+			final List<MessageListener> listeners = new ArrayList<>(1);
+			if (KuraMQTTClient.this.subscriptions.match(channel, listeners)) {
+				final KuraPayloadDecoder decoder = new KuraPayloadDecoder(mqttMessage);
+				final KuraPayload target = KuraMQTTClient.this.payloadPool != null
+						? KuraMQTTClient.this.payloadPool.acquire() : null;
+
+				try {
+					final long start = System.nanoTime();
+					// the topic gets a decoder with its first session schema frame
+					final Supplier<KuraSchemaDecoder> schemaDecoder = new Supplier<KuraSchemaDecoder>() {
+						@Override
+						public KuraSchemaDecoder get() {
+							return KuraMQTTClient.this.schemaDecoder(channel);
+						}
+					};
+					final KuraPayload payload;
+					if (KuraMQTTClient.this.lazyDecoding) {
+						payload = decoder.buildLazy(schemaDecoder);
+					} else {
+						payload = decoder.buildFromByteArray(schemaDecoder, target != null ? target
+								: new KuraPayload());
+					}
+					KuraMQTTClient.this.metrics.decoded(System.nanoTime() - start);
+					if (payload != null) {
+						KuraMQTTClient.this.dispatch(channel, payload, listeners);
+					} else {
+						KuraMQTTClient.this.recycle(target);
+					}
+				} catch (final IOException e) {
+					LOGGER.debug("I/O Exception Occurred: " + e.getMessage());
+					KuraMQTTClient.this.recycle(target);
+				}
+			}
+			ack.run();
+		}
+	}
+
+	/**
+	 * Callback to complete a pending publish and release its in-flight slot
+	 */
+	private final class PublishCallback implements Callback<Void> {
+
+		private final PendingPublish pending;
+
+		private PublishCallback(final PendingPublish pending) {
+			this.pending = pending;
+		}
+
+		@Override
+		public void onFailure(final Throwable throwable) {
+			KuraMQTTClient.this.inflightWindow.release();
+			KuraMQTTClient.this.metrics.publishFailed();
+			LOGGER.debug("Impossible to publish message to channel " + this.pending.channel);
+			if ((KuraMQTTClient.this.journal != null) && !this.pending.fromJournal) {
+				KuraMQTTClient.this.journal(this.pending);
+				return;
+			}
+			this.pending.future.setException(throwable);
+		}
+
+		@Override
+		public void onSuccess(final Void aVoid) {
+			KuraMQTTClient.this.inflightWindow.release();
+			KuraMQTTClient.this.metrics.published(this.pending.bytes.length);
+			LOGGER.debug("Successfully published");
+			this.pending.future.set(null);
+		}
+	}
+
+	/**
+	 * Subscription request waiting for the broker to grant its channels
+	 */
+	private static final class PendingSubscription {
+		private final Map<String, MessageListener> channels;
+		private final SettableFuture<Map<String, QoS>> future;
+		private final Map<String, QoS> granted;
+		private final Set<String> outstanding;
+
+		private PendingSubscription(final Map<String, MessageListener> channels, final Map<String, QoS> granted) {
+			this.channels = channels;
+			this.granted = granted;
+			this.outstanding = new HashSet<>(channels.keySet());
+			this.future = SettableFuture.create();
+		}
+	}
+
+	/**
+	 * Encoded message waiting to be handed over to the connection
+	 */
+	private static final class PendingPublish {
+
+		private final byte[] bytes;
+		private final String channel;
+		private final boolean fromJournal;
+		private final SettableFuture<Void> future;
+		private final Buffer payload;
+		private final QoS qos;
+		private final UTF8Buffer topic;
+
+		private PendingPublish(final String channel, final byte[] payload, final QoS qos,
+				final boolean fromJournal) {
+			this.channel = channel;
+			this.topic = UTF8Buffer.utf8(channel);
+			this.bytes = payload;
+			this.payload = new Buffer(payload);
+			this.qos = qos;
+			this.fromJournal = fromJournal;
+			this.future = SettableFuture.create();
+		}
+	}
+
+	/**
+	 * Default encoded size in bytes from which payloads get compressed
+	 */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+	/**
+	 * Default size of the in-flight window
+	 */
+	public static final int DEFAULT_MAX_INFLIGHT = 100;
+
+	/**
+	 * Default initial delay between reconnect attempts in milliseconds
+	 */
+	public static final long DEFAULT_RECONNECT_DELAY = 500;
+
+	/**
+	 * Default maximum delay between reconnect attempts in milliseconds
+	 */
+	public static final long DEFAULT_RECONNECT_DELAY_MAX = 60000;
+
+	/**
+	 * Maximum number of journaled messages handed to the connection at once
+	 */
+	private static final int JOURNAL_DRAIN_BATCH = 64;
+
+	/**
+	 * Flag of a SUBACK return code signalling a rejected subscription
+	 */
+	private static final int SUBACK_FAILURE = 0x80;
+
+	/**
+	 * Time in seconds the blocking subscribe calls wait for the broker
+	 */
+	static final long SUBSCRIBE_TIMEOUT = 30;
+
+	/**
+	 * Time to wait for a journaled message to be completed by the connection
+	 */
+	private static final long JOURNAL_DRAIN_TIMEOUT = 30;
+
 	/**
 	 * Logger
 	 */
 	private static final Logger LOGGER = LoggerFactory.getLogger(KuraMQTTClient.class);
-	protected Map<String, MessageListener> channels = null;
+	/**
+	 * Whether the reconnect supervisor is enabled
+	 */
+	private final boolean autoReconnect;
 	private final String clientId;
-	protected CallbackConnection connection = null;
 
+	/**
+	 * Codec compressing outgoing payloads, {@code null} if disabled
+	 */
+	private final PayloadCodec compression;
+	private final int compressionThreshold;
+	protected volatile CallbackConnection connection = null;
+
+	private final List<ConnectionListener> connectionListeners;
 	private final Lock connectionLock;
+
+	/**
+	 * Guards the transitions of {@link #isConnected}
+	 */
+	private final Object connectionStateLock;
+
+	/**
+	 * Executor delivering received messages to the listeners
+	 */
+	private final Executor dispatchExecutor;
+
+	/**
+	 * Whether the dispatch executor has been created by the client and is
+	 * shut down with it
+	 */
+	private final boolean dispatchExecutorOwned;
+
+	/**
+	 * Set while a journal drain task is scheduled or running
+	 */
+	private final AtomicBoolean draining;
 	private String errorMsg;
+	/**
+	 * QoS granted by the broker per subscribed channel
+	 */
+	private final ConcurrentMap<String, QoS> grantedQos;
+
 	/**
 	 * Connection Params
 	 */
 	private final String host;
 
-	private boolean isConnected;
+	/**
+	 * Bounds the number of messages handed to the connection but not yet
+	 * completed
+	 */
+	private final Semaphore inflightWindow;
+
+	private volatile boolean isConnected;
+
+	/**
+	 * Whether received payloads are decoded on access
+	 */
+	private final boolean lazyDecoding;
+
+	/**
+	 * Store-and-forward journal, {@code null} if not configured
+	 */
+	private final MessageJournal journal;
+
+	/**
+	 * Worker draining the journal in order
+	 */
+	private final ExecutorService journalDrainer;
+
+	/**
+	 * Metrics recorded while the client is running
+	 */
+	private final ClientMetricsRecorder metrics;
 
 	private final String password;
 
+	/**
+	 * Pool the received payloads are recycled into, {@code null} if disabled
+	 */
+	private final KuraPayloadPool payloadPool;
+
 	private final String port;
 
+	/**
+	 * Subscription requests waiting for the SUBACK of their channels
+	 */
+	private final List<PendingSubscription> pendingSubscriptions;
+
+	/**
+	 * Jitter source for the reconnect delays
+	 */
+	private final Random random;
+
+	/**
+	 * Number of reconnect attempts since the connection got lost
+	 */
+	private volatile int reconnectAttempts;
+	private final long reconnectDelay;
+	private final long reconnectDelayMax;
+
+	/**
+	 * Set while a reconnect attempt is scheduled
+	 */
+	private final AtomicBoolean reconnectScheduled;
+
+	/**
+	 * QoS requested per subscribed channel, used when subscribing again
+	 */
+	private final ConcurrentMap<String, QoS> requestedQos;
+
+	/**
+	 * Set between {@link #connect()} and {@link #disconnect()}, reconnects are
+	 * only attempted while the client is supposed to be connected
+	 */
+	private volatile boolean shouldBeConnected;
+
+	/**
+	 * Session schema decoders of the received topics carrying session schema
+	 * frames
+	 */
+	private final ConcurrentMap<String, KuraSchemaDecoder> schemaDecoders;
+
+	/**
+	 * Session schema encoders of the published topics
+	 */
+	private final ConcurrentMap<String, KuraSchemaEncoder> schemaEncoders;
+
+	/**
+	 * Number of delta frames between two session schema key frames, 0 if the
+	 * mode is disabled
+	 */
+	private final int schemaKeyFrameInterval;
+
+	/**
+	 * Message listeners per subscribed topic filter
+	 */
+	protected final TopicTrie<MessageListener> subscriptions;
+
+	/**
+	 * Reconnect supervisor
+	 */
+	private final ScheduledExecutorService supervisor;
+
 	private final String username;
 
 	/**
-	 * Creates a simple MQTT client and connects it to the specified MQTT broker
+	 * Creates a simple MQTT client from the builder configuration
 	 *
-	 * @param host
-	 *            the hostname of the broker
-	 * @param clientId
-	 *            the UNIQUE id of this client
-	 */
-	private KuraMQTTClient(final String host, final String port, final String clientId, final String username,
-			final String password) {
-		this.host = host;
-		this.port = port;
-		this.clientId = clientId;
-		this.username = username;
-		this.password = password;
+	 * @param builder
+	 *            the builder holding the connection parameters
+	 */
+	private KuraMQTTClient(final Builder builder) {
+		this.host = builder.host;
+		this.port = builder.port;
+		this.clientId = builder.clientId;
+		this.username = builder.username;
+		this.password = builder.password;
+		this.payloadPool = builder.payloadPool;
+		this.lazyDecoding = builder.lazyDecoding;
+		Preconditions.checkArgument(!this.lazyDecoding || (this.payloadPool == null),
+				"Lazy decoding cannot be combined with a payload pool");
+		this.compression = builder.compression;
+		this.compressionThreshold = builder.compressionThreshold;
+		this.schemaKeyFrameInterval = builder.schemaKeyFrameInterval;
+		this.schemaEncoders = new ConcurrentHashMap<>();
+		this.schemaDecoders = new ConcurrentHashMap<>();
+		this.inflightWindow = new Semaphore(builder.maxInflight);
+		final int maxInflight = builder.maxInflight;
+		this.metrics = new ClientMetricsRecorder(this.clientId, new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				return maxInflight - KuraMQTTClient.this.inflightWindow.availablePermits();
+			}
+		});
 		this.connectionLock = new ReentrantLock();
+		this.connectionStateLock = new Object();
+		this.subscriptions = new TopicTrie<>();
+		this.grantedQos = new ConcurrentHashMap<>();
+		this.requestedQos = new ConcurrentHashMap<>();
+		this.pendingSubscriptions = new CopyOnWriteArrayList<>();
+		this.dispatchExecutorOwned = builder.dispatchExecutor == null;
+		this.dispatchExecutor = builder.dispatchExecutor != null ? builder.dispatchExecutor
+				: Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+						.setNameFormat("mqtt-dispatch-" + this.clientId).build());
+		this.connectionListeners = new CopyOnWriteArrayList<>();
+		this.autoReconnect = builder.autoReconnect;
+		this.reconnectDelay = builder.reconnectDelay;
+		this.reconnectDelayMax = builder.reconnectDelayMax;
+		this.reconnectScheduled = new AtomicBoolean();
+		this.random = new Random();
+		this.supervisor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+				.setNameFormat("mqtt-reconnect-" + this.clientId).build());
+		this.journal = builder.journal;
+		this.draining = new AtomicBoolean();
+		this.journalDrainer = this.journal == null ? null
+				: Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+						.setNameFormat("mqtt-journal-" + this.clientId).build());
+	}
+
+	/**
+	 * Hands the received message over to the matching listeners on the
+	 * dispatch executor
+	 */
+	private void dispatch(final String channel, final KuraPayload payload, final List<MessageListener> listeners) {
+		try {
+			this.dispatchExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (final MessageListener listener : listeners) {
+						try {
+							listener.processMessage(payload);
+						} catch (final RuntimeException e) {
+							LOGGER.error("Message listener of channel " + channel + " failed: "
+									+ Throwables.getStackTraceAsString(e));
+						}
+					}
+					KuraMQTTClient.this.recycle(payload);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			LOGGER.warn("Dropped message of channel " + channel + ", dispatch executor rejected it");
+			this.recycle(payload);
+		}
+	}
+
+	/**
+	 * Publishes the journaled messages in order until the journal is empty or
+	 * the connection fails
+	 *
+	 * @return {@code true} if the journal has been drained completely
+	 */
+	private boolean doDrainJournal() {
+		while (this.isConnected) {
+			final List<MessageJournal.Entry> entries = this.journal.peek(JOURNAL_DRAIN_BATCH);
+			if (entries.isEmpty()) {
+				return true;
+			}
+			final List<PendingPublish> batch = new ArrayList<>(entries.size());
+			for (final MessageJournal.Entry entry : entries) {
+				batch.add(new PendingPublish(entry.getTopic(), entry.getPayload(), entry.getQos(), true));
+			}
+			try {
+				this.sendWindowed(batch);
+				for (int i = 0; i < batch.size(); i++) {
+					batch.get(i).future.get(JOURNAL_DRAIN_TIMEOUT, TimeUnit.SECONDS);
+					this.journal.remove(entries.get(i));
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (final ExecutionException | TimeoutException e) {
+				LOGGER.debug("Draining journal stopped: " + e.getMessage());
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Schedules draining of the journal unless a drain is already pending
+	 */
+	private void drainJournal() {
+		if ((this.journal == null) || !this.draining.compareAndSet(false, true)) {
+			return;
+		}
+		this.journalDrainer.execute(new Runnable() {
+			@Override
+			public void run() {
+				final boolean drained;
+				try {
+					drained = KuraMQTTClient.this.doDrainJournal();
+				} finally {
+					KuraMQTTClient.this.draining.set(false);
+				}
+				// messages might have been journaled after the last peek
+				if (drained && KuraMQTTClient.this.isConnected && !KuraMQTTClient.this.journal.isEmpty()) {
+					KuraMQTTClient.this.drainJournal();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Compresses the encoded payload if configured and worthwhile
+	 *
+	 * @return the compressed payload or {@code null} if the payload is to be
+	 *         sent as it is
+	 */
+	private byte[] compress(final byte[] bytes, final int offset, final int length) throws IOException {
+		if ((this.compression == null) || (length < this.compressionThreshold)) {
+			return null;
+		}
+		final byte[] compressed = this.compression.compress(bytes, offset, length);
+		return compressed.length < length ? compressed : null;
+	}
+
+	/**
+	 * Encodes the payload into a pending publish, compressing it if
+	 * configured and worthwhile
+	 */
+	private PendingPublish encode(final String channel, final KuraPayload payload, final QoS qos)
+			throws IOException {
+		final long start = System.nanoTime();
+		final PendingPublish pending = this.doEncode(channel, payload, qos);
+		this.metrics.encoded(System.nanoTime() - start);
+		return pending;
+	}
+
+	private PendingPublish doEncode(final String channel, final KuraPayload payload, final QoS qos)
+			throws IOException {
+		if (this.schemaKeyFrameInterval > 0) {
+			final KuraSchemaEncoder schemaEncoder = this.schemaEncoder(channel);
+			final byte[] frame;
+			synchronized (schemaEncoder) {
+				frame = schemaEncoder.encode(payload);
+			}
+			final byte[] compressed = this.compress(frame, 0, frame.length);
+			return new PendingPublish(channel, compressed != null ? compressed : frame, qos, false);
+		}
+
+		final KuraPayloadEncoder encoder = new KuraPayloadEncoder(payload);
+		if ((this.compression == null) || (encoder.getSerializedSize() < this.compressionThreshold)) {
+			return new PendingPublish(channel, encoder.getBytes(), qos, false);
+		}
+		final ByteBuffer encoded = encoder.toPooledBuffer();
+		final int offset = encoded.arrayOffset() + encoded.position();
+		final byte[] compressed = this.compress(encoded.array(), offset, encoded.remaining());
+		return new PendingPublish(channel, compressed != null ? compressed
+				: Arrays.copyOfRange(encoded.array(), offset, offset + encoded.remaining()), qos, false);
+	}
+
+	/**
+	 * Stores the message in the journal for later delivery
+	 */
+	private void journal(final PendingPublish pending) {
+		try {
+			if (this.journal.append(pending.channel, pending.qos, pending.bytes)) {
+				LOGGER.debug("Journaled message for channel " + pending.channel);
+				pending.future.set(null);
+				if (this.isConnected) {
+					this.drainJournal();
+				}
+			} else {
+				pending.future.setException(new IOException("Journal rejected message for " + pending.channel));
+			}
+		} catch (final IOException e) {
+			LOGGER.debug("I/O Exception Occurred: " + e.getMessage());
+			pending.future.setException(e);
+		}
+	}
+
+	/**
+	 * Messages have to go through the journal while the client is offline or
+	 * older messages are still waiting in the journal, to keep them in order
+	 */
+	private boolean shouldJournal() {
+		return (this.journal != null) && (!this.isConnected || !this.journal.isEmpty());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addConnectionListener(final ConnectionListener listener) {
+		this.connectionListeners.add(Preconditions.checkNotNull(listener));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		// stop the supervisor first so that it cannot reconnect in between
+		this.shouldBeConnected = false;
+		this.supervisor.shutdownNow();
+		try {
+			this.supervisor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.disconnect();
+		if (this.journalDrainer != null) {
+			this.journalDrainer.shutdown();
+		}
+		if (this.dispatchExecutorOwned) {
+			((ExecutorService) this.dispatchExecutor).shutdown();
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -140,6 +842,67 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 		Preconditions.checkNotNull(this.port);
 		Preconditions.checkNotNull(this.clientId);
 
+		this.shouldBeConnected = true;
+		final boolean connected = this.tryConnect();
+		if (!connected) {
+			this.scheduleReconnect();
+		}
+		return connected;
+	}
+
+	/**
+	 * Marks the client as disconnected and notifies the connection listeners
+	 * if it has been connected
+	 */
+	private void connectionClosed() {
+		if (this.setConnected(false)) {
+			for (final ConnectionListener listener : this.connectionListeners) {
+				listener.onDisconnected();
+			}
+		}
+	}
+
+	/**
+	 * Marks the client as connected and notifies the connection listeners
+	 * unless it has been connected already, no matter whether the supervisor
+	 * or the MQTT library has established the connection
+	 */
+	private void connectionEstablished() {
+		if (this.setConnected(true)) {
+			return;
+		}
+		this.reconnectAttempts = 0;
+		this.metrics.connected();
+		for (final ConnectionListener listener : this.connectionListeners) {
+			listener.onConnected();
+		}
+		this.drainJournal();
+	}
+
+	/**
+	 * Marks the current connection as lost and hands over to the reconnect
+	 * supervisor
+	 */
+	private void connectionLost() {
+		final boolean wasConnected = this.setConnected(false);
+		// frames might have been lost, let every stream start with a key frame
+		for (final KuraSchemaEncoder schemaEncoder : this.schemaEncoders.values()) {
+			synchronized (schemaEncoder) {
+				schemaEncoder.reset();
+			}
+		}
+		if (wasConnected) {
+			for (final ConnectionListener listener : this.connectionListeners) {
+				listener.onDisconnected();
+			}
+		}
+		this.scheduleReconnect();
+	}
+
+	/**
+	 * Creates the connection parameters
+	 */
+	private MQTT createMQTT() {
 		final MQTT mqtt = new MQTT();
 
 		try {
@@ -152,27 +915,31 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 		} catch (final URISyntaxException e) {
 			LOGGER.error(Throwables.getStackTraceAsString(e));
 		}
-		try {
-			if (this.connectionLock.tryLock(5, TimeUnit.SECONDS)) {
-				this.safelyConnect(mqtt);
-			}
-			this.isConnected = true;
-		} catch (final InterruptedException e) {
-			this.isConnected = false;
-		} catch (final ConnectionException e) {
-			this.isConnected = false;
-		} finally {
-			this.connectionLock.unlock();
+		if (this.autoReconnect) {
+			// the supervisor takes care of reconnecting
+			mqtt.setConnectAttemptsMax(0);
+			mqtt.setReconnectAttemptsMax(0);
 		}
-		return this.isConnected;
+		return mqtt;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public void disconnect() {
+		this.shouldBeConnected = false;
 		try {
 			if (this.connectionLock.tryLock(5, TimeUnit.SECONDS)) {
-				this.safelyDisconnect();
+				final boolean wasConnected = this.setConnected(false);
+				try {
+					this.safelyDisconnect();
+				} finally {
+					this.connectionLock.unlock();
+				}
+				if (wasConnected) {
+					for (final ConnectionListener listener : this.connectionListeners) {
+						listener.onDisconnected();
+					}
+				}
 			}
 		} catch (final Exception e) {
 			LOGGER.debug("Exception while disconnecting");
@@ -198,10 +965,16 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 		return this.host;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public ClientMetrics getMetrics() {
+		return this.metrics;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Set<String> getSubscribedChannels() {
-		return this.channels.keySet();
+		return this.subscriptions.filters();
 	}
 
 	/**
@@ -217,78 +990,263 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 		return this.isConnected;
 	}
 
+	/**
+	 * Returns the delay before the given reconnect attempt. The delay grows
+	 * exponentially up to the configured maximum and is randomized between
+	 * half and the full value, so that gateways losing the same broker do not
+	 * reconnect in lockstep.
+	 */
+	private long nextReconnectDelay(final int attempt) {
+		final long ceiling = this.reconnectDelay << Math.min(attempt - 1, 30);
+		final long delay = (ceiling <= 0) || (ceiling > this.reconnectDelayMax) ? this.reconnectDelayMax : ceiling;
+		return (delay / 2) + (long) (this.random.nextDouble() * (delay / 2));
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void publish(final String channel, final KuraPayload payload) {
-		if (this.connection != null) {
-			final KuraPayloadEncoder encoder = new KuraPayloadEncoder(payload);
-			try {
-				this.connection.publish(channel, encoder.getBytes(), QoS.AT_MOST_ONCE, false, new Callback<Void>() {
-					@Override
-					public void onFailure(final Throwable throwable) {
-						LOGGER.debug("Impossible to publish message to channel " + channel);
-					}
+		if ((this.connection != null) || (this.journal != null)) {
+			this.publishAsync(channel, payload, QoS.AT_MOST_ONCE);
+		}
+	}
 
-					@Override
-					public void onSuccess(final Void aVoid) {
-						LOGGER.debug("Successfully published");
-					}
-				});
-			} catch (final IOException e) {
-				LOGGER.debug("I/O Exception Occurred: " + e.getMessage());
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Void> publishAsync(final String channel, final KuraPayload payload, final QoS qos) {
+		Preconditions.checkNotNull(channel);
+		Preconditions.checkNotNull(payload);
+		Preconditions.checkNotNull(qos);
+
+		final PendingPublish pending;
+		try {
+			pending = this.encode(channel, payload, qos);
+		} catch (final IOException e) {
+			LOGGER.debug("I/O Exception Occurred: " + e.getMessage());
+			return Futures.immediateFailedFuture(e);
+		}
+		if (this.shouldJournal()) {
+			this.journal(pending);
+			return pending.future;
+		}
+		if (!this.isConnected) {
+			// the connection would keep the message until it is replaced
+			this.metrics.publishFailed();
+			return Futures.immediateFailedFuture(new ConnectionException("Client is not connected"));
+		}
+		try {
+			this.inflightWindow.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Futures.immediateFailedFuture(e);
+		}
+		this.send(Collections.singletonList(pending));
+		return pending.future;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<List<Void>> publishBatch(final String channel, final List<KuraPayload> payloads,
+			final QoS qos) {
+		Preconditions.checkNotNull(channel);
+		Preconditions.checkNotNull(payloads);
+		Preconditions.checkNotNull(qos);
+
+		final List<ListenableFuture<Void>> futures = new ArrayList<>(payloads.size());
+		final List<PendingPublish> batch = new ArrayList<>(payloads.size());
+		try {
+			for (final KuraPayload payload : payloads) {
+				final PendingPublish pending = this.encode(channel, payload, qos);
+				batch.add(pending);
+				futures.add(pending.future);
+			}
+		} catch (final IOException e) {
+			LOGGER.debug("I/O Exception Occurred: " + e.getMessage());
+			return Futures.immediateFailedFuture(e);
+		}
+		if (this.shouldJournal()) {
+			for (final PendingPublish pending : batch) {
+				this.journal(pending);
 			}
+			return Futures.allAsList(futures);
 		}
+		if (!this.isConnected) {
+			for (int i = 0; i < batch.size(); i++) {
+				this.metrics.publishFailed();
+			}
+			return Futures.immediateFailedFuture(new ConnectionException("Client is not connected"));
+		}
+		try {
+			this.sendWindowed(batch);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures.add(Futures.<Void> immediateFailedFuture(e));
+		}
+		return Futures.allAsList(futures);
 	}
 
 	/**
-	 * Connect in a thread safe manner
+	 * Hands the pending messages over to the connection in a single task on
+	 * its dispatch queue. Every pending message must own an in-flight slot.
 	 */
-	private void safelyConnect(final MQTT mqtt) throws ConnectionException {
-		if (this.isConnected) {
-			this.disconnect();
+	private void send(final List<PendingPublish> batch) {
+		if (batch.isEmpty()) {
+			return;
 		}
-		// Initialize channels
-		this.channels = new HashMap<>();
-		// Register callbacks
-		this.connection = mqtt.callbackConnection();
-		this.connection.listener(new Listener() {
+		final CallbackConnection connection = this.connection;
+		if (connection == null) {
+			for (final PendingPublish pending : batch) {
+				new PublishCallback(pending).onFailure(new ConnectionException("Client is not connected"));
+			}
+			return;
+		}
+		connection.getDispatchQueue().execute(new Runnable() {
 			@Override
-			public void onConnected() {
-				LOGGER.debug("Host connected");
+			public void run() {
+				for (final PendingPublish pending : batch) {
+					connection.publish(pending.topic, pending.payload, pending.qos, false,
+							new PublishCallback(pending));
+				}
 			}
+		});
+	}
 
-			@Override
-			public void onDisconnected() {
-				LOGGER.debug("Host disconnected");
+	/**
+	 * Hands the pending messages over to the connection while respecting the
+	 * in-flight window. Whatever fits into the window is sent in one go before
+	 * blocking for the next free slot.
+	 */
+	private void sendWindowed(final List<PendingPublish> batch) throws InterruptedException {
+		List<PendingPublish> window = new ArrayList<>();
+		try {
+			for (final PendingPublish pending : batch) {
+				if (!this.inflightWindow.tryAcquire()) {
+					this.send(window);
+					window = new ArrayList<>();
+					this.inflightWindow.acquire();
+				}
+				window.add(pending);
 			}
+		} finally {
+			this.send(window);
+		}
+	}
 
-			@Override
-			public void onFailure(final Throwable throwable) {
-				LOGGER.debug("Exception Occurred: " + throwable.getMessage());
+	/**
+	 * Puts a received payload back into the pool if recycling is enabled
+	 */
+	private void recycle(final KuraPayload payload) {
+		if (this.payloadPool != null) {
+			this.payloadPool.release(payload);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeConnectionListener(final ConnectionListener listener) {
+		this.connectionListeners.remove(listener);
+	}
+
+	/**
+	 * Subscribes to every registered channel again with a single SUBSCRIBE
+	 * packet after the connection has been re-established
+	 */
+	private void resubscribe(final CallbackConnection connection) {
+		final List<String> channels = new ArrayList<>(this.subscriptions.filters());
+		if (!channels.isEmpty()) {
+			this.sendSubscribe(connection, channels);
+		}
+	}
+
+	/**
+	 * Drops the session schema decoders of the received topics which are not
+	 * matched by any subscription anymore
+	 */
+	private void pruneSchemaDecoders() {
+		final List<MessageListener> listeners = new ArrayList<>(1);
+		for (final String topic : this.schemaDecoders.keySet()) {
+			listeners.clear();
+			if (!this.subscriptions.match(topic, listeners)) {
+				this.schemaDecoders.remove(topic);
+			}
+		}
+	}
+
+	/**
+	 * Returns the session schema decoder of the channel, created with the
+	 * first session schema frame received on it
+	 */
+	private KuraSchemaDecoder schemaDecoder(final String channel) {
+		KuraSchemaDecoder decoder = this.schemaDecoders.get(channel);
+		if (decoder == null) {
+			final KuraSchemaDecoder created = new KuraSchemaDecoder();
+			decoder = this.schemaDecoders.putIfAbsent(channel, created);
+			if (decoder == null) {
+				decoder = created;
+			}
+		}
+		return decoder;
+	}
+
+	/**
+	 * Returns the session schema encoder of the channel
+	 */
+	private KuraSchemaEncoder schemaEncoder(final String channel) {
+		KuraSchemaEncoder encoder = this.schemaEncoders.get(channel);
+		if (encoder == null) {
+			final KuraSchemaEncoder created = new KuraSchemaEncoder(this.schemaKeyFrameInterval);
+			encoder = this.schemaEncoders.putIfAbsent(channel, created);
+			if (encoder == null) {
+				encoder = created;
 			}
+		}
+		return encoder;
+	}
 
+	/**
+	 * Schedules the next reconnect attempt unless one is already pending
+	 */
+	private void scheduleReconnect() {
+		if (!this.autoReconnect || !this.shouldBeConnected || !this.reconnectScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		final int attempt = ++this.reconnectAttempts;
+		final long delay = this.nextReconnectDelay(attempt);
+		LOGGER.debug("Reconnecting to " + this.host + " in " + delay + " ms (attempt " + attempt + ")");
+		for (final ConnectionListener listener : this.connectionListeners) {
+			listener.onReconnecting(attempt, delay);
+		}
+		this.supervisor.schedule(new Runnable() {
 			@Override
-			public void onPublish(final UTF8Buffer mqttChannel, final Buffer mqttMessage, final Runnable ack) {
-				if (KuraMQTTClient.this.channels.containsKey(mqttChannel.toString())) {
-					final KuraPayloadDecoder decoder = new KuraPayloadDecoder(mqttMessage.toByteArray());
-
-					try {
-						KuraMQTTClient.this.channels.get(mqttChannel.toString())
-								.processMessage(decoder.buildFromByteArray());
-					} catch (final IOException e) {
-						LOGGER.debug("I/O Exception Occurred: " + e.getMessage());
-					}
+			public void run() {
+				KuraMQTTClient.this.reconnectScheduled.set(false);
+				if (KuraMQTTClient.this.shouldBeConnected && !KuraMQTTClient.this.isConnected
+						&& !KuraMQTTClient.this.tryConnect()) {
+					KuraMQTTClient.this.scheduleReconnect();
 				}
-				ack.run();
 			}
-		});
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Connect in a thread safe manner
+	 */
+	private void safelyConnect(final MQTT mqtt) throws ConnectionException {
+		// Get rid of a previous connection which might still be around
+		this.safelyDisconnect();
+		// Register callbacks
+		final CallbackConnection connection = mqtt.callbackConnection();
+		connection.listener(new ConnectionHandler(connection));
+		this.connection = connection;
 		// Connect to broker in a blocking fashion
 		final CountDownLatch l = new CountDownLatch(1);
-		this.connection.connect(new Callback<Void>() {
+		final AtomicBoolean failed = new AtomicBoolean();
+		connection.connect(new Callback<Void>() {
 			@Override
 			public void onFailure(final Throwable throwable) {
 				KuraMQTTClient.this.errorMsg = "Impossible to CONNECT to the MQTT server, terminating";
 				LOGGER.debug(KuraMQTTClient.this.errorMsg);
+				failed.set(true);
+				l.countDown();
 			}
 
 			@Override
@@ -304,6 +1262,9 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 				LOGGER.debug(this.errorMsg);
 				this.exceptionOccurred(this.errorMsg);
 			}
+			if (failed.get()) {
+				this.exceptionOccurred(this.errorMsg);
+			}
 		} catch (final InterruptedException e) {
 			this.errorMsg = "\"Impossible to CONNECT to the MQTT server, terminating\"";
 			LOGGER.debug(this.errorMsg);
@@ -316,8 +1277,10 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 	 * Disconnects the client in a thread safe way
 	 */
 	private void safelyDisconnect() {
-		if (this.connection != null) {
-			this.connection.disconnect(new Callback<Void>() {
+		final CallbackConnection connection = this.connection;
+		if (connection != null) {
+			this.connection = null;
+			connection.disconnect(new Callback<Void>() {
 				@Override
 				public void onFailure(final Throwable throwable) {
 					LOGGER.debug("Error while disconnecting");
@@ -331,55 +1294,237 @@ public class KuraMQTTClient implements IKuraMQTTClient {
 		}
 	}
 
+	/**
+	 * Updates the connection state
+	 *
+	 * @return whether the client has been connected before
+	 */
+	private boolean setConnected(final boolean connected) {
+		synchronized (this.connectionStateLock) {
+			final boolean wasConnected = this.isConnected;
+			this.isConnected = connected;
+			return wasConnected;
+		}
+	}
+
+	/**
+	 * Performs a single connection attempt and restores the session state on
+	 * success
+	 *
+	 * @return {@code true} if the client is connected afterwards
+	 */
+	private boolean tryConnect() {
+		final MQTT mqtt = this.createMQTT();
+		try {
+			if (!this.connectionLock.tryLock(5, TimeUnit.SECONDS)) {
+				return this.isConnected;
+			}
+			try {
+				this.safelyConnect(mqtt);
+			} finally {
+				this.connectionLock.unlock();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.connectionClosed();
+			return false;
+		} catch (final ConnectionException e) {
+			this.connectionClosed();
+			return false;
+		}
+		final CallbackConnection connection = this.connection;
+		if (connection == null) {
+			return false;
+		}
+		this.resubscribe(connection);
+		this.connectionEstablished();
+		return true;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void subscribe(final String channel, final MessageListener callback) {
-		if (this.connection != null) {
-			if (this.channels.containsKey(channel)) {
-				return;
+		this.subscribeAll(Collections.singletonMap(channel, callback));
+	}
+
+	/**
+	 * Records the SUBACK of the channels and completes the subscription
+	 * requests waiting for them. Runs on the dispatch queue of the
+	 * connection.
+	 */
+	private void subscribed(final List<String> channels, final byte[] returnCodes) {
+		final Map<String, QoS> granted = new HashMap<>();
+		for (int i = 0; i < channels.size(); i++) {
+			final int code = i < returnCodes.length ? returnCodes[i] & 0xFF : SUBACK_FAILURE;
+			if ((code & SUBACK_FAILURE) == 0) {
+				this.grantedQos.put(channels.get(i), QoS.values()[code]);
+				granted.put(channels.get(i), QoS.values()[code]);
+			} else {
+				LOGGER.warn("Broker rejected the subscription to channel \"" + channels.get(i) + "\"");
 			}
-			final CountDownLatch l = new CountDownLatch(1);
-			final Topic[] topic = { new Topic(channel, QoS.AT_MOST_ONCE) };
-			this.connection.subscribe(topic, new Callback<byte[]>() {
-				@Override
-				public void onFailure(final Throwable throwable) {
-					LOGGER.debug("Impossible to SUBSCRIBE to channel \"" + channel + "\"");
-					l.countDown();
+		}
+		// SUBACKs of an old and a new connection may overlap
+		synchronized (this.pendingSubscriptions) {
+			for (final PendingSubscription pending : this.pendingSubscriptions) {
+				for (final String channel : channels) {
+					if (!pending.outstanding.remove(channel)) {
+						continue;
+					}
+					final QoS qos = granted.get(channel);
+					if (qos != null) {
+						pending.granted.put(channel, qos);
+					} else if (this.subscriptions.remove(channel, pending.channels.get(channel))) {
+						this.requestedQos.remove(channel);
+						this.grantedQos.remove(channel);
+						this.pruneSchemaDecoders();
+					}
 				}
-
-				@Override
-				public void onSuccess(final byte[] bytes) {
-					KuraMQTTClient.this.channels.put(channel, callback);
-					l.countDown();
-					LOGGER.debug("Successfully subscribed to " + channel);
+				if (pending.outstanding.isEmpty()) {
+					this.pendingSubscriptions.remove(pending);
+					pending.future.set(Collections.unmodifiableMap(pending.granted));
 				}
-			});
-			try {
-				l.await();
-			} catch (final InterruptedException e) {
-				LOGGER.debug("Impossible to SUBSCRIBE to channel \"" + channel + "\"");
 			}
 		}
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, QoS> subscribeAll(final Map<String, MessageListener> channels) {
+		final ListenableFuture<Map<String, QoS>> future = this.subscribeAllAsync(channels, QoS.AT_MOST_ONCE);
+		if (!this.isConnected) {
+			// subscribed as soon as the connection is (re-)established
+			return Collections.emptyMap();
+		}
+		try {
+			return future.get(SUBSCRIBE_TIMEOUT, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException | TimeoutException e) {
+			LOGGER.debug("Impossible to SUBSCRIBE to channels " + channels.keySet() + ": " + e.getMessage());
+		}
+		return Collections.emptyMap();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Map<String, QoS>> subscribeAllAsync(final Map<String, MessageListener> channels,
+			final QoS qos) {
+		Preconditions.checkNotNull(qos);
+		for (final Map.Entry<String, MessageListener> entry : channels.entrySet()) {
+			TopicTrie.checkFilter(entry.getKey());
+			Preconditions.checkNotNull(entry.getValue());
+		}
+
+		final Map<String, MessageListener> added = new LinkedHashMap<>();
+		final Map<String, QoS> known = new HashMap<>();
+		for (final Map.Entry<String, MessageListener> entry : channels.entrySet()) {
+			final String channel = entry.getKey();
+			if (this.subscriptions.add(channel, entry.getValue())) {
+				this.requestedQos.put(channel, qos);
+				added.put(channel, entry.getValue());
+			} else if (this.grantedQos.containsKey(channel)) {
+				// the broker already delivers the channel
+				known.put(channel, this.grantedQos.get(channel));
+			}
+		}
+		if (added.isEmpty()) {
+			return Futures.immediateFuture(Collections.unmodifiableMap(known));
+		}
+
+		final PendingSubscription pending = new PendingSubscription(added, known);
+		this.pendingSubscriptions.add(pending);
+		final CallbackConnection connection = this.connection;
+		if ((connection != null) && this.isConnected) {
+			this.sendSubscribe(connection, new ArrayList<>(added.keySet()));
+		}
+		return pending.future;
+	}
+
+	/**
+	 * Sends a single SUBSCRIBE packet for all of the channels
+	 */
+	private void sendSubscribe(final CallbackConnection connection, final List<String> channels) {
+		final Topic[] topics = new Topic[channels.size()];
+		for (int i = 0; i < topics.length; i++) {
+			final QoS qos = this.requestedQos.get(channels.get(i));
+			topics[i] = new Topic(channels.get(i), qos == null ? QoS.AT_MOST_ONCE : qos);
+		}
+		connection.getDispatchQueue().execute(new Runnable() {
+			@Override
+			public void run() {
+				connection.subscribe(topics, new Callback<byte[]>() {
+					@Override
+					public void onFailure(final Throwable throwable) {
+						// requests stay pending and complete after the reconnect
+						LOGGER.debug("Impossible to SUBSCRIBE to " + channels.size() + " channels: "
+								+ throwable.getMessage());
+					}
+
+					@Override
+					public void onSuccess(final byte[] returnCodes) {
+						LOGGER.debug("Successfully subscribed to " + channels.size() + " channels");
+						KuraMQTTClient.this.subscribed(channels, returnCodes);
+					}
+				});
+			}
+		});
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void unsubscribe(final String channel) {
-		if (this.connection != null) {
-			this.channels.remove(channel);
-			final UTF8Buffer[] topic = { UTF8Buffer.utf8(channel) };
-			this.connection.unsubscribe(topic, new Callback<Void>() {
-				@Override
-				public void onFailure(final Throwable throwable) {
-					LOGGER.debug("Exception occurred while unsubscribing: " + throwable.getMessage());
-				}
+		this.unsubscribeAsync(channel);
+	}
 
-				@Override
-				public void onSuccess(final Void aVoid) {
-					LOGGER.debug("Successfully unsubscribed");
-				}
-			});
+	/** {@inheritDoc} */
+	@Override
+	public void unsubscribe(final String channel, final MessageListener callback) {
+		if (this.subscriptions.remove(channel, callback)) {
+			this.unsubscribeFromBroker(channel);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Void> unsubscribeAsync(final String channel) {
+		if (this.subscriptions.removeAll(channel).isEmpty()) {
+			return Futures.immediateFuture(null);
+		}
+		return this.unsubscribeFromBroker(channel);
+	}
+
+	/**
+	 * Tells the broker to stop delivering the channel
+	 */
+	private ListenableFuture<Void> unsubscribeFromBroker(final String channel) {
+		this.requestedQos.remove(channel);
+		this.grantedQos.remove(channel);
+		this.pruneSchemaDecoders();
+		final CallbackConnection connection = this.connection;
+		if ((connection == null) || !this.isConnected) {
+			return Futures.immediateFuture(null);
 		}
+		final SettableFuture<Void> future = SettableFuture.create();
+		final UTF8Buffer[] topic = { UTF8Buffer.utf8(channel) };
+		connection.getDispatchQueue().execute(new Runnable() {
+			@Override
+			public void run() {
+				connection.unsubscribe(topic, new Callback<Void>() {
+					@Override
+					public void onFailure(final Throwable throwable) {
+						LOGGER.debug("Exception occurred while unsubscribing: " + throwable.getMessage());
+						future.setException(throwable);
+					}
+
+					@Override
+					public void onSuccess(final Void aVoid) {
+						LOGGER.debug("Successfully unsubscribed");
+						future.set(null);
+					}
+				});
+			}
+		});
+		return future;
 	}
 
 }
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fusesource.mqtt.client.QoS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import de.tum.in.client.adapter.ConnectionListener;
+import de.tum.in.client.adapter.MessageListener;
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.metrics.ClientMetrics;
+import de.tum.in.client.metrics.CompositeClientMetrics;
+
+/**
+ * Implementation of {@link IKuraMQTTClient} spreading the traffic over
+ * several connections to the same broker. Every connection uses the client
+ * id of the pool suffixed by its index. Publishes and subscriptions are
+ * sharded by the hash of their channel, so that all messages of a channel
+ * travel over the same connection and keep their order.
+ *
+ * @author AMIT KUMAR MONDAL
+ * @see IKuraMQTTClient
+ *
+ */
+public class KuraMQTTClientPool implements IKuraMQTTClient {
+
+	public static class Builder {
+
+		private KuraMQTTClient.Builder clientBuilder;
+		private String clientId;
+		private int connections = DEFAULT_CONNECTIONS;
+
+		public KuraMQTTClientPool build() {
+			return new KuraMQTTClientPool(this);
+		}
+
+		/**
+		 * Sets the builder holding the connection parameters shared by all
+		 * connections of the pool. A journal cannot be shared between the
+		 * connections and must therefore not be set.
+		 */
+		public Builder setClientBuilder(final KuraMQTTClient.Builder clientBuilder) {
+			Preconditions.checkArgument(!clientBuilder.hasJournal(), "Journal cannot be shared by a pool");
+			this.clientBuilder = clientBuilder;
+			return this;
+		}
+
+		/**
+		 * Sets the client id the ids of the connections are derived from
+		 */
+		public Builder setClientId(final String clientId) {
+			this.clientId = clientId;
+			return this;
+		}
+
+		/**
+		 * Sets the number of connections opened to the broker
+		 */
+		public Builder setConnections(final int connections) {
+			Preconditions.checkArgument(connections > 0, "Number of connections must be positive");
+			this.connections = connections;
+			return this;
+		}
+	}
+
+	/**
+	 * Default number of connections
+	 */
+	public static final int DEFAULT_CONNECTIONS = 4;
+
+	/**
+	 * Merges the QoS granted by the shards of a subscription request
+	 */
+	private static final Function<List<Map<String, QoS>>, Map<String, QoS>> MERGE_GRANTED = new Function<List<Map<String, QoS>>, Map<String, QoS>>() {
+		@Override
+		public Map<String, QoS> apply(final List<Map<String, QoS>> granted) {
+			final Map<String, QoS> merged = new HashMap<>();
+			for (final Map<String, QoS> shard : granted) {
+				merged.putAll(shard);
+			}
+			return Collections.unmodifiableMap(merged);
+		}
+	};
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(KuraMQTTClientPool.class);
+
+	private final String clientId;
+
+	/**
+	 * The connections of the pool in the order of their index
+	 */
+	private final List<KuraMQTTClient> clients;
+
+	/**
+	 * Number of connections which are currently connected
+	 */
+	private final AtomicInteger connectedCount;
+
+	private final List<ConnectionListener> connectionListeners;
+
+	private final ClientMetrics metrics;
+
+	/**
+	 *
+	 * @param builder
+	 *            the builder holding the pool parameters
+	 */
+	private KuraMQTTClientPool(final Builder builder) {
+		Preconditions.checkNotNull(builder.clientBuilder);
+		Preconditions.checkNotNull(builder.clientId);
+
+		this.clientId = builder.clientId;
+		this.connectedCount = new AtomicInteger();
+		this.connectionListeners = new CopyOnWriteArrayList<>();
+		final List<KuraMQTTClient> clients = new ArrayList<>(builder.connections);
+		for (int i = 0; i < builder.connections; i++) {
+			final KuraMQTTClient client = builder.clientBuilder.setClientId(this.clientId + "-" + i).build();
+			client.addConnectionListener(new ConnectionListener() {
+				@Override
+				public void onConnected() {
+					KuraMQTTClientPool.this.shardConnected();
+				}
+
+				@Override
+				public void onDisconnected() {
+					KuraMQTTClientPool.this.shardDisconnected();
+				}
+
+				@Override
+				public void onReconnecting(final int attempt, final long delayMillis) {
+					for (final ConnectionListener listener : KuraMQTTClientPool.this.connectionListeners) {
+						listener.onReconnecting(attempt, delayMillis);
+					}
+				}
+			});
+			clients.add(client);
+		}
+		this.clients = Collections.unmodifiableList(clients);
+		final List<ClientMetrics> metrics = new ArrayList<>(clients.size());
+		for (final KuraMQTTClient client : clients) {
+			metrics.add(client.getMetrics());
+		}
+		this.metrics = new CompositeClientMetrics(this.clientId, metrics);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addConnectionListener(final ConnectionListener listener) {
+		this.connectionListeners.add(Preconditions.checkNotNull(listener));
+	}
+
+	/**
+	 * Closes all connections of the pool
+	 */
+	@Override
+	public void close() {
+		for (final KuraMQTTClient client : this.clients) {
+			client.close();
+		}
+	}
+
+	/**
+	 * Connects all connections of the pool. Connections which cannot be
+	 * established keep trying in the background unless automatic reconnects
+	 * are disabled.
+	 *
+	 * @return whether all connections have been established
+	 */
+	@Override
+	public boolean connect() {
+		boolean connected = true;
+		for (final KuraMQTTClient client : this.clients) {
+			connected &= client.connect();
+		}
+		return connected;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void disconnect() {
+		for (final KuraMQTTClient client : this.clients) {
+			client.disconnect();
+		}
+	}
+
+	/**
+	 * Returns the client id the ids of the connections are derived from
+	 */
+	@Override
+	public String getClientId() {
+		return this.clientId;
+	}
+
+	/**
+	 * Returns the connections of the pool
+	 */
+	public List<KuraMQTTClient> getClients() {
+		return this.clients;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getHost() {
+		return this.clients.get(0).getHost();
+	}
+
+	/**
+	 * Returns the metrics of all connections of the pool summed up
+	 */
+	@Override
+	public ClientMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<String> getSubscribedChannels() {
+		final Set<String> channels = new HashSet<>();
+		for (final KuraMQTTClient client : this.clients) {
+			channels.addAll(client.getSubscribedChannels());
+		}
+		return Collections.unmodifiableSet(channels);
+	}
+
+	/**
+	 * Checks whether all connections of the pool are connected
+	 */
+	@Override
+	public boolean isConnected() {
+		return this.connectedCount.get() == this.clients.size();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void publish(final String channel, final KuraPayload payload) {
+		this.shard(channel).publish(channel, payload);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Void> publishAsync(final String channel, final KuraPayload payload, final QoS qos) {
+		return this.shard(channel).publishAsync(channel, payload, qos);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<List<Void>> publishBatch(final String channel, final List<KuraPayload> payloads,
+			final QoS qos) {
+		return this.shard(channel).publishBatch(channel, payloads, qos);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeConnectionListener(final ConnectionListener listener) {
+		this.connectionListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the connection all messages of the channel travel over. Uses a
+	 * consistent hash, so that the channels of the other connections stay in
+	 * place if the size of the pool changes between two runs.
+	 */
+	private KuraMQTTClient shard(final String channel) {
+		Preconditions.checkNotNull(channel);
+		return this.clients.get(Hashing.consistentHash(channel.hashCode(), this.clients.size()));
+	}
+
+	/**
+	 * Notifies the listeners once the last connection of the pool is
+	 * established
+	 */
+	private void shardConnected() {
+		if (this.connectedCount.incrementAndGet() == this.clients.size()) {
+			for (final ConnectionListener listener : this.connectionListeners) {
+				listener.onConnected();
+			}
+		}
+	}
+
+	/**
+	 * Notifies the listeners once the first connection of the pool is lost
+	 */
+	private void shardDisconnected() {
+		if (this.connectedCount.getAndDecrement() == this.clients.size()) {
+			for (final ConnectionListener listener : this.connectionListeners) {
+				listener.onDisconnected();
+			}
+		}
+	}
+
+	/**
+	 * Groups the channels by the connection they are sharded to
+	 */
+	private Map<KuraMQTTClient, Map<String, MessageListener>> split(final Map<String, MessageListener> channels) {
+		final Map<KuraMQTTClient, Map<String, MessageListener>> shards = new LinkedHashMap<>();
+		for (final Map.Entry<String, MessageListener> entry : channels.entrySet()) {
+			final KuraMQTTClient client = this.shard(entry.getKey());
+			Map<String, MessageListener> shard = shards.get(client);
+			if (shard == null) {
+				shard = new LinkedHashMap<>();
+				shards.put(client, shard);
+			}
+			shard.put(entry.getKey(), entry.getValue());
+		}
+		return shards;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void subscribe(final String channel, final MessageListener callback) {
+		this.shard(channel).subscribe(channel, callback);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, QoS> subscribeAll(final Map<String, MessageListener> channels) {
+		final List<ListenableFuture<Map<String, QoS>>> futures = new ArrayList<>();
+		for (final Map.Entry<KuraMQTTClient, Map<String, MessageListener>> shard : this.split(channels).entrySet()) {
+			final ListenableFuture<Map<String, QoS>> future = shard.getKey().subscribeAllAsync(shard.getValue(),
+					QoS.AT_MOST_ONCE);
+			// channels of disconnected shards are subscribed on reconnect
+			if (shard.getKey().isConnected()) {
+				futures.add(future);
+			}
+		}
+		try {
+			return Futures.transform(Futures.successfulAsList(futures), MERGE_GRANTED)
+					.get(KuraMQTTClient.SUBSCRIBE_TIMEOUT, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException | TimeoutException e) {
+			LOGGER.debug("Impossible to SUBSCRIBE to channels " + channels.keySet() + ": " + e.getMessage());
+		}
+		return Collections.emptyMap();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Map<String, QoS>> subscribeAllAsync(final Map<String, MessageListener> channels,
+			final QoS qos) {
+		final List<ListenableFuture<Map<String, QoS>>> futures = new ArrayList<>();
+		for (final Map.Entry<KuraMQTTClient, Map<String, MessageListener>> shard : this.split(channels).entrySet()) {
+			futures.add(shard.getKey().subscribeAllAsync(shard.getValue(), qos));
+		}
+		return Futures.transform(Futures.allAsList(futures), MERGE_GRANTED);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void unsubscribe(final String channel) {
+		this.shard(channel).unsubscribe(channel);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void unsubscribe(final String channel, final MessageListener callback) {
+		this.shard(channel).unsubscribe(channel, callback);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListenableFuture<Void> unsubscribeAsync(final String channel) {
+		return this.shard(channel).unsubscribeAsync(channel);
+	}
+
+}
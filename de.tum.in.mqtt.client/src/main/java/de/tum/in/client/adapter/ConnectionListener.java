@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.adapter;
+
+/**
+ * Used to listen to MQTT Connection State Changes
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public interface ConnectionListener {
+
+	/**
+	 * Callback after the client has connected or reconnected to the broker
+	 * and replayed its subscriptions
+	 */
+	public void onConnected();
+
+	/**
+	 * Callback after the client has lost its connection to the broker
+	 */
+	public void onDisconnected();
+
+	/**
+	 * Callback before the next reconnect attempt is scheduled
+	 *
+	 * @param attempt
+	 *            the number of the attempt since the connection got lost
+	 * @param delayMillis
+	 *            the delay before the attempt in milliseconds
+	 */
+	public void onReconnecting(int attempt, long delayMillis);
+
+}
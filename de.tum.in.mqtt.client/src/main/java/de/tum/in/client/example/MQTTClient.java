@@ -70,8 +70,8 @@ public final class MQTTClient {
 			throw new IllegalArgumentException("Operation Not Supported");
 		}
 
-		// Finally disconnect
-		client.disconnect();
+		// Finally disconnect and release the client
+		client.close();
 	}
 
 	private static void publish(final String topic, final String requestId) {
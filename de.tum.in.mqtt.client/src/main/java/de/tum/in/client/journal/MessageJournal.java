@@ -0,0 +1,491 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.fusesource.mqtt.client.QoS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Durable store-and-forward queue for outbound messages. Messages are appended
+ * as length prefixed frames to memory-mapped segment files and read back in
+ * the order they were written. Writes only go to the page cache, so there is
+ * no fsync per message; {@link #flush()} forces the segments to disk.
+ *
+ * <p>
+ * A segment file starts with a header holding a magic number and the offset
+ * of the first unread frame. Every frame carries a CRC32 of its body and the
+ * frame length is written after the frame body, so that a partially written
+ * frame reads as the end of the segment after a crash.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class MessageJournal implements Closeable {
+
+	/**
+	 * Decides what happens when the journal reaches its size cap
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * Drops the oldest segment to make room for new messages
+		 */
+		DROP_OLDEST,
+		/**
+		 * Rejects new messages until the journal has been drained
+		 */
+		REJECT_NEWEST
+	}
+
+	/**
+	 * A message read back from the journal
+	 */
+	public static final class Entry {
+
+		private final byte[] payload;
+		private final int position;
+		private final QoS qos;
+		private final Segment segment;
+		private final String topic;
+
+		private Entry(final Segment segment, final int position, final String topic, final QoS qos,
+				final byte[] payload) {
+			this.segment = segment;
+			this.position = position;
+			this.topic = topic;
+			this.qos = qos;
+			this.payload = payload;
+		}
+
+		public byte[] getPayload() {
+			return this.payload;
+		}
+
+		public QoS getQos() {
+			return this.qos;
+		}
+
+		public String getTopic() {
+			return this.topic;
+		}
+	}
+
+	/**
+	 * A single memory-mapped segment file
+	 */
+	private static final class Segment {
+
+		private final MappedByteBuffer buffer;
+		private final File file;
+		private int readPosition;
+		private int writePosition;
+
+		private Segment(final File file, final int size) throws IOException {
+			this.file = file;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				if (raf.length() < size) {
+					raf.setLength(size);
+				}
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			}
+		}
+
+		private boolean isExhausted() {
+			return this.readPosition >= this.writePosition;
+		}
+
+		/**
+		 * Returns the body length of the frame at the given position or
+		 * {@code 0} if there is no intact frame
+		 */
+		private int readFrameLength(final int position) {
+			if ((position + FRAME_HEADER_SIZE) > this.buffer.capacity()) {
+				return 0;
+			}
+			final int length = this.buffer.getInt(position);
+			if ((length < FRAME_MIN_LENGTH) || (length > (this.buffer.capacity() - position - FRAME_HEADER_SIZE))) {
+				return 0;
+			}
+			final byte[] body = new byte[length];
+			this.buffer.position(position + FRAME_HEADER_SIZE);
+			this.buffer.get(body);
+			final CRC32 crc = new CRC32();
+			crc.update(body);
+			if ((int) crc.getValue() != this.buffer.getInt(position + CHECKSUM_OFFSET)) {
+				return 0;
+			}
+			final int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+			if ((topicLength > (length - FRAME_MIN_LENGTH)) || (body[2 + topicLength] >= QoS.values().length)) {
+				return 0;
+			}
+			return length;
+		}
+
+		private int remaining() {
+			return this.buffer.capacity() - this.writePosition;
+		}
+	}
+
+	/**
+	 * Offset of the body checksum in the frame header
+	 */
+	private static final int CHECKSUM_OFFSET = 4;
+
+	/**
+	 * Size of the frame header (body length and checksum)
+	 */
+	private static final int FRAME_HEADER_SIZE = 8;
+
+	/**
+	 * Size of a frame body with empty topic and payload
+	 */
+	private static final int FRAME_MIN_LENGTH = 3;
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(MessageJournal.class);
+
+	/**
+	 * Marks a file as journal segment
+	 */
+	private static final int MAGIC = 0x4B4A5232;
+
+	/**
+	 * Offset of the read position in the segment header
+	 */
+	private static final int READ_POSITION_OFFSET = 4;
+
+	/**
+	 * Segment file name suffix
+	 */
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	/**
+	 * Size of the segment header (magic and read position)
+	 */
+	private static final int SEGMENT_HEADER_SIZE = 8;
+
+	private final File directory;
+	private long evicted;
+	private final int maxSegments;
+	private long nextSegmentId;
+	private int pending;
+	private final EvictionPolicy policy;
+	private final int segmentSize;
+	private final Deque<Segment> segments;
+
+	/**
+	 * Opens the journal in the given directory and recovers every message
+	 * which has not been drained yet
+	 *
+	 * @param directory
+	 *            the directory holding the segment files
+	 * @param segmentSize
+	 *            the size of a single segment file in bytes
+	 * @param maxSize
+	 *            the size cap of the journal in bytes
+	 * @param policy
+	 *            what to do when the size cap is reached
+	 * @throws IOException
+	 *             if the segment files cannot be opened
+	 */
+	public MessageJournal(final File directory, final int segmentSize, final long maxSize,
+			final EvictionPolicy policy) throws IOException {
+		Preconditions.checkNotNull(directory);
+		Preconditions.checkNotNull(policy);
+		Preconditions.checkArgument(segmentSize > SEGMENT_HEADER_SIZE, "Segment size too small");
+		Preconditions.checkArgument(maxSize >= segmentSize, "Journal must hold at least one segment");
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxSize / segmentSize);
+		this.policy = policy;
+		this.segments = new ArrayDeque<>();
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + directory);
+		}
+		this.recover();
+	}
+
+	/**
+	 * Appends a message to the tail of the journal
+	 *
+	 * @return {@code false} if the message has been rejected because the
+	 *         journal is full or the message does not fit into a segment
+	 * @throws IOException
+	 *             if a new segment cannot be created
+	 */
+	public synchronized boolean append(final String topic, final QoS qos, final byte[] payload) throws IOException {
+		final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+		final int length = 2 + topicBytes.length + 1 + payload.length;
+		final int frameSize = FRAME_HEADER_SIZE + length;
+
+		if ((frameSize > (this.segmentSize - SEGMENT_HEADER_SIZE)) || (topicBytes.length > Short.MAX_VALUE)) {
+			LOGGER.warn("Message for " + topic + " does not fit into a journal segment");
+			return false;
+		}
+
+		Segment tail = this.segments.peekLast();
+		if ((tail == null) || (tail.remaining() < frameSize)) {
+			// a full tail without unread messages is not needed anymore
+			if ((tail != null) && tail.isExhausted()) {
+				this.segments.pollLast();
+				this.delete(tail);
+			}
+			if (this.segments.size() >= this.maxSegments) {
+				if (this.policy == EvictionPolicy.REJECT_NEWEST) {
+					return false;
+				}
+				this.evictOldest();
+			}
+			tail = this.createSegment();
+		}
+
+		final int position = tail.writePosition;
+		tail.buffer.position(position + FRAME_HEADER_SIZE);
+		tail.buffer.putShort((short) topicBytes.length);
+		tail.buffer.put(topicBytes);
+		tail.buffer.put((byte) qos.ordinal());
+		tail.buffer.put(payload);
+
+		final CRC32 crc = new CRC32();
+		crc.update(topicBytes.length >>> 8);
+		crc.update(topicBytes.length);
+		crc.update(topicBytes);
+		crc.update(qos.ordinal());
+		crc.update(payload);
+		tail.buffer.putInt(position + CHECKSUM_OFFSET, (int) crc.getValue());
+		// the length goes last so that a torn frame reads as end of segment
+		tail.buffer.putInt(position, length);
+		tail.writePosition = position + frameSize;
+		this.pending++;
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized void close() throws IOException {
+		this.flush();
+		this.segments.clear();
+	}
+
+	/**
+	 * Creates a new empty segment at the tail of the journal
+	 */
+	private Segment createSegment() throws IOException {
+		final File file = new File(this.directory, String.format("%016d%s", this.nextSegmentId++, SEGMENT_SUFFIX));
+		final Segment segment = new Segment(file, this.segmentSize);
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(READ_POSITION_OFFSET, SEGMENT_HEADER_SIZE);
+		segment.readPosition = SEGMENT_HEADER_SIZE;
+		segment.writePosition = SEGMENT_HEADER_SIZE;
+		this.segments.addLast(segment);
+		return segment;
+	}
+
+	/**
+	 * Deletes the segment file
+	 */
+	private void delete(final Segment segment) {
+		if (!segment.file.delete()) {
+			LOGGER.warn("Unable to delete journal segment " + segment.file);
+		}
+	}
+
+	/**
+	 * Drops the oldest segment together with its unread messages
+	 */
+	private void evictOldest() {
+		final Segment head = this.segments.pollFirst();
+		final int dropped = this.countFrames(head, head.readPosition);
+		this.pending -= dropped;
+		this.evicted += dropped;
+		this.delete(head);
+		LOGGER.warn("Journal full, evicted " + dropped + " messages");
+	}
+
+	/**
+	 * Counts the frames of a segment starting at the given position
+	 */
+	private int countFrames(final Segment segment, final int from) {
+		int count = 0;
+		for (int position = from; position < segment.writePosition; position += FRAME_HEADER_SIZE
+				+ segment.buffer.getInt(position)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Forces all segments to the storage device
+	 */
+	public synchronized void flush() {
+		for (final Segment segment : this.segments) {
+			segment.buffer.force();
+		}
+	}
+
+	/**
+	 * Returns the number of messages dropped by the eviction policy
+	 */
+	public synchronized long getEvictedCount() {
+		return this.evicted;
+	}
+
+	/**
+	 * Checks whether every message of the journal has been drained
+	 */
+	public synchronized boolean isEmpty() {
+		return this.pending == 0;
+	}
+
+	/**
+	 * Returns up to {@code max} messages from the head of the journal without
+	 * removing them
+	 */
+	public synchronized List<Entry> peek(final int max) {
+		if (this.pending == 0) {
+			return Collections.emptyList();
+		}
+		final List<Entry> entries = new ArrayList<>(Math.min(max, this.pending));
+		final Iterator<Segment> it = this.segments.iterator();
+		while (it.hasNext() && (entries.size() < max)) {
+			final Segment segment = it.next();
+			int position = segment.readPosition;
+			while ((position < segment.writePosition) && (entries.size() < max)) {
+				final int length = segment.buffer.getInt(position);
+				entries.add(this.readEntry(segment, position));
+				position += FRAME_HEADER_SIZE + length;
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Decodes the frame at the given position
+	 */
+	private Entry readEntry(final Segment segment, final int position) {
+		final MappedByteBuffer buffer = segment.buffer;
+		final int length = buffer.getInt(position);
+		buffer.position(position + FRAME_HEADER_SIZE);
+		final byte[] topic = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(topic);
+		final QoS qos = QoS.values()[buffer.get()];
+		final byte[] payload = new byte[length - FRAME_MIN_LENGTH - topic.length];
+		buffer.get(payload);
+		return new Entry(segment, position, new String(topic, StandardCharsets.UTF_8), qos, payload);
+	}
+
+	/**
+	 * Opens the existing segment files in order and restores the read and
+	 * write positions
+	 */
+	private void recover() throws IOException {
+		final File[] files = this.directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (final File file : files) {
+			final String name = file.getName();
+			try {
+				this.nextSegmentId = Math.max(this.nextSegmentId,
+						Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1);
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+			final Segment segment = new Segment(file, this.segmentSize);
+			if (segment.buffer.getInt(0) != MAGIC) {
+				LOGGER.warn("Ignoring corrupt journal segment " + file);
+				continue;
+			}
+			int position = SEGMENT_HEADER_SIZE;
+			int length;
+			while ((length = segment.readFrameLength(position)) > 0) {
+				position += FRAME_HEADER_SIZE + length;
+			}
+			segment.writePosition = position;
+			segment.readPosition = Math.max(SEGMENT_HEADER_SIZE,
+					Math.min(segment.buffer.getInt(READ_POSITION_OFFSET), position));
+			if (segment.isExhausted()) {
+				this.delete(segment);
+				continue;
+			}
+			this.pending += this.countFrames(segment, segment.readPosition);
+			this.segments.addLast(segment);
+		}
+		LOGGER.debug("Recovered " + this.pending + " journaled messages");
+	}
+
+	/**
+	 * Removes a message returned by {@link #peek(int)} from the head of the
+	 * journal. Messages have to be removed in the order they were peeked.
+	 *
+	 * @return {@code false} if the message is not at the head of the journal
+	 *         anymore, e.g. because its segment has been evicted meanwhile
+	 */
+	public synchronized boolean remove(final Entry entry) {
+		Preconditions.checkNotNull(entry);
+		final Segment head = this.segments.peekFirst();
+		if ((head != entry.segment) || (head.readPosition != entry.position) || head.isExhausted()) {
+			return false;
+		}
+		head.readPosition += FRAME_HEADER_SIZE + head.buffer.getInt(head.readPosition);
+		head.buffer.putInt(READ_POSITION_OFFSET, head.readPosition);
+		this.pending--;
+
+		// fully drained segments are not needed anymore, except the tail
+		// which is still being written to
+		if (head.isExhausted() && (this.segments.size() > 1)) {
+			this.segments.pollFirst();
+			this.delete(head);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of messages waiting to be drained
+	 */
+	public synchronized int size() {
+		return this.pending;
+	}
+}
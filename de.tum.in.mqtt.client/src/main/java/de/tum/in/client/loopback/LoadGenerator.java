@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.loopback;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fusesource.mqtt.client.QoS;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.tum.in.client.KuraMQTTClient;
+import de.tum.in.client.adapter.MessageListener;
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.metrics.LatencyHistogram;
+
+/**
+ * Drives a number of publishing and subscribing {@link KuraMQTTClient}s
+ * against a broker and reports throughput and end-to-end latency. Unless a
+ * broker is given, the run uses its own {@link LoopbackBroker}, so that the
+ * client throughput can be checked on any machine without network.
+ *
+ * <pre>
+ * java -cp mqtt-client-jar-with-dependencies.jar de.tum.in.client.loopback.LoadGenerator publishers=4 subscribers=2 messages=100000 qos=1
+ * </pre>
+ *
+ * Every subscriber receives the messages of all publishers.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class LoadGenerator {
+
+	public static class Builder {
+
+		private int bodySize;
+		private String host;
+		private int messages = 10000;
+		private int metrics = 10;
+		private String port;
+		private int publishers = 1;
+		private QoS qos = QoS.AT_MOST_ONCE;
+		private double rate;
+		private int subscribers = 1;
+		private long timeout = 60;
+
+		public LoadGenerator build() {
+			return new LoadGenerator(this);
+		}
+
+		/**
+		 * Sets the size of the random body of every payload
+		 */
+		public Builder setBodySize(final int bodySize) {
+			Preconditions.checkArgument(bodySize >= 0, "Body size must not be negative");
+			this.bodySize = bodySize;
+			return this;
+		}
+
+		/**
+		 * Runs against an external broker instead of a {@link LoopbackBroker}
+		 */
+		public Builder setBroker(final String host, final String port) {
+			this.host = host;
+			this.port = port;
+			return this;
+		}
+
+		/**
+		 * Sets the number of messages every publisher publishes
+		 */
+		public Builder setMessages(final int messages) {
+			Preconditions.checkArgument(messages > 0, "Number of messages must be positive");
+			this.messages = messages;
+			return this;
+		}
+
+		/**
+		 * Sets the number of double metrics of every payload
+		 */
+		public Builder setMetrics(final int metrics) {
+			Preconditions.checkArgument(metrics >= 0, "Number of metrics must not be negative");
+			this.metrics = metrics;
+			return this;
+		}
+
+		public Builder setPublishers(final int publishers) {
+			Preconditions.checkArgument(publishers > 0, "Number of publishers must be positive");
+			this.publishers = publishers;
+			return this;
+		}
+
+		public Builder setQos(final QoS qos) {
+			this.qos = Preconditions.checkNotNull(qos);
+			return this;
+		}
+
+		/**
+		 * Limits the messages every publisher publishes per second. Pass 0 to
+		 * publish as fast as possible.
+		 */
+		public Builder setRate(final double rate) {
+			Preconditions.checkArgument(rate >= 0, "Rate must not be negative");
+			this.rate = rate;
+			return this;
+		}
+
+		public Builder setSubscribers(final int subscribers) {
+			Preconditions.checkArgument(subscribers >= 0, "Number of subscribers must not be negative");
+			this.subscribers = subscribers;
+			return this;
+		}
+
+		/**
+		 * Sets the time in seconds to wait for all messages to be delivered
+		 */
+		public Builder setTimeout(final long timeout) {
+			Preconditions.checkArgument(timeout > 0, "Timeout must be positive");
+			this.timeout = timeout;
+			return this;
+		}
+	}
+
+	/**
+	 * Metric carrying the time the message has been published at
+	 */
+	private static final String SENT_METRIC = "loadgen.sent";
+
+	private static final String TOPIC_PREFIX = "loadgen/";
+
+	/**
+	 * Runs the generator with the options given as {@code key=value}
+	 * arguments: publishers, subscribers, messages, qos (0, 1 or 2), metrics,
+	 * body, rate, timeout, host and port
+	 */
+	public static void main(final String... args) throws Exception {
+		final Builder builder = new Builder();
+		String host = null;
+		String port = "1883";
+		for (final String arg : args) {
+			final int separator = arg.indexOf('=');
+			Preconditions.checkArgument(separator > 0, "Expected key=value: %s", arg);
+			final String key = arg.substring(0, separator);
+			final String value = arg.substring(separator + 1);
+			switch (key) {
+			case "publishers":
+				builder.setPublishers(Integer.parseInt(value));
+				break;
+			case "subscribers":
+				builder.setSubscribers(Integer.parseInt(value));
+				break;
+			case "messages":
+				builder.setMessages(Integer.parseInt(value));
+				break;
+			case "qos":
+				builder.setQos(QoS.values()[Integer.parseInt(value)]);
+				break;
+			case "metrics":
+				builder.setMetrics(Integer.parseInt(value));
+				break;
+			case "body":
+				builder.setBodySize(Integer.parseInt(value));
+				break;
+			case "rate":
+				builder.setRate(Double.parseDouble(value));
+				break;
+			case "timeout":
+				builder.setTimeout(Long.parseLong(value));
+				break;
+			case "host":
+				host = value;
+				break;
+			case "port":
+				port = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+		}
+		if (host != null) {
+			builder.setBroker(host, port);
+		}
+		System.out.println(builder.build().run());
+	}
+
+	private final byte[] m_body;
+	private final String m_host;
+	private final int m_messages;
+	private final int m_metrics;
+	private final String m_port;
+	private final int m_publishers;
+	private final QoS m_qos;
+	private final double m_rate;
+	private final int m_subscribers;
+	private final long m_timeout;
+
+	private LoadGenerator(final Builder builder) {
+		this.m_host = builder.host;
+		this.m_port = builder.port;
+		this.m_publishers = builder.publishers;
+		this.m_subscribers = builder.subscribers;
+		this.m_messages = builder.messages;
+		this.m_metrics = builder.metrics;
+		this.m_qos = builder.qos;
+		this.m_rate = builder.rate;
+		this.m_timeout = builder.timeout;
+		this.m_body = new byte[builder.bodySize];
+		new Random(42).nextBytes(this.m_body);
+	}
+
+	private KuraMQTTClient connect(final String host, final String port, final String clientId) {
+		final KuraMQTTClient client = new KuraMQTTClient.Builder().setHost(host).setPort(port)
+				.setClientId(clientId).setAutoReconnect(false).build();
+		if (!client.connect()) {
+			throw new IllegalStateException("Impossible to connect " + clientId + " to " + host + ":" + port);
+		}
+		return client;
+	}
+
+	private KuraPayload createPayload(final int sequence) {
+		final KuraPayload payload = new KuraPayload();
+		for (int i = 0; i < this.m_metrics; i++) {
+			payload.addDouble("metric." + i, sequence + (i / 10.0));
+		}
+		if (this.m_body.length > 0) {
+			payload.setBody(this.m_body);
+		}
+		payload.addLong(SENT_METRIC, System.nanoTime());
+		return payload;
+	}
+
+	/**
+	 * Publishes the messages of a single publisher
+	 */
+	private void publish(final KuraMQTTClient client, final String topic, final AtomicLong published,
+			final AtomicLong failed) throws InterruptedException {
+		final RateLimiter limiter = this.m_rate > 0 ? RateLimiter.create(this.m_rate) : null;
+		// counted down by the callback, the futures complete before their
+		// callbacks have run
+		final CountDownLatch completed = new CountDownLatch(this.m_messages);
+		final FutureCallback<Void> callback = new FutureCallback<Void>() {
+			@Override
+			public void onFailure(final Throwable throwable) {
+				failed.incrementAndGet();
+				completed.countDown();
+			}
+
+			@Override
+			public void onSuccess(final Void result) {
+				published.incrementAndGet();
+				completed.countDown();
+			}
+		};
+		for (int i = 0; i < this.m_messages; i++) {
+			if (limiter != null) {
+				limiter.acquire();
+			}
+			Futures.addCallback(client.publishAsync(topic, this.createPayload(i), this.m_qos), callback);
+		}
+		completed.await(this.m_timeout, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Connects the clients, publishes all messages and waits until they have
+	 * been delivered or the timeout elapsed
+	 */
+	public LoadReport run() throws IOException, InterruptedException {
+		final LoopbackBroker broker = this.m_host == null ? new LoopbackBroker() : null;
+		final String host = broker != null ? broker.getHost() : this.m_host;
+		final String port = broker != null ? broker.getPort() : this.m_port;
+		final List<KuraMQTTClient> clients = new ArrayList<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(this.m_publishers,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("loadgen-publisher-%d").build());
+		try {
+			final long expected = (long) this.m_publishers * this.m_messages * this.m_subscribers;
+			final LatencyHistogram latency = new LatencyHistogram();
+			final AtomicLong delivered = new AtomicLong();
+			final AtomicLong lastDelivery = new AtomicLong();
+			final CountDownLatch allDelivered = new CountDownLatch(expected == 0 ? 0 : 1);
+			final MessageListener listener = new MessageListener() {
+				@Override
+				public void processMessage(final KuraPayload payload) {
+					final long now = System.nanoTime();
+					latency.record(now - payload.getLong(payload.getMetricIndex(SENT_METRIC)));
+					lastDelivery.set(now);
+					if (delivered.incrementAndGet() == expected) {
+						allDelivered.countDown();
+					}
+				}
+			};
+			for (int i = 0; i < this.m_subscribers; i++) {
+				final KuraMQTTClient subscriber = this.connect(host, port, "loadgen-sub-" + i);
+				clients.add(subscriber);
+				try {
+					subscriber.subscribeAllAsync(Collections.singletonMap(TOPIC_PREFIX + "+", listener), this.m_qos)
+							.get(this.m_timeout, TimeUnit.SECONDS);
+				} catch (final ExecutionException | TimeoutException e) {
+					throw new IllegalStateException("Impossible to subscribe " + subscriber.getClientId(), e);
+				}
+			}
+			final List<KuraMQTTClient> publishers = new ArrayList<>();
+			for (int i = 0; i < this.m_publishers; i++) {
+				final KuraMQTTClient publisher = this.connect(host, port, "loadgen-pub-" + i);
+				clients.add(publisher);
+				publishers.add(publisher);
+			}
+
+			final AtomicLong published = new AtomicLong();
+			final AtomicLong failed = new AtomicLong();
+			final CountDownLatch publishersDone = new CountDownLatch(this.m_publishers);
+			final long start = System.nanoTime();
+			for (int i = 0; i < this.m_publishers; i++) {
+				final KuraMQTTClient publisher = publishers.get(i);
+				final String topic = TOPIC_PREFIX + i;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							LoadGenerator.this.publish(publisher, topic, published, failed);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							publishersDone.countDown();
+						}
+					}
+				});
+			}
+			publishersDone.await();
+			final long publishNanos = System.nanoTime() - start;
+			allDelivered.await(this.m_timeout, TimeUnit.SECONDS);
+			final long deliveryNanos = delivered.get() == 0 ? 0 : lastDelivery.get() - start;
+			return new LoadReport(published.get(), failed.get(), publishNanos, expected, delivered.get(),
+					deliveryNanos, latency.snapshot());
+		} finally {
+			executor.shutdownNow();
+			for (final KuraMQTTClient client : clients) {
+				client.close();
+			}
+			if (broker != null) {
+				broker.close();
+			}
+		}
+	}
+
+}
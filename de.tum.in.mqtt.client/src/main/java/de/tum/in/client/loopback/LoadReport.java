@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.loopback;
+
+import java.util.concurrent.TimeUnit;
+
+import de.tum.in.client.metrics.LatencyHistogram;
+
+/**
+ * Outcome of a {@link LoadGenerator} run
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class LoadReport {
+
+	private final long m_delivered;
+	private final long m_deliveryNanos;
+	private final long m_expected;
+	private final long m_failed;
+	private final LatencyHistogram.Snapshot m_latency;
+	private final long m_published;
+	private final long m_publishNanos;
+
+	LoadReport(final long published, final long failed, final long publishNanos, final long expected,
+			final long delivered, final long deliveryNanos, final LatencyHistogram.Snapshot latency) {
+		this.m_published = published;
+		this.m_failed = failed;
+		this.m_publishNanos = publishNanos;
+		this.m_expected = expected;
+		this.m_delivered = delivered;
+		this.m_deliveryNanos = deliveryNanos;
+		this.m_latency = latency;
+	}
+
+	private static long micros(final long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	private static double perSecond(final long count, final long nanos) {
+		return nanos == 0 ? 0 : (count * (double) TimeUnit.SECONDS.toNanos(1)) / nanos;
+	}
+
+	/**
+	 * Returns the number of messages the subscribers received
+	 */
+	public long getDelivered() {
+		return this.m_delivered;
+	}
+
+	/**
+	 * Returns the messages received by all subscribers per second, measured
+	 * from the first publish until the last delivery
+	 */
+	public double getDeliveryThroughput() {
+		return perSecond(this.m_delivered, this.m_deliveryNanos);
+	}
+
+	/**
+	 * Returns the number of messages the subscribers were expected to receive
+	 */
+	public long getExpected() {
+		return this.m_expected;
+	}
+
+	/**
+	 * Returns the number of messages which could not be published
+	 */
+	public long getFailed() {
+		return this.m_failed;
+	}
+
+	/**
+	 * Returns the end-to-end latency from publishing a message until a
+	 * subscriber has decoded it
+	 */
+	public LatencyHistogram.Snapshot getLatency() {
+		return this.m_latency;
+	}
+
+	/**
+	 * Returns the number of messages handed over to the publishers
+	 */
+	public long getPublished() {
+		return this.m_published;
+	}
+
+	/**
+	 * Returns the messages published per second by all publishers
+	 */
+	public double getPublishThroughput() {
+		return perSecond(this.m_published, this.m_publishNanos);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format(
+				"published=%d failed=%d publish=%.0f msg/s%ndelivered=%d/%d delivery=%.0f msg/s%n"
+						+ "latency p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+				this.m_published, this.m_failed, this.getPublishThroughput(), this.m_delivered, this.m_expected,
+				this.getDeliveryThroughput(), micros(this.m_latency.getPercentile(0.5)),
+				micros(this.m_latency.getPercentile(0.9)), micros(this.m_latency.getPercentile(0.99)),
+				micros(this.m_latency.getPercentile(0.999)), micros(this.m_latency.getMax()));
+	}
+
+}
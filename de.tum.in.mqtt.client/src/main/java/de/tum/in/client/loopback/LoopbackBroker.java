@@ -0,0 +1,588 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.loopback;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.tum.in.client.KuraMQTTClient;
+import de.tum.in.client.util.TopicTrie;
+
+/**
+ * Minimal in-process MQTT broker to run {@link KuraMQTTClient}s against
+ * without any network, e.g. for integration and load tests. It speaks MQTT
+ * 3.1 and 3.1.1 over a loopback socket and supports QoS 0, 1 and 2 as well as
+ * wildcard subscriptions. Sessions are always clean, retained messages, wills
+ * and authentication are not supported.
+ *
+ * <pre>
+ * try (LoopbackBroker broker = new LoopbackBroker()) {
+ * 	client = new KuraMQTTClient.Builder().setHost(broker.getHost()).setPort(broker.getPort())...
+ * }
+ * </pre>
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class LoopbackBroker implements Closeable {
+
+	/**
+	 * Connection of a single client
+	 */
+	private final class Session implements Runnable {
+
+		private volatile String clientId;
+		private volatile boolean closed;
+
+		/**
+		 * Incoming QoS 2 messages waiting for their PUBREL
+		 */
+		private final Set<Integer> incomplete;
+		private final DataInputStream input;
+		private final AtomicInteger nextPacketId;
+		private final OutputStream output;
+		private final BlockingQueue<byte[]> outbound;
+		private final Socket socket;
+
+		/**
+		 * Subscriptions of the session by filter, only accessed by its reader
+		 */
+		private final Map<String, Subscription> subscriptions;
+
+		private Session(final Socket socket) throws IOException {
+			this.socket = socket;
+			this.socket.setTcpNoDelay(true);
+			this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.output = new BufferedOutputStream(socket.getOutputStream());
+			this.outbound = new ArrayBlockingQueue<>(OUTBOUND_QUEUE_SIZE);
+			this.incomplete = new HashSet<>();
+			this.subscriptions = new ConcurrentHashMap<>();
+			this.nextPacketId = new AtomicInteger();
+		}
+
+		private void close() {
+			this.closed = true;
+			if (LoopbackBroker.this.m_sessions.remove(this)) {
+				for (final Map.Entry<String, Subscription> entry : this.subscriptions.entrySet()) {
+					LoopbackBroker.this.m_subscriptions.remove(entry.getKey(), entry.getValue());
+				}
+				if (this.clientId != null) {
+					LoopbackBroker.this.m_clients.remove(this.clientId, this);
+				}
+				// wakes up the writer
+				this.outbound.clear();
+				this.outbound.offer(CLOSE);
+			}
+			try {
+				this.socket.close();
+			} catch (final IOException e) {
+				LOGGER.debug("Error while closing session: " + e.getMessage());
+			}
+		}
+
+		private void connect(final byte[] packet) throws IOException {
+			final Reader reader = new Reader(packet);
+			reader.readString(); // protocol name
+			reader.readByte(); // protocol level
+			reader.readByte(); // connect flags
+			reader.readShort(); // keep alive
+			this.clientId = reader.readString();
+			final Session previous = LoopbackBroker.this.m_clients.put(this.clientId, this);
+			if (previous != null) {
+				previous.close();
+			}
+			this.send(new byte[] { (byte) (CONNACK << 4), 2, 0, 0 });
+		}
+
+		/**
+		 * Enqueues a message for the client of the session
+		 */
+		private void deliver(final String topic, final byte[] payload, final int qos) throws IOException {
+			final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+			final int length = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + payload.length;
+			final Writer writer = new Writer((PUBLISH << 4) | (qos << 1), length);
+			writer.writeBytes(topicBytes);
+			if (qos > 0) {
+				writer.writeShort(this.packetId());
+			}
+			writer.write(payload);
+			this.send(writer.bytes);
+		}
+
+		private void handle(final int header, final byte[] packet) throws IOException {
+			switch (header >>> 4) {
+			case CONNECT:
+				this.connect(packet);
+				break;
+			case PUBLISH:
+				this.publish(header, packet);
+				break;
+			case PUBREC:
+				// outgoing QoS 2 message received, release it
+				this.send(new byte[] { (byte) ((PUBREL << 4) | 2), 2, packet[0], packet[1] });
+				break;
+			case PUBREL:
+				this.incomplete.remove(new Reader(packet).readShort());
+				this.send(new byte[] { (byte) (PUBCOMP << 4), 2, packet[0], packet[1] });
+				break;
+			case SUBSCRIBE:
+				this.subscribe(packet);
+				break;
+			case UNSUBSCRIBE:
+				this.unsubscribe(packet);
+				break;
+			case PINGREQ:
+				this.send(new byte[] { (byte) (PINGRESP << 4), 0 });
+				break;
+			case DISCONNECT:
+				this.close();
+				break;
+			default:
+				// PUBACK and PUBCOMP complete outgoing messages, nothing to track
+			}
+		}
+
+		private int packetId() {
+			return (this.nextPacketId.getAndIncrement() & 0xFFFF) % 0xFFFF + 1;
+		}
+
+		private void publish(final int header, final byte[] packet) throws IOException {
+			final int qos = (header >>> 1) & 3;
+			final Reader reader = new Reader(packet);
+			final String topic = reader.readString();
+			final int packetId = qos > 0 ? reader.readShort() : 0;
+			final byte[] payload = reader.readRemaining();
+
+			if (qos == 1) {
+				this.send(new byte[] { (byte) (PUBACK << 4), 2, (byte) (packetId >>> 8), (byte) packetId });
+			} else if (qos == 2) {
+				this.send(new byte[] { (byte) (PUBREC << 4), 2, (byte) (packetId >>> 8), (byte) packetId });
+				if (!this.incomplete.add(packetId)) {
+					// duplicate of a message which has already been routed
+					return;
+				}
+			}
+			LoopbackBroker.this.route(topic, payload, qos);
+		}
+
+		@Override
+		public void run() {
+			LoopbackBroker.this.m_executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					Session.this.write();
+				}
+			});
+			try {
+				while (!LoopbackBroker.this.m_closed) {
+					final int header = this.input.read();
+					if (header < 0) {
+						break;
+					}
+					final byte[] packet = new byte[this.readRemainingLength()];
+					this.input.readFully(packet);
+					this.handle(header, packet);
+				}
+			} catch (final EOFException | SocketException e) {
+				LOGGER.debug("Session of " + this.clientId + " closed");
+			} catch (final IOException | RuntimeException e) {
+				LOGGER.warn("Closing session of " + this.clientId + ": " + e);
+			} finally {
+				this.close();
+			}
+		}
+
+		private int readRemainingLength() throws IOException {
+			int length = 0;
+			for (int shift = 0; shift < 28; shift += 7) {
+				final int digit = this.input.readUnsignedByte();
+				length |= (digit & 0x7F) << shift;
+				if ((digit & 0x80) == 0) {
+					return length;
+				}
+			}
+			throw new IOException("Malformed remaining length");
+		}
+
+		/**
+		 * Enqueues a packet, waiting while the client does not keep up. Packets
+		 * for closed sessions are dropped.
+		 */
+		private void send(final byte[] packet) throws IOException {
+			try {
+				while (!this.closed) {
+					if (this.outbound.offer(packet, SEND_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+						return;
+					}
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while sending", e);
+			}
+		}
+
+		private void subscribe(final byte[] packet) throws IOException {
+			final Reader reader = new Reader(packet);
+			final int packetId = reader.readShort();
+			final List<Integer> codes = new ArrayList<>();
+			while (reader.remaining() > 0) {
+				final String filter = reader.readString();
+				final int qos = Math.min(reader.readByte() & 3, 2);
+				try {
+					TopicTrie.checkFilter(filter);
+				} catch (final IllegalArgumentException e) {
+					codes.add(SUBACK_FAILURE);
+					continue;
+				}
+				final Subscription subscription = new Subscription(this, qos);
+				final Subscription previous = this.subscriptions.put(filter, subscription);
+				if (previous != null) {
+					LoopbackBroker.this.m_subscriptions.remove(filter, previous);
+				}
+				LoopbackBroker.this.m_subscriptions.add(filter, subscription);
+				codes.add(qos);
+			}
+			final Writer writer = new Writer(SUBACK << 4, 2 + codes.size());
+			writer.writeShort(packetId);
+			for (final int code : codes) {
+				writer.write(new byte[] { (byte) code });
+			}
+			this.send(writer.bytes);
+		}
+
+		private void unsubscribe(final byte[] packet) throws IOException {
+			final Reader reader = new Reader(packet);
+			final int packetId = reader.readShort();
+			while (reader.remaining() > 0) {
+				final String filter = reader.readString();
+				final Subscription subscription = this.subscriptions.remove(filter);
+				if (subscription != null) {
+					LoopbackBroker.this.m_subscriptions.remove(filter, subscription);
+				}
+			}
+			this.send(new byte[] { (byte) (UNSUBACK << 4), 2, (byte) (packetId >>> 8), (byte) packetId });
+		}
+
+		/**
+		 * Writes the enqueued packets, flushing whenever the queue runs empty
+		 */
+		private void write() {
+			try {
+				while (true) {
+					byte[] packet = this.outbound.take();
+					do {
+						if (packet == CLOSE) {
+							return;
+						}
+						this.output.write(packet);
+					} while ((packet = this.outbound.poll()) != null);
+					this.output.flush();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (final IOException e) {
+				LOGGER.debug("Writing to " + this.clientId + " failed: " + e.getMessage());
+				this.close();
+			}
+		}
+	}
+
+	/**
+	 * Subscription of a session to a filter. Compared by identity, so that a
+	 * session can subscribe to the same filter again with another QoS.
+	 */
+	private static final class Subscription {
+		private final int qos;
+		private final Session session;
+
+		private Subscription(final Session session, final int qos) {
+			this.session = session;
+			this.qos = qos;
+		}
+	}
+
+	/**
+	 * Reads the fields of a packet
+	 */
+	private static final class Reader {
+		private final byte[] bytes;
+		private int position;
+
+		private Reader(final byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		private int readByte() throws IOException {
+			if (this.position >= this.bytes.length) {
+				throw new EOFException("Truncated packet");
+			}
+			return this.bytes[this.position++] & 0xFF;
+		}
+
+		private byte[] readRemaining() {
+			final byte[] remaining = new byte[this.remaining()];
+			System.arraycopy(this.bytes, this.position, remaining, 0, remaining.length);
+			this.position = this.bytes.length;
+			return remaining;
+		}
+
+		private int readShort() throws IOException {
+			return (this.readByte() << 8) | this.readByte();
+		}
+
+		private String readString() throws IOException {
+			final int length = this.readShort();
+			if (length > this.remaining()) {
+				throw new EOFException("Truncated packet");
+			}
+			final String string = new String(this.bytes, this.position, length, StandardCharsets.UTF_8);
+			this.position += length;
+			return string;
+		}
+
+		private int remaining() {
+			return this.bytes.length - this.position;
+		}
+	}
+
+	/**
+	 * Writes a packet with a known remaining length
+	 */
+	private static final class Writer {
+		private final byte[] bytes;
+		private int position;
+
+		private Writer(final int header, final int length) {
+			int lengthSize = 1;
+			while ((length >>> (7 * lengthSize)) > 0) {
+				lengthSize++;
+			}
+			this.bytes = new byte[1 + lengthSize + length];
+			this.bytes[this.position++] = (byte) header;
+			int remaining = length;
+			do {
+				final int digit = remaining & 0x7F;
+				remaining >>>= 7;
+				this.bytes[this.position++] = (byte) (remaining > 0 ? digit | 0x80 : digit);
+			} while (remaining > 0);
+		}
+
+		private void write(final byte[] data) {
+			System.arraycopy(data, 0, this.bytes, this.position, data.length);
+			this.position += data.length;
+		}
+
+		private void writeBytes(final byte[] data) {
+			this.writeShort(data.length);
+			this.write(data);
+		}
+
+		private void writeShort(final int value) {
+			this.bytes[this.position++] = (byte) (value >>> 8);
+			this.bytes[this.position++] = (byte) value;
+		}
+	}
+
+	private static final int CONNECT = 1;
+	private static final int CONNACK = 2;
+	private static final int PUBLISH = 3;
+	private static final int PUBACK = 4;
+	private static final int PUBREC = 5;
+	private static final int PUBREL = 6;
+	private static final int PUBCOMP = 7;
+	private static final int SUBSCRIBE = 8;
+	private static final int SUBACK = 9;
+	private static final int UNSUBSCRIBE = 10;
+	private static final int UNSUBACK = 11;
+	private static final int PINGREQ = 12;
+	private static final int PINGRESP = 13;
+	private static final int DISCONNECT = 14;
+
+	/**
+	 * Marker stopping the writer of a session
+	 */
+	private static final byte[] CLOSE = new byte[0];
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoopbackBroker.class);
+
+	/**
+	 * Packets a session buffers for its client before the publishers are held
+	 * back
+	 */
+	private static final int OUTBOUND_QUEUE_SIZE = 4096;
+
+	/**
+	 * Time in milliseconds a full session queue is waited for before checking
+	 * whether the session got closed
+	 */
+	private static final long SEND_POLL_INTERVAL = 100;
+
+	private static final int SUBACK_FAILURE = 0x80;
+
+	/**
+	 * Sessions by client id
+	 */
+	private final ConcurrentMap<String, Session> m_clients;
+	private volatile boolean m_closed;
+	private final AtomicLong m_delivered;
+	private final ExecutorService m_executor;
+	private final AtomicLong m_received;
+	private final ServerSocket m_serverSocket;
+	private final Set<Session> m_sessions;
+	private final TopicTrie<Subscription> m_subscriptions;
+
+	/**
+	 * Starts a broker on a free port of the loopback interface
+	 */
+	public LoopbackBroker() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * Starts a broker on the given port of the loopback interface
+	 */
+	public LoopbackBroker(final int port) throws IOException {
+		this.m_clients = new ConcurrentHashMap<>();
+		this.m_sessions = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+		this.m_subscriptions = new TopicTrie<>();
+		this.m_received = new AtomicLong();
+		this.m_delivered = new AtomicLong();
+		this.m_executor = Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("loopback-broker-%d").build());
+		this.m_serverSocket = new ServerSocket();
+		this.m_serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		this.m_executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				LoopbackBroker.this.accept();
+			}
+		});
+	}
+
+	private void accept() {
+		while (!this.m_closed) {
+			try {
+				final Session session = new Session(this.m_serverSocket.accept());
+				this.m_sessions.add(session);
+				this.m_executor.execute(session);
+			} catch (final IOException e) {
+				if (!this.m_closed) {
+					LOGGER.warn("Accepting connection failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the broker and drops all of its connections
+	 */
+	@Override
+	public void close() throws IOException {
+		this.m_closed = true;
+		this.m_serverSocket.close();
+		for (final Session session : new ArrayList<>(this.m_sessions)) {
+			session.close();
+		}
+		this.m_executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the number of messages delivered to subscribers
+	 */
+	public long getDelivered() {
+		return this.m_delivered.get();
+	}
+
+	/**
+	 * Returns the address the broker listens on
+	 */
+	public String getHost() {
+		return this.m_serverSocket.getInetAddress().getHostAddress();
+	}
+
+	/**
+	 * Returns the port the broker listens on
+	 */
+	public String getPort() {
+		return String.valueOf(this.m_serverSocket.getLocalPort());
+	}
+
+	/**
+	 * Returns the number of messages received from publishers
+	 */
+	public long getReceived() {
+		return this.m_received.get();
+	}
+
+	/**
+	 * Delivers the message once to every session with a matching
+	 * subscription, with the highest QoS the session subscribed with
+	 */
+	private void route(final String topic, final byte[] payload, final int qos) throws IOException {
+		this.m_received.incrementAndGet();
+		final List<Subscription> matches = new ArrayList<>();
+		if (!this.m_subscriptions.match(topic, matches)) {
+			return;
+		}
+		final Map<Session, Integer> targets = new IdentityHashMap<>();
+		for (final Subscription subscription : matches) {
+			final Integer granted = targets.get(subscription.session);
+			if ((granted == null) || (granted < subscription.qos)) {
+				targets.put(subscription.session, subscription.qos);
+			}
+		}
+		for (final Map.Entry<Session, Integer> target : targets.entrySet()) {
+			target.getKey().deliver(topic, payload, Math.min(qos, target.getValue()));
+			this.m_delivered.incrementAndGet();
+		}
+	}
+
+}
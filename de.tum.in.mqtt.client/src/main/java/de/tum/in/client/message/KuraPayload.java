@@ -15,13 +15,19 @@
  *******************************************************************************/
 package de.tum.in.client.message;
 
-import java.util.Collections;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import com.google.common.base.Preconditions;
+
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+
 /**
  * EdcPayload defines the recommended payload structure for the messages sent to
  * the Everyware Cloud platform. Eurotech designed the format as an open format
@@ -33,6 +39,13 @@ import java.util.Set;
  * following fields: sentOn timestamp, an optional set of metrics represented as
  * name-value pairs, an optional position field to capture a GPS position, and
  * an optional binary body.
+ * <p>
+ * Metric values are kept unboxed in parallel primitive arrays, indexed by
+ * name through a small open addressing table. The typed {@code add} methods
+ * and the index based accessors never box; {@link #getMetric(String)} and the
+ * {@link #metrics()} view box on read only. The timestamp is kept in epoch
+ * milliseconds. A payload can be reset with {@link #clear()} and filled again,
+ * see {@link KuraPayloadPool}.
  * <ul>
  * <li>sentOn: it is the timestamp when the data was captured and sent to the
  * Everyware Cloud platform.
@@ -52,6 +65,144 @@ import java.util.Set;
  * </ul>
  */
 public class KuraPayload {
+
+	/**
+	 * Read only view of the metric names
+	 */
+	private final class MetricNames extends AbstractSet<String> {
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean contains(final Object name) {
+			return (name instanceof String) && (KuraPayload.this.indexOf((String) name) >= 0);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Iterator<String> iterator() {
+			return new NameIterator(false);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int size() {
+			return KuraPayload.this.count;
+		}
+	}
+
+	/**
+	 * Read only view of the metrics, boxing values on access
+	 */
+	private final class MetricsView extends AbstractMap<String, Object> {
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean containsKey(final Object name) {
+			return (name instanceof String) && (KuraPayload.this.indexOf((String) name) >= 0);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					final NameIterator names = new NameIterator(false);
+					return new Iterator<Map.Entry<String, Object>>() {
+						@Override
+						public boolean hasNext() {
+							return names.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, Object> next() {
+							final String name = names.next();
+							return new SimpleImmutableEntry<String, Object>(name,
+									KuraPayload.this.getMetricValue(names.cursor - 1));
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return KuraPayload.this.count;
+				}
+			};
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Object get(final Object name) {
+			return (name instanceof String) ? KuraPayload.this.getMetric((String) name) : null;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int size() {
+			return KuraPayload.this.count;
+		}
+	}
+
+	/**
+	 * Iterates the metric names in insertion order
+	 */
+	private final class NameIterator implements Iterator<String> {
+		private int cursor;
+		private final boolean removable;
+
+		private NameIterator(final boolean removable) {
+			this.removable = removable;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean hasNext() {
+			return this.cursor < KuraPayload.this.count;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return KuraPayload.this.names[this.cursor++];
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void remove() {
+			if (!this.removable) {
+				throw new UnsupportedOperationException();
+			}
+			if (this.cursor == 0) {
+				throw new IllegalStateException();
+			}
+			KuraPayload.this.removeAt(--this.cursor);
+		}
+	}
+
+	/**
+	 * Initial number of metrics a payload can hold without growing
+	 */
+	private static final int INITIAL_CAPACITY = 8;
+
+	/**
+	 * Type of metrics whose value is not supported by the Kura Payload format.
+	 * They are kept so that the encoder can report them.
+	 */
+	public static final int UNSUPPORTED_TYPE = -1;
+
+	private static int hash(final String name) {
+		final int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
 	/**
 	 * It is an optional part of the payload that allows additional information
 	 * to be transmitted in any format determined by the user. This field will
@@ -60,6 +211,17 @@ public class KuraPayload {
 	 */
 	private byte[] body;
 
+	/**
+	 * Number of metrics
+	 */
+	private int count;
+
+	/**
+	 * Open addressing table mapping the name hash to the metric index plus
+	 * one, zero marks an empty slot
+	 */
+	private int[] index;
+
 	/**
 	 * A metric is a data structure composed of the name, a value, and the type
 	 * of the value. When used with the REST API valid metric types are: string,
@@ -69,7 +231,12 @@ public class KuraPayload {
 	 * messages through the messages/searchByMetric API. Each payload can have
 	 * zero or more metrics.
 	 */
-	private final Map<String, Object> metrics;
+	private String[] names;
+
+	/**
+	 * String, byte array and unsupported metric values
+	 */
+	private Object[] objects;
 
 	/**
 	 * It is an optional field used to capture a geo position associated to this
@@ -77,55 +244,308 @@ public class KuraPayload {
 	 */
 	private KuraPosition position;
 
+	/**
+	 * Position detached by {@link #clear()}, reused by
+	 * {@link #editPosition()}
+	 */
+	private KuraPosition spare;
+
 	/**
 	 * Timestamp when the data was captured and sent to the Everyware Cloud
-	 * platform.
+	 * platform, in epoch milliseconds
+	 */
+	private long timestamp;
+
+	private boolean timestampSet;
+
+	/**
+	 * {@link ValueType} number of every metric
+	 */
+	private byte[] types;
+
+	/**
+	 * Raw bits of the primitive metric values
 	 */
-	private Date timestamp;
+	private long[] values;
 
 	public KuraPayload() {
-		this.metrics = new HashMap<String, Object>();
+		this.names = new String[INITIAL_CAPACITY];
+		this.types = new byte[INITIAL_CAPACITY];
+		this.values = new long[INITIAL_CAPACITY];
+		this.objects = new Object[INITIAL_CAPACITY];
+		this.index = new int[INITIAL_CAPACITY * 2];
 		this.body = null;
 	}
 
+	public void addBool(final String name, final boolean value) {
+		this.put(name, ValueType.BOOL_VALUE, value ? 1L : 0L, null);
+	}
+
+	public void addDouble(final String name, final double value) {
+		this.put(name, ValueType.DOUBLE_VALUE, Double.doubleToRawLongBits(value), null);
+	}
+
+	public void addFloat(final String name, final float value) {
+		this.put(name, ValueType.FLOAT_VALUE, Float.floatToRawIntBits(value), null);
+	}
+
+	public void addInt(final String name, final int value) {
+		this.put(name, ValueType.INT32_VALUE, value, null);
+	}
+
+	public void addLong(final String name, final long value) {
+		this.put(name, ValueType.INT64_VALUE, value, null);
+	}
+
 	public void addMetric(final String name, final Object value) {
-		this.metrics.put(name, value);
+		if (value instanceof Double) {
+			this.addDouble(name, (Double) value);
+		} else if (value instanceof Float) {
+			this.addFloat(name, (Float) value);
+		} else if (value instanceof Long) {
+			this.addLong(name, (Long) value);
+		} else if (value instanceof Integer) {
+			this.addInt(name, (Integer) value);
+		} else if (value instanceof Boolean) {
+			this.addBool(name, (Boolean) value);
+		} else if (value instanceof String) {
+			this.put(name, ValueType.STRING_VALUE, 0L, value);
+		} else if (value instanceof byte[]) {
+			this.put(name, ValueType.BYTES_VALUE, 0L, value);
+		} else {
+			this.put(name, UNSUPPORTED_TYPE, 0L, value);
+		}
+	}
+
+	/**
+	 * Resets the payload to an empty one while keeping the allocated storage.
+	 * The position is detached and handed out again by
+	 * {@link #editPosition()}.
+	 */
+	public void clear() {
+		this.removeAllMetrics();
+		this.body = null;
+		this.timestampSet = false;
+		if (this.position != null) {
+			this.spare = this.position;
+			this.position = null;
+		}
+	}
+
+	private void checkType(final int index, final int type) {
+		Preconditions.checkElementIndex(index, this.count);
+		if (this.types[index] != type) {
+			throw new IllegalStateException("Metric " + this.names[index] + " is not of the requested type");
+		}
+	}
+
+	/**
+	 * Returns the position of the payload, attaching a cleared one first if
+	 * the payload has none. The position detached by the last {@link #clear()}
+	 * is reused if there is one.
+	 */
+	public KuraPosition editPosition() {
+		if (this.position == null) {
+			if (this.spare != null) {
+				this.position = this.spare;
+				this.spare = null;
+				this.position.clear();
+			} else {
+				this.position = new KuraPosition();
+			}
+		}
+		return this.position;
 	}
 
 	public byte[] getBody() {
 		return this.body;
 	}
 
+	public boolean getBool(final int index) {
+		this.checkType(index, ValueType.BOOL_VALUE);
+		return this.values[index] != 0L;
+	}
+
+	public double getDouble(final int index) {
+		this.checkType(index, ValueType.DOUBLE_VALUE);
+		return Double.longBitsToDouble(this.values[index]);
+	}
+
+	public float getFloat(final int index) {
+		this.checkType(index, ValueType.FLOAT_VALUE);
+		return Float.intBitsToFloat((int) this.values[index]);
+	}
+
+	public int getInt(final int index) {
+		this.checkType(index, ValueType.INT32_VALUE);
+		return (int) this.values[index];
+	}
+
+	public long getLong(final int index) {
+		this.checkType(index, ValueType.INT64_VALUE);
+		return this.values[index];
+	}
+
 	public Object getMetric(final String name) {
-		return this.metrics.get(name);
+		final int index = this.indexOf(name);
+		return (index < 0) ? null : this.getMetricValue(index);
+	}
+
+	public int getMetricCount() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the index of the named metric or -1 if it is not present. Indices
+	 * follow the insertion order and shift when a metric is removed.
+	 */
+	public int getMetricIndex(final String name) {
+		return this.indexOf(name);
+	}
+
+	public String getMetricName(final int index) {
+		Preconditions.checkElementIndex(index, this.count);
+		return this.names[index];
+	}
+
+	/**
+	 * Returns the {@link ValueType} number of the metric at the index or
+	 * {@link #UNSUPPORTED_TYPE}
+	 */
+	public int getMetricType(final int index) {
+		Preconditions.checkElementIndex(index, this.count);
+		return this.types[index];
+	}
+
+	/**
+	 * Returns the value of the metric at the index, boxing primitive values
+	 */
+	public Object getMetricValue(final int index) {
+		Preconditions.checkElementIndex(index, this.count);
+		final long bits = this.values[index];
+		switch (this.types[index]) {
+		case ValueType.BOOL_VALUE:
+			return bits != 0L;
+		case ValueType.DOUBLE_VALUE:
+			return Double.longBitsToDouble(bits);
+		case ValueType.FLOAT_VALUE:
+			return Float.intBitsToFloat((int) bits);
+		case ValueType.INT32_VALUE:
+			return (int) bits;
+		case ValueType.INT64_VALUE:
+			return bits;
+		default:
+			return this.objects[index];
+		}
 	}
 
 	public KuraPosition getPosition() {
 		return this.position;
 	}
 
+	/**
+	 * Returns a new {@link Date} of the timestamp or {@code null} if it is not
+	 * set
+	 */
 	public Date getTimestamp() {
+		return this.timestampSet ? new Date(this.timestamp) : null;
+	}
+
+	/**
+	 * Returns the timestamp in epoch milliseconds, only meaningful if
+	 * {@link #hasTimestamp()}
+	 */
+	public long getTimestampMillis() {
 		return this.timestamp;
 	}
 
+	private void grow() {
+		final int capacity = this.names.length * 2;
+		this.names = Arrays.copyOf(this.names, capacity);
+		this.types = Arrays.copyOf(this.types, capacity);
+		this.values = Arrays.copyOf(this.values, capacity);
+		this.objects = Arrays.copyOf(this.objects, capacity);
+		this.index = new int[capacity * 2];
+		this.reindex();
+	}
+
+	public boolean hasTimestamp() {
+		return this.timestampSet;
+	}
+
+	private int indexOf(final String name) {
+		if (name == null) {
+			return -1;
+		}
+		final int mask = this.index.length - 1;
+		for (int slot = hash(name) & mask; this.index[slot] != 0; slot = (slot + 1) & mask) {
+			final int i = this.index[slot] - 1;
+			if (name.equals(this.names[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	public Set<String> metricNames() {
-		return Collections.unmodifiableSet(this.metrics.keySet());
+		return new MetricNames();
 	}
 
 	public Map<String, Object> metrics() {
-		return Collections.unmodifiableMap(this.metrics);
+		return new MetricsView();
 	}
 
 	public Iterator<String> metricsIterator() {
-		return this.metrics.keySet().iterator();
+		return new NameIterator(true);
+	}
+
+	private void put(final String name, final int type, final long bits, final Object object) {
+		Preconditions.checkNotNull(name);
+		int i = this.indexOf(name);
+		if (i < 0) {
+			if (this.count == this.names.length) {
+				this.grow();
+			}
+			i = this.count++;
+			this.names[i] = name;
+			this.slot(name, i);
+		}
+		this.types[i] = (byte) type;
+		this.values[i] = bits;
+		this.objects[i] = object;
+	}
+
+	private void reindex() {
+		Arrays.fill(this.index, 0);
+		for (int i = 0; i < this.count; i++) {
+			this.slot(this.names[i], i);
+		}
 	}
 
 	public void removeAllMetrics() {
-		this.metrics.clear();
+		Arrays.fill(this.names, 0, this.count, null);
+		Arrays.fill(this.objects, 0, this.count, null);
+		Arrays.fill(this.index, 0);
+		this.count = 0;
+	}
+
+	private void removeAt(final int i) {
+		final int tail = this.count - i - 1;
+		System.arraycopy(this.names, i + 1, this.names, i, tail);
+		System.arraycopy(this.types, i + 1, this.types, i, tail);
+		System.arraycopy(this.values, i + 1, this.values, i, tail);
+		System.arraycopy(this.objects, i + 1, this.objects, i, tail);
+		this.count--;
+		this.names[this.count] = null;
+		this.objects[this.count] = null;
+		this.reindex();
 	}
 
 	public void removeMetric(final String name) {
-		this.metrics.remove(name);
+		final int i = this.indexOf(name);
+		if (i >= 0) {
+			this.removeAt(i);
+		}
 	}
 
 	public void setBody(final byte[] body) {
@@ -137,6 +557,24 @@ public class KuraPayload {
 	}
 
 	public void setTimestamp(final Date timestamp) {
+		if (timestamp == null) {
+			this.timestampSet = false;
+		} else {
+			this.setTimestampMillis(timestamp.getTime());
+		}
+	}
+
+	public void setTimestampMillis(final long timestamp) {
 		this.timestamp = timestamp;
+		this.timestampSet = true;
+	}
+
+	private void slot(final String name, final int i) {
+		final int mask = this.index.length - 1;
+		int slot = hash(name) & mask;
+		while (this.index[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.index[slot] = i + 1;
 	}
 }
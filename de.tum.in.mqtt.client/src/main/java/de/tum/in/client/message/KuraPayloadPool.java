@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.message;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounded pool of {@link KuraPayload} instances which are filled again and
+ * again instead of allocating a payload per message. Payloads are cleared
+ * when they are released, payloads released while the pool is full are left
+ * to the garbage collector. The pool is thread safe.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class KuraPayloadPool {
+
+	/**
+	 * Default number of pooled payloads
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final BlockingQueue<KuraPayload> m_payloads;
+
+	public KuraPayloadPool() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public KuraPayloadPool(final int capacity) {
+		Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+		this.m_payloads = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * Returns an empty payload, a pooled one if available
+	 */
+	public KuraPayload acquire() {
+		final KuraPayload payload = this.m_payloads.poll();
+		return payload != null ? payload : new KuraPayload();
+	}
+
+	/**
+	 * Clears the payload and puts it back into the pool. The payload must not
+	 * be used by the caller afterwards.
+	 */
+	public void release(final KuraPayload payload) {
+		payload.clear();
+		this.m_payloads.offer(payload);
+	}
+}
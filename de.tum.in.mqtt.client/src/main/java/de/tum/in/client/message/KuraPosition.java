@@ -22,126 +22,280 @@ import java.util.Date;
  * associated to an EdcPayload to geotag an EdcMessage before sending to the
  * Everyware Cloud. Refer to the description of each of the fields for more
  * information on the model of EdcPosition.
+ * <p>
+ * The fields are kept as primitives together with a mask of the fields which
+ * have been set, the getters return {@code null} for fields which are not
+ * set. The {@code has} methods together with the primitive {@code Value}
+ * getters read the fields without boxing. The timestamp is kept in epoch
+ * milliseconds.
  */
 public class KuraPosition {
+
+	private static final int ALTITUDE = 1;
+	private static final int HEADING = 1 << 1;
+	private static final int LATITUDE = 1 << 2;
+	private static final int LONGITUDE = 1 << 3;
+	private static final int PRECISION = 1 << 4;
+	private static final int SATELLITES = 1 << 5;
+	private static final int SPEED = 1 << 6;
+	private static final int STATUS = 1 << 7;
+	private static final int TIMESTAMP = 1 << 8;
+
 	/**
 	 * Altitude of the position in meters.
 	 */
-	private Double altitude;
+	private double altitude;
+
+	/**
+	 * Mask of the fields which have been set
+	 */
+	private int fields;
 
 	/**
 	 * Heading (direction) of the position in degrees
 	 */
-	private Double heading;
+	private double heading;
 
 	/**
 	 * Latitude of this position in degrees. This is a mandatory field.
 	 */
-	private Double latitude;
+	private double latitude;
 
 	/**
 	 * Longitude of this position in degrees. This is a mandatory field.
 	 */
-	private Double longitude;
+	private double longitude;
 
 	/**
 	 * Dilution of the precision (DOP) of the current GPS fix.
 	 */
-	private Double precision;
+	private double precision;
 
 	/**
 	 * Number of satellites seen by the systems
 	 */
-	private Integer satellites;
+	private int satellites;
 
 	/**
 	 * Speed for this position in meter/sec.
 	 */
-	private Double speed;
+	private double speed;
 
 	/**
 	 * Status of GPS system: 1 = no GPS response, 2 = error in response, 4 =
 	 * valid.
 	 */
-	private Integer status;
+	private int status;
 
 	/**
-	 * Timestamp extracted from the GPS system
+	 * Timestamp extracted from the GPS system in epoch milliseconds
 	 */
-	private Date timestamp;
+	private long timestamp;
 
 	public KuraPosition() {
 	}
 
+	/**
+	 * Unsets all of the fields so that the position can be reused
+	 */
+	public void clear() {
+		this.fields = 0;
+	}
+
 	public Double getAltitude() {
+		return this.isSet(ALTITUDE) ? this.altitude : null;
+	}
+
+	/**
+	 * Returns the altitude, only meaningful if {@link #hasAltitude()}
+	 */
+	public double getAltitudeValue() {
 		return this.altitude;
 	}
 
 	public Double getHeading() {
+		return this.isSet(HEADING) ? this.heading : null;
+	}
+
+	/**
+	 * Returns the heading, only meaningful if {@link #hasHeading()}
+	 */
+	public double getHeadingValue() {
 		return this.heading;
 	}
 
 	public Double getLatitude() {
+		return this.isSet(LATITUDE) ? this.latitude : null;
+	}
+
+	/**
+	 * Returns the latitude, only meaningful if {@link #hasLatitude()}
+	 */
+	public double getLatitudeValue() {
 		return this.latitude;
 	}
 
 	public Double getLongitude() {
+		return this.isSet(LONGITUDE) ? this.longitude : null;
+	}
+
+	/**
+	 * Returns the longitude, only meaningful if {@link #hasLongitude()}
+	 */
+	public double getLongitudeValue() {
 		return this.longitude;
 	}
 
 	public Double getPrecision() {
+		return this.isSet(PRECISION) ? this.precision : null;
+	}
+
+	/**
+	 * Returns the precision, only meaningful if {@link #hasPrecision()}
+	 */
+	public double getPrecisionValue() {
 		return this.precision;
 	}
 
 	public Integer getSatellites() {
+		return this.isSet(SATELLITES) ? this.satellites : null;
+	}
+
+	/**
+	 * Returns the number of satellites, only meaningful if {@link #hasSatellites()}
+	 */
+	public int getSatellitesValue() {
 		return this.satellites;
 	}
 
 	public Double getSpeed() {
+		return this.isSet(SPEED) ? this.speed : null;
+	}
+
+	/**
+	 * Returns the speed, only meaningful if {@link #hasSpeed()}
+	 */
+	public double getSpeedValue() {
 		return this.speed;
 	}
 
 	public Integer getStatus() {
+		return this.isSet(STATUS) ? this.status : null;
+	}
+
+	/**
+	 * Returns the status, only meaningful if {@link #hasStatus()}
+	 */
+	public int getStatusValue() {
 		return this.status;
 	}
 
+	/**
+	 * Returns a new {@link Date} of the timestamp or {@code null} if it is not
+	 * set
+	 */
 	public Date getTimestamp() {
+		return this.isSet(TIMESTAMP) ? new Date(this.timestamp) : null;
+	}
+
+	/**
+	 * Returns the timestamp in epoch milliseconds, only meaningful if
+	 * {@link #hasTimestamp()}
+	 */
+	public long getTimestampMillis() {
 		return this.timestamp;
 	}
 
+	public boolean hasAltitude() {
+		return this.isSet(ALTITUDE);
+	}
+
+	public boolean hasHeading() {
+		return this.isSet(HEADING);
+	}
+
+	public boolean hasLatitude() {
+		return this.isSet(LATITUDE);
+	}
+
+	public boolean hasLongitude() {
+		return this.isSet(LONGITUDE);
+	}
+
+	public boolean hasPrecision() {
+		return this.isSet(PRECISION);
+	}
+
+	public boolean hasSatellites() {
+		return this.isSet(SATELLITES);
+	}
+
+	public boolean hasSpeed() {
+		return this.isSet(SPEED);
+	}
+
+	public boolean hasStatus() {
+		return this.isSet(STATUS);
+	}
+
+	public boolean hasTimestamp() {
+		return this.isSet(TIMESTAMP);
+	}
+
+	private boolean isSet(final int field) {
+		return (this.fields & field) != 0;
+	}
+
 	public void setAltitude(final double altitude) {
 		this.altitude = altitude;
+		this.fields |= ALTITUDE;
 	}
 
 	public void setHeading(final double heading) {
 		this.heading = heading;
+		this.fields |= HEADING;
 	}
 
 	public void setLatitude(final double latitude) {
 		this.latitude = latitude;
+		this.fields |= LATITUDE;
 	}
 
 	public void setLongitude(final double longitude) {
 		this.longitude = longitude;
+		this.fields |= LONGITUDE;
 	}
 
 	public void setPrecision(final double precision) {
 		this.precision = precision;
+		this.fields |= PRECISION;
 	}
 
 	public void setSatellites(final int satellites) {
 		this.satellites = satellites;
+		this.fields |= SATELLITES;
 	}
 
 	public void setSpeed(final double speed) {
 		this.speed = speed;
+		this.fields |= SPEED;
 	}
 
 	public void setStatus(final int status) {
 		this.status = status;
+		this.fields |= STATUS;
 	}
 
 	public void setTimestamp(final Date timestamp) {
+		if (timestamp == null) {
+			this.fields &= ~TIMESTAMP;
+		} else {
+			this.setTimestampMillis(timestamp.getTime());
+		}
+	}
+
+	public void setTimestampMillis(final long timestamp) {
 		this.timestamp = timestamp;
+		this.fields |= TIMESTAMP;
 	}
-}
\ No newline at end of file
+}
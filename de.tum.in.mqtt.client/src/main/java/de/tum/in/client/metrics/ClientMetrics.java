@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.metrics;
+
+import java.util.Map;
+
+import de.tum.in.client.IKuraMQTTClient;
+
+/**
+ * Read access to the metrics an {@link IKuraMQTTClient} records while it is
+ * running. Rates are one minute moving averages in events per second,
+ * latencies are in nanoseconds.
+ *
+ * @author AMIT KUMAR MONDAL
+ */
+public interface ClientMetrics {
+
+	/**
+	 * Service property holding the client id when the metrics are registered
+	 * as OSGi service
+	 */
+	public static final String CLIENT_ID = "mqtt.client.id";
+
+	/**
+	 * Returns the number of payload bytes received
+	 */
+	public long getBytesIn();
+
+	/**
+	 * Returns the number of payload bytes of the messages which have been
+	 * published successfully
+	 */
+	public long getBytesOut();
+
+	/**
+	 * Returns the id of the client the metrics belong to
+	 */
+	public String getClientId();
+
+	/**
+	 * Returns the time spent decoding received messages, including
+	 * decompression
+	 */
+	public LatencyHistogram.Snapshot getDecodeLatency();
+
+	/**
+	 * Returns the time spent encoding published messages, including
+	 * compression
+	 */
+	public LatencyHistogram.Snapshot getEncodeLatency();
+
+	/**
+	 * Returns the rate of received messages per topic. Topics received after
+	 * the first {@value ClientMetricsRecorder#MAX_TOPICS} ones are summed up
+	 * under {@link ClientMetricsRecorder#OTHER_TOPICS}.
+	 */
+	public Map<String, Double> getInboundRates();
+
+	/**
+	 * Returns the number of messages which have been handed over to the
+	 * connection and not completed yet
+	 */
+	public int getInflight();
+
+	/**
+	 * Returns the number of messages which have been published successfully
+	 */
+	public long getPublished();
+
+	/**
+	 * Returns the number of messages which could not be published
+	 */
+	public long getPublishFailures();
+
+	/**
+	 * Returns the rate of messages which have been published successfully
+	 */
+	public double getPublishRate();
+
+	/**
+	 * Returns the number of messages received
+	 */
+	public long getReceived();
+
+	/**
+	 * Returns the number of times the connection has been re-established
+	 * after it got lost
+	 */
+	public long getReconnects();
+
+}
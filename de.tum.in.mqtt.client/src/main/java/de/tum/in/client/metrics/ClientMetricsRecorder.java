@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Supplier;
+
+/**
+ * {@link ClientMetrics} of a single connection, updated by the client while
+ * it is running. Recording never blocks, so that it does not add contention
+ * to the publish and receive paths.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class ClientMetricsRecorder implements ClientMetrics {
+
+	/**
+	 * Maximum number of topics whose inbound rate is tracked separately
+	 */
+	public static final int MAX_TOPICS = 1024;
+
+	/**
+	 * Key the inbound rate of all topics beyond {@link #MAX_TOPICS} is
+	 * tracked under
+	 */
+	public static final String OTHER_TOPICS = "#other";
+
+	private final AtomicLong m_bytesIn;
+	private final AtomicLong m_bytesOut;
+	private final String m_clientId;
+	private final LatencyHistogram m_decodeLatency;
+	private final LatencyHistogram m_encodeLatency;
+	private final ConcurrentMap<String, Meter> m_inbound;
+	private final Supplier<Integer> m_inflight;
+	private final AtomicLong m_publishFailures;
+	private final Meter m_published;
+	private final Meter m_received;
+	private final AtomicLong m_reconnects;
+
+	/**
+	 * Number of topics tracked in {@link #m_inbound}
+	 */
+	private final AtomicInteger m_topics;
+	private final AtomicBoolean m_wasConnected;
+
+	/**
+	 * @param clientId
+	 *            the id of the client recording the metrics
+	 * @param inflight
+	 *            supplies the number of messages currently in flight
+	 */
+	public ClientMetricsRecorder(final String clientId, final Supplier<Integer> inflight) {
+		this.m_clientId = clientId;
+		this.m_inflight = inflight;
+		this.m_bytesIn = new AtomicLong();
+		this.m_bytesOut = new AtomicLong();
+		this.m_decodeLatency = new LatencyHistogram();
+		this.m_encodeLatency = new LatencyHistogram();
+		this.m_inbound = new ConcurrentHashMap<>();
+		this.m_publishFailures = new AtomicLong();
+		this.m_published = new Meter();
+		this.m_received = new Meter();
+		this.m_reconnects = new AtomicLong();
+		this.m_topics = new AtomicInteger();
+		this.m_wasConnected = new AtomicBoolean();
+	}
+
+	/**
+	 * Records an established connection
+	 */
+	public void connected() {
+		if (!this.m_wasConnected.compareAndSet(false, true)) {
+			this.m_reconnects.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records the time spent decoding a received message
+	 */
+	public void decoded(final long nanos) {
+		this.m_decodeLatency.record(nanos);
+	}
+
+	/**
+	 * Records the time spent encoding a message to publish
+	 */
+	public void encoded(final long nanos) {
+		this.m_encodeLatency.record(nanos);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getBytesIn() {
+		return this.m_bytesIn.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getBytesOut() {
+		return this.m_bytesOut.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getClientId() {
+		return this.m_clientId;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public LatencyHistogram.Snapshot getDecodeLatency() {
+		return this.m_decodeLatency.snapshot();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public LatencyHistogram.Snapshot getEncodeLatency() {
+		return this.m_encodeLatency.snapshot();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Double> getInboundRates() {
+		final Map<String, Double> rates = new HashMap<>();
+		for (final Map.Entry<String, Meter> entry : this.m_inbound.entrySet()) {
+			rates.put(entry.getKey(), entry.getValue().getRate());
+		}
+		return Collections.unmodifiableMap(rates);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getInflight() {
+		return this.m_inflight.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getPublished() {
+		return this.m_published.getCount();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getPublishFailures() {
+		return this.m_publishFailures.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getPublishRate() {
+		return this.m_published.getRate();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getReceived() {
+		return this.m_received.getCount();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getReconnects() {
+		return this.m_reconnects.get();
+	}
+
+	/**
+	 * Returns the inbound meter of the topic
+	 */
+	private Meter inbound(final String topic) {
+		Meter meter = this.m_inbound.get(topic);
+		if (meter != null) {
+			return meter;
+		}
+		final String key = this.m_topics.get() < MAX_TOPICS ? topic : OTHER_TOPICS;
+		meter = this.m_inbound.get(key);
+		if (meter == null) {
+			final Meter created = new Meter();
+			meter = this.m_inbound.putIfAbsent(key, created);
+			if (meter == null) {
+				meter = created;
+				this.m_topics.incrementAndGet();
+			}
+		}
+		return meter;
+	}
+
+	/**
+	 * Records a message which could not be published
+	 */
+	public void publishFailed() {
+		this.m_publishFailures.incrementAndGet();
+	}
+
+	/**
+	 * Records a message which has been published successfully
+	 */
+	public void published(final int bytes) {
+		this.m_published.mark();
+		this.m_bytesOut.addAndGet(bytes);
+	}
+
+	/**
+	 * Records a received message
+	 */
+	public void received(final String topic, final int bytes) {
+		this.m_received.mark();
+		this.m_bytesIn.addAndGet(bytes);
+		this.inbound(topic).mark();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "ClientMetrics [clientId=" + this.m_clientId + ", published=" + this.getPublished()
+				+ ", publishFailures=" + this.getPublishFailures() + ", bytesOut=" + this.getBytesOut()
+				+ ", received=" + this.getReceived() + ", bytesIn=" + this.getBytesIn() + ", inflight="
+				+ this.getInflight() + ", reconnects=" + this.getReconnects() + ", encode=["
+				+ this.getEncodeLatency() + "], decode=[" + this.getDecodeLatency() + "]]";
+	}
+
+}
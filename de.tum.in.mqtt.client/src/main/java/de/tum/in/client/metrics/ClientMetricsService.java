@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.metrics;
+
+import java.util.Hashtable;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Publishes {@link ClientMetrics} as OSGi service, so that monitoring
+ * components of the gateway can track every running client. The client id is
+ * available as service property {@link ClientMetrics#CLIENT_ID}.
+ *
+ * <pre>
+ * registration = ClientMetricsService.register(context, client.getMetrics());
+ * ...
+ * registration.unregister();
+ * </pre>
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class ClientMetricsService {
+
+	/**
+	 * Registers the metrics as {@link ClientMetrics} service
+	 *
+	 * @return the registration to unregister the service with once the client
+	 *         is not used anymore
+	 */
+	public static ServiceRegistration<ClientMetrics> register(final BundleContext context,
+			final ClientMetrics metrics) {
+		Preconditions.checkNotNull(context);
+		Preconditions.checkNotNull(metrics);
+		final Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		if (metrics.getClientId() != null) {
+			properties.put(ClientMetrics.CLIENT_ID, metrics.getClientId());
+		}
+		return context.registerService(ClientMetrics.class, metrics, properties);
+	}
+
+	/** Constructor */
+	private ClientMetricsService() {
+	}
+
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * {@link ClientMetrics} summing up the metrics of several connections, e.g.
+ * the ones of a pool
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class CompositeClientMetrics implements ClientMetrics {
+
+	private final String m_clientId;
+	private final List<ClientMetrics> m_metrics;
+
+	public CompositeClientMetrics(final String clientId, final List<? extends ClientMetrics> metrics) {
+		this.m_clientId = clientId;
+		this.m_metrics = ImmutableList.copyOf(metrics);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getBytesIn() {
+		long bytes = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			bytes += metrics.getBytesIn();
+		}
+		return bytes;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getBytesOut() {
+		long bytes = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			bytes += metrics.getBytesOut();
+		}
+		return bytes;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getClientId() {
+		return this.m_clientId;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public LatencyHistogram.Snapshot getDecodeLatency() {
+		final List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>(this.m_metrics.size());
+		for (final ClientMetrics metrics : this.m_metrics) {
+			snapshots.add(metrics.getDecodeLatency());
+		}
+		return LatencyHistogram.Snapshot.merge(snapshots);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public LatencyHistogram.Snapshot getEncodeLatency() {
+		final List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>(this.m_metrics.size());
+		for (final ClientMetrics metrics : this.m_metrics) {
+			snapshots.add(metrics.getEncodeLatency());
+		}
+		return LatencyHistogram.Snapshot.merge(snapshots);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Double> getInboundRates() {
+		final Map<String, Double> rates = new HashMap<>();
+		for (final ClientMetrics metrics : this.m_metrics) {
+			for (final Map.Entry<String, Double> entry : metrics.getInboundRates().entrySet()) {
+				final Double rate = rates.get(entry.getKey());
+				rates.put(entry.getKey(), rate == null ? entry.getValue() : rate + entry.getValue());
+			}
+		}
+		return Collections.unmodifiableMap(rates);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getInflight() {
+		int inflight = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			inflight += metrics.getInflight();
+		}
+		return inflight;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getPublished() {
+		long published = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			published += metrics.getPublished();
+		}
+		return published;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getPublishFailures() {
+		long failures = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			failures += metrics.getPublishFailures();
+		}
+		return failures;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getPublishRate() {
+		double rate = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			rate += metrics.getPublishRate();
+		}
+		return rate;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getReceived() {
+		long received = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			received += metrics.getReceived();
+		}
+		return received;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getReconnects() {
+		long reconnects = 0;
+		for (final ClientMetrics metrics : this.m_metrics) {
+			reconnects += metrics.getReconnects();
+		}
+		return reconnects;
+	}
+
+}
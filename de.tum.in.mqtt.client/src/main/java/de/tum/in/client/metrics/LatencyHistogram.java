@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Values are counted in
+ * buckets growing exponentially with eight linear steps per power of two, so
+ * that percentiles are precise to 12.5 percent over the whole range without
+ * storing any sample.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Immutable state of a histogram at the time it has been taken
+	 */
+	public static final class Snapshot {
+
+		/**
+		 * Merges the snapshots of several histograms into one
+		 */
+		public static Snapshot merge(final List<Snapshot> snapshots) {
+			final long[] buckets = new long[BUCKETS];
+			long sum = 0;
+			long max = 0;
+			for (final Snapshot snapshot : snapshots) {
+				for (int i = 0; i < BUCKETS; i++) {
+					buckets[i] += snapshot.m_buckets[i];
+				}
+				sum += snapshot.m_sum;
+				max = Math.max(max, snapshot.m_max);
+			}
+			return new Snapshot(buckets, sum, max);
+		}
+
+		private final long[] m_buckets;
+		private final long m_count;
+		private final long m_max;
+		private final long m_sum;
+
+		private Snapshot(final long[] buckets, final long sum, final long max) {
+			long count = 0;
+			for (final long bucket : buckets) {
+				count += bucket;
+			}
+			this.m_buckets = buckets;
+			this.m_count = count;
+			this.m_sum = sum;
+			this.m_max = max;
+		}
+
+		/**
+		 * Returns the number of recorded values
+		 */
+		public long getCount() {
+			return this.m_count;
+		}
+
+		/**
+		 * Returns the largest recorded value
+		 */
+		public long getMax() {
+			return this.m_max;
+		}
+
+		/**
+		 * Returns the mean of the recorded values
+		 */
+		public double getMean() {
+			return this.m_count == 0 ? 0 : (double) this.m_sum / this.m_count;
+		}
+
+		/**
+		 * Returns the value below which the given fraction of the recorded
+		 * values lies, e.g. 0.99 for the 99th percentile
+		 */
+		public long getPercentile(final double quantile) {
+			Preconditions.checkArgument((quantile >= 0) && (quantile <= 1), "Quantile must be within [0, 1]");
+			if (this.m_count == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(quantile * this.m_count));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += this.m_buckets[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), this.m_max);
+				}
+			}
+			return this.m_max;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return "count=" + this.m_count + ", mean=" + micros((long) this.getMean()) + "us, p50="
+					+ micros(this.getPercentile(0.5)) + "us, p99=" + micros(this.getPercentile(0.99)) + "us, max="
+					+ micros(this.m_max) + "us";
+		}
+	}
+
+	/**
+	 * Values below are counted exactly
+	 */
+	private static final int LINEAR_BUCKETS = 16;
+
+	/**
+	 * Linear steps per power of two, as a power of two
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int BUCKETS = LINEAR_BUCKETS + ((63 - 4) << SUB_BUCKET_BITS);
+
+	/**
+	 * Returns the bucket counting the value
+	 */
+	private static int bucket(final long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+		return LINEAR_BUCKETS + ((exponent - 4) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	private static String micros(final long nanos) {
+		return String.valueOf(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * Returns the largest value counted by the bucket
+	 */
+	private static long upperBound(final int bucket) {
+		if (bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		final int exponent = ((bucket - LINEAR_BUCKETS) >>> SUB_BUCKET_BITS) + 4;
+		final long subBucket = (bucket - LINEAR_BUCKETS) & ((1 << SUB_BUCKET_BITS) - 1);
+		final long step = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((((1L << SUB_BUCKET_BITS) + subBucket) * step) + step) - 1;
+	}
+
+	private final AtomicLongArray m_buckets;
+	private final AtomicLong m_max;
+	private final AtomicLong m_sum;
+
+	public LatencyHistogram() {
+		this.m_buckets = new AtomicLongArray(BUCKETS);
+		this.m_max = new AtomicLong();
+		this.m_sum = new AtomicLong();
+	}
+
+	/**
+	 * Records a latency in nanoseconds
+	 */
+	public void record(final long nanos) {
+		this.m_buckets.incrementAndGet(bucket(nanos));
+		this.m_sum.addAndGet(nanos);
+		long max;
+		while (nanos > (max = this.m_max.get())) {
+			if (this.m_max.compareAndSet(max, nanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the current state of the histogram. Values recorded while the
+	 * snapshot is taken might be partially included.
+	 */
+	public Snapshot snapshot() {
+		final long[] buckets = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = this.m_buckets.get(i);
+		}
+		return new Snapshot(buckets, this.m_sum.get(), this.m_max.get());
+	}
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free counter of events which additionally keeps a one minute
+ * exponentially weighted moving average of their rate. The average is
+ * advanced every {@value #TICK_SECONDS} seconds by whichever thread marks or
+ * reads the meter first after the interval has passed.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class Meter {
+
+	private static final int TICK_SECONDS = 5;
+
+	/**
+	 * Weight of the last interval for a one minute average
+	 */
+	private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+	/**
+	 * Number of idle intervals after which the average has decayed to zero
+	 * for all practical purposes
+	 */
+	private static final long MAX_TICKS = 100;
+
+	private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(TICK_SECONDS);
+
+	private final AtomicLong m_count;
+	private volatile boolean m_initialized;
+	private final AtomicLong m_lastTick;
+
+	/**
+	 * Events per nanosecond
+	 */
+	private volatile double m_rate;
+
+	/**
+	 * Events of the current interval
+	 */
+	private final AtomicLong m_uncounted;
+
+	public Meter() {
+		this.m_count = new AtomicLong();
+		this.m_uncounted = new AtomicLong();
+		this.m_lastTick = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Returns the number of events since the meter has been created
+	 */
+	public long getCount() {
+		return this.m_count.get();
+	}
+
+	/**
+	 * Returns the one minute moving average of the events per second
+	 */
+	public double getRate() {
+		this.tickIfNecessary();
+		return this.m_rate * TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * Records a single event
+	 */
+	public void mark() {
+		this.mark(1);
+	}
+
+	/**
+	 * Records the given number of events
+	 */
+	public void mark(final long events) {
+		this.tickIfNecessary();
+		this.m_count.addAndGet(events);
+		this.m_uncounted.addAndGet(events);
+	}
+
+	private void tick() {
+		final double instantRate = (double) this.m_uncounted.getAndSet(0) / TICK_INTERVAL;
+		if (this.m_initialized) {
+			this.m_rate += ALPHA * (instantRate - this.m_rate);
+		} else {
+			this.m_rate = instantRate;
+			this.m_initialized = true;
+		}
+	}
+
+	private void tickIfNecessary() {
+		final long lastTick = this.m_lastTick.get();
+		final long age = System.nanoTime() - lastTick;
+		if (age < TICK_INTERVAL) {
+			return;
+		}
+		final long ticks = age / TICK_INTERVAL;
+		// only the thread winning the race advances the average
+		if (this.m_lastTick.compareAndSet(lastTick, lastTick + (ticks * TICK_INTERVAL))) {
+			for (long i = 0; i < Math.min(ticks, MAX_TICKS); i++) {
+				this.tick();
+			}
+		}
+	}
+
+}
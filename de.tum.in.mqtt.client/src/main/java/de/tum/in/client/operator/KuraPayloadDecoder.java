@@ -16,21 +16,34 @@
 package de.tum.in.client.operator;
 
 import java.io.IOException;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+import org.fusesource.hawtbuf.Buffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.protobuf.ByteString;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import de.tum.in.client.message.KuraPayload;
 import de.tum.in.client.message.KuraPosition;
-import de.tum.in.client.message.protobuf.KuraPayloadProto;
-import de.tum.in.client.util.GZipUtil;
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+import de.tum.in.client.util.PayloadCodec;
+import de.tum.in.client.util.PayloadCodecs;
 
 /**
- * Used to decode Google Proto Buffer encoded MQTT message
+ * Used to decode Google Proto Buffer encoded MQTT message. The message is read
+ * with a {@link CodedInputStream} straight from the backing array of the
+ * received buffer, without building intermediate protobuf objects.
+ * Compressed messages are detected by the marker of their
+ * {@link PayloadCodec} and inflated into a buffer which is reused by the
+ * decoding thread. The payload can be decoded into a recycled instance, see
+ * {@link #buildFromByteArray(KuraSchemaDecoder, KuraPayload)}, or into a
+ * {@link LazyKuraPayload} which decodes its metrics on access, see
+ * {@link #buildLazy(KuraSchemaDecoder)}.
  *
  * @author AMIT KUMAR MONDAL
  *
@@ -38,118 +51,310 @@ import de.tum.in.client.util.GZipUtil;
 public class KuraPayloadDecoder {
 	private static final Logger s_logger = LoggerFactory.getLogger(KuraPayloadDecoder.class);
 
-	private byte[] m_bytes;
+	private final byte[] m_bytes;
+	private final int m_length;
+	private final int m_offset;
+
+	public KuraPayloadDecoder(final Buffer buffer) {
+		this(buffer.data, buffer.offset, buffer.length);
+	}
 
 	public KuraPayloadDecoder(final byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	public KuraPayloadDecoder(final byte[] bytes, final int offset, final int length) {
 		this.m_bytes = bytes;
+		this.m_offset = offset;
+		this.m_length = length;
+	}
+
+	public KuraPayloadDecoder(final ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			this.m_bytes = buffer.array();
+			this.m_offset = buffer.arrayOffset() + buffer.position();
+			this.m_length = buffer.remaining();
+		} else {
+			this.m_bytes = new byte[buffer.remaining()];
+			buffer.duplicate().get(this.m_bytes);
+			this.m_offset = 0;
+			this.m_length = this.m_bytes.length;
+		}
 	}
 
 	public KuraPayload buildFromByteArray() throws IOException {
-		if (GZipUtil.isCompressed(this.m_bytes)) {
-			try {
-				this.m_bytes = GZipUtil.decompress(this.m_bytes);
-			} catch (final IOException e) {
-				s_logger.info("Decompression failed");
-			}
+		return this.buildFromByteArray((KuraSchemaDecoder) null);
+	}
+
+	/**
+	 * Decodes the message, handing session schema frames over to the given
+	 * decoder of the topic the message has been received on
+	 *
+	 * @return the payload or {@code null} if the session schema decoder
+	 *         dropped the frame
+	 */
+	public KuraPayload buildFromByteArray(final KuraSchemaDecoder schemaDecoder) throws IOException {
+		return this.buildFromByteArray(schemaDecoder, new KuraPayload());
+	}
+
+	/**
+	 * Decodes the message into the given payload, which must be empty, e.g.
+	 * a recycled one
+	 *
+	 * @return the filled payload or {@code null} if the session schema decoder
+	 *         dropped the frame
+	 */
+	public KuraPayload buildFromByteArray(final KuraSchemaDecoder schemaDecoder, final KuraPayload kuraMsg)
+			throws IOException {
+		return this.buildFromByteArray(Suppliers.ofInstance(schemaDecoder), kuraMsg);
+	}
+
+	/**
+	 * Decodes the message into the given payload, which must be empty. The
+	 * session schema decoder of the topic is only asked for if the message is
+	 * a session schema frame.
+	 *
+	 * @return the filled payload or {@code null} if the session schema decoder
+	 *         dropped the frame
+	 */
+	public KuraPayload buildFromByteArray(final Supplier<KuraSchemaDecoder> schemaDecoder, final KuraPayload kuraMsg)
+			throws IOException {
+		final ByteBuffer message = this.inflate();
+		final byte[] bytes = message.array();
+		final int offset = message.arrayOffset() + message.position();
+		final int length = message.remaining();
+
+		if (KuraSchemaDecoder.isSchemaFrame(bytes, offset, length)) {
+			return decodeSchemaFrame(schemaDecoder, bytes, offset, length, kuraMsg);
 		}
 
-		KuraPayloadProto.KuraPayload protoMsg = null;
 		try {
-			protoMsg = KuraPayloadProto.KuraPayload.parseFrom(this.m_bytes);
+			readPayload(CodedInputStream.newInstance(bytes, offset, length), kuraMsg);
 		} catch (final InvalidProtocolBufferException ipbe) {
 			throw new RuntimeException(ipbe);
 		}
+		return kuraMsg;
+	}
+
+	/**
+	 * Decodes the message into a {@link LazyKuraPayload} which only indexes
+	 * the message and decodes the metrics on access. The payload keeps a copy
+	 * of the message. Session schema frames are decoded eagerly.
+	 *
+	 * @return the payload or {@code null} if the session schema decoder
+	 *         dropped the frame
+	 */
+	public KuraPayload buildLazy(final KuraSchemaDecoder schemaDecoder) throws IOException {
+		return this.buildLazy(Suppliers.ofInstance(schemaDecoder));
+	}
 
-		final KuraPayload kuraMsg = new KuraPayload();
+	/**
+	 * Decodes the message into a {@link LazyKuraPayload}. The session schema
+	 * decoder of the topic is only asked for if the message is a session
+	 * schema frame.
+	 *
+	 * @return the payload or {@code null} if the session schema decoder
+	 *         dropped the frame
+	 */
+	public KuraPayload buildLazy(final Supplier<KuraSchemaDecoder> schemaDecoder) throws IOException {
+		final ByteBuffer message = this.inflate();
+		final byte[] bytes = message.array();
+		final int offset = message.arrayOffset() + message.position();
+		final int length = message.remaining();
 
-		if (protoMsg.hasTimestamp()) {
-			kuraMsg.setTimestamp(new Date(protoMsg.getTimestamp()));
+		if (KuraSchemaDecoder.isSchemaFrame(bytes, offset, length)) {
+			return decodeSchemaFrame(schemaDecoder, bytes, offset, length, new KuraPayload());
 		}
+		return new LazyKuraPayload(Arrays.copyOfRange(bytes, offset, offset + length));
+	}
 
-		if (protoMsg.hasPosition()) {
-			kuraMsg.setPosition(this.buildFromProtoBuf(protoMsg.getPosition()));
+	private static KuraPayload decodeSchemaFrame(final Supplier<KuraSchemaDecoder> schemaDecoders,
+			final byte[] bytes, final int offset, final int length, final KuraPayload kuraMsg) throws IOException {
+		final KuraSchemaDecoder schemaDecoder = schemaDecoders.get();
+		if (schemaDecoder == null) {
+			throw new IOException("Session schema frame received without session");
 		}
+		return schemaDecoder.decode(bytes, offset, length, kuraMsg);
+	}
 
-		for (int i = 0; i < protoMsg.getMetricCount(); i++) {
-			final String name = protoMsg.getMetric(i).getName();
+	/**
+	 * Returns the region of the message, inflated into the buffer of the
+	 * decoding thread if the message is compressed
+	 */
+	private ByteBuffer inflate() {
+		final PayloadCodec codec = PayloadCodecs.detect(this.m_bytes, this.m_offset, this.m_length);
+		if (codec != null) {
 			try {
-				final Object value = this.getProtoKuraMetricValue(protoMsg.getMetric(i),
-						protoMsg.getMetric(i).getType());
-				kuraMsg.addMetric(name, value);
-			} catch (final Exception ihte) {
-				s_logger.warn("During deserialization, ignoring metric named: " + name + ". Unrecognized value type: "
-						+ protoMsg.getMetric(i).getType(), ihte);
+				return codec.decompress(this.m_bytes, this.m_offset, this.m_length);
+			} catch (final IOException e) {
+				s_logger.info("Decompression failed");
 			}
 		}
-
-		if (protoMsg.hasBody()) {
-			kuraMsg.setBody(protoMsg.getBody().toByteArray());
-		}
-
-		return kuraMsg;
+		return ByteBuffer.wrap(this.m_bytes, this.m_offset, this.m_length);
 	}
 
-	private KuraPosition buildFromProtoBuf(final KuraPayloadProto.KuraPayload.KuraPosition protoPosition) {
-		final KuraPosition position = new KuraPosition();
+	static void readMetric(final CodedInputStream input, final KuraPayload kuraMsg) throws IOException {
+		String name = null;
+		int type = -1;
+		int valueTag = 0;
+		long bits = 0L;
+		Object value = null;
 
-		if (protoPosition.hasLatitude()) {
-			position.setLatitude(protoPosition.getLatitude());
-		}
-		if (protoPosition.hasLongitude()) {
-			position.setLongitude(protoPosition.getLongitude());
-		}
-		if (protoPosition.hasAltitude()) {
-			position.setAltitude(protoPosition.getAltitude());
-		}
-		if (protoPosition.hasPrecision()) {
-			position.setPrecision(protoPosition.getPrecision());
-		}
-		if (protoPosition.hasHeading()) {
-			position.setHeading(protoPosition.getHeading());
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (tag) {
+			case KuraPayloadTags.METRIC_NAME:
+				name = input.readString();
+				break;
+			case KuraPayloadTags.METRIC_TYPE:
+				type = input.readEnum();
+				break;
+			case KuraPayloadTags.METRIC_DOUBLE:
+				bits = input.readRawLittleEndian64();
+				valueTag = tag;
+				break;
+			case KuraPayloadTags.METRIC_FLOAT:
+				bits = input.readRawLittleEndian32();
+				valueTag = tag;
+				break;
+			case KuraPayloadTags.METRIC_LONG:
+				bits = input.readInt64();
+				valueTag = tag;
+				break;
+			case KuraPayloadTags.METRIC_INT:
+				bits = input.readInt32();
+				valueTag = tag;
+				break;
+			case KuraPayloadTags.METRIC_BOOL:
+				bits = input.readBool() ? 1L : 0L;
+				valueTag = tag;
+				break;
+			case KuraPayloadTags.METRIC_STRING:
+				value = input.readString();
+				valueTag = tag;
+				break;
+			case KuraPayloadTags.METRIC_BYTES:
+				value = input.readByteArray();
+				valueTag = tag;
+				break;
+			default:
+				input.skipField(tag);
+			}
 		}
-		if (protoPosition.hasSpeed()) {
-			position.setSpeed(protoPosition.getSpeed());
+
+		if ((name == null) || (valueTag != valueTag(type))) {
+			s_logger.warn("During deserialization, ignoring metric named: " + name + ". Unrecognized value type: "
+					+ type);
+			return;
 		}
-		if (protoPosition.hasSatellites()) {
-			position.setSatellites(protoPosition.getSatellites());
+
+		switch (type) {
+		case ValueType.DOUBLE_VALUE:
+			kuraMsg.addDouble(name, Double.longBitsToDouble(bits));
+			break;
+		case ValueType.FLOAT_VALUE:
+			kuraMsg.addFloat(name, Float.intBitsToFloat((int) bits));
+			break;
+		case ValueType.INT64_VALUE:
+			kuraMsg.addLong(name, bits);
+			break;
+		case ValueType.INT32_VALUE:
+			kuraMsg.addInt(name, (int) bits);
+			break;
+		case ValueType.BOOL_VALUE:
+			kuraMsg.addBool(name, bits != 0L);
+			break;
+		default:
+			kuraMsg.addMetric(name, value);
 		}
-		if (protoPosition.hasStatus()) {
-			position.setStatus(protoPosition.getStatus());
+	}
+
+	static void readPayload(final CodedInputStream input, final KuraPayload kuraMsg) throws IOException {
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (tag) {
+			case KuraPayloadTags.PAYLOAD_TIMESTAMP:
+				kuraMsg.setTimestampMillis(input.readInt64());
+				break;
+			case KuraPayloadTags.PAYLOAD_POSITION: {
+				final int limit = input.pushLimit(input.readRawVarint32());
+				readPosition(input, kuraMsg.editPosition());
+				input.popLimit(limit);
+				break;
+			}
+			case KuraPayloadTags.PAYLOAD_METRIC: {
+				final int limit = input.pushLimit(input.readRawVarint32());
+				readMetric(input, kuraMsg);
+				input.popLimit(limit);
+				break;
+			}
+			case KuraPayloadTags.PAYLOAD_BODY:
+				kuraMsg.setBody(input.readByteArray());
+				break;
+			default:
+				input.skipField(tag);
+			}
 		}
-		if (protoPosition.hasTimestamp()) {
-			position.setTimestamp(new Date(protoPosition.getTimestamp()));
+	}
+
+	static void readPosition(final CodedInputStream input, final KuraPosition position) throws IOException {
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (tag) {
+			case KuraPayloadTags.POSITION_LATITUDE:
+				position.setLatitude(input.readDouble());
+				break;
+			case KuraPayloadTags.POSITION_LONGITUDE:
+				position.setLongitude(input.readDouble());
+				break;
+			case KuraPayloadTags.POSITION_ALTITUDE:
+				position.setAltitude(input.readDouble());
+				break;
+			case KuraPayloadTags.POSITION_PRECISION:
+				position.setPrecision(input.readDouble());
+				break;
+			case KuraPayloadTags.POSITION_HEADING:
+				position.setHeading(input.readDouble());
+				break;
+			case KuraPayloadTags.POSITION_SPEED:
+				position.setSpeed(input.readDouble());
+				break;
+			case KuraPayloadTags.POSITION_SATELLITES:
+				position.setSatellites(input.readInt32());
+				break;
+			case KuraPayloadTags.POSITION_STATUS:
+				position.setStatus(input.readInt32());
+				break;
+			case KuraPayloadTags.POSITION_TIMESTAMP:
+				position.setTimestampMillis(input.readInt64());
+				break;
+			default:
+				input.skipField(tag);
+			}
 		}
-		return position;
 	}
 
-	private Object getProtoKuraMetricValue(final KuraPayloadProto.KuraPayload.KuraMetric metric,
-			final KuraPayloadProto.KuraPayload.KuraMetric.ValueType type) throws Exception {
+	/**
+	 * Returns the wire tag carrying the value of the declared metric type
+	 */
+	private static int valueTag(final int type) {
 		switch (type) {
-
-		case DOUBLE:
-			return metric.getDoubleValue();
-
-		case FLOAT:
-			return metric.getFloatValue();
-
-		case INT64:
-			return metric.getLongValue();
-
-		case INT32:
-			return metric.getIntValue();
-
-		case BOOL:
-			return metric.getBoolValue();
-
-		case STRING:
-			return metric.getStringValue();
-
-		case BYTES:
-			final ByteString bs = metric.getBytesValue();
-			return bs.toByteArray();
-
+		case ValueType.DOUBLE_VALUE:
+			return KuraPayloadTags.METRIC_DOUBLE;
+		case ValueType.FLOAT_VALUE:
+			return KuraPayloadTags.METRIC_FLOAT;
+		case ValueType.INT64_VALUE:
+			return KuraPayloadTags.METRIC_LONG;
+		case ValueType.INT32_VALUE:
+			return KuraPayloadTags.METRIC_INT;
+		case ValueType.BOOL_VALUE:
+			return KuraPayloadTags.METRIC_BOOL;
+		case ValueType.STRING_VALUE:
+			return KuraPayloadTags.METRIC_STRING;
+		case ValueType.BYTES_VALUE:
+			return KuraPayloadTags.METRIC_BYTES;
 		default:
-			throw new Exception(type.name());
+			return -1;
 		}
 	}
 }
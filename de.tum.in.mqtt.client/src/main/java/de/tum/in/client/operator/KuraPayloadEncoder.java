@@ -16,134 +16,435 @@
 package de.tum.in.client.operator;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 
 import de.tum.in.client.message.KuraPayload;
 import de.tum.in.client.message.KuraPosition;
-import de.tum.in.client.message.protobuf.KuraPayloadProto;
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
 
 /**
- * Encodes an KuraPayload class using the Google ProtoBuf binary format.
+ * Encodes an KuraPayload class using the Google ProtoBuf binary format. The
+ * payload is streamed with a {@link CodedOutputStream} straight into the
+ * target array or buffer, without building intermediate protobuf objects.
+ * The sizes of the payload, its position and its metrics are computed once
+ * per encoder, so the payload must not be modified while it is encoded.
  *
  * @author AMIT KUMAR MONDAL
  */
 public class KuraPayloadEncoder {
+
+	/**
+	 * Initial size of the per thread output buffer
+	 */
+	private static final int INITIAL_POOLED_SIZE = 4 * 1024;
+
+	/**
+	 * Output buffer which is reused by every thread
+	 */
+	private static final ThreadLocal<ByteBuffer> POOLED_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(INITIAL_POOLED_SIZE);
+		}
+	};
+
 	private static final Logger s_logger = LoggerFactory.getLogger(KuraPayloadEncoder.class);
 
-	private static void setProtoKuraMetricValue(final KuraPayloadProto.KuraPayload.KuraMetric.Builder metric,
-			final Object o) throws Exception {
-
-		if (o instanceof String) {
-			metric.setType(KuraPayloadProto.KuraPayload.KuraMetric.ValueType.STRING);
-			metric.setStringValue((String) o);
-		} else if (o instanceof Double) {
-			metric.setType(KuraPayloadProto.KuraPayload.KuraMetric.ValueType.DOUBLE);
-			metric.setDoubleValue((Double) o);
-		} else if (o instanceof Integer) {
-			metric.setType(KuraPayloadProto.KuraPayload.KuraMetric.ValueType.INT32);
-			metric.setIntValue((Integer) o);
-		} else if (o instanceof Float) {
-			metric.setType(KuraPayloadProto.KuraPayload.KuraMetric.ValueType.FLOAT);
-			metric.setFloatValue((Float) o);
-		} else if (o instanceof Long) {
-			metric.setType(KuraPayloadProto.KuraPayload.KuraMetric.ValueType.INT64);
-			metric.setLongValue((Long) o);
-		} else if (o instanceof Boolean) {
-			metric.setType(KuraPayloadProto.KuraPayload.KuraMetric.ValueType.BOOL);
-			metric.setBoolValue((Boolean) o);
-		} else if (o instanceof byte[]) {
-			metric.setType(KuraPayloadProto.KuraPayload.KuraMetric.ValueType.BYTES);
-			metric.setBytesValue(ByteString.copyFrom((byte[]) o));
-		} else if (o == null) {
-			throw new Exception("null value");
-		} else {
-			throw new Exception(o.getClass().getName());
+	/**
+	 * Size of the string in UTF-8 as written by
+	 * {@link #writeString(CodedOutputStream, String)}
+	 */
+	static int computeUtf8Length(final String value) {
+		final int length = value.length();
+		int size = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				size += 1;
+			} else if (c < 0x800) {
+				size += 2;
+			} else if (Character.isHighSurrogate(c) && ((i + 1) < length)
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				size += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				size += 1;
+			} else {
+				size += 3;
+			}
+		}
+		return size;
+	}
+
+	static int computePositionSize(final KuraPosition position) {
+		int size = 0;
+		if (position.hasLatitude()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_LATITUDE)
+					+ CodedOutputStream.LITTLE_ENDIAN_64_SIZE;
+		}
+		if (position.hasLongitude()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_LONGITUDE)
+					+ CodedOutputStream.LITTLE_ENDIAN_64_SIZE;
+		}
+		if (position.hasAltitude()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_ALTITUDE)
+					+ CodedOutputStream.LITTLE_ENDIAN_64_SIZE;
+		}
+		if (position.hasPrecision()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_PRECISION)
+					+ CodedOutputStream.LITTLE_ENDIAN_64_SIZE;
+		}
+		if (position.hasHeading()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_HEADING)
+					+ CodedOutputStream.LITTLE_ENDIAN_64_SIZE;
+		}
+		if (position.hasSpeed()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_SPEED)
+					+ CodedOutputStream.LITTLE_ENDIAN_64_SIZE;
+		}
+		if (position.hasTimestamp()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_TIMESTAMP)
+					+ CodedOutputStream.computeInt64SizeNoTag(position.getTimestampMillis());
+		}
+		if (position.hasSatellites()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_SATELLITES)
+					+ CodedOutputStream.computeInt32SizeNoTag(position.getSatellitesValue());
+		}
+		if (position.hasStatus()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.POSITION_STATUS)
+					+ CodedOutputStream.computeInt32SizeNoTag(position.getStatusValue());
+		}
+		return size;
+	}
+
+	private static int computeStringSize(final String value) {
+		final int length = computeUtf8Length(value);
+		return CodedOutputStream.computeRawVarint32Size(length) + length;
+	}
+
+	static void writePosition(final CodedOutputStream output, final KuraPosition position) throws IOException {
+		if (position.hasLatitude()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_LATITUDE);
+			output.writeDoubleNoTag(position.getLatitudeValue());
+		}
+		if (position.hasLongitude()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_LONGITUDE);
+			output.writeDoubleNoTag(position.getLongitudeValue());
+		}
+		if (position.hasAltitude()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_ALTITUDE);
+			output.writeDoubleNoTag(position.getAltitudeValue());
+		}
+		if (position.hasPrecision()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_PRECISION);
+			output.writeDoubleNoTag(position.getPrecisionValue());
+		}
+		if (position.hasHeading()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_HEADING);
+			output.writeDoubleNoTag(position.getHeadingValue());
+		}
+		if (position.hasSpeed()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_SPEED);
+			output.writeDoubleNoTag(position.getSpeedValue());
+		}
+		if (position.hasTimestamp()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_TIMESTAMP);
+			output.writeInt64NoTag(position.getTimestampMillis());
+		}
+		if (position.hasSatellites()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_SATELLITES);
+			output.writeInt32NoTag(position.getSatellitesValue());
+		}
+		if (position.hasStatus()) {
+			output.writeRawVarint32(KuraPayloadTags.POSITION_STATUS);
+			output.writeInt32NoTag(position.getStatusValue());
+		}
+	}
+
+	/**
+	 * Returns the type of the metric, failing for values the wire format
+	 * cannot carry
+	 */
+	static int metricType(final KuraPayload payload, final int metric) {
+		final int type = payload.getMetricType(metric);
+		if (type == KuraPayload.UNSUPPORTED_TYPE) {
+			final String name = payload.getMetricName(metric);
+			final Object value = payload.getMetricValue(metric);
+			if (value == null) {
+				s_logger.error("During serialization, ignoring metric named: {}. The value is null.", name);
+			} else {
+				s_logger.error("During serialization, ignoring metric named: {}. Unrecognized value type: {}.", name,
+						value.getClass().getName());
+			}
+			throw new RuntimeException(value == null ? "null value" : value.getClass().getName());
+		}
+		return type;
+	}
+
+	/**
+	 * Writes the string as length delimited UTF-8 without allocating an
+	 * intermediate array. Unpaired surrogates are replaced by '?' like
+	 * {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	static void writeString(final CodedOutputStream output, final String value) throws IOException {
+		output.writeRawVarint32(computeUtf8Length(value));
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				output.writeRawByte(c);
+			} else if (c < 0x800) {
+				output.writeRawByte(0xC0 | (c >>> 6));
+				output.writeRawByte(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && ((i + 1) < length)
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				output.writeRawByte(0xF0 | (codePoint >>> 18));
+				output.writeRawByte(0x80 | ((codePoint >>> 12) & 0x3F));
+				output.writeRawByte(0x80 | ((codePoint >>> 6) & 0x3F));
+				output.writeRawByte(0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				output.writeRawByte('?');
+			} else {
+				output.writeRawByte(0xE0 | (c >>> 12));
+				output.writeRawByte(0x80 | ((c >>> 6) & 0x3F));
+				output.writeRawByte(0x80 | (c & 0x3F));
+			}
 		}
 	}
 
 	private final KuraPayload m_kuraPayload;
 
+	/**
+	 * Encoded sizes of the metrics
+	 */
+	private int[] m_metricSizes;
+
+	/**
+	 * Encoded size of the position
+	 */
+	private int m_positionSize;
+
+	/**
+	 * Encoded size of the payload, -1 until it has been computed
+	 */
+	private int m_size = -1;
+
 	public KuraPayloadEncoder(final KuraPayload KuraPayload) {
 		this.m_kuraPayload = KuraPayload;
 	}
 
-	private KuraPayloadProto.KuraPayload.KuraPosition buildPositionProtoBuf() {
-		KuraPayloadProto.KuraPayload.KuraPosition.Builder protoPos = null;
-		protoPos = KuraPayloadProto.KuraPayload.KuraPosition.newBuilder();
+	private int computeMetricSize(final int metric) {
+		final KuraPayload payload = this.m_kuraPayload;
+		final int type = metricType(payload, metric);
+		int size = CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_NAME) + computeStringSize(payload.getMetricName(metric))
+				+ CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_TYPE)
+				+ CodedOutputStream.computeEnumSizeNoTag(type);
 
-		final KuraPosition position = this.m_kuraPayload.getPosition();
-		if (position.getLatitude() != null) {
-			protoPos.setLatitude(position.getLatitude());
-		}
-		if (position.getLongitude() != null) {
-			protoPos.setLongitude(position.getLongitude());
+		switch (type) {
+		case ValueType.BOOL_VALUE:
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_BOOL) + 1;
+			break;
+		case ValueType.BYTES_VALUE: {
+			final int length = ((byte[]) payload.getMetricValue(metric)).length;
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_BYTES)
+					+ CodedOutputStream.computeRawVarint32Size(length) + length;
+			break;
 		}
-		if (position.getAltitude() != null) {
-			protoPos.setAltitude(position.getAltitude());
+		case ValueType.DOUBLE_VALUE:
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_DOUBLE)
+					+ CodedOutputStream.LITTLE_ENDIAN_64_SIZE;
+			break;
+		case ValueType.FLOAT_VALUE:
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_FLOAT)
+					+ CodedOutputStream.LITTLE_ENDIAN_32_SIZE;
+			break;
+		case ValueType.INT32_VALUE:
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_INT)
+					+ CodedOutputStream.computeInt32SizeNoTag(payload.getInt(metric));
+			break;
+		case ValueType.INT64_VALUE:
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_LONG)
+					+ CodedOutputStream.computeInt64SizeNoTag(payload.getLong(metric));
+			break;
+		default:
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.METRIC_STRING)
+					+ computeStringSize((String) payload.getMetricValue(metric));
 		}
-		if (position.getPrecision() != null) {
-			protoPos.setPrecision(position.getPrecision());
+		return size;
+	}
+
+	public byte[] getBytes() throws IOException {
+		final byte[] bytes = new byte[this.getSerializedSize()];
+		this.write(CodedOutputStream.newInstance(bytes));
+		return bytes;
+	}
+
+	/**
+	 * Returns the exact number of bytes the encoded payload occupies
+	 */
+	public int getSerializedSize() {
+		if (this.m_size >= 0) {
+			return this.m_size;
 		}
-		if (position.getHeading() != null) {
-			protoPos.setHeading(position.getHeading());
+		int size = 0;
+
+		if (this.m_kuraPayload.hasTimestamp()) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.PAYLOAD_TIMESTAMP)
+					+ CodedOutputStream.computeInt64SizeNoTag(this.m_kuraPayload.getTimestampMillis());
 		}
-		if (position.getSpeed() != null) {
-			protoPos.setSpeed(position.getSpeed());
+
+		if (this.m_kuraPayload.getPosition() != null) {
+			this.m_positionSize = computePositionSize(this.m_kuraPayload.getPosition());
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.PAYLOAD_POSITION)
+					+ CodedOutputStream.computeRawVarint32Size(this.m_positionSize) + this.m_positionSize;
 		}
-		if (position.getTimestamp() != null) {
-			protoPos.setTimestamp(position.getTimestamp().getTime());
+
+		final int count = this.m_kuraPayload.getMetricCount();
+		this.m_metricSizes = new int[count];
+		for (int metric = 0; metric < count; metric++) {
+			final int metricSize = this.m_metricSizes[metric] = this.computeMetricSize(metric);
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.PAYLOAD_METRIC)
+					+ CodedOutputStream.computeRawVarint32Size(metricSize) + metricSize;
 		}
-		if (position.getSatellites() != null) {
-			protoPos.setSatellites(position.getSatellites());
+
+		final byte[] body = this.m_kuraPayload.getBody();
+		if (body != null) {
+			size += CodedOutputStream.computeRawVarint32Size(KuraPayloadTags.PAYLOAD_BODY)
+					+ CodedOutputStream.computeRawVarint32Size(body.length) + body.length;
 		}
-		if (position.getStatus() != null) {
-			protoPos.setStatus(position.getStatus());
+		return this.m_size = size;
+	}
+
+	/**
+	 * Encodes the payload into the buffer owned by the calling thread. The
+	 * returned buffer is ready to be read and stays valid until the next call
+	 * on the same thread, so it must be consumed or copied before that.
+	 */
+	public ByteBuffer toPooledBuffer() throws IOException {
+		final int size = this.getSerializedSize();
+		ByteBuffer buffer = POOLED_BUFFER.get();
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+			POOLED_BUFFER.set(buffer);
 		}
-		return protoPos.build();
+		buffer.clear();
+		this.write(CodedOutputStream.newInstance(buffer.array(), 0, size));
+		buffer.limit(size);
+		return buffer;
 	}
 
-	public byte[] getBytes() throws IOException {
-		final KuraPayloadProto.KuraPayload.Builder protoMsg = KuraPayloadProto.KuraPayload.newBuilder();
+	/**
+	 * Writes the payload using the sizes computed by
+	 * {@link #getSerializedSize()}
+	 */
+	private void write(final CodedOutputStream output) throws IOException {
+		if (this.m_kuraPayload.hasTimestamp()) {
+			output.writeRawVarint32(KuraPayloadTags.PAYLOAD_TIMESTAMP);
+			output.writeInt64NoTag(this.m_kuraPayload.getTimestampMillis());
+		}
 
-		if (this.m_kuraPayload.getTimestamp() != null) {
-			protoMsg.setTimestamp(this.m_kuraPayload.getTimestamp().getTime());
+		final KuraPosition position = this.m_kuraPayload.getPosition();
+		if (position != null) {
+			output.writeRawVarint32(KuraPayloadTags.PAYLOAD_POSITION);
+			output.writeRawVarint32(this.m_positionSize);
+			writePosition(output, position);
 		}
 
-		if (this.m_kuraPayload.getPosition() != null) {
-			protoMsg.setPosition(this.buildPositionProtoBuf());
+		for (int metric = 0, count = this.m_kuraPayload.getMetricCount(); metric < count; metric++) {
+			output.writeRawVarint32(KuraPayloadTags.PAYLOAD_METRIC);
+			output.writeRawVarint32(this.m_metricSizes[metric]);
+			this.writeMetric(output, metric);
 		}
 
-		for (final String name : this.m_kuraPayload.metricNames()) {
+		final byte[] body = this.m_kuraPayload.getBody();
+		if (body != null) {
+			output.writeRawVarint32(KuraPayloadTags.PAYLOAD_BODY);
+			output.writeByteArrayNoTag(body);
+		}
+		output.checkNoSpaceLeft();
+	}
 
-			final Object value = this.m_kuraPayload.getMetric(name);
-			try {
-				final KuraPayloadProto.KuraPayload.KuraMetric.Builder metricB = KuraPayloadProto.KuraPayload.KuraMetric
-						.newBuilder();
-				metricB.setName(name);
+	private void writeMetric(final CodedOutputStream output, final int metric) throws IOException {
+		final KuraPayload payload = this.m_kuraPayload;
+		final int type = metricType(payload, metric);
 
-				setProtoKuraMetricValue(metricB, value);
-				metricB.build();
+		output.writeRawVarint32(KuraPayloadTags.METRIC_NAME);
+		writeString(output, payload.getMetricName(metric));
+		output.writeRawVarint32(KuraPayloadTags.METRIC_TYPE);
+		output.writeEnumNoTag(type);
 
-				protoMsg.addMetric(metricB);
-			} catch (final Exception eihte) {
-				try {
-					s_logger.error("During serialization, ignoring metric named: {}. Unrecognized value type: {}.",
-							name, value.getClass().getName());
-				} catch (final NullPointerException npe) {
-					s_logger.error("During serialization, ignoring metric named: {}. The value is null.", name);
-				}
-				throw new RuntimeException(eihte);
-			}
+		switch (type) {
+		case ValueType.BOOL_VALUE:
+			output.writeRawVarint32(KuraPayloadTags.METRIC_BOOL);
+			output.writeBoolNoTag(payload.getBool(metric));
+			break;
+		case ValueType.BYTES_VALUE:
+			output.writeRawVarint32(KuraPayloadTags.METRIC_BYTES);
+			output.writeByteArrayNoTag((byte[]) payload.getMetricValue(metric));
+			break;
+		case ValueType.DOUBLE_VALUE:
+			output.writeRawVarint32(KuraPayloadTags.METRIC_DOUBLE);
+			output.writeDoubleNoTag(payload.getDouble(metric));
+			break;
+		case ValueType.FLOAT_VALUE:
+			output.writeRawVarint32(KuraPayloadTags.METRIC_FLOAT);
+			output.writeFloatNoTag(payload.getFloat(metric));
+			break;
+		case ValueType.INT32_VALUE:
+			output.writeRawVarint32(KuraPayloadTags.METRIC_INT);
+			output.writeInt32NoTag(payload.getInt(metric));
+			break;
+		case ValueType.INT64_VALUE:
+			output.writeRawVarint32(KuraPayloadTags.METRIC_LONG);
+			output.writeInt64NoTag(payload.getLong(metric));
+			break;
+		default:
+			output.writeRawVarint32(KuraPayloadTags.METRIC_STRING);
+			writeString(output, (String) payload.getMetricValue(metric));
 		}
+	}
+
+	/**
+	 * Encodes the payload into the given array starting at the offset
+	 *
+	 * @return the number of bytes written
+	 * @throws BufferOverflowException
+	 *             if the array has not enough space left
+	 */
+	public int writeTo(final byte[] buffer, final int offset) throws IOException {
+		return this.writeTo(buffer, offset, buffer.length - offset);
+	}
 
-		if (this.m_kuraPayload.getBody() != null) {
-			protoMsg.setBody(ByteString.copyFrom(this.m_kuraPayload.getBody()));
+	private int writeTo(final byte[] buffer, final int offset, final int available) throws IOException {
+		final int size = this.getSerializedSize();
+		if (available < size) {
+			throw new BufferOverflowException();
 		}
+		this.write(CodedOutputStream.newInstance(buffer, offset, size));
+		return size;
+	}
 
-		return protoMsg.build().toByteArray();
+	/**
+	 * Encodes the payload at the current position of the buffer and advances
+	 * the position by the number of bytes written
+	 *
+	 * @throws BufferOverflowException
+	 *             if the buffer has not enough space remaining
+	 */
+	public void writeTo(final ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray()) {
+			final int written = this.writeTo(buffer.array(), buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+			buffer.position(buffer.position() + written);
+		} else {
+			buffer.put(this.toPooledBuffer());
+		}
 	}
 }
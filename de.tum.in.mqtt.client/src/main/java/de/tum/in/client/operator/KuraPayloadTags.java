@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.operator;
+
+import static com.google.protobuf.WireFormat.WIRETYPE_FIXED32;
+import static com.google.protobuf.WireFormat.WIRETYPE_FIXED64;
+import static com.google.protobuf.WireFormat.WIRETYPE_LENGTH_DELIMITED;
+import static com.google.protobuf.WireFormat.WIRETYPE_VARINT;
+
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload;
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraMetric;
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraPosition;
+
+/**
+ * Wire tags of the Kura Payload protobuf message, used by the streaming
+ * encoder and decoder which work on the wire format directly
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+final class KuraPayloadTags {
+
+	static final int METRIC_BOOL = (KuraMetric.BOOL_VALUE_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+	static final int METRIC_BYTES = (KuraMetric.BYTES_VALUE_FIELD_NUMBER << 3) | WIRETYPE_LENGTH_DELIMITED;
+	static final int METRIC_DOUBLE = (KuraMetric.DOUBLE_VALUE_FIELD_NUMBER << 3) | WIRETYPE_FIXED64;
+	static final int METRIC_FLOAT = (KuraMetric.FLOAT_VALUE_FIELD_NUMBER << 3) | WIRETYPE_FIXED32;
+	static final int METRIC_INT = (KuraMetric.INT_VALUE_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+	static final int METRIC_LONG = (KuraMetric.LONG_VALUE_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+	static final int METRIC_NAME = (KuraMetric.NAME_FIELD_NUMBER << 3) | WIRETYPE_LENGTH_DELIMITED;
+	static final int METRIC_STRING = (KuraMetric.STRING_VALUE_FIELD_NUMBER << 3) | WIRETYPE_LENGTH_DELIMITED;
+	static final int METRIC_TYPE = (KuraMetric.TYPE_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+
+	static final int PAYLOAD_BODY = (KuraPayload.BODY_FIELD_NUMBER << 3) | WIRETYPE_LENGTH_DELIMITED;
+	static final int PAYLOAD_METRIC = (KuraPayload.METRIC_FIELD_NUMBER << 3) | WIRETYPE_LENGTH_DELIMITED;
+	static final int PAYLOAD_POSITION = (KuraPayload.POSITION_FIELD_NUMBER << 3) | WIRETYPE_LENGTH_DELIMITED;
+	static final int PAYLOAD_TIMESTAMP = (KuraPayload.TIMESTAMP_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+
+	static final int POSITION_ALTITUDE = (KuraPosition.ALTITUDE_FIELD_NUMBER << 3) | WIRETYPE_FIXED64;
+	static final int POSITION_HEADING = (KuraPosition.HEADING_FIELD_NUMBER << 3) | WIRETYPE_FIXED64;
+	static final int POSITION_LATITUDE = (KuraPosition.LATITUDE_FIELD_NUMBER << 3) | WIRETYPE_FIXED64;
+	static final int POSITION_LONGITUDE = (KuraPosition.LONGITUDE_FIELD_NUMBER << 3) | WIRETYPE_FIXED64;
+	static final int POSITION_PRECISION = (KuraPosition.PRECISION_FIELD_NUMBER << 3) | WIRETYPE_FIXED64;
+	static final int POSITION_SATELLITES = (KuraPosition.SATELLITES_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+	static final int POSITION_SPEED = (KuraPosition.SPEED_FIELD_NUMBER << 3) | WIRETYPE_FIXED64;
+	static final int POSITION_STATUS = (KuraPosition.STATUS_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+	static final int POSITION_TIMESTAMP = (KuraPosition.TIMESTAMP_FIELD_NUMBER << 3) | WIRETYPE_VARINT;
+
+	/** Constructor */
+	private KuraPayloadTags() {
+	}
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.operator;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.CodedInputStream;
+
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+
+/**
+ * Decodes the frames of a stream encoded by {@link KuraSchemaEncoder}. Delta
+ * frames are only decoded if the previous frame of the stream has been seen,
+ * otherwise they are dropped until the next key frame arrives. One instance
+ * decodes one topic and is not thread safe.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public class KuraSchemaDecoder {
+
+	static final byte DELTA_FRAME = 2;
+	static final int HAS_BODY = 4;
+	static final int HAS_POSITION = 2;
+	static final int HAS_TIMESTAMP = 1;
+	static final byte KEY_FRAME = 1;
+
+	/**
+	 * Marker of session schema frames. As protobuf tag it would be an end
+	 * group of field 8 and therefore never starts a Kura payload.
+	 */
+	static final byte[] MAGIC = { 'D', 'S' };
+
+	private static final Logger s_logger = LoggerFactory.getLogger(KuraSchemaDecoder.class);
+
+	/**
+	 * Checks whether the region holds a session schema frame
+	 */
+	public static boolean isSchemaFrame(final byte[] bytes, final int offset, final int length) {
+		return (length > MAGIC.length) && (bytes[offset] == MAGIC[0]) && (bytes[offset + 1] == MAGIC[1]);
+	}
+
+	/**
+	 * Metric names of the current schema, {@code null} until a key frame has
+	 * been seen
+	 */
+	private String[] m_names;
+
+	/**
+	 * Timestamp of the previous frame
+	 */
+	private long m_previousTimestamp;
+
+	/**
+	 * Raw values of the previous frame
+	 */
+	private long[] m_previousValues;
+
+	/**
+	 * Sequence number of the last decoded frame
+	 */
+	private int m_sequence;
+
+	/**
+	 * Set while the stream is in sync, i.e. the next delta frame can be
+	 * decoded
+	 */
+	private boolean m_synchronized;
+
+	/**
+	 * Metric types of the current schema
+	 */
+	private byte[] m_types;
+
+	/**
+	 * Decodes the next frame of the stream
+	 *
+	 * @return the decoded payload or {@code null} if the frame has been
+	 *         dropped since frames before it are missing
+	 */
+	public KuraPayload decode(final byte[] bytes, final int offset, final int length) throws IOException {
+		return this.decode(bytes, offset, length, new KuraPayload());
+	}
+
+	/**
+	 * Decodes the next frame of the stream into the given payload, which must
+	 * be empty
+	 *
+	 * @return the filled payload or {@code null} if the frame has been
+	 *         dropped since frames before it are missing
+	 */
+	public KuraPayload decode(final byte[] bytes, final int offset, final int length, final KuraPayload payload)
+			throws IOException {
+		if (!isSchemaFrame(bytes, offset, length)) {
+			throw new IOException("Not a session schema frame");
+		}
+		final CodedInputStream input = CodedInputStream.newInstance(bytes, offset + MAGIC.length,
+				length - MAGIC.length);
+		final byte kind = input.readRawByte();
+		final int sequence = input.readRawVarint32();
+
+		if ((kind != KEY_FRAME) && (kind != DELTA_FRAME)) {
+			throw new IOException("Unknown session schema frame " + kind);
+		}
+		if ((kind == DELTA_FRAME) && (!this.m_synchronized || (sequence != (this.m_sequence + 1)))) {
+			if (this.m_synchronized) {
+				s_logger.warn("Session schema stream lost frames, waiting for next key frame");
+			}
+			this.m_synchronized = false;
+			return null;
+		}
+
+		this.m_synchronized = false;
+		if (kind == KEY_FRAME) {
+			this.register(input);
+		}
+		this.read(input, payload);
+		this.m_sequence = sequence;
+		this.m_synchronized = true;
+		return payload;
+	}
+
+	private void read(final CodedInputStream input, final KuraPayload payload) throws IOException {
+		final int flags = input.readRawByte();
+
+		if ((flags & HAS_TIMESTAMP) != 0) {
+			this.m_previousTimestamp += input.readSInt64();
+			payload.setTimestampMillis(this.m_previousTimestamp);
+		}
+
+		for (int i = 0; i < this.m_names.length; i++) {
+			final String name = this.m_names[i];
+			final long previous = this.m_previousValues[i];
+			long value;
+			switch (this.m_types[i]) {
+			case ValueType.DOUBLE_VALUE:
+				value = Long.reverse(input.readRawVarint64()) ^ previous;
+				payload.addDouble(name, Double.longBitsToDouble(value));
+				break;
+			case ValueType.FLOAT_VALUE:
+				value = Integer.reverse(input.readRawVarint32()) ^ (int) previous;
+				payload.addFloat(name, Float.intBitsToFloat((int) value));
+				break;
+			case ValueType.INT64_VALUE:
+				value = previous + input.readSInt64();
+				payload.addLong(name, value);
+				break;
+			case ValueType.INT32_VALUE:
+				value = previous + input.readSInt64();
+				payload.addInt(name, (int) value);
+				break;
+			case ValueType.BOOL_VALUE:
+				value = input.readRawByte();
+				payload.addBool(name, value != 0L);
+				break;
+			case ValueType.STRING_VALUE:
+				value = 0L;
+				payload.addMetric(name, input.readString());
+				break;
+			default:
+				value = 0L;
+				payload.addMetric(name, input.readByteArray());
+			}
+			this.m_previousValues[i] = value;
+		}
+
+		if ((flags & HAS_POSITION) != 0) {
+			final int limit = input.pushLimit(input.readRawVarint32());
+			KuraPayloadDecoder.readPosition(input, payload.editPosition());
+			input.popLimit(limit);
+		}
+		if ((flags & HAS_BODY) != 0) {
+			payload.setBody(input.readByteArray());
+		}
+	}
+
+	private void register(final CodedInputStream input) throws IOException {
+		final int count = input.readRawVarint32();
+		if ((count < 0) || (count > input.getBytesUntilLimit())) {
+			throw new IOException("Corrupt session schema key frame");
+		}
+		final String[] names = new String[count];
+		final byte[] types = new byte[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = input.readString();
+			types[i] = (byte) input.readRawVarint32();
+			if ((types[i] < ValueType.DOUBLE_VALUE) || (types[i] > ValueType.BYTES_VALUE)) {
+				throw new IOException("Unknown metric type " + types[i]);
+			}
+		}
+		this.m_names = names;
+		this.m_types = types;
+		this.m_previousValues = new long[count];
+		this.m_previousTimestamp = 0L;
+	}
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.operator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.google.protobuf.CodedOutputStream;
+
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.message.KuraPosition;
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+
+/**
+ * Encodes a stream of KuraPayloads sharing the same metrics in session schema
+ * mode. A key frame registers the metric names and types once, the following
+ * delta frames refer to the metrics by their position in the schema and carry
+ * the timestamp and the numeric values as deltas to the previous frame.
+ * <p>
+ * A key frame is sent whenever the metrics change, after the configured number
+ * of delta frames and after {@link #reset()}, so that a
+ * {@link KuraSchemaDecoder} which missed frames recovers with the next key
+ * frame. One instance encodes one topic and is not thread safe.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public class KuraSchemaEncoder {
+
+	/**
+	 * Upper bound of the encoded size of a numeric metric value
+	 */
+	private static final int MAX_VALUE_SIZE = 10;
+
+	/**
+	 * Upper bound of the frame header size
+	 */
+	private static final int MAX_HEADER_SIZE = 32;
+
+	/**
+	 * Output buffer of this stream
+	 */
+	private byte[] m_buffer;
+
+	/**
+	 * Number of delta frames since the last key frame
+	 */
+	private int m_deltaFrames;
+
+	/**
+	 * Number of delta frames after which a key frame is enforced
+	 */
+	private final int m_keyFrameInterval;
+
+	/**
+	 * Metric names of the current schema, {@code null} if none has been sent
+	 */
+	private String[] m_names;
+
+	/**
+	 * Timestamp of the previous frame
+	 */
+	private long m_previousTimestamp;
+
+	/**
+	 * Raw values of the previous frame
+	 */
+	private long[] m_previousValues;
+
+	/**
+	 * Sequence number of the last frame
+	 */
+	private int m_sequence;
+
+	/**
+	 * Metric types of the current schema
+	 */
+	private byte[] m_types;
+
+	public KuraSchemaEncoder(final int keyFrameInterval) {
+		Preconditions.checkArgument(keyFrameInterval > 0, "Key frame interval must be positive");
+		this.m_keyFrameInterval = keyFrameInterval;
+		this.m_buffer = new byte[256];
+	}
+
+	/**
+	 * Encodes the payload into the next frame of the stream
+	 */
+	public byte[] encode(final KuraPayload payload) throws IOException {
+		final boolean keyFrame = (this.m_deltaFrames >= this.m_keyFrameInterval) || !this.matchesSchema(payload);
+		if (keyFrame) {
+			this.register(payload);
+		}
+
+		final int size = this.maxFrameSize(payload, keyFrame);
+		if (this.m_buffer.length < size) {
+			this.m_buffer = new byte[Math.max(size, this.m_buffer.length * 2)];
+		}
+		final CodedOutputStream output = CodedOutputStream.newInstance(this.m_buffer, 0, size);
+		this.write(output, payload, keyFrame);
+		return Arrays.copyOf(this.m_buffer, size - output.spaceLeft());
+	}
+
+	private boolean matchesSchema(final KuraPayload payload) {
+		final int count = payload.getMetricCount();
+		if ((this.m_names == null) || (this.m_names.length != count)) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			if ((this.m_types[i] != payload.getMetricType(i)) || !this.m_names[i].equals(payload.getMetricName(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Upper bound of the encoded frame size
+	 */
+	private int maxFrameSize(final KuraPayload payload, final boolean keyFrame) {
+		int size = MAX_HEADER_SIZE;
+		for (int i = 0; i < this.m_names.length; i++) {
+			if (keyFrame) {
+				size += MAX_VALUE_SIZE + (3 * this.m_names[i].length());
+			}
+			if ((this.m_types[i] == ValueType.STRING_VALUE) || (this.m_types[i] == ValueType.BYTES_VALUE)) {
+				final Object value = payload.getMetricValue(i);
+				size += MAX_VALUE_SIZE + ((value instanceof String) ? (3 * ((String) value).length())
+						: ((byte[]) value).length);
+			} else {
+				size += MAX_VALUE_SIZE;
+			}
+		}
+		if (payload.getPosition() != null) {
+			size += MAX_VALUE_SIZE + KuraPayloadEncoder.computePositionSize(payload.getPosition());
+		}
+		if (payload.getBody() != null) {
+			size += MAX_VALUE_SIZE + payload.getBody().length;
+		}
+		return size;
+	}
+
+	private void register(final KuraPayload payload) {
+		final int count = payload.getMetricCount();
+		this.m_names = new String[count];
+		this.m_types = new byte[count];
+		this.m_previousValues = new long[count];
+		for (int i = 0; i < count; i++) {
+			this.m_names[i] = payload.getMetricName(i);
+			this.m_types[i] = (byte) KuraPayloadEncoder.metricType(payload, i);
+		}
+		this.m_previousTimestamp = 0L;
+		this.m_deltaFrames = 0;
+	}
+
+	/**
+	 * Forces the next frame to be a key frame, e.g. after the connection got
+	 * lost and the receiver might have missed frames
+	 */
+	public void reset() {
+		this.m_names = null;
+	}
+
+	private void write(final CodedOutputStream output, final KuraPayload payload, final boolean keyFrame)
+			throws IOException {
+		output.writeRawBytes(KuraSchemaDecoder.MAGIC);
+		output.writeRawByte(keyFrame ? KuraSchemaDecoder.KEY_FRAME : KuraSchemaDecoder.DELTA_FRAME);
+		output.writeRawVarint32(++this.m_sequence);
+
+		final int count = this.m_names.length;
+		if (keyFrame) {
+			output.writeRawVarint32(count);
+			for (int i = 0; i < count; i++) {
+				KuraPayloadEncoder.writeString(output, this.m_names[i]);
+				output.writeRawVarint32(this.m_types[i]);
+			}
+		} else {
+			this.m_deltaFrames++;
+		}
+
+		int flags = 0;
+		if (payload.hasTimestamp()) {
+			flags |= KuraSchemaDecoder.HAS_TIMESTAMP;
+		}
+		if (payload.getPosition() != null) {
+			flags |= KuraSchemaDecoder.HAS_POSITION;
+		}
+		if (payload.getBody() != null) {
+			flags |= KuraSchemaDecoder.HAS_BODY;
+		}
+		output.writeRawByte(flags);
+
+		if (payload.hasTimestamp()) {
+			final long timestamp = payload.getTimestampMillis();
+			output.writeSInt64NoTag(timestamp - this.m_previousTimestamp);
+			this.m_previousTimestamp = timestamp;
+		}
+
+		for (int i = 0; i < count; i++) {
+			final long previous = this.m_previousValues[i];
+			long value;
+			switch (this.m_types[i]) {
+			case ValueType.DOUBLE_VALUE:
+				// floating point values are sent as XOR to the previous value,
+				// reversed so that the varint drops the unchanged low mantissa
+				value = Double.doubleToRawLongBits(payload.getDouble(i));
+				output.writeRawVarint64(Long.reverse(value ^ previous));
+				break;
+			case ValueType.FLOAT_VALUE:
+				value = Float.floatToRawIntBits(payload.getFloat(i));
+				output.writeRawVarint32(Integer.reverse((int) (value ^ previous)));
+				break;
+			case ValueType.INT64_VALUE:
+				value = payload.getLong(i);
+				output.writeSInt64NoTag(value - previous);
+				break;
+			case ValueType.INT32_VALUE:
+				value = payload.getInt(i);
+				output.writeSInt64NoTag(value - previous);
+				break;
+			case ValueType.BOOL_VALUE:
+				value = payload.getBool(i) ? 1L : 0L;
+				output.writeRawByte((int) value);
+				break;
+			case ValueType.STRING_VALUE:
+				value = 0L;
+				KuraPayloadEncoder.writeString(output, (String) payload.getMetricValue(i));
+				break;
+			default:
+				value = 0L;
+				output.writeByteArrayNoTag((byte[]) payload.getMetricValue(i));
+			}
+			this.m_previousValues[i] = value;
+		}
+
+		final KuraPosition position = payload.getPosition();
+		if (position != null) {
+			output.writeRawVarint32(KuraPayloadEncoder.computePositionSize(position));
+			KuraPayloadEncoder.writePosition(output, position);
+		}
+		if (payload.getBody() != null) {
+			output.writeByteArrayNoTag(payload.getBody());
+		}
+	}
+}
@@ -0,0 +1,501 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.operator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.protobuf.CodedInputStream;
+
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.message.KuraPosition;
+
+/**
+ * Payload which keeps the received message and decodes it on demand. The
+ * message is indexed in a single pass recording the timestamp, the region of
+ * the body and the region and name of every metric. {@link #getMetric(String)}
+ * decodes the requested metric only, {@link #getBody()} and the timestamp are
+ * served from the index. Every other accessor decodes the whole message once
+ * and works on the decoded payload afterwards. Like {@link KuraPayload} the
+ * payload is not thread safe.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class LazyKuraPayload extends KuraPayload {
+
+	/**
+	 * Number of ints per index entry
+	 */
+	private static final int ENTRY_SIZE = 5;
+
+	private static final int HASH = 0;
+	private static final int LENGTH = 4;
+	private static final int NAME_LENGTH = 2;
+	private static final int NAME_OFFSET = 1;
+	private static final int OFFSET = 3;
+
+	private static int hash(final byte[] bytes, final int offset, final int length) {
+		int h = 0;
+		for (int i = offset; i < (offset + length); i++) {
+			h = (31 * h) + (bytes[i] & 0xFF);
+		}
+		return h;
+	}
+
+	/**
+	 * Hashes the name like {@link #hash(byte[], int, int)} hashes its UTF-8
+	 * encoding, the name must be ASCII
+	 */
+	private static int hash(final String name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			h = (31 * h) + name.charAt(i);
+		}
+		return h;
+	}
+
+	private static boolean isAscii(final String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copy of the body, taken on first access
+	 */
+	private byte[] m_body;
+	private int m_bodyLength;
+	private int m_bodyOffset = -1;
+
+	/**
+	 * The message, {@code null} once it has been decoded completely
+	 */
+	private byte[] m_bytes;
+
+	/**
+	 * Number of indexed metrics
+	 */
+	private int m_count;
+
+	/**
+	 * Index entries of the metrics in message order
+	 */
+	private int[] m_entries;
+
+	/**
+	 * Payload a single metric is decoded into
+	 */
+	private KuraPayload m_scratch;
+	private long m_timestamp;
+	private boolean m_timestampSet;
+
+	/**
+	 * Values of the metrics decoded so far
+	 */
+	private Object[] m_values;
+
+	LazyKuraPayload(final byte[] bytes) throws IOException {
+		this.m_bytes = bytes;
+		this.m_entries = new int[8 * ENTRY_SIZE];
+		this.index(CodedInputStream.newInstance(bytes));
+		this.m_values = new Object[this.m_count];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addBool(final String name, final boolean value) {
+		this.decode();
+		super.addBool(name, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addDouble(final String name, final double value) {
+		this.decode();
+		super.addDouble(name, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addFloat(final String name, final float value) {
+		this.decode();
+		super.addFloat(name, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addInt(final String name, final int value) {
+		this.decode();
+		super.addInt(name, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addLong(final String name, final long value) {
+		this.decode();
+		super.addLong(name, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addMetric(final String name, final Object value) {
+		this.decode();
+		super.addMetric(name, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clear() {
+		this.release();
+		super.clear();
+	}
+
+	/**
+	 * Decodes the whole message into the payload unless this has already
+	 * been done
+	 */
+	private void decode() {
+		final byte[] bytes = this.m_bytes;
+		if (bytes == null) {
+			return;
+		}
+		this.release();
+		try {
+			KuraPayloadDecoder.readPayload(CodedInputStream.newInstance(bytes), this);
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Decodes the metric of the index entry, {@code null} if it is invalid
+	 */
+	private Object decodeMetric(final int i) {
+		if (this.m_values[i] == null) {
+			if (this.m_scratch == null) {
+				this.m_scratch = new KuraPayload();
+			}
+			final int entry = i * ENTRY_SIZE;
+			try {
+				KuraPayloadDecoder.readMetric(CodedInputStream.newInstance(this.m_bytes,
+						this.m_entries[entry + OFFSET], this.m_entries[entry + LENGTH]), this.m_scratch);
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+			if (this.m_scratch.getMetricCount() > 0) {
+				this.m_values[i] = this.m_scratch.getMetricValue(0);
+				this.m_scratch.removeAllMetrics();
+			}
+		}
+		return this.m_values[i];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public KuraPosition editPosition() {
+		this.decode();
+		return super.editPosition();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] getBody() {
+		if (this.m_bytes == null) {
+			return super.getBody();
+		}
+		if ((this.m_body == null) && (this.m_bodyOffset >= 0)) {
+			this.m_body = Arrays.copyOfRange(this.m_bytes, this.m_bodyOffset, this.m_bodyOffset + this.m_bodyLength);
+		}
+		return this.m_body;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean getBool(final int index) {
+		this.decode();
+		return super.getBool(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getDouble(final int index) {
+		this.decode();
+		return super.getDouble(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public float getFloat(final int index) {
+		this.decode();
+		return super.getFloat(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getInt(final int index) {
+		this.decode();
+		return super.getInt(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLong(final int index) {
+		this.decode();
+		return super.getLong(index);
+	}
+
+	/**
+	 * Returns the value of the named metric, decoding only that metric while
+	 * the message has not been decoded completely. Like the eager decoder the
+	 * last valid occurrence of a repeated name wins.
+	 */
+	@Override
+	public Object getMetric(final String name) {
+		if (this.m_bytes == null) {
+			return super.getMetric(name);
+		}
+		if (name == null) {
+			return null;
+		}
+		final byte[] encoded = isAscii(name) ? null : name.getBytes(StandardCharsets.UTF_8);
+		final int hash = encoded == null ? hash(name) : hash(encoded, 0, encoded.length);
+		for (int i = this.m_count - 1; i >= 0; i--) {
+			final int entry = i * ENTRY_SIZE;
+			if ((this.m_entries[entry + HASH] == hash) && this.nameEquals(entry, name, encoded)) {
+				final Object value = this.decodeMetric(i);
+				if (value != null) {
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMetricCount() {
+		this.decode();
+		return super.getMetricCount();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMetricIndex(final String name) {
+		this.decode();
+		return super.getMetricIndex(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getMetricName(final int index) {
+		this.decode();
+		return super.getMetricName(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMetricType(final int index) {
+		this.decode();
+		return super.getMetricType(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object getMetricValue(final int index) {
+		this.decode();
+		return super.getMetricValue(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public KuraPosition getPosition() {
+		this.decode();
+		return super.getPosition();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Date getTimestamp() {
+		if (this.m_bytes == null) {
+			return super.getTimestamp();
+		}
+		return this.m_timestampSet ? new Date(this.m_timestamp) : null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getTimestampMillis() {
+		return this.m_bytes == null ? super.getTimestampMillis() : this.m_timestamp;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasTimestamp() {
+		return this.m_bytes == null ? super.hasTimestamp() : this.m_timestampSet;
+	}
+
+	/**
+	 * Records the timestamp, the body and the metrics of the message
+	 */
+	private void index(final CodedInputStream input) throws IOException {
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (tag) {
+			case KuraPayloadTags.PAYLOAD_TIMESTAMP:
+				this.m_timestamp = input.readInt64();
+				this.m_timestampSet = true;
+				break;
+			case KuraPayloadTags.PAYLOAD_METRIC:
+				this.indexMetric(input, input.readRawVarint32());
+				break;
+			case KuraPayloadTags.PAYLOAD_BODY:
+				this.m_bodyLength = input.readRawVarint32();
+				this.m_bodyOffset = input.getTotalBytesRead();
+				input.skipRawBytes(this.m_bodyLength);
+				break;
+			default:
+				input.skipField(tag);
+			}
+		}
+	}
+
+	private void indexMetric(final CodedInputStream input, final int length) throws IOException {
+		if (this.m_entries.length == (this.m_count * ENTRY_SIZE)) {
+			this.m_entries = Arrays.copyOf(this.m_entries, this.m_entries.length * 2);
+		}
+		final int entry = this.m_count++ * ENTRY_SIZE;
+		this.m_entries[entry + OFFSET] = input.getTotalBytesRead();
+		this.m_entries[entry + LENGTH] = length;
+		this.m_entries[entry + NAME_LENGTH] = -1;
+
+		final int limit = input.pushLimit(length);
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			if (tag == KuraPayloadTags.METRIC_NAME) {
+				final int nameLength = input.readRawVarint32();
+				final int nameOffset = input.getTotalBytesRead();
+				this.m_entries[entry + NAME_OFFSET] = nameOffset;
+				this.m_entries[entry + NAME_LENGTH] = nameLength;
+				this.m_entries[entry + HASH] = hash(this.m_bytes, nameOffset, nameLength);
+				input.skipRawBytes(input.getBytesUntilLimit());
+			} else {
+				input.skipField(tag);
+			}
+		}
+		input.popLimit(limit);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<String> metricNames() {
+		this.decode();
+		return super.metricNames();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Object> metrics() {
+		this.decode();
+		return super.metrics();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<String> metricsIterator() {
+		this.decode();
+		return super.metricsIterator();
+	}
+
+	/**
+	 * Compares the name of the index entry with the requested name, which is
+	 * given as UTF-8 if it is not ASCII
+	 */
+	private boolean nameEquals(final int entry, final String name, final byte[] encoded) {
+		final int offset = this.m_entries[entry + NAME_OFFSET];
+		final int length = this.m_entries[entry + NAME_LENGTH];
+		if (length != (encoded != null ? encoded.length : name.length())) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (this.m_bytes[offset + i] != (encoded != null ? encoded[i] : name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Drops the message and its index
+	 */
+	private void release() {
+		this.m_bytes = null;
+		this.m_body = null;
+		this.m_entries = null;
+		this.m_values = null;
+		this.m_scratch = null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeAllMetrics() {
+		this.decode();
+		super.removeAllMetrics();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeMetric(final String name) {
+		this.decode();
+		super.removeMetric(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBody(final byte[] body) {
+		this.decode();
+		super.setBody(body);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setPosition(final KuraPosition position) {
+		this.decode();
+		super.setPosition(position);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTimestamp(final Date timestamp) {
+		this.decode();
+		super.setTimestamp(timestamp);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTimestampMillis(final long timestamp) {
+		this.decode();
+		super.setTimestampMillis(timestamp);
+	}
+}
@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.publisher;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.tum.in.client.IKuraMQTTClient;
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.message.protobuf.KuraPayloadProto.KuraPayload.KuraMetric.ValueType;
+import de.tum.in.client.publisher.TopicPolicy.Coalescing;
+
+/**
+ * Publishes messages through a client according to a {@link TopicPolicy} per
+ * topic. Messages exceeding the rate of their topic or arriving within its
+ * window are held back and coalesced, so that a bursty source cannot flood
+ * the broker while the latest values still go out. Messages of a topic are
+ * published in order. The payloads handed to the publisher must not be
+ * modified afterwards.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class CoalescingPublisher implements Closeable {
+
+	public static class Builder {
+
+		private IKuraMQTTClient client;
+		private TopicPolicy defaultPolicy = new TopicPolicy.Builder().build();
+		private ScheduledExecutorService executor;
+		private final Map<String, TopicPolicy> policies = new HashMap<>();
+		private Ticker ticker = Ticker.systemTicker();
+
+		public CoalescingPublisher build() {
+			Preconditions.checkNotNull(this.client, "Client must be set");
+			return new CoalescingPublisher(this);
+		}
+
+		public Builder setClient(final IKuraMQTTClient client) {
+			this.client = Preconditions.checkNotNull(client);
+			return this;
+		}
+
+		/**
+		 * Sets the policy of the topics without a policy of their own
+		 */
+		public Builder setDefaultPolicy(final TopicPolicy defaultPolicy) {
+			this.defaultPolicy = Preconditions.checkNotNull(defaultPolicy);
+			return this;
+		}
+
+		/**
+		 * Sets the executor publishing the messages held back. The executor is
+		 * not shut down by {@link CoalescingPublisher#close()}.
+		 */
+		public Builder setExecutor(final ScheduledExecutorService executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		public Builder setPolicy(final String topic, final TopicPolicy policy) {
+			this.policies.put(Preconditions.checkNotNull(topic), Preconditions.checkNotNull(policy));
+			return this;
+		}
+
+		/**
+		 * Sets the time source the windows and rates are measured with, the
+		 * system time by default
+		 */
+		public Builder setTicker(final Ticker ticker) {
+			this.ticker = Preconditions.checkNotNull(ticker);
+			return this;
+		}
+	}
+
+	/**
+	 * Messages held back for a topic
+	 */
+	private final class TopicState implements Runnable {
+
+		/**
+		 * Earliest time the next message may be published at
+		 */
+		private long nextSend;
+
+		/**
+		 * Latest message or samples of the aggregate held back
+		 */
+		private final ArrayDeque<KuraPayload> pending;
+
+		private final TopicPolicy policy;
+
+		/**
+		 * Set while a flush of the topic is scheduled
+		 */
+		private boolean scheduled;
+
+		private final String topic;
+
+		private TopicState(final String topic, final TopicPolicy policy) {
+			this.topic = topic;
+			this.policy = policy;
+			this.pending = new ArrayDeque<>();
+			this.nextSend = CoalescingPublisher.this.ticker.read();
+		}
+
+		/**
+		 * Adds a message to the ones held back. Runs with the lock of the
+		 * state.
+		 */
+		private void add(final KuraPayload payload) {
+			final int capacity = this.policy.getCoalescing() == Coalescing.AGGREGATE ? this.policy.getMaxSamples()
+					: 1;
+			if (this.pending.size() == capacity) {
+				this.pending.removeFirst();
+				CoalescingPublisher.this.coalesced.incrementAndGet();
+			}
+			this.pending.addLast(payload);
+		}
+
+		/**
+		 * Takes the messages held back as one payload, {@code null} if there
+		 * are none. Runs with the lock of the state.
+		 */
+		private KuraPayload drain() {
+			if (this.pending.isEmpty()) {
+				return null;
+			}
+			if (this.policy.getCoalescing() == Coalescing.AGGREGATE) {
+				return aggregate(this.pending);
+			}
+			return this.pending.removeFirst();
+		}
+
+		/**
+		 * Publishes the messages held back once the window has passed and the
+		 * rate allows. Nothing is published once the publisher is closed, the
+		 * messages held back have been flushed by
+		 * {@link CoalescingPublisher#close()}.
+		 */
+		@Override
+		public void run() {
+			final KuraPayload payload;
+			synchronized (this) {
+				this.scheduled = false;
+				if (CoalescingPublisher.this.closed || this.pending.isEmpty()) {
+					return;
+				}
+				final long now = CoalescingPublisher.this.ticker.read();
+				if ((now - this.nextSend) < 0) {
+					this.schedule(this.nextSend - now);
+					return;
+				}
+				this.nextSend = now + this.policy.getIntervalNanos();
+				payload = this.drain();
+			}
+			CoalescingPublisher.this.send(this.topic, payload, this.policy);
+		}
+
+		/**
+		 * Schedules a flush of the topic. Runs with the lock of the state.
+		 */
+		private void schedule(final long delay) {
+			try {
+				CoalescingPublisher.this.executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+				this.scheduled = true;
+			} catch (final RejectedExecutionException e) {
+				LOGGER.warn("Could not schedule publishing of topic " + this.topic + ", executor rejected it");
+			}
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingPublisher.class);
+
+	/**
+	 * Metric of an aggregate holding its number of samples
+	 */
+	public static final String SAMPLES_METRIC = "samples";
+
+	/**
+	 * Combines the samples into one payload. The metrics of sample {@code i}
+	 * are suffixed with {@code .i}, timestamp, position and body are taken
+	 * from the latest sample having them.
+	 */
+	private static KuraPayload aggregate(final ArrayDeque<KuraPayload> samples) {
+		final KuraPayload aggregate = new KuraPayload();
+		int i = 0;
+		for (KuraPayload sample; (sample = samples.pollFirst()) != null; i++) {
+			final String suffix = "." + i;
+			for (int m = 0; m < sample.getMetricCount(); m++) {
+				final String name = sample.getMetricName(m) + suffix;
+				switch (sample.getMetricType(m)) {
+				case ValueType.DOUBLE_VALUE:
+					aggregate.addDouble(name, sample.getDouble(m));
+					break;
+				case ValueType.FLOAT_VALUE:
+					aggregate.addFloat(name, sample.getFloat(m));
+					break;
+				case ValueType.INT64_VALUE:
+					aggregate.addLong(name, sample.getLong(m));
+					break;
+				case ValueType.INT32_VALUE:
+					aggregate.addInt(name, sample.getInt(m));
+					break;
+				case ValueType.BOOL_VALUE:
+					aggregate.addBool(name, sample.getBool(m));
+					break;
+				default:
+					aggregate.addMetric(name, sample.getMetricValue(m));
+				}
+			}
+			if (sample.hasTimestamp()) {
+				aggregate.setTimestampMillis(sample.getTimestampMillis());
+			}
+			if (sample.getPosition() != null) {
+				aggregate.setPosition(sample.getPosition());
+			}
+			if (sample.getBody() != null) {
+				aggregate.setBody(sample.getBody());
+			}
+		}
+		aggregate.addInt(SAMPLES_METRIC, i);
+		return aggregate;
+	}
+
+	private final IKuraMQTTClient client;
+
+	private volatile boolean closed;
+
+	/**
+	 * Number of messages replaced or dropped without being published
+	 */
+	private final AtomicLong coalesced;
+	private final TopicPolicy defaultPolicy;
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Whether the executor has been created by the publisher
+	 */
+	private final boolean ownsExecutor;
+	private final Map<String, TopicPolicy> policies;
+
+	/**
+	 * Number of messages handed to the client
+	 */
+	private final AtomicLong published;
+	private final ConcurrentMap<String, TopicState> states;
+	private final Ticker ticker;
+
+	private CoalescingPublisher(final Builder builder) {
+		this.client = builder.client;
+		this.defaultPolicy = builder.defaultPolicy;
+		this.policies = new HashMap<>(builder.policies);
+		this.ownsExecutor = builder.executor == null;
+		this.executor = this.ownsExecutor ? Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("mqtt-coalescer-%d").build())
+				: builder.executor;
+		this.states = new ConcurrentHashMap<>();
+		this.coalesced = new AtomicLong();
+		this.published = new AtomicLong();
+		this.ticker = builder.ticker;
+	}
+
+	/**
+	 * Publishes the messages held back and stops the publisher
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.flush();
+		if (this.ownsExecutor) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Publishes the messages held back for all of the topics right away,
+	 * regardless of their windows and rates
+	 */
+	public void flush() {
+		for (final TopicState state : this.states.values()) {
+			final KuraPayload payload;
+			synchronized (state) {
+				payload = state.drain();
+				if (payload == null) {
+					continue;
+				}
+				state.nextSend = this.ticker.read() + state.policy.getIntervalNanos();
+			}
+			this.send(state.topic, payload, state.policy);
+		}
+	}
+
+	/**
+	 * Returns the number of messages which have been replaced by a later
+	 * message or dropped from a full aggregate without being published
+	 */
+	public long getCoalesced() {
+		return this.coalesced.get();
+	}
+
+	/**
+	 * Returns the number of messages handed to the client, an aggregate counts
+	 * as one message
+	 */
+	public long getPublished() {
+		return this.published.get();
+	}
+
+	/**
+	 * Publishes the message right away if the policy of the topic allows,
+	 * otherwise holds it back
+	 *
+	 * @param topic
+	 *            the topic we are publishing to
+	 * @param payload
+	 *            the message we are publishing
+	 */
+	public void publish(final String topic, final KuraPayload payload) {
+		Preconditions.checkState(!this.closed, "Publisher is closed");
+		Preconditions.checkNotNull(payload);
+		final TopicState state = this.state(topic);
+		final TopicPolicy policy = state.policy;
+		final long window = TimeUnit.MILLISECONDS.toNanos(policy.getWindow());
+
+		synchronized (state) {
+			final long now = this.ticker.read();
+			if (state.pending.isEmpty() && (window == 0) && ((now - state.nextSend) >= 0)) {
+				state.nextSend = now + policy.getIntervalNanos();
+			} else {
+				state.add(payload);
+				if (!state.scheduled) {
+					state.schedule(Math.max(window, state.nextSend - now));
+				}
+				return;
+			}
+		}
+		this.send(topic, payload, policy);
+	}
+
+	private void send(final String topic, final KuraPayload payload, final TopicPolicy policy) {
+		this.published.incrementAndGet();
+		this.client.publishAsync(topic, payload, policy.getQos());
+	}
+
+	private TopicState state(final String topic) {
+		TopicState state = this.states.get(topic);
+		if (state == null) {
+			final TopicPolicy policy = this.policies.get(topic);
+			final TopicState created = new TopicState(topic, policy != null ? policy : this.defaultPolicy);
+			state = this.states.putIfAbsent(topic, created);
+			if (state == null) {
+				state = created;
+			}
+		}
+		return state;
+	}
+}
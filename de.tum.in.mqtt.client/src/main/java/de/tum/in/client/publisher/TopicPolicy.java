@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.publisher;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.mqtt.client.QoS;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Describes how the {@link CoalescingPublisher} publishes the messages of a
+ * topic. The default policy publishes every message right away.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class TopicPolicy {
+
+	public static class Builder {
+
+		private Coalescing coalescing = Coalescing.LAST_VALUE;
+		private double maxRate;
+		private int maxSamples = DEFAULT_MAX_SAMPLES;
+		private QoS qos = QoS.AT_MOST_ONCE;
+		private long window;
+
+		public TopicPolicy build() {
+			return new TopicPolicy(this);
+		}
+
+		/**
+		 * Sets how the messages held back by the window or the rate limit are
+		 * combined
+		 */
+		public Builder setCoalescing(final Coalescing coalescing) {
+			this.coalescing = Preconditions.checkNotNull(coalescing);
+			return this;
+		}
+
+		/**
+		 * Limits the messages published per second. Messages exceeding the
+		 * rate are held back and coalesced. Pass 0 to disable the limit.
+		 */
+		public Builder setMaxRate(final double maxRate) {
+			Preconditions.checkArgument(maxRate >= 0, "Rate must not be negative");
+			this.maxRate = maxRate;
+			return this;
+		}
+
+		/**
+		 * Sets the number of samples an aggregate keeps, the oldest samples
+		 * are dropped beyond it
+		 */
+		public Builder setMaxSamples(final int maxSamples) {
+			Preconditions.checkArgument(maxSamples > 0, "Number of samples must be positive");
+			this.maxSamples = maxSamples;
+			return this;
+		}
+
+		public Builder setQos(final QoS qos) {
+			this.qos = Preconditions.checkNotNull(qos);
+			return this;
+		}
+
+		/**
+		 * Sets the window in milliseconds messages are held back for after
+		 * the first one arrived. Pass 0 to only coalesce messages exceeding the
+		 * rate.
+		 */
+		public Builder setWindow(final long window) {
+			Preconditions.checkArgument(window >= 0, "Window must not be negative");
+			this.window = window;
+			return this;
+		}
+	}
+
+	/**
+	 * Ways to combine the messages held back
+	 */
+	public enum Coalescing {
+		/**
+		 * Every sample becomes a set of metrics of one payload, the metrics of
+		 * sample {@code i} are suffixed with {@code .i}
+		 */
+		AGGREGATE,
+		/**
+		 * The latest message replaces the messages held back before
+		 */
+		LAST_VALUE
+	}
+
+	/**
+	 * Default number of samples an aggregate keeps
+	 */
+	public static final int DEFAULT_MAX_SAMPLES = 100;
+
+	private final Coalescing coalescing;
+	private final long intervalNanos;
+	private final double maxRate;
+	private final int maxSamples;
+	private final QoS qos;
+	private final long window;
+
+	private TopicPolicy(final Builder builder) {
+		this.coalescing = builder.coalescing;
+		this.maxRate = builder.maxRate;
+		this.maxSamples = builder.maxSamples;
+		this.qos = builder.qos;
+		this.window = builder.window;
+		this.intervalNanos = this.maxRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / this.maxRate) : 0L;
+	}
+
+	public Coalescing getCoalescing() {
+		return this.coalescing;
+	}
+
+	/**
+	 * Returns the minimum time between two messages in nanoseconds
+	 */
+	long getIntervalNanos() {
+		return this.intervalNanos;
+	}
+
+	public double getMaxRate() {
+		return this.maxRate;
+	}
+
+	public int getMaxSamples() {
+		return this.maxSamples;
+	}
+
+	public QoS getQos() {
+		return this.qos;
+	}
+
+	public long getWindow() {
+		return this.window;
+	}
+}
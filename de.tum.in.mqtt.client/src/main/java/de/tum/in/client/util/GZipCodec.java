@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * GZip codec working with a {@link Deflater} and an {@link Inflater} per
+ * thread. The GZip header and trailer are written and parsed directly so that
+ * the raw deflate streams can be pooled and the output can be sized up front.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+final class GZipCodec implements PayloadCodec {
+
+	private static final int FCOMMENT = 16;
+	private static final int FEXTRA = 4;
+	private static final int FHCRC = 2;
+	private static final int FNAME = 8;
+
+	/**
+	 * Header as written by {@link java.util.zip.GZIPOutputStream}
+	 */
+	private static final byte[] HEADER = { (byte) GZIPInputStream.GZIP_MAGIC, (byte) (GZIPInputStream.GZIP_MAGIC >> 8),
+			Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	/**
+	 * Upper bound of the deflate compression ratio
+	 */
+	private static final int MAX_RATIO = 1032;
+
+	private static final int TRAILER_SIZE = 8;
+
+	private static int readIntLE(final byte[] bytes, final int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16)
+				| ((bytes[offset + 3] & 0xFF) << 24);
+	}
+
+	private static void writeIntLE(final byte[] bytes, final int offset, final int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >> 8);
+		bytes[offset + 2] = (byte) (value >> 16);
+		bytes[offset + 3] = (byte) (value >> 24);
+	}
+
+	private final ThreadLocal<CRC32> m_crc;
+	private final ThreadLocal<Deflater> m_deflater;
+	private final ThreadLocal<Inflater> m_inflater;
+
+	GZipCodec(final int level) {
+		this.m_deflater = new ThreadLocal<Deflater>() {
+			@Override
+			protected Deflater initialValue() {
+				return new Deflater(level, true);
+			}
+		};
+		this.m_inflater = new ThreadLocal<Inflater>() {
+			@Override
+			protected Inflater initialValue() {
+				return new Inflater(true);
+			}
+		};
+		this.m_crc = new ThreadLocal<CRC32>() {
+			@Override
+			protected CRC32 initialValue() {
+				return new CRC32();
+			}
+		};
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] compress(final byte[] source, final int offset, final int length) throws IOException {
+		final Deflater deflater = this.m_deflater.get();
+		final CRC32 crc = this.m_crc.get();
+		// deflate never expands more than 5 bytes per 16 KB block plus a few
+		// bytes of framing
+		byte[] out = PayloadCodecs.pooledScratch(HEADER.length + length + (length >> 12) + 64);
+		System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+		int size = HEADER.length;
+		try {
+			deflater.setInput(source, offset, length);
+			deflater.finish();
+			while (!deflater.finished()) {
+				if (size == out.length) {
+					final byte[] grown = PayloadCodecs.pooledScratch(out.length * 2);
+					System.arraycopy(out, 0, grown, 0, size);
+					out = grown;
+				}
+				size += deflater.deflate(out, size, out.length - size);
+			}
+		} finally {
+			deflater.reset();
+		}
+		crc.reset();
+		crc.update(source, offset, length);
+
+		final byte[] compressed = Arrays.copyOf(out, size + TRAILER_SIZE);
+		writeIntLE(compressed, size, (int) crc.getValue());
+		writeIntLE(compressed, size + 4, length);
+		return compressed;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteBuffer decompress(final byte[] source, final int offset, final int length) throws IOException {
+		if ((length < (HEADER.length + TRAILER_SIZE)) || !this.isCompressed(source, offset, length)
+				|| (source[offset + 2] != Deflater.DEFLATED)) {
+			throw new IOException("Not in GZIP format");
+		}
+		final int end = offset + length;
+		final int flags = source[offset + 3] & 0xFF;
+		int position = offset + HEADER.length;
+		if ((flags & FEXTRA) != 0) {
+			position += 2 + ((source[position] & 0xFF) | ((source[position + 1] & 0xFF) << 8));
+		}
+		if ((flags & FNAME) != 0) {
+			while ((position < end) && (source[position++] != 0)) {
+				// skip the zero terminated file name
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while ((position < end) && (source[position++] != 0)) {
+				// skip the zero terminated comment
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			position += 2;
+		}
+		if (position > (end - TRAILER_SIZE)) {
+			throw new IOException("Corrupt GZIP header");
+		}
+
+		final int expectedCrc = readIntLE(source, end - TRAILER_SIZE);
+		final int expectedSize = readIntLE(source, end - 4);
+		// a corrupt trailer must not trigger a huge allocation
+		byte[] out = PayloadCodecs.pooledOutput((int) Math.max(1,
+				Math.min(expectedSize & 0xFFFFFFFFL, Math.min((long) length * MAX_RATIO, Integer.MAX_VALUE - 8))));
+		int size = 0;
+
+		final Inflater inflater = this.m_inflater.get();
+		try {
+			// the trailer is handed over as well, a raw inflater needs input
+			// beyond the end of the deflate stream
+			inflater.setInput(source, position, end - position);
+			while (!inflater.finished()) {
+				if (size == out.length) {
+					// the size in the trailer is only the size modulo 2^32
+					final byte[] grown = PayloadCodecs.pooledOutput(out.length * 2);
+					System.arraycopy(out, 0, grown, 0, size);
+					out = grown;
+				}
+				final int n = inflater.inflate(out, size, out.length - size);
+				if ((n == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Unexpected end of GZIP stream");
+				}
+				size += n;
+			}
+		} catch (final DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.reset();
+		}
+
+		final CRC32 crc = this.m_crc.get();
+		crc.reset();
+		crc.update(out, 0, size);
+		if (((int) crc.getValue() != expectedCrc) || (size != expectedSize)) {
+			throw new IOException("Corrupt GZIP trailer");
+		}
+		return ByteBuffer.wrap(out, 0, size);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getName() {
+		return "gzip";
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isCompressed(final byte[] bytes, final int offset, final int length) {
+		return (length >= 2) && (bytes[offset] == HEADER[0]) && (bytes[offset + 1] == HEADER[1]);
+	}
+}
@@ -15,14 +15,13 @@
  *******************************************************************************/
 package de.tum.in.client.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
- * MQTT Message GZip Encoder
+ * MQTT Message GZip Encoder, backed by the pooled {@link PayloadCodecs#GZIP}
+ * codec
  *
  * @author AMIT KUMAR MONDAL
  *
@@ -30,67 +29,33 @@ import java.util.zip.GZIPOutputStream;
 public class GZipUtil {
 
 	public static byte[] compress(final byte[] source) throws IOException {
-
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		GZIPOutputStream gzipos = null;
-		try {
-			gzipos = new GZIPOutputStream(baos);
-			gzipos.write(source);
-		} catch (final IOException e) {
-			throw e;
-		} finally {
-			if (gzipos != null) {
-				try {
-					gzipos.close();
-				} catch (final IOException e) {
-					// Ignore
-				}
-			}
-		}
-		return baos.toByteArray();
+		return PayloadCodecs.GZIP.compress(source, 0, source.length);
 	}
 
 	public static byte[] decompress(final byte[] source) throws IOException {
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		final ByteArrayInputStream bais = new ByteArrayInputStream(source);
-		GZIPInputStream gzipis = null;
-
-		try {
-			gzipis = new GZIPInputStream(bais);
-
-			int n;
-			final int MAX_BUF = 1024;
-			final byte[] buf = new byte[MAX_BUF];
-			while ((n = gzipis.read(buf, 0, MAX_BUF)) != -1) {
-				baos.write(buf, 0, n);
-			}
-		} catch (final IOException e) {
-			throw e;
-		} finally {
-			if (gzipis != null) {
-				try {
-					gzipis.close();
-				} catch (final IOException e) {
-					// Ignore
-				}
-			}
-
-			try {
-				baos.close();
-			} catch (final IOException e) {
-				// Ignore
-			}
-		}
+		final ByteBuffer buffer = PayloadCodecs.GZIP.decompress(source, 0, source.length);
+		return Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
+	}
 
-		return baos.toByteArray();
+	/**
+	 * Decompresses a region of an array into a buffer which is owned by the
+	 * calling thread and reused by the next call. The returned buffer must
+	 * therefore be consumed before this method is called again on the same
+	 * thread.
+	 */
+	public static ByteBuffer decompressPooled(final byte[] source, final int offset, final int length)
+			throws IOException {
+		return PayloadCodecs.GZIP.decompress(source, offset, length);
 	}
 
 	public static boolean isCompressed(final byte[] bytes) throws IOException {
-		if ((bytes == null) || (bytes.length < 2)) {
+		if (bytes == null) {
 			return false;
-		} else {
-			return ((bytes[0] == (byte) (GZIPInputStream.GZIP_MAGIC))
-					&& (bytes[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8)));
 		}
+		return isCompressed(bytes, 0, bytes.length);
+	}
+
+	public static boolean isCompressed(final byte[] bytes, final int offset, final int length) {
+		return (bytes != null) && PayloadCodecs.GZIP.isCompressed(bytes, offset, length);
 	}
 }
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fast codec producing the LZ4 block format. The compressed payload starts
+ * with the marker {@code 'L' 'Z'}, which as a protobuf tag would be an end
+ * group of field 9 and therefore never starts a Kura payload, followed by the
+ * uncompressed length as little endian int and the LZ4 block.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+final class Lz4Codec implements PayloadCodec {
+
+	private static final int HASH_LOG = 12;
+
+	/**
+	 * Size of the marker and the uncompressed length
+	 */
+	private static final int HEADER_SIZE = 6;
+
+	/**
+	 * The last five bytes are always literals
+	 */
+	private static final int LAST_LITERALS = 5;
+
+	private static final byte[] MAGIC = { 'L', 'Z' };
+
+	private static final int MAX_DISTANCE = 0xFFFF;
+
+	/**
+	 * No match may start within the last twelve bytes
+	 */
+	private static final int MF_LIMIT = 12;
+
+	private static final int MIN_MATCH = 4;
+
+	private static final int ML_MASK = 0x0F;
+
+	private static final int RUN_MASK = 0x0F;
+
+	/**
+	 * Hash table of the last positions per thread. Stale entries of previous
+	 * calls are harmless since every candidate is verified.
+	 */
+	private static final ThreadLocal<int[]> TABLE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1 << HASH_LOG];
+		}
+	};
+
+	private static int hash(final int value) {
+		return (value * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static int readInt(final byte[] bytes, final int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16)
+				| ((bytes[offset + 3] & 0xFF) << 24);
+	}
+
+	private static int writeLength(final byte[] dest, int position, int length) {
+		while (length >= 0xFF) {
+			dest[position++] = (byte) 0xFF;
+			length -= 0xFF;
+		}
+		dest[position++] = (byte) length;
+		return position;
+	}
+
+	private static int writeLiterals(final byte[] dest, int position, final byte[] source, final int offset,
+			final int length, final int matchToken) {
+		if (length >= RUN_MASK) {
+			dest[position++] = (byte) ((RUN_MASK << 4) | matchToken);
+			position = writeLength(dest, position, length - RUN_MASK);
+		} else {
+			dest[position++] = (byte) ((length << 4) | matchToken);
+		}
+		System.arraycopy(source, offset, dest, position, length);
+		return position + length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] compress(final byte[] source, final int offset, final int length) throws IOException {
+		final byte[] dest = PayloadCodecs.pooledScratch(HEADER_SIZE + length + (length / 255) + 16);
+		System.arraycopy(MAGIC, 0, dest, 0, MAGIC.length);
+		dest[2] = (byte) length;
+		dest[3] = (byte) (length >> 8);
+		dest[4] = (byte) (length >> 16);
+		dest[5] = (byte) (length >> 24);
+
+		final int[] table = TABLE.get();
+		final int end = offset + length;
+		final int matchLimit = end - LAST_LITERALS;
+		final int mfLimit = end - MF_LIMIT;
+		int anchor = offset;
+		int position = offset;
+		int out = HEADER_SIZE;
+		int misses = 0;
+
+		while (position < mfLimit) {
+			final int sequence = readInt(source, position);
+			final int h = hash(sequence);
+			int ref = table[h];
+			table[h] = position;
+			if ((ref < offset) || (ref >= position) || ((position - ref) > MAX_DISTANCE)
+					|| (readInt(source, ref) != sequence)) {
+				// skip faster through data which does not compress
+				position += 1 + (misses++ >>> 6);
+				continue;
+			}
+			misses = 0;
+
+			int start = position;
+			while ((start > anchor) && (ref > offset) && (source[start - 1] == source[ref - 1])) {
+				start--;
+				ref--;
+			}
+			int matchLength = MIN_MATCH + (position - start);
+			while (((start + matchLength) < matchLimit) && (source[start + matchLength] == source[ref + matchLength])) {
+				matchLength++;
+			}
+
+			final int matchToken = Math.min(matchLength - MIN_MATCH, ML_MASK);
+			out = writeLiterals(dest, out, source, anchor, start - anchor, matchToken);
+			final int distance = start - ref;
+			dest[out++] = (byte) distance;
+			dest[out++] = (byte) (distance >> 8);
+			if (matchToken == ML_MASK) {
+				out = writeLength(dest, out, matchLength - MIN_MATCH - ML_MASK);
+			}
+			position = start + matchLength;
+			anchor = position;
+		}
+		out = writeLiterals(dest, out, source, anchor, end - anchor, 0);
+		return Arrays.copyOf(dest, out);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteBuffer decompress(final byte[] source, final int offset, final int length) throws IOException {
+		if ((length <= HEADER_SIZE) || !this.isCompressed(source, offset, length)) {
+			throw new IOException("Not in LZ4 format");
+		}
+		final int size = readInt(source, offset + MAGIC.length);
+		if ((size < 0) || (size > ((long) length * 0xFF))) {
+			throw new IOException("Corrupt LZ4 header");
+		}
+		final byte[] dest = PayloadCodecs.pooledOutput(size);
+		final int end = offset + length;
+		int position = offset + HEADER_SIZE;
+		int out = 0;
+
+		while (true) {
+			if (position >= end) {
+				throw new IOException("Corrupt LZ4 block");
+			}
+			final int token = source[position++] & 0xFF;
+			int literals = token >>> 4;
+			if (literals == RUN_MASK) {
+				int b;
+				do {
+					if (position >= end) {
+						throw new IOException("Corrupt LZ4 block");
+					}
+					b = source[position++] & 0xFF;
+					literals += b;
+				} while (b == 0xFF);
+			}
+			if ((literals > (end - position)) || (literals > (size - out))) {
+				throw new IOException("Corrupt LZ4 block");
+			}
+			System.arraycopy(source, position, dest, out, literals);
+			position += literals;
+			out += literals;
+			if (position == end) {
+				break;
+			}
+
+			if ((end - position) < 3) {
+				throw new IOException("Corrupt LZ4 block");
+			}
+			final int distance = (source[position] & 0xFF) | ((source[position + 1] & 0xFF) << 8);
+			position += 2;
+			int matchLength = token & ML_MASK;
+			if (matchLength == ML_MASK) {
+				int b;
+				do {
+					if (position >= end) {
+						throw new IOException("Corrupt LZ4 block");
+					}
+					b = source[position++] & 0xFF;
+					matchLength += b;
+				} while (b == 0xFF);
+			}
+			matchLength += MIN_MATCH;
+			if ((distance == 0) || (distance > out) || (matchLength > (size - out))) {
+				throw new IOException("Corrupt LZ4 block");
+			}
+			if (distance >= matchLength) {
+				System.arraycopy(dest, out - distance, dest, out, matchLength);
+				out += matchLength;
+			} else {
+				// overlapping copy repeats the last bytes
+				for (int i = 0; i < matchLength; i++, out++) {
+					dest[out] = dest[out - distance];
+				}
+			}
+		}
+		if (out != size) {
+			throw new IOException("Corrupt LZ4 block");
+		}
+		return ByteBuffer.wrap(dest, 0, size);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getName() {
+		return "lz4";
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isCompressed(final byte[] bytes, final int offset, final int length) {
+		return (length >= 2) && (bytes[offset] == MAGIC[0]) && (bytes[offset + 1] == MAGIC[1]);
+	}
+}
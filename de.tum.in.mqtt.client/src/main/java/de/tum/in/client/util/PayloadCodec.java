@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression codec for MQTT message payloads. Every codec marks its output
+ * with a leading magic so that receivers can pick the matching codec through
+ * {@link PayloadCodecs#detect(byte[], int, int)}. The marker must never be a
+ * valid start of a Kura protobuf payload.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public interface PayloadCodec {
+
+	/**
+	 * Compresses the region of the array
+	 *
+	 * @return a new array holding the marked and compressed data
+	 */
+	byte[] compress(byte[] source, int offset, int length) throws IOException;
+
+	/**
+	 * Decompresses the region of the array into a buffer which is owned by the
+	 * calling thread and reused by the next call. The returned buffer must
+	 * therefore be consumed before any codec is used again on the same thread.
+	 */
+	ByteBuffer decompress(byte[] source, int offset, int length) throws IOException;
+
+	/**
+	 * Unique name of the codec
+	 */
+	String getName();
+
+	/**
+	 * Checks whether the region starts with the marker of this codec
+	 */
+	boolean isCompressed(byte[] bytes, int offset, int length);
+}
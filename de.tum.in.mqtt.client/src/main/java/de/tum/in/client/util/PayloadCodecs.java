@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Registry of the available {@link PayloadCodec}s and the per thread buffers
+ * they work on
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class PayloadCodecs {
+
+	/**
+	 * Standard GZip, understood by every Kura gateway and the cloud platform
+	 */
+	public static final PayloadCodec GZIP = new GZipCodec(Deflater.DEFAULT_COMPRESSION);
+
+	/**
+	 * Initial size of the per thread buffers
+	 */
+	private static final int INITIAL_POOLED_SIZE = 8 * 1024;
+
+	/**
+	 * Fast LZ4 block codec, trading compression ratio for much less CPU
+	 */
+	public static final PayloadCodec LZ4 = new Lz4Codec();
+
+	/**
+	 * Decompression output which is reused by every thread
+	 */
+	private static final ThreadLocal<byte[]> OUTPUT_BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[INITIAL_POOLED_SIZE];
+		}
+	};
+
+	private static final List<PayloadCodec> REGISTERED = new CopyOnWriteArrayList<PayloadCodec>();
+
+	/**
+	 * Compression scratch space which is reused by every thread
+	 */
+	private static final ThreadLocal<byte[]> SCRATCH_BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[INITIAL_POOLED_SIZE];
+		}
+	};
+
+	static {
+		REGISTERED.add(GZIP);
+		REGISTERED.add(LZ4);
+	}
+
+	/**
+	 * Returns the codec whose marker the region starts with or {@code null} if
+	 * the region is not compressed
+	 */
+	public static PayloadCodec detect(final byte[] bytes, final int offset, final int length) {
+		if (bytes == null) {
+			return null;
+		}
+		for (final PayloadCodec codec : REGISTERED) {
+			if (codec.isCompressed(bytes, offset, length)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the registered codec with the given name or {@code null}
+	 */
+	public static PayloadCodec get(final String name) {
+		for (final PayloadCodec codec : REGISTERED) {
+			if (codec.getName().equals(name)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	private static byte[] pooled(final ThreadLocal<byte[]> pool, final int capacity) {
+		byte[] buffer = pool.get();
+		if (buffer.length < capacity) {
+			buffer = new byte[Math.max(capacity, buffer.length * 2)];
+			pool.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns the decompression output of the calling thread holding at least
+	 * the given capacity
+	 */
+	static byte[] pooledOutput(final int capacity) {
+		return pooled(OUTPUT_BUFFER, capacity);
+	}
+
+	/**
+	 * Returns the compression scratch space of the calling thread holding at
+	 * least the given capacity
+	 */
+	static byte[] pooledScratch(final int capacity) {
+		return pooled(SCRATCH_BUFFER, capacity);
+	}
+
+	/**
+	 * Registers an additional codec. Its marker must not clash with the one of
+	 * any registered codec.
+	 */
+	public static void register(final PayloadCodec codec) {
+		Preconditions.checkNotNull(codec);
+		Preconditions.checkArgument(get(codec.getName()) == null, "Codec %s is already registered", codec.getName());
+		REGISTERED.add(codec);
+	}
+
+	/** Constructor */
+	private PayloadCodecs() {
+	}
+}
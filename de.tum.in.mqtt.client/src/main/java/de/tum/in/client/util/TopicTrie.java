@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Thread safe trie of MQTT topic filters. Filters may contain the single level
+ * wildcard {@code +} and the multi level wildcard {@code #}. Matching a topic
+ * visits at most the exact and the wildcard children per level and therefore
+ * runs in the order of the topic depth, independent of the number of filters.
+ * Lookups are lock free, modifications are serialized.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ * @param <T>
+ *            type of the values registered per filter
+ */
+public final class TopicTrie<T> {
+
+	/**
+	 * Level of the trie
+	 */
+	private static final class Node<T> {
+		private final ConcurrentMap<String, Node<T>> children = new ConcurrentHashMap<>();
+		private final List<T> values = new CopyOnWriteArrayList<>();
+
+		private boolean isEmpty() {
+			return this.children.isEmpty() && this.values.isEmpty();
+		}
+	}
+
+	private static final String MULTI_LEVEL = "#";
+	private static final char SEPARATOR = '/';
+	private static final String SINGLE_LEVEL = "+";
+
+	/**
+	 * Returns the end index of the level starting at the given index
+	 */
+	private static int levelEnd(final String topic, final int start) {
+		final int end = topic.indexOf(SEPARATOR, start);
+		return end < 0 ? topic.length() : end;
+	}
+
+	/**
+	 * Checks that the filter is a valid MQTT topic filter
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the filter is empty or misplaces a wildcard
+	 */
+	public static void checkFilter(final String filter) {
+		Preconditions.checkNotNull(filter);
+		Preconditions.checkArgument(!filter.isEmpty(), "Topic filter must not be empty");
+		for (int start = 0; start <= filter.length();) {
+			final int end = levelEnd(filter, start);
+			final String level = filter.substring(start, end);
+			if (level.contains(MULTI_LEVEL)) {
+				Preconditions.checkArgument(MULTI_LEVEL.equals(level) && (end == filter.length()),
+						"Multi level wildcard must be the last level: %s", filter);
+			}
+			if (level.contains(SINGLE_LEVEL)) {
+				Preconditions.checkArgument(SINGLE_LEVEL.equals(level),
+						"Single level wildcard must occupy the whole level: %s", filter);
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Values per filter, in registration order
+	 */
+	private final ConcurrentMap<String, List<T>> m_filters = new ConcurrentHashMap<>();
+
+	private final Node<T> m_root = new Node<>();
+
+	/**
+	 * Registers the value for the filter
+	 *
+	 * @return {@code true} if the filter had no values before
+	 * @throws IllegalArgumentException
+	 *             if the filter is not a valid MQTT topic filter
+	 */
+	public synchronized boolean add(final String filter, final T value) {
+		checkFilter(filter);
+		Preconditions.checkNotNull(value);
+		Node<T> node = this.m_root;
+		for (int start = 0; start <= filter.length();) {
+			final int end = levelEnd(filter, start);
+			final String level = filter.substring(start, end);
+			Node<T> child = node.children.get(level);
+			if (child == null) {
+				child = new Node<>();
+				node.children.put(level, child);
+			}
+			node = child;
+			start = end + 1;
+		}
+		if (node.values.contains(value)) {
+			return false;
+		}
+		node.values.add(value);
+		List<T> values = this.m_filters.get(filter);
+		if (values == null) {
+			values = new CopyOnWriteArrayList<>();
+			this.m_filters.put(filter, values);
+		}
+		values.add(value);
+		return values.size() == 1;
+	}
+
+	/**
+	 * Returns the registered filters
+	 */
+	public Set<String> filters() {
+		return Collections.unmodifiableSet(this.m_filters.keySet());
+	}
+
+	/**
+	 * Returns the values registered for exactly this filter
+	 */
+	public List<T> get(final String filter) {
+		final List<T> values = this.m_filters.get(filter);
+		return values == null ? Collections.<T> emptyList() : Collections.unmodifiableList(values);
+	}
+
+	public boolean isEmpty() {
+		return this.m_filters.isEmpty();
+	}
+
+	/**
+	 * Adds the values of every filter matching the topic to the collection
+	 *
+	 * @return {@code true} if any filter matched
+	 */
+	public boolean match(final String topic, final Collection<? super T> matches) {
+		final int size = matches.size();
+		// topics starting with $ are not matched by leading wildcards
+		this.match(this.m_root, topic, 0, !topic.isEmpty() && (topic.charAt(0) == '$'), matches);
+		return matches.size() > size;
+	}
+
+	private void match(final Node<T> node, final String topic, final int start, final boolean system,
+			final Collection<? super T> matches) {
+		if (!system) {
+			final Node<T> multi = node.children.get(MULTI_LEVEL);
+			if (multi != null) {
+				matches.addAll(multi.values);
+			}
+		}
+		if (start > topic.length()) {
+			matches.addAll(node.values);
+			return;
+		}
+		final int end = levelEnd(topic, start);
+		final Node<T> exact = node.children.get(topic.substring(start, end));
+		if (exact != null) {
+			this.match(exact, topic, end + 1, false, matches);
+		}
+		if (!system) {
+			final Node<T> single = node.children.get(SINGLE_LEVEL);
+			if (single != null) {
+				this.match(single, topic, end + 1, false, matches);
+			}
+		}
+	}
+
+	/**
+	 * Removes the value from the filter
+	 *
+	 * @return {@code true} if the filter has no values left
+	 */
+	public synchronized boolean remove(final String filter, final T value) {
+		final List<T> values = this.m_filters.get(filter);
+		if ((values == null) || !values.remove(value)) {
+			return false;
+		}
+		this.prune(this.m_root, filter, 0, value);
+		if (values.isEmpty()) {
+			this.m_filters.remove(filter);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes every value of the filter
+	 *
+	 * @return the removed values
+	 */
+	public synchronized List<T> removeAll(final String filter) {
+		final List<T> values = this.m_filters.remove(filter);
+		if (values == null) {
+			return Collections.emptyList();
+		}
+		for (final T value : values) {
+			this.prune(this.m_root, filter, 0, value);
+		}
+		return values;
+	}
+
+	/**
+	 * Removes the value from the node of the filter and drops nodes which
+	 * became empty
+	 */
+	private void prune(final Node<T> node, final String filter, final int start, final T value) {
+		if (start > filter.length()) {
+			node.values.remove(value);
+			return;
+		}
+		final int end = levelEnd(filter, start);
+		final String level = filter.substring(start, end);
+		final Node<T> child = node.children.get(level);
+		if (child != null) {
+			this.prune(child, filter, end + 1, value);
+			if (child.isEmpty()) {
+				node.children.remove(level);
+			}
+		}
+	}
+}
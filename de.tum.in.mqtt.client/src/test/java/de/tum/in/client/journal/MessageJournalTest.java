@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.fusesource.mqtt.client.QoS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tum.in.client.journal.MessageJournal.Entry;
+import de.tum.in.client.journal.MessageJournal.EvictionPolicy;
+
+/**
+ * Tests for {@link MessageJournal}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class MessageJournalTest {
+
+	/**
+	 * Segment size which holds exactly one {@link #payload(int)} frame
+	 */
+	private static final int SEGMENT_SIZE = 64;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] payload(final int marker) {
+		final byte[] payload = new byte[40];
+		payload[0] = (byte) marker;
+		return payload;
+	}
+
+	@Test
+	public void testDrainAcrossSegments() throws IOException {
+		final MessageJournal journal = new MessageJournal(this.folder.getRoot(), SEGMENT_SIZE, 4 * SEGMENT_SIZE,
+				EvictionPolicy.REJECT_NEWEST);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(journal.append("t", QoS.AT_LEAST_ONCE, payload(i)));
+			final List<Entry> entries = journal.peek(10);
+			assertEquals(1, entries.size());
+			assertEquals(i, entries.get(0).getPayload()[0]);
+			assertTrue(journal.remove(entries.get(0)));
+			assertTrue(journal.isEmpty());
+		}
+		assertEquals(1, this.folder.getRoot().list().length);
+		journal.close();
+	}
+
+	@Test
+	public void testEvictionDuringDrain() throws IOException {
+		final MessageJournal journal = new MessageJournal(this.folder.getRoot(), SEGMENT_SIZE, 2 * SEGMENT_SIZE,
+				EvictionPolicy.DROP_OLDEST);
+		journal.append("t", QoS.AT_LEAST_ONCE, payload(1));
+		journal.append("t", QoS.AT_LEAST_ONCE, payload(2));
+		final List<Entry> entries = journal.peek(10);
+		assertEquals(2, entries.size());
+
+		// evicts the segment of the first peeked message
+		journal.append("t", QoS.AT_LEAST_ONCE, payload(3));
+		assertEquals(1, journal.getEvictedCount());
+
+		assertFalse(journal.remove(entries.get(0)));
+		assertTrue(journal.remove(entries.get(1)));
+		final List<Entry> remaining = journal.peek(10);
+		assertEquals(1, remaining.size());
+		assertEquals(3, remaining.get(0).getPayload()[0]);
+		journal.close();
+	}
+
+	@Test
+	public void testRecovery() throws IOException {
+		MessageJournal journal = new MessageJournal(this.folder.getRoot(), 1024, 1024, EvictionPolicy.REJECT_NEWEST);
+		for (int i = 0; i < 3; i++) {
+			journal.append("topic/" + i, QoS.values()[i], payload(i));
+		}
+		assertTrue(journal.remove(journal.peek(1).get(0)));
+		journal.close();
+
+		journal = new MessageJournal(this.folder.getRoot(), 1024, 1024, EvictionPolicy.REJECT_NEWEST);
+		final List<Entry> entries = journal.peek(10);
+		assertEquals(2, entries.size());
+		assertEquals("topic/1", entries.get(0).getTopic());
+		assertEquals(QoS.AT_LEAST_ONCE, entries.get(0).getQos());
+		assertArrayEquals(payload(1), entries.get(0).getPayload());
+		assertEquals("topic/2", entries.get(1).getTopic());
+		journal.close();
+	}
+
+	@Test
+	public void testRecoveryStopsAtCorruptFrame() throws IOException {
+		MessageJournal journal = new MessageJournal(this.folder.getRoot(), 1024, 1024, EvictionPolicy.REJECT_NEWEST);
+		for (int i = 0; i < 3; i++) {
+			journal.append("t", QoS.AT_LEAST_ONCE, payload(i));
+		}
+		journal.close();
+
+		// damages the body of the second frame (8 byte segment header, 52 byte frames)
+		final File segment = this.folder.getRoot().listFiles()[0];
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.seek(8 + 52 + 20);
+			raf.write(0x7F);
+		}
+
+		journal = new MessageJournal(this.folder.getRoot(), 1024, 1024, EvictionPolicy.REJECT_NEWEST);
+		assertEquals(1, journal.size());
+		assertEquals(0, journal.peek(10).get(0).getPayload()[0]);
+		journal.close();
+	}
+
+	@Test
+	public void testRecoveryIgnoresGarbage() throws IOException {
+		final MessageJournal journal = new MessageJournal(this.folder.getRoot(), 1024, 1024,
+				EvictionPolicy.REJECT_NEWEST);
+		journal.append("t", QoS.AT_LEAST_ONCE, payload(0));
+		journal.close();
+
+		// a length prefix followed by random bytes after the only frame
+		final File segment = this.folder.getRoot().listFiles()[0];
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.seek(8 + 52);
+			raf.writeInt(100);
+			raf.writeInt(0x12345678);
+			raf.writeShort(-1);
+		}
+
+		final MessageJournal recovered = new MessageJournal(this.folder.getRoot(), 1024, 1024,
+				EvictionPolicy.REJECT_NEWEST);
+		assertEquals(1, recovered.size());
+		assertTrue(recovered.append("t", QoS.AT_LEAST_ONCE, payload(1)));
+		assertEquals(2, recovered.peek(10).size());
+		recovered.close();
+	}
+}
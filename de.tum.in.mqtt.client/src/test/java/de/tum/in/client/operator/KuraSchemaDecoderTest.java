@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.util.PayloadCodecs;
+
+/**
+ * Tests for {@link KuraSchemaDecoder}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class KuraSchemaDecoderTest {
+
+	/**
+	 * Supplies a decoder and counts how often it has been asked for
+	 */
+	private static final class CountingSupplier implements Supplier<KuraSchemaDecoder> {
+
+		private int calls;
+		private final KuraSchemaDecoder decoder = new KuraSchemaDecoder();
+
+		/** {@inheritDoc} */
+		@Override
+		public KuraSchemaDecoder get() {
+			this.calls++;
+			return this.decoder;
+		}
+	}
+
+	private static KuraPayload sample(final int i) {
+		final KuraPayload payload = new KuraPayload();
+		payload.addDouble("force", i * 1.5);
+		payload.addLong("count", 1000L + i);
+		payload.addBool("running", (i % 2) == 0);
+		payload.addMetric("state", "state-" + i);
+		payload.setTimestampMillis(1_000_000L + (i * 10L));
+		return payload;
+	}
+
+	private static void assertSample(final int i, final KuraPayload payload) {
+		assertNotNull("Frame " + i + " has been dropped", payload);
+		assertEquals(i * 1.5, payload.getMetric("force"));
+		assertEquals(1000L + i, payload.getMetric("count"));
+		assertEquals((i % 2) == 0, payload.getMetric("running"));
+		assertEquals("state-" + i, payload.getMetric("state"));
+		assertEquals(1_000_000L + (i * 10L), payload.getTimestampMillis());
+	}
+
+	/**
+	 * Encodes the samples {@code 0} to {@code count - 1} as one stream
+	 */
+	private static List<byte[]> frames(final int count, final int keyFrameInterval) throws IOException {
+		final KuraSchemaEncoder encoder = new KuraSchemaEncoder(keyFrameInterval);
+		final List<byte[]> frames = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			frames.add(encoder.encode(sample(i)));
+		}
+		return frames;
+	}
+
+	private static boolean isKeyFrame(final byte[] frame) {
+		return frame[KuraSchemaDecoder.MAGIC.length] == KuraSchemaDecoder.KEY_FRAME;
+	}
+
+	@Test
+	public void testKeyAndDeltaFrames() throws IOException {
+		final List<byte[]> frames = frames(10, 3);
+		final KuraSchemaDecoder decoder = new KuraSchemaDecoder();
+		for (int i = 0; i < frames.size(); i++) {
+			final byte[] frame = frames.get(i);
+			assertTrue(KuraSchemaDecoder.isSchemaFrame(frame, 0, frame.length));
+			assertEquals((i % 4) == 0, isKeyFrame(frame));
+			assertSample(i, decoder.decode(frame, 0, frame.length));
+		}
+		// delta frames leave out the schema
+		assertTrue(frames.get(1).length < frames.get(0).length);
+	}
+
+	@Test
+	public void testSchemaDecoderCreatedForSchemaFramesOnly() throws IOException {
+		final CountingSupplier supplier = new CountingSupplier();
+		final byte[] plain = new KuraPayloadEncoder(sample(0)).getBytes();
+		assertSample(0, new KuraPayloadDecoder(plain).buildFromByteArray(supplier, new KuraPayload()));
+		assertSample(0, new KuraPayloadDecoder(plain).buildLazy(supplier));
+		assertEquals(0, supplier.calls);
+
+		final List<byte[]> frames = frames(2, 3);
+		assertSample(0, new KuraPayloadDecoder(frames.get(0)).buildFromByteArray(supplier, new KuraPayload()));
+		final byte[] compressed = PayloadCodecs.LZ4.compress(frames.get(1), 0, frames.get(1).length);
+		assertSample(1, new KuraPayloadDecoder(compressed).buildLazy(supplier));
+		assertEquals(2, supplier.calls);
+	}
+
+	@Test
+	public void testSequenceGapForcesResync() throws IOException {
+		final List<byte[]> frames = frames(12, 3);
+		final KuraSchemaDecoder decoder = new KuraSchemaDecoder();
+		assertSample(0, decoder.decode(frames.get(0), 0, frames.get(0).length));
+		assertSample(1, decoder.decode(frames.get(1), 0, frames.get(1).length));
+
+		// frame 2 got lost, the deltas up to the next key frame are dropped
+		assertNull(decoder.decode(frames.get(3), 0, frames.get(3).length));
+		assertTrue(isKeyFrame(frames.get(4)));
+		for (int i = 4; i < 8; i++) {
+			assertSample(i, decoder.decode(frames.get(i), 0, frames.get(i).length));
+		}
+
+		// a delta frame replayed out of order is dropped as well
+		assertNull(decoder.decode(frames.get(7), 0, frames.get(7).length));
+		assertNull(decoder.decode(frames.get(9), 0, frames.get(9).length));
+		assertTrue(isKeyFrame(frames.get(8)));
+		for (int i = 8; i < 12; i++) {
+			assertSample(i, decoder.decode(frames.get(i), 0, frames.get(i).length));
+		}
+	}
+
+	@Test
+	public void testStartWithinStream() throws IOException {
+		final List<byte[]> frames = frames(6, 3);
+		final KuraSchemaDecoder decoder = new KuraSchemaDecoder();
+		// a subscriber joining late waits for the first key frame
+		for (int i = 1; i < 4; i++) {
+			assertNull(decoder.decode(frames.get(i), 0, frames.get(i).length));
+		}
+		assertSample(4, decoder.decode(frames.get(4), 0, frames.get(4).length));
+		assertSample(5, decoder.decode(frames.get(5), 0, frames.get(5).length));
+	}
+}
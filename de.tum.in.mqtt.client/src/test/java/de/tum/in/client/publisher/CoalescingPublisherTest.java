@@ -0,0 +1,475 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.mqtt.client.QoS;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import de.tum.in.client.IKuraMQTTClient;
+import de.tum.in.client.adapter.ConnectionListener;
+import de.tum.in.client.adapter.MessageListener;
+import de.tum.in.client.message.KuraPayload;
+import de.tum.in.client.metrics.ClientMetrics;
+import de.tum.in.client.publisher.TopicPolicy.Coalescing;
+
+/**
+ * Tests for {@link CoalescingPublisher}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class CoalescingPublisherTest {
+
+	/**
+	 * Executor running the scheduled tasks only when the time is advanced
+	 */
+	private static final class ManualExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+		private final class Task extends FutureTask<Object> implements ScheduledFuture<Object> {
+
+			private final long due;
+
+			private Task(final Runnable command, final long due) {
+				super(command, null);
+				this.due = due;
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			public int compareTo(final Delayed other) {
+				return Long.compare(this.getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			public long getDelay(final TimeUnit unit) {
+				return unit.convert(this.due - ManualExecutor.this.ticker.read(), TimeUnit.NANOSECONDS);
+			}
+		}
+
+		private boolean shutdown;
+		private final List<Task> tasks = new ArrayList<>();
+		private final ManualTicker ticker;
+
+		private ManualExecutor(final ManualTicker ticker) {
+			this.ticker = ticker;
+		}
+
+		/**
+		 * Advances the time, running the tasks in the order they are due
+		 */
+		private void advance(final long millis) {
+			final long target = this.ticker.nanos + TimeUnit.MILLISECONDS.toNanos(millis);
+			while (!this.tasks.isEmpty()) {
+				final Task task = Collections.min(this.tasks);
+				if (task.due > target) {
+					break;
+				}
+				this.tasks.remove(task);
+				this.ticker.nanos = Math.max(this.ticker.nanos, task.due);
+				task.run();
+			}
+			this.ticker.nanos = target;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+			return this.shutdown;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void execute(final Runnable command) {
+			this.schedule(command, 0, TimeUnit.NANOSECONDS);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean isShutdown() {
+			return this.shutdown;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean isTerminated() {
+			return this.shutdown;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+			final Task task = new Task(command, this.ticker.nanos + unit.toNanos(delay));
+			this.tasks.add(task);
+			return task;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay,
+				final long period, final TimeUnit unit) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay,
+				final long delay, final TimeUnit unit) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void shutdown() {
+			this.shutdown = true;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public List<Runnable> shutdownNow() {
+			this.shutdown = true;
+			final List<Runnable> pending = new ArrayList<Runnable>(this.tasks);
+			this.tasks.clear();
+			return pending;
+		}
+	}
+
+	/**
+	 * Time source which only moves when the {@link ManualExecutor} advances it
+	 */
+	private static final class ManualTicker extends Ticker {
+
+		private long nanos;
+
+		/** {@inheritDoc} */
+		@Override
+		public long read() {
+			return this.nanos;
+		}
+	}
+
+	/**
+	 * A message handed to the {@link RecordingClient}
+	 */
+	private static final class Message {
+
+		private final KuraPayload payload;
+		private final QoS qos;
+		private final String topic;
+
+		private Message(final String topic, final KuraPayload payload, final QoS qos) {
+			this.topic = topic;
+			this.payload = payload;
+			this.qos = qos;
+		}
+	}
+
+	/**
+	 * Client recording the messages published asynchronously
+	 */
+	private static final class RecordingClient implements IKuraMQTTClient {
+
+		private final List<Message> messages = new ArrayList<>();
+
+		/** {@inheritDoc} */
+		@Override
+		public void addConnectionListener(final ConnectionListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void close() {
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean connect() {
+			return true;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void disconnect() {
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String getClientId() {
+			return "recording";
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String getHost() {
+			return "localhost";
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ClientMetrics getMetrics() {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Set<String> getSubscribedChannels() {
+			return Collections.emptySet();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void publish(final String channel, final KuraPayload payload) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ListenableFuture<Void> publishAsync(final String channel, final KuraPayload payload, final QoS qos) {
+			this.messages.add(new Message(channel, payload, qos));
+			return Futures.immediateFuture(null);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ListenableFuture<List<Void>> publishBatch(final String channel, final List<KuraPayload> payloads,
+				final QoS qos) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void removeConnectionListener(final ConnectionListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void subscribe(final String channel, final MessageListener callback) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Map<String, QoS> subscribeAll(final Map<String, MessageListener> channels) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ListenableFuture<Map<String, QoS>> subscribeAllAsync(final Map<String, MessageListener> channels,
+				final QoS qos) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void unsubscribe(final String channel) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void unsubscribe(final String channel, final MessageListener callback) {
+			throw new UnsupportedOperationException();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public ListenableFuture<Void> unsubscribeAsync(final String channel) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static final String TOPIC = "machine/force";
+
+	private static KuraPayload sample(final double force, final int count, final long timestamp) {
+		final KuraPayload payload = new KuraPayload();
+		payload.addDouble("force", force);
+		payload.addInt("count", count);
+		payload.setTimestampMillis(timestamp);
+		return payload;
+	}
+
+	private final RecordingClient client = new RecordingClient();
+
+	private final ManualTicker ticker = new ManualTicker();
+
+	private final ManualExecutor executor = new ManualExecutor(this.ticker);
+
+	private CoalescingPublisher publisher(final TopicPolicy policy) {
+		return new CoalescingPublisher.Builder().setClient(this.client).setExecutor(this.executor)
+				.setTicker(this.ticker).setPolicy(TOPIC, policy).build();
+	}
+
+	private List<KuraPayload> published() {
+		final List<KuraPayload> payloads = new ArrayList<>();
+		for (final Message message : this.client.messages) {
+			assertEquals(TOPIC, message.topic);
+			payloads.add(message.payload);
+		}
+		return payloads;
+	}
+
+	@Test
+	public void testAggregate() {
+		final CoalescingPublisher publisher = this.publisher(new TopicPolicy.Builder()
+				.setCoalescing(Coalescing.AGGREGATE).setWindow(100).setQos(QoS.AT_LEAST_ONCE).build());
+		for (int i = 0; i < 3; i++) {
+			publisher.publish(TOPIC, sample(i + 0.5, i, 1000 + i));
+		}
+		this.executor.advance(99);
+		assertEquals(0, this.client.messages.size());
+
+		this.executor.advance(1);
+		assertEquals(1, this.client.messages.size());
+		assertEquals(QoS.AT_LEAST_ONCE, this.client.messages.get(0).qos);
+		final KuraPayload aggregate = this.published().get(0);
+		assertEquals(7, aggregate.getMetricCount());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 0.5, aggregate.getMetric("force." + i));
+			assertEquals(i, aggregate.getMetric("count." + i));
+		}
+		assertEquals(3, aggregate.getMetric(CoalescingPublisher.SAMPLES_METRIC));
+		assertEquals(1002, aggregate.getTimestampMillis());
+		assertEquals(1, publisher.getPublished());
+		assertEquals(0, publisher.getCoalesced());
+	}
+
+	@Test
+	public void testAggregateDropsOldestSamples() {
+		final CoalescingPublisher publisher = this.publisher(new TopicPolicy.Builder()
+				.setCoalescing(Coalescing.AGGREGATE).setWindow(100).setMaxSamples(2).build());
+		for (int i = 0; i < 5; i++) {
+			publisher.publish(TOPIC, sample(i, i, i));
+		}
+		this.executor.advance(100);
+
+		final KuraPayload aggregate = this.published().get(0);
+		assertEquals(3.0, aggregate.getMetric("force.0"));
+		assertEquals(4.0, aggregate.getMetric("force.1"));
+		assertNull(aggregate.getMetric("force.2"));
+		assertEquals(2, aggregate.getMetric(CoalescingPublisher.SAMPLES_METRIC));
+		assertEquals(3, publisher.getCoalesced());
+	}
+
+	@Test
+	public void testFlushOnClose() {
+		final CoalescingPublisher publisher = this.publisher(new TopicPolicy.Builder().setWindow(1000).build());
+		final KuraPayload first = sample(1, 1, 1);
+		final KuraPayload last = sample(2, 2, 2);
+		publisher.publish(TOPIC, first);
+		publisher.publish(TOPIC, last);
+		assertEquals(0, this.client.messages.size());
+
+		publisher.close();
+		assertEquals(1, this.client.messages.size());
+		assertSame(last, this.published().get(0));
+		assertFalse(this.executor.isShutdown());
+
+		// the flush scheduled before closing does not publish anything
+		this.executor.advance(1000);
+		assertEquals(1, this.client.messages.size());
+	}
+
+	@Test
+	public void testLastValueReplacement() {
+		final CoalescingPublisher publisher = this.publisher(new TopicPolicy.Builder().setMaxRate(10).build());
+		final KuraPayload first = sample(1, 1, 1);
+		final KuraPayload replaced = sample(2, 2, 2);
+		final KuraPayload last = sample(3, 3, 3);
+		publisher.publish(TOPIC, first);
+		publisher.publish(TOPIC, replaced);
+		publisher.publish(TOPIC, last);
+		this.executor.advance(100);
+
+		final List<KuraPayload> published = this.published();
+		assertEquals(2, published.size());
+		assertSame(first, published.get(0));
+		assertSame(last, published.get(1));
+		assertEquals(2, publisher.getPublished());
+		assertEquals(1, publisher.getCoalesced());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPublishAfterClose() {
+		final CoalescingPublisher publisher = this.publisher(new TopicPolicy.Builder().build());
+		publisher.close();
+		publisher.publish(TOPIC, sample(1, 1, 1));
+	}
+
+	@Test
+	public void testRateLimit() {
+		final CoalescingPublisher publisher = this.publisher(new TopicPolicy.Builder().setMaxRate(10).build());
+		publisher.publish(TOPIC, sample(0, 0, 0));
+		assertEquals(1, this.client.messages.size());
+
+		// held back until 100 ms have passed since the first message
+		publisher.publish(TOPIC, sample(1, 1, 1));
+		this.executor.advance(99);
+		assertEquals(1, this.client.messages.size());
+		this.executor.advance(1);
+		assertEquals(2, this.client.messages.size());
+
+		// one message per 100 ms however many are published
+		for (int i = 0; i < 10; i++) {
+			publisher.publish(TOPIC, sample(i, i, i));
+			this.executor.advance(30);
+		}
+		assertEquals(5, this.client.messages.size());
+		assertEquals(9.0, this.published().get(4).getMetric("force"));
+		this.executor.advance(1000);
+		assertEquals(5, this.client.messages.size());
+
+		// an idle topic publishes right away again
+		publisher.publish(TOPIC, sample(0, 0, 0));
+		assertEquals(6, this.client.messages.size());
+	}
+}
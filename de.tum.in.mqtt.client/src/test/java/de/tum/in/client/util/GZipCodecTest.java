@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link GZipCodec}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class GZipCodecTest {
+
+	private static final int TRAILER_SIZE = 8;
+
+	private final GZipCodec codec = new GZipCodec(Deflater.DEFAULT_COMPRESSION);
+
+	private final Random random = new Random(42);
+
+	private static byte[] bytes(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] gunzip(final byte[] compressed) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			final byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] gzip(final byte[] data) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns bytes of a small alphabet with repeated phrases, compressible
+	 * like the text of a payload
+	 */
+	private byte[] compressible(final int length) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length;) {
+			if ((i > 64) && this.random.nextBoolean()) {
+				final int distance = 1 + this.random.nextInt(Math.min(i, 40_000));
+				final int n = Math.min(length - i, 4 + this.random.nextInt(300));
+				for (int j = 0; j < n; j++, i++) {
+					bytes[i] = bytes[i - distance];
+				}
+			} else {
+				bytes[i++] = (byte) ('a' + this.random.nextInt(8));
+			}
+		}
+		return bytes;
+	}
+
+	private byte[] incompressible(final int length) {
+		final byte[] bytes = new byte[length];
+		this.random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private void assertCorrupt(final byte[] frame, final int length) {
+		try {
+			this.codec.decompress(frame, 0, length);
+			fail("Corrupt frame of " + length + " bytes has been accepted");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	private void assertRoundTrip(final byte[] data) throws IOException {
+		// the region is taken from the middle of a larger array
+		final byte[] source = new byte[data.length + 20];
+		System.arraycopy(data, 0, source, 10, data.length);
+		final byte[] compressed = this.codec.compress(source, 10, data.length);
+
+		assertTrue(this.codec.isCompressed(compressed, 0, compressed.length));
+		assertSame(PayloadCodecs.GZIP, PayloadCodecs.detect(compressed, 0, compressed.length));
+		final byte[] framed = new byte[compressed.length + 3];
+		System.arraycopy(compressed, 0, framed, 3, compressed.length);
+		assertArrayEquals(data, bytes(this.codec.decompress(framed, 3, compressed.length)));
+		assertArrayEquals(data, gunzip(compressed));
+	}
+
+	@Test
+	public void testCorruptFrames() throws IOException {
+		final byte[] data = this.compressible(4096);
+		final byte[] compressed = this.codec.compress(data, 0, data.length);
+
+		// wrong magic and compression method
+		byte[] frame = compressed.clone();
+		frame[0] = 0;
+		this.assertCorrupt(frame, frame.length);
+		frame = compressed.clone();
+		frame[2] = 7;
+		this.assertCorrupt(frame, frame.length);
+
+		// damaged checksum and size
+		for (int i = compressed.length - TRAILER_SIZE; i < compressed.length; i++) {
+			frame = compressed.clone();
+			frame[i] ^= 0x10;
+			this.assertCorrupt(frame, frame.length);
+		}
+
+		// an extra field longer than the frame
+		frame = compressed.clone();
+		frame[3] = 4;
+		frame[10] = (byte) 0xFF;
+		frame[11] = (byte) 0xFF;
+		this.assertCorrupt(frame, frame.length);
+
+		// any other damage is either detected or does not change the data,
+		// like damage of the modification time
+		for (int i = 0; i < compressed.length; i++) {
+			frame = compressed.clone();
+			frame[i] ^= 1 << this.random.nextInt(8);
+			try {
+				assertArrayEquals(data, bytes(this.codec.decompress(frame, 0, frame.length)));
+			} catch (final IOException e) {
+				// detected
+			}
+		}
+	}
+
+	@Test
+	public void testReadByGZIPInputStream() throws IOException {
+		for (final byte[] data : new byte[][] { new byte[0], this.compressible(10_000),
+				this.incompressible(100_000) }) {
+			assertArrayEquals(data, gunzip(this.codec.compress(data, 0, data.length)));
+		}
+	}
+
+	@Test
+	public void testReadsGZIPOutputStream() throws IOException {
+		for (final byte[] data : new byte[][] { new byte[0], this.compressible(10_000),
+				this.incompressible(100_000) }) {
+			final byte[] compressed = gzip(data);
+			assertArrayEquals(data, bytes(this.codec.decompress(compressed, 0, compressed.length)));
+		}
+	}
+
+	@Test
+	public void testReadsOptionalHeaderFields() throws IOException {
+		final byte[] data = this.compressible(1000);
+		final byte[] compressed = gzip(data);
+		// FEXTRA, FNAME and FCOMMENT inserted after the fixed header
+		final byte[] fields = { 3, 0, 'x', 'y', 'z', 'n', 'a', 'm', 'e', 0, 'c', 0 };
+		final byte[] frame = new byte[compressed.length + fields.length];
+		System.arraycopy(compressed, 0, frame, 0, 10);
+		System.arraycopy(fields, 0, frame, 10, fields.length);
+		System.arraycopy(compressed, 10, frame, 10 + fields.length, compressed.length - 10);
+		frame[3] = 4 | 8 | 16;
+
+		assertArrayEquals(data, gunzip(frame));
+		assertArrayEquals(data, bytes(this.codec.decompress(frame, 0, frame.length)));
+	}
+
+	@Test
+	public void testRoundTripOfCompressibleData() throws IOException {
+		for (final int length : new int[] { 1, 13, 100, 4096, 65_535, 65_536, 65_537 }) {
+			this.assertRoundTrip(this.compressible(length));
+		}
+	}
+
+	@Test
+	public void testRoundTripOfEmptyData() throws IOException {
+		this.assertRoundTrip(new byte[0]);
+	}
+
+	@Test
+	public void testRoundTripOfIncompressibleData() throws IOException {
+		for (final int length : new int[] { 1, 12, 4096, 70_000 }) {
+			this.assertRoundTrip(this.incompressible(length));
+		}
+	}
+
+	@Test
+	public void testRoundTripOfLargeData() throws IOException {
+		this.assertRoundTrip(this.compressible(300_000));
+		// a ratio beyond the initial output size
+		this.assertRoundTrip(new byte[2_000_000]);
+		final byte[] padded = Arrays.copyOf(this.incompressible(100_000), 180_000);
+		this.assertRoundTrip(padded);
+	}
+
+	@Test
+	public void testTruncatedFrames() throws IOException {
+		for (final byte[] data : new byte[][] { this.compressible(2048), this.incompressible(300) }) {
+			final byte[] compressed = this.codec.compress(data, 0, data.length);
+			for (int length = 0; length < compressed.length; length++) {
+				this.assertCorrupt(compressed, length);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (C) 2015 - Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.client.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Lz4Codec}
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class Lz4CodecTest {
+
+	private final Lz4Codec codec = new Lz4Codec();
+
+	private final Random random = new Random(42);
+
+	private static byte[] bytes(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Returns bytes of a small alphabet with repeated phrases, compressible
+	 * like the text of a payload
+	 */
+	private byte[] compressible(final int length) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length;) {
+			if ((i > 64) && this.random.nextBoolean()) {
+				final int distance = 1 + this.random.nextInt(Math.min(i, 70_000));
+				final int n = Math.min(length - i, 4 + this.random.nextInt(300));
+				for (int j = 0; j < n; j++, i++) {
+					bytes[i] = bytes[i - distance];
+				}
+			} else {
+				bytes[i++] = (byte) ('a' + this.random.nextInt(8));
+			}
+		}
+		return bytes;
+	}
+
+	private byte[] incompressible(final int length) {
+		final byte[] bytes = new byte[length];
+		this.random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private void assertCorrupt(final byte[] frame, final int length) {
+		try {
+			this.codec.decompress(frame, 0, length);
+			fail("Corrupt frame of " + length + " bytes has been accepted");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	private void assertRoundTrip(final byte[] data) throws IOException {
+		// the region is taken from the middle of a larger array
+		final byte[] source = new byte[data.length + 20];
+		Arrays.fill(source, (byte) 'a');
+		System.arraycopy(data, 0, source, 10, data.length);
+		final byte[] compressed = this.codec.compress(source, 10, data.length);
+
+		assertTrue(this.codec.isCompressed(compressed, 0, compressed.length));
+		assertSame(PayloadCodecs.LZ4, PayloadCodecs.detect(compressed, 0, compressed.length));
+		assertTrue(compressed.length <= (6 + data.length + (data.length / 255) + 16));
+		final byte[] framed = new byte[compressed.length + 3];
+		System.arraycopy(compressed, 0, framed, 3, compressed.length);
+		assertArrayEquals(data, bytes(this.codec.decompress(framed, 3, compressed.length)));
+	}
+
+	@Test
+	public void testCorruptFrames() throws IOException {
+		final byte[] data = this.compressible(4096);
+		final byte[] compressed = this.codec.compress(data, 0, data.length);
+
+		// wrong marker
+		byte[] frame = compressed.clone();
+		frame[1] = 'X';
+		this.assertCorrupt(frame, frame.length);
+
+		// uncompressed length larger and smaller than the block
+		frame = compressed.clone();
+		frame[2]++;
+		this.assertCorrupt(frame, frame.length);
+		frame[2] -= 2;
+		this.assertCorrupt(frame, frame.length);
+		frame = compressed.clone();
+		frame[5] = (byte) 0x80;
+		this.assertCorrupt(frame, frame.length);
+
+		// a match reaching back before the start of the output
+		final byte[] reference = { 'L', 'Z', 8, 0, 0, 0, 0x10, 'a', 0x08, 0, 0x30, 'a', 'a', 'a' };
+		this.assertCorrupt(reference, reference.length);
+
+		// any other damage is either detected or decodes to different data,
+		// it never fails otherwise
+		for (int i = 0; i < compressed.length; i++) {
+			frame = compressed.clone();
+			frame[i] ^= 1 << this.random.nextInt(8);
+			try {
+				this.codec.decompress(frame, 0, frame.length);
+			} catch (final IOException e) {
+				// detected
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTripOfCompressibleData() throws IOException {
+		for (final int length : new int[] { 1, 13, 100, 4096, 65_535, 65_536, 65_537 }) {
+			this.assertRoundTrip(this.compressible(length));
+		}
+	}
+
+	@Test
+	public void testRoundTripOfEmptyData() throws IOException {
+		this.assertRoundTrip(new byte[0]);
+	}
+
+	@Test
+	public void testRoundTripOfIncompressibleData() throws IOException {
+		for (final int length : new int[] { 1, 12, 4096, 70_000 }) {
+			this.assertRoundTrip(this.incompressible(length));
+		}
+	}
+
+	@Test
+	public void testRoundTripOfLargeData() throws IOException {
+		// matches across the 64 KiB window and long runs
+		this.assertRoundTrip(this.compressible(300_000));
+		this.assertRoundTrip(new byte[200_000]);
+		final byte[] mixed = this.incompressible(150_000);
+		System.arraycopy(mixed, 0, mixed, 80_000, 70_000);
+		this.assertRoundTrip(mixed);
+	}
+
+	@Test
+	public void testTruncatedFrames() throws IOException {
+		for (final byte[] data : new byte[][] { this.compressible(2048), this.incompressible(300) }) {
+			final byte[] compressed = this.codec.compress(data, 0, data.length);
+			for (int length = 0; length < compressed.length; length++) {
+				this.assertCorrupt(compressed, length);
+			}
+		}
+	}
+}
@@ -17,13 +17,12 @@ package de.tum.in.socket.client;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -54,15 +53,24 @@ import org.osgi.service.event.EventAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Strings;
+import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 
 import de.tum.in.activity.log.ActivityLogService;
 import de.tum.in.activity.log.IActivityLogService;
 import de.tum.in.events.Events;
+import de.tum.in.events.record.Record;
+import de.tum.in.events.record.RecordSchema;
+import de.tum.in.events.record.SchemaRegistry;
+import de.tum.in.socket.client.SocketReactor.Endpoint;
 
 /**
- * This bundle is responsible for communicating with the Socket Server
+ * This bundle is responsible for communicating with the Socket Servers. The
+ * data of all the configured servers is received by a single
+ * {@link SocketReactor}. If more than one server is configured, the data of
+ * every server is cached as source {@code wifi/<name>}, otherwise as source
+ * {@code wifi}. The cache shares its memory evenly among the servers being
+ * received from, so that dozens of servers fit into its default memory.
  *
  * @author AMIT KUMAR MONDAL
  *
@@ -86,6 +94,12 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 	 */
 	private static final String SOCKET_CONNECT_PORT = "socket.connect.port";
 
+	/**
+	 * Configurable property to set the comma separated socket servers of the
+	 * form {@code [name=]host:port}
+	 */
+	private static final String SOCKET_ENDPOINTS = "socket.endpoints";
+
 	/**
 	 * Configurable property to set socket server IP address
 	 */
@@ -120,6 +134,11 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 	@Reference(bind = "bindEventAdmin", unbind = "unbindEventAdmin")
 	private volatile EventAdmin m_eventAdmin;
 
+	/**
+	 * The socket servers to receive the data from
+	 */
+	private List<Endpoint> m_endpoints;
+
 	/**
 	 * Future Event Handle for Executor
 	 */
@@ -130,16 +149,6 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 	 */
 	private Map<String, Object> m_properties;
 
-	/**
-	 * Placeholder for socket IP Address
-	 */
-	private String m_socketIPAddress;
-
-	/**
-	 * Placeholder for socket Port
-	 */
-	private int m_socketPort;
-
 	/**
 	 * Eclipse Kura System Service Dependency
 	 */
@@ -225,18 +234,20 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 	@Deactivate
 	protected void deactivate(final ComponentContext context) {
 		LOGGER.debug("Deactivating Socket Client Component...");
+		this.m_worker.shutdownNow();
 		LOGGER.debug("Deactivating Socket Component... Done.");
 	}
 
 	/**
 	 * Publishes asynchronous events for caching
 	 */
-	private void doBroadcastEventsForCaching(final String message) {
+	private void doBroadcastEventsForCaching(final String source, final Object data) {
 		LOGGER.debug("Publishing Event for caching wifi data...");
 
 		final Dictionary<String, Object> properties = new Hashtable<>();
-		properties.put("data", message);
+		properties.put("data", data);
 		properties.put("timestamp", LocalDateTime.now());
+		properties.put("source", source);
 		final Event event = new Event(Events.DATA_CACHE, properties);
 
 		this.m_eventAdmin.postEvent(event);
@@ -257,21 +268,28 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 			if (this.m_handle != null) {
 				this.m_handle.cancel(true);
 			}
-			final Runnable task = () -> {
+			final List<Endpoint> endpoints = this.m_endpoints;
+			final SocketReactor reactor = new SocketReactor(endpoints, (endpoint, message) -> {
+				LOGGER.info("Message Received from " + endpoint.getName() + ": " + message);
 				try {
-					this.doProcess(respPayload);
-				} catch (final Exception e) {
-					e.printStackTrace();
+					this.doPublish(endpoints.size() == 1 ? "wifi" : "wifi/" + endpoint.getName(), message);
+				} catch (final KuraException e) {
+					LOGGER.error(Throwables.getStackTraceAsString(e));
 				}
-			};
-			this.m_handle = this.m_worker.submit(task);
+			});
+			this.m_activityLogService.saveLog("Socket Communication Started");
+			this.m_handle = this.m_worker.submit(reactor);
 
 			LOGGER.info("Socket Communication Done");
+			respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_OK);
 		}
 
 		if ("stop".equals(reqTopic.getResources()[0])) {
 			LOGGER.info("Socket Communication Stopped...");
-			this.m_worker.shutdownNow();
+			if (this.m_handle != null) {
+				this.m_handle.cancel(true);
+				this.m_handle = null;
+			}
 			LOGGER.info("Socket Communication Done");
 			respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_OK);
 		}
@@ -304,49 +322,29 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 	}
 
 	/**
-	 * Process the receiving of data from server
+	 * Parses the received record and publishes it to cloud. A message which is
+	 * not a valid record is published and cached as raw result.
 	 */
-	private void doProcess(final KuraResponsePayload respPayload) throws KuraException {
-		this.m_activityLogService.saveLog("Socket Communication Started");
-
-		String message = null;
+	private void doPublish(final String source, final String message) throws KuraException {
+		Record record = null;
 		try {
-			final SocketChannel channel = SocketChannel.open();
-
-			// we open this channel in non blocking mode
-			channel.configureBlocking(false);
-			channel.connect(new InetSocketAddress(this.m_socketIPAddress, this.m_socketPort));
-
-			while (!channel.finishConnect()) {
-				// No need to log. Still connecting to server.
-			}
-			while (!Thread.currentThread().isInterrupted()) {
-				final ByteBuffer bufferA = ByteBuffer.allocate(500);
-				message = "";
-				while ((channel.read(bufferA)) > 0) {
-					bufferA.flip();
-					message += Charset.defaultCharset().decode(bufferA);
-				}
-				if (message.length() > 0) {
-					LOGGER.info("Message Received: " + message);
-				}
-				if (!Strings.isNullOrEmpty(message)) {
-					this.doPublish(respPayload, message);
-				}
-			}
-		} catch (final Exception e) {
-			LOGGER.error(Throwables.getStackTraceAsString(e));
+			record = SchemaRegistry.MILLING_MACHINE.parse(checkNotNull(message));
+		} catch (final IllegalArgumentException e) {
+			LOGGER.warn("Publishing malformed record " + message + " as raw result: " + e.getMessage());
 		}
-	}
-
-	/**
-	 * Publishes the data to cloud
-	 */
-	private void doPublish(final KuraResponsePayload respPayload, final String message) throws KuraException {
 		final KuraPayload payload = new KuraPayload();
-		payload.addMetric("result", checkNotNull(message));
+		payload.addMetric("source", source);
+		if (record != null) {
+			final RecordSchema schema = record.getSchema();
+			payload.addMetric("schema", schema.getName());
+			for (int i = 0; i < schema.getFieldCount(); i++) {
+				payload.addMetric(schema.getFieldName(i), record.getValue(i));
+			}
+		} else {
+			payload.addMetric("result", message);
+		}
 
-		this.doBroadcastEventsForCaching(message);
+		this.doBroadcastEventsForCaching(source, record != null ? record : message);
 
 		// Publish for Mobile Clients
 		LOGGER.debug("Publishing WiFi Data.....to Mobile Clients");
@@ -355,9 +353,9 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 		// Publish for Splunk
 		LOGGER.debug("Publishing WiFi Data.....to Splunk");
 		final String topic = this.m_systemService.getProperties().getProperty(WIFI_REALTIME_TOPIC);
-		this.getCloudApplicationClient().controlPublish("splunk", topic, message.getBytes(), DFLT_PUB_QOS, DFLT_RETAIN,
-				DFLT_PRIORITY);
-		respPayload.setResponseCode(KuraResponsePayload.RESPONSE_CODE_OK);
+		final String text = "source=" + source + ", " + (record != null ? record : message);
+		this.getCloudApplicationClient().controlPublish("splunk", topic, text.getBytes(StandardCharsets.UTF_8),
+				DFLT_PUB_QOS, DFLT_RETAIN, DFLT_PRIORITY);
 	}
 
 	/** {@inheritDoc}} */
@@ -382,8 +380,20 @@ public class SocketClient extends Cloudlet implements ConfigurableComponent {
 	 */
 	private void extractConfiguration() {
 		LOGGER.debug("Extracting Socket Client Configuration....");
-		this.m_socketIPAddress = (String) this.m_properties.get(SOCKET_IP);
-		this.m_socketPort = (int) this.m_properties.get(SOCKET_CONNECT_PORT);
+		final List<Endpoint> endpoints = new ArrayList<>();
+		final Object configured = this.m_properties.get(SOCKET_ENDPOINTS);
+		if (configured != null) {
+			for (final String endpoint : Splitter.on(',').trimResults().omitEmptyStrings()
+					.split(configured.toString())) {
+				endpoints.add(Endpoint.valueOf(endpoint));
+			}
+		}
+		if (endpoints.isEmpty()) {
+			final String host = (String) this.m_properties.get(SOCKET_IP);
+			final int port = (int) this.m_properties.get(SOCKET_CONNECT_PORT);
+			endpoints.add(new Endpoint(host + ":" + port, host, port));
+		}
+		this.m_endpoints = endpoints;
 		LOGGER.debug("Extracting Socket Client Configuration....Done");
 	}
 
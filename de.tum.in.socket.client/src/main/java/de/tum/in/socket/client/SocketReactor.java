@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * Copyright 2015 Amit Kumar Mondal <admin@amitinside.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package de.tum.in.socket.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Receives the lines sent by several socket servers on the calling thread.
+ * The connections are non-blocking and multiplexed by a single
+ * {@link Selector}, every connection reuses its own direct buffer. A
+ * connection which cannot be established or gets closed is reestablished
+ * after a delay, which doubles from {@value #MIN_RECONNECT_DELAY} up to
+ * {@value #MAX_RECONNECT_DELAY} milliseconds. The reactor runs until its
+ * thread gets interrupted.
+ *
+ * @author AMIT KUMAR MONDAL
+ *
+ */
+public final class SocketReactor implements Runnable {
+
+	/**
+	 * The state of the connection to an endpoint
+	 */
+	private static final class Connection {
+
+		private final ByteBuffer m_bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private SocketChannel m_channel;
+		private final CharBuffer m_chars = CharBuffer.allocate(BUFFER_SIZE);
+		private final CharsetDecoder m_decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private long m_delay = MIN_RECONNECT_DELAY;
+		private final Endpoint m_endpoint;
+		private final StringBuilder m_line = new StringBuilder();
+		private boolean m_overflow;
+		private long m_reconnectAt;
+
+		private Connection(final Endpoint endpoint) {
+			this.m_endpoint = endpoint;
+		}
+
+	}
+
+	/**
+	 * A socket server sending lines
+	 */
+	public static final class Endpoint {
+
+		/**
+		 * Parses an endpoint of the form {@code [name=]host:port}. The name
+		 * defaults to {@code host:port}.
+		 *
+		 * @throws IllegalArgumentException
+		 *             if the endpoint is malformed
+		 */
+		public static Endpoint valueOf(final String text) {
+			final String endpoint = text.trim();
+			final int separator = endpoint.indexOf('=');
+			final String address = endpoint.substring(separator + 1).trim();
+			final int colon = address.lastIndexOf(':');
+			Preconditions.checkArgument(colon > 0, "Endpoint %s must be of the form [name=]host:port", endpoint);
+			final String name = separator > 0 ? endpoint.substring(0, separator).trim() : address;
+			return new Endpoint(name, address.substring(0, colon).trim(),
+					Integer.parseInt(address.substring(colon + 1).trim()));
+		}
+
+		private final String m_host;
+		private final String m_name;
+		private final int m_port;
+
+		/**
+		 * Constructor
+		 */
+		public Endpoint(final String name, final String host, final int port) {
+			Preconditions.checkArgument((port > 0) && (port <= 0xFFFF), "Port %s is out of range", port);
+			this.m_name = Preconditions.checkNotNull(name);
+			this.m_host = Preconditions.checkNotNull(host);
+			this.m_port = port;
+		}
+
+		/**
+		 * Returns the host name or IP address of the socket server
+		 */
+		public String getHost() {
+			return this.m_host;
+		}
+
+		/**
+		 * Returns the name of the endpoint
+		 */
+		public String getName() {
+			return this.m_name;
+		}
+
+		/**
+		 * Returns the port of the socket server
+		 */
+		public int getPort() {
+			return this.m_port;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return this.m_name + "=" + this.m_host + ":" + this.m_port;
+		}
+
+	}
+
+	/**
+	 * Callback notified about every line received from an endpoint
+	 */
+	public interface LineListener {
+
+		/**
+		 * Called on the reactor thread for every non-empty line without its
+		 * line terminator
+		 */
+		void onLine(Endpoint endpoint, String line);
+
+	}
+
+	/**
+	 * Number of bytes read from a connection at once
+	 */
+	private static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(SocketReactor.class);
+
+	/**
+	 * Number of characters after which a line is discarded
+	 */
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	/**
+	 * Maximum delay in milliseconds before reconnecting
+	 */
+	private static final long MAX_RECONNECT_DELAY = 30_000L;
+
+	/**
+	 * Initial delay in milliseconds before reconnecting
+	 */
+	private static final long MIN_RECONNECT_DELAY = 1_000L;
+
+	private static long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	/**
+	 * The connections to the endpoints
+	 */
+	private final List<Connection> m_connections = new ArrayList<>();
+
+	/**
+	 * The callback of the received lines
+	 */
+	private final LineListener m_listener;
+
+	/**
+	 * Constructor
+	 */
+	public SocketReactor(final List<Endpoint> endpoints, final LineListener listener) {
+		Preconditions.checkArgument(!endpoints.isEmpty(), "No endpoint to connect to");
+		for (final Endpoint endpoint : endpoints) {
+			this.m_connections.add(new Connection(Preconditions.checkNotNull(endpoint)));
+		}
+		this.m_listener = Preconditions.checkNotNull(listener);
+	}
+
+	/**
+	 * Closes the connection and schedules its reconnect
+	 */
+	private void close(final Connection connection, final Exception cause) {
+		if (connection.m_channel != null) {
+			try {
+				connection.m_channel.close();
+			} catch (final IOException e) {
+				LOGGER.debug("Failed to close the connection to " + connection.m_endpoint, e);
+			}
+			connection.m_channel = null;
+		}
+		connection.m_bytes.clear();
+		connection.m_chars.clear();
+		connection.m_decoder.reset();
+		connection.m_line.setLength(0);
+		connection.m_overflow = false;
+		connection.m_reconnectAt = now() + connection.m_delay;
+		LOGGER.warn("Connection to " + connection.m_endpoint + " lost (" + cause.getMessage() + "), reconnecting in "
+				+ connection.m_delay + " ms");
+		connection.m_delay = Math.min(connection.m_delay * 2, MAX_RECONNECT_DELAY);
+	}
+
+	/**
+	 * Starts connecting to the endpoint
+	 */
+	private void connect(final Selector selector, final Connection connection) {
+		try {
+			connection.m_channel = SocketChannel.open();
+			connection.m_channel.configureBlocking(false);
+			connection.m_channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+			final Endpoint endpoint = connection.m_endpoint;
+			if (connection.m_channel.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()))) {
+				connection.m_channel.register(selector, SelectionKey.OP_READ, connection);
+				this.connected(connection);
+			} else {
+				connection.m_channel.register(selector, SelectionKey.OP_CONNECT, connection);
+			}
+		} catch (final IOException | UnresolvedAddressException e) {
+			this.close(connection, e);
+		}
+	}
+
+	private void connected(final Connection connection) {
+		connection.m_delay = MIN_RECONNECT_DELAY;
+		LOGGER.info("Connected to " + connection.m_endpoint);
+	}
+
+	/**
+	 * Completes the connection to the endpoint and starts reading
+	 */
+	private void finishConnect(final SelectionKey key, final Connection connection) throws IOException {
+		if (connection.m_channel.finishConnect()) {
+			key.interestOps(SelectionKey.OP_READ);
+			this.connected(connection);
+		}
+	}
+
+	/**
+	 * Reads the available bytes of the connection and passes every completed
+	 * line to the listener
+	 */
+	private void read(final Connection connection) throws IOException {
+		if (connection.m_channel.read(connection.m_bytes) < 0) {
+			throw new EOFException("closed by server");
+		}
+		connection.m_bytes.flip();
+		CoderResult result;
+		do {
+			result = connection.m_decoder.decode(connection.m_bytes, connection.m_chars, false);
+			connection.m_chars.flip();
+			this.split(connection);
+			connection.m_chars.clear();
+		} while (result.isOverflow());
+		// Keeps the bytes of an incomplete character for the next read
+		connection.m_bytes.compact();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void run() {
+		try (Selector selector = Selector.open()) {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					// Connects the endpoints which are due and waits at most
+					// until the next one is due
+					final long now = now();
+					long timeout = 0L;
+					for (final Connection connection : this.m_connections) {
+						if ((connection.m_channel == null) && ((connection.m_reconnectAt - now) <= 0)) {
+							this.connect(selector, connection);
+						}
+						if (connection.m_channel == null) {
+							final long due = Math.max(1L, connection.m_reconnectAt - now);
+							timeout = timeout == 0L ? due : Math.min(timeout, due);
+						}
+					}
+					selector.select(timeout);
+
+					final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						final SelectionKey key = keys.next();
+						keys.remove();
+						final Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isConnectable()) {
+								this.finishConnect(key, connection);
+							} else if (key.isReadable()) {
+								this.read(connection);
+							}
+						} catch (final IOException e) {
+							this.close(connection, e);
+						}
+					}
+				}
+			} finally {
+				for (final Connection connection : this.m_connections) {
+					if (connection.m_channel != null) {
+						connection.m_channel.close();
+					}
+				}
+			}
+		} catch (final IOException e) {
+			LOGGER.error("Socket reactor failed", e);
+		}
+		LOGGER.info("Socket reactor stopped");
+	}
+
+	/**
+	 * Appends the decoded characters to the current line of the connection
+	 * and passes every completed line to the listener
+	 */
+	private void split(final Connection connection) {
+		final CharBuffer chars = connection.m_chars;
+		final StringBuilder line = connection.m_line;
+		while (chars.hasRemaining()) {
+			final char c = chars.get();
+			if (c != '\n') {
+				if (line.length() < MAX_LINE_LENGTH) {
+					line.append(c);
+				} else {
+					connection.m_overflow = true;
+				}
+				continue;
+			}
+			if (connection.m_overflow) {
+				LOGGER.warn("Discarded a line of " + connection.m_endpoint + " exceeding " + MAX_LINE_LENGTH
+						+ " characters");
+			} else {
+				final String text = line.toString().trim();
+				if (!text.isEmpty()) {
+					try {
+						this.m_listener.onLine(connection.m_endpoint, text);
+					} catch (final RuntimeException e) {
+						LOGGER.error("Failed to handle the line received from " + connection.m_endpoint, e);
+					}
+				}
+			}
+			line.setLength(0);
+			connection.m_overflow = false;
+		}
+	}
+
+}
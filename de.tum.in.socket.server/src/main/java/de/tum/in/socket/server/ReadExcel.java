@@ -55,7 +55,8 @@ public class ReadExcel {
 		if (type == int.class) {
 			typedValue = (int) cell.getNumericCellValue();
 		} else if (type == double.class) {
-			typedValue = cell.getNumericCellValue();
+			typedValue = cell.getCellType() == Cell.CELL_TYPE_NUMERIC ? cell.getNumericCellValue()
+					: Double.parseDouble(formatter.formatCellValue(cell).trim());
 		} else if (type == boolean.class) {
 			typedValue = cell.getBooleanCellValue();
 		} else if (type == String.class) {
@@ -18,39 +18,39 @@ package de.tum.in.socket.server;
 import com.google.common.base.Objects;
 
 public final class RealtimeData {
-	private String force_x;
-	private String force_y;
-	private String force_z;
-	private String time;
-	private String torque_x;
-	private String torque_y;
-	private String torque_z;
-
-	public String getForce_x() {
+	private double force_x;
+	private double force_y;
+	private double force_z;
+	private double time;
+	private double torque_x;
+	private double torque_y;
+	private double torque_z;
+
+	public double getForce_x() {
 		return this.force_x;
 	}
 
-	public String getForce_y() {
+	public double getForce_y() {
 		return this.force_y;
 	}
 
-	public String getForce_z() {
+	public double getForce_z() {
 		return this.force_z;
 	}
 
-	public String getTime() {
+	public double getTime() {
 		return this.time;
 	}
 
-	public String getTorqueX() {
+	public double getTorqueX() {
 		return this.torque_x;
 	}
 
-	public String getTorqueY() {
+	public double getTorqueY() {
 		return this.torque_y;
 	}
 
-	public String getTorqueZ() {
+	public double getTorqueZ() {
 		return this.torque_z;
 	}
 
@@ -60,35 +60,35 @@ public final class RealtimeData {
 				this.torque_z);
 	}
 
-	public void setDepthCut(final String depth_of_cut) {
+	public void setDepthCut(final double depth_of_cut) {
 		this.time = depth_of_cut;
 	}
 
-	public void setForce_x(final String force_x) {
+	public void setForce_x(final double force_x) {
 		this.force_x = force_x;
 	}
 
-	public void setForce_y(final String force_y) {
+	public void setForce_y(final double force_y) {
 		this.force_y = force_y;
 	}
 
-	public void setForce_z(final String force_z) {
+	public void setForce_z(final double force_z) {
 		this.force_z = force_z;
 	}
 
-	public void setTime(final String time) {
+	public void setTime(final double time) {
 		this.time = time;
 	}
 
-	public void setTorqueX(final String torque_x) {
+	public void setTorqueX(final double torque_x) {
 		this.torque_x = torque_x;
 	}
 
-	public void setTorqueY(final String torque_y) {
+	public void setTorqueY(final double torque_y) {
 		this.torque_y = torque_y;
 	}
 
-	public void setTorqueZ(final String torque_z) {
+	public void setTorqueZ(final double torque_z) {
 		this.torque_z = torque_z;
 	}
 
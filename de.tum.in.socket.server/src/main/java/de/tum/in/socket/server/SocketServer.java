@@ -18,12 +18,12 @@ package de.tum.in.socket.server;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -94,14 +94,14 @@ public final class SocketServer {
 
 						while (!Thread.currentThread().isInterrupted()) {
 							try {
-								final ByteBuffer buf = ByteBuffer.allocate(500);
-								final CharBuffer cbuf = buf.asCharBuffer();
-								System.out.println(
-										"Broadcasting data..." + data.get(new Random().nextInt(300)).toString());
-								cbuf.put(data.get(new Random().nextInt(300)).toString());
-								cbuf.flip();
-								clientSocketChannel.write(buf);
-								buf.clear();
+								// Every record is sent as a line of comma separated
+								// name=value pairs
+								final String record = data.get(new Random().nextInt(300)).toString();
+								System.out.println("Broadcasting data..." + record);
+								final ByteBuffer buf = StandardCharsets.UTF_8.encode(record + "\n");
+								while (buf.hasRemaining()) {
+									clientSocketChannel.write(buf);
+								}
 								TimeUnit.SECONDS.sleep(3);
 							} catch (final InterruptedException e) {
 								e.printStackTrace();